@@ -245,7 +245,8 @@ public class BaseWifiService extends IWifiManager.Stub {
     }
 
     @Override
-    public List<ScanResult> getScanResults(String callingPackage, String callingFeatureId) {
+    public ParceledListSlice<ScanResult> getScanResults(String callingPackage,
+            String callingFeatureId) {
         throw new UnsupportedOperationException();
     }
 
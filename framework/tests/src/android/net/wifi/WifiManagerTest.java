@@ -133,6 +133,7 @@ import android.util.SparseArray;
 import androidx.test.filters.SmallTest;
 
 import com.android.modules.utils.HandlerExecutor;
+import com.android.modules.utils.ParceledListSlice;
 import com.android.modules.utils.build.SdkLevel;
 
 import org.junit.Before;
@@ -2435,6 +2436,20 @@ public class WifiManagerTest {
         verify(mWifiService).getPrivilegedConfiguredNetworks(any(), any(), any());
     }
 
+    /**
+     * Verify that getScanResults unwraps the list returned by WifiServiceImpl.
+     */
+    @Test
+    public void testGetScanResults() throws Exception {
+        List<ScanResult> scanResults = Arrays.asList(new ScanResult(), new ScanResult());
+        when(mWifiService.getScanResults(any(), any()))
+                .thenReturn(new ParceledListSlice<>(scanResults));
+        assertEquals(scanResults, mWifiManager.getScanResults());
+
+        when(mWifiService.getScanResults(any(), any())).thenReturn(null);
+        assertTrue(mWifiManager.getScanResults().isEmpty());
+    }
+
     /**
      * Verify the call to startRestrictingAutoJoinToSubscriptionId goes to WifiServiceImpl.
      */
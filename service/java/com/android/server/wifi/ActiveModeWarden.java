@@ -1501,6 +1501,7 @@ public class ActiveModeWarden {
         mWifiInjector.getHalDeviceManager().dump(fd, pw, args);
         pw.println("Wifi handler thread overruns");
         mWifiInjector.getWifiHandlerLocalLog().dump(fd, pw, args);
+        mWifiInjector.getWifiHandler().dump(pw);
     }
 
     @VisibleForTesting
@@ -122,6 +122,8 @@ public class AvailableNetworkNotifier {
 
     /** List of SSIDs blocklisted from recommendation. */
     private final Set<String> mBlocklistedSsids = new ArraySet<>();
+    /** Whether the blocklist changed since it was last serialized. */
+    private boolean mHasNewDataToSerialize = false;
 
     private final WifiContext mContext;
     private final Handler mHandler;
@@ -483,6 +485,7 @@ public class AvailableNetworkNotifier {
 
     private void addNetworkToBlocklist(String ssid) {
         mBlocklistedSsids.add(ssid);
+        mHasNewDataToSerialize = true;
         mWifiMetrics.setNetworkRecommenderBlocklistSize(mTag, mBlocklistedSsids.size());
         mConfigManager.saveToStore(false /* forceWrite */);
         Log.d(mTag, "Network is added to the network notification blocklist: "
@@ -496,6 +499,7 @@ public class AvailableNetworkNotifier {
         if (!mBlocklistedSsids.remove(ssid)) {
             return;
         }
+        mHasNewDataToSerialize = true;
         mWifiMetrics.setNetworkRecommenderBlocklistSize(mTag, mBlocklistedSsids.size());
         mConfigManager.saveToStore(false /* forceWrite */);
         Log.d(mTag, "Network is removed from the network notification blocklist: "
@@ -564,14 +568,24 @@ public class AvailableNetworkNotifier {
     private class AvailableNetworkNotifierStoreData implements SsidSetStoreData.DataSource {
         @Override
         public Set<String> getSsids() {
+            mHasNewDataToSerialize = false;
             return new ArraySet<>(mBlocklistedSsids);
         }
 
         @Override
         public void setSsids(Set<String> ssidList) {
+            if (!ssidList.containsAll(mBlocklistedSsids)) {
+                // Entries added before the read are not in the store yet.
+                mHasNewDataToSerialize = true;
+            }
             mBlocklistedSsids.addAll(ssidList);
             mWifiMetrics.setNetworkRecommenderBlocklistSize(mTag, mBlocklistedSsids.size());
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewDataToSerialize;
+        }
     }
 
     private class NotificationEnabledSettingObserver extends ContentObserver {
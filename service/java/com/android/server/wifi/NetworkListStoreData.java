@@ -68,6 +68,11 @@ public abstract class NetworkListStoreData implements WifiConfigStore.StoreData
      */
     private List<WifiConfiguration> mConfigurations;
 
+    /**
+     * Whether the configurations changed since they were last serialized.
+     */
+    private boolean mHasNewDataToSerialize = false;
+
     NetworkListStoreData(Context context) {
         mContext = context;
     }
@@ -98,8 +103,7 @@ public abstract class NetworkListStoreData implements WifiConfigStore.StoreData
 
     @Override
     public boolean hasNewDataToSerialize() {
-        // always persist.
-        return true;
+        return mHasNewDataToSerialize;
     }
 
     @Override
@@ -111,6 +115,14 @@ public abstract class NetworkListStoreData implements WifiConfigStore.StoreData
         mConfigurations = configs;
     }
 
+    /**
+     * Sets whether the configurations changed since they were last serialized. The section
+     * serialized in the previous write is reused when this is false.
+     */
+    public void setHasNewDataToSerialize(boolean hasNewDataToSerialize) {
+        mHasNewDataToSerialize = hasNewDataToSerialize;
+    }
+
     /**
      * An empty list will be returned if no shared configurations.
      *
@@ -25,6 +25,7 @@ import android.util.SparseArray;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -57,7 +58,7 @@ public class PmkCacheManager {
      * @return true when PMK cache is added; otherwise, false.
      */
     public boolean add(MacAddress macAddress, int networkId, MacAddress bssid,
-            long expirationTimeInSec, ArrayList<Byte> serializedEntry) {
+            long expirationTimeInSec, byte[] serializedEntry) {
         if (WifiConfiguration.INVALID_NETWORK_ID == networkId) return false;
         if (macAddress == null) {
             Log.w(TAG, "Omit PMK cache due to no valid MAC address");
@@ -161,13 +162,13 @@ public class PmkCacheManager {
      * @return A list of PMK caches associated with the network ID.
      *         If none of PMK cache is associated with the network ID, return null.
      */
-    public List<ArrayList<Byte>> get(int networkId) {
+    public List<byte[]> get(int networkId) {
         List<PmkCacheStoreData> pmkDataList = mPmkCacheEntries.get(networkId);
         if (WifiConfiguration.INVALID_NETWORK_ID == networkId) return null;
         if (null == pmkDataList) return null;
 
         final long elapseTimeInSecond = mClock.getElapsedSinceBootMillis() / 1000;
-        List<ArrayList<Byte>> dataList = new ArrayList<>();
+        List<byte[]> dataList = new ArrayList<>();
         for (PmkCacheStoreData pmkData: pmkDataList) {
             if (pmkData.isValid(elapseTimeInSecond)) {
                 dataList.add(pmkData.data);
@@ -231,10 +232,10 @@ public class PmkCacheManager {
 
         public MacAddress macAddress;
         public MacAddress bssid;
-        public ArrayList<Byte> data;
+        public byte[] data;
         public long expirationTimeInSec;
 
-        PmkCacheStoreData(MacAddress macAddr, MacAddress bssAddr, ArrayList<Byte> serializedData,
+        PmkCacheStoreData(MacAddress macAddr, MacAddress bssAddr, byte[] serializedData,
                 long timeInSec) {
             macAddress = macAddr;
             bssid = bssAddr;
@@ -259,13 +260,13 @@ public class PmkCacheManager {
             PmkCacheStoreData storeData = (PmkCacheStoreData) o;
             return expirationTimeInSec == storeData.expirationTimeInSec
                     && Objects.equals(macAddress, storeData.macAddress)
-                    && Objects.equals(data, storeData.data)
+                    && Arrays.equals(data, storeData.data)
                     && Objects.equals(bssid, storeData.bssid);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(macAddress, data, expirationTimeInSec, bssid);
+            return Objects.hash(macAddress, Arrays.hashCode(data), expirationTimeInSec, bssid);
         }
     }
 }
@@ -41,6 +41,7 @@ public class RandomizedMacStoreData implements WifiConfigStore.StoreData {
     private static final String XML_TAG_MAC_MAP = "MacMapEntry";
 
     private Map<String, String> mMacMapping;
+    private boolean mHasNewDataToSerialize = false;
 
     RandomizedMacStoreData() {}
 
@@ -88,8 +89,7 @@ public class RandomizedMacStoreData implements WifiConfigStore.StoreData {
 
     @Override
     public boolean hasNewDataToSerialize() {
-        // always persist.
-        return true;
+        return mHasNewDataToSerialize;
     }
 
     @Override
@@ -122,5 +122,13 @@ public class RandomizedMacStoreData implements WifiConfigStore.StoreData {
     public void setMacMapping(Map<String, String> macMapping) {
         mMacMapping = macMapping;
     }
+
+    /**
+     * Sets whether the MAC address mapping changed since it was last serialized. The section
+     * serialized in the previous write is reused when this is false.
+     */
+    public void setHasNewDataToSerialize(boolean hasNewDataToSerialize) {
+        mHasNewDataToSerialize = hasNewDataToSerialize;
+    }
 }
 
@@ -19,36 +19,174 @@ package com.android.server.wifi;
 import static com.android.server.wifi.proto.WifiStatsLog.WIFI_THREAD_TASK_EXECUTED;
 
 import android.annotation.NonNull;
-import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
-import android.os.SystemClock;
 import android.os.Trace;
+import android.util.ArrayMap;
 import android.util.LocalLog;
+import android.util.SparseArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.HandlerExecutor;
 import com.android.server.wifi.proto.WifiStatsLog;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * RunnerHandler tracks all the Runnable jobs posted to the handler for the running time and
  * monitor if the running time exceeds the expected threshold.
  *
+ * The signature of a job identifies its call site. Signatures are cached by the class of the
+ * posted Runnable (or by the message what for plain messages), so posting a message does not walk
+ * the stack or allocate once the class has been seen. A lambda or anonymous class is declared at a
+ * single place in the source, so the stack is walked once, on its first post, to name the method
+ * posting it. The stack is only walked while the signature is used for tracing or for overrun
+ * detection (a positive running time threshold); otherwise a lambda is recorded under its class
+ * name until it is posted again with either of them enabled. A named Runnable class may be posted
+ * from many call sites and is recorded under its class name instead, without walking the stack.
+ * A lambda stored and posted from several methods is recorded under the first of them.
  */
 public class RunnerHandler extends Handler {
     private static final String TAG = "WifiThreadRunner";
 
-    private static final String KEY_SIGNATURE = "KEY_RUNNER_HANDLER_SIGNATURE";
-    private static final String KEY_WHEN = "KEY_RUNNER_HANDLER_WHEN";
     private static final int METRICS_THRESHOLD_MILLIS = 100;
+    private static final String UNKNOWN_SIGNATURE = "<UNKNOWN>";
+
+    // Bucket boundaries of the per-signature run time histogram, in microseconds.
+    private static final int[] RUN_TIME_BUCKET_BOUNDARIES_MICROS =
+            {100, 500, 1000, 5000, 10000, 50000, 100000, 500000};
+    // Bucket boundaries of the per-signature schedule latency histogram, in milliseconds.
+    private static final int[] SCHEDULE_LATENCY_BUCKET_BOUNDARIES_MILLIS =
+            {1, 5, 10, 50, 100, 500, 1000, 4000};
+    // Number of signatures printed by dump(), sorted by cumulative run time.
+    private static final int DUMP_TOP_N = 20;
+
+    /**
+     * Implemented by wrapper Runnables which are posted on behalf of many call sites (e.g. the
+     * blocking runnable of {@link WifiThreadRunner}), so that the signature reflects the wrapped
+     * task rather than the wrapper.
+     */
+    interface CallSiteProvider {
+        /** Returns the object whose class identifies the call site of the wrapped task. */
+        @NonNull Object getCallSite();
+    }
+
+    /**
+     * Wraps a Runnable posted to the front of the queue, which carries no "when", to record
+     * when it was enqueued.
+     */
+    private static final class FrontOfQueueRunnable implements Runnable, CallSiteProvider {
+        final Runnable mTask;
+        final long mEnqueueTimeMillis;
+
+        FrontOfQueueRunnable(Runnable task, long enqueueTimeMillis) {
+            mTask = task;
+            mEnqueueTimeMillis = enqueueTimeMillis;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
+        }
+
+        @Override
+        public Object getCallSite() {
+            return mTask instanceof CallSiteProvider
+                    ? ((CallSiteProvider) mTask).getCallSite() : mTask;
+        }
+    }
+
+    /**
+     * Aggregated execution stats of the jobs sharing a signature. Buckets are fixed arrays so
+     * that recording a job does not allocate.
+     */
+    @VisibleForTesting
+    static final class TaskStats {
+        final String mSignature;
+        int mCount;
+        long mTotalRunTimeMicros;
+        long mMaxRunTimeMicros;
+        long mTotalScheduleLatencyMillis;
+        final int[] mRunTimeBuckets = new int[RUN_TIME_BUCKET_BOUNDARIES_MICROS.length + 1];
+        final int[] mScheduleLatencyBuckets =
+                new int[SCHEDULE_LATENCY_BUCKET_BOUNDARIES_MILLIS.length + 1];
+
+        TaskStats(String signature) {
+            mSignature = signature;
+        }
+
+        void record(long runTimeMicros, long scheduleLatencyMillis) {
+            mCount++;
+            mTotalRunTimeMicros += runTimeMicros;
+            mMaxRunTimeMicros = Math.max(mMaxRunTimeMicros, runTimeMicros);
+            mTotalScheduleLatencyMillis += scheduleLatencyMillis;
+            mRunTimeBuckets[getBucket(RUN_TIME_BUCKET_BOUNDARIES_MICROS, runTimeMicros)]++;
+            mScheduleLatencyBuckets[getBucket(SCHEDULE_LATENCY_BUCKET_BOUNDARIES_MILLIS,
+                    scheduleLatencyMillis)]++;
+        }
+
+        private static int getBucket(int[] boundaries, long value) {
+            int bucket = 0;
+            while (bucket < boundaries.length && value >= boundaries[bucket]) {
+                bucket++;
+            }
+            return bucket;
+        }
+
+        private static String bucketsToString(int[] boundaries, int[] buckets) {
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] == 0) continue;
+                if (sb.length() > 1) sb.append(", ");
+                if (i == boundaries.length) {
+                    sb.append(">=").append(boundaries[i - 1]);
+                } else {
+                    sb.append('<').append(boundaries[i]);
+                }
+                sb.append('=').append(buckets[i]);
+            }
+            return sb.append('}').toString();
+        }
+
+        @Override
+        public String toString() {
+            return mSignature
+                    + ": count=" + mCount
+                    + " totalRunTimeUs=" + mTotalRunTimeMicros
+                    + " avgRunTimeUs=" + (mCount == 0 ? 0 : mTotalRunTimeMicros / mCount)
+                    + " maxRunTimeUs=" + mMaxRunTimeMicros
+                    + " avgScheduleLatencyMs="
+                    + (mCount == 0 ? 0 : mTotalScheduleLatencyMillis / mCount)
+                    + "\n      runTimeUs=" + bucketsToString(
+                            RUN_TIME_BUCKET_BOUNDARIES_MICROS, mRunTimeBuckets)
+                    + "\n      scheduleLatencyMs=" + bucketsToString(
+                            SCHEDULE_LATENCY_BUCKET_BOUNDARIES_MILLIS, mScheduleLatencyBuckets);
+        }
+    }
 
     private final int mRunningTimeThresholdInMilliseconds;
+    private final Clock mClock;
     private Set<String> mIgnoredClasses = new HashSet<>();
     private Set<String> mIgnoredMethods = new HashSet<>();
+    // Call site class -> signature. Written from any posting thread.
+    private final ConcurrentHashMap<Class<?>, String> mCallSiteSignatures =
+            new ConcurrentHashMap<>();
+    // Lambda or anonymous class -> class name, used until the caller of the class is looked up
+    // on the stack. Only accessed on the handler thread.
+    private final ArrayMap<Class<?>, String> mUnresolvedClassSignatures = new ArrayMap<>();
+    // Message what -> signature, only accessed on the handler thread.
+    private final SparseArray<String> mWhatSignatures = new SparseArray<>();
+    // Signature -> stats, only accessed on the handler thread.
+    private final ArrayMap<String, TaskStats> mTaskStats = new ArrayMap<>();
+    private long mTaskStatsStartTimeMillis;
 
     // TODO: b/246623192 Add Wifi metric for Runner state overruns.
     private final LocalLog mLocalLog;
@@ -57,12 +195,26 @@ public class RunnerHandler extends Handler {
      * The Runner handler Constructor
      *
      * @param looper looper for the handler
-     * @param threshold the running time threshold in milliseconds
+     * @param threshold the running time threshold in milliseconds, 0 to disable overrun detection
      */
     public RunnerHandler(Looper looper, int threshold, @NonNull LocalLog localLog) {
+        this(looper, threshold, localLog, new Clock());
+    }
+
+    /**
+     * The Runner handler Constructor
+     *
+     * @param looper looper for the handler
+     * @param threshold the running time threshold in milliseconds, 0 to disable overrun detection
+     * @param clock clock used to time the jobs
+     */
+    public RunnerHandler(Looper looper, int threshold, @NonNull LocalLog localLog,
+            @NonNull Clock clock) {
         super(looper);
         mRunningTimeThresholdInMilliseconds = threshold;
         mLocalLog = localLog;
+        mClock = clock;
+        mTaskStatsStartTimeMillis = mClock.getUptimeSinceBootMillis();
         mIgnoredClasses.add(WifiThreadRunner.class.getName());
         mIgnoredClasses.add(WifiThreadRunner.class.getName() + "$BlockingRunnable");
         mIgnoredClasses.add(RunnerHandler.class.getName());
@@ -73,7 +225,7 @@ public class RunnerHandler extends Handler {
         mIgnoredMethods.add("handleMessage");
     }
 
-    private String getSignature(StackTraceElement[] elements, Runnable callback) {
+    private String getSignature(StackTraceElement[] elements, Object callback) {
         StringBuilder sb = new StringBuilder();
         for (StackTraceElement e : elements) {
             // Go through the stack elements to find out the caller who schedule the job.
@@ -92,51 +244,141 @@ public class RunnerHandler extends Handler {
             // If we can't identify the caller from the stack trace, then we will use the symbol
             // of the lambada function as the signature of the caller.
             if (HandlerThread.class.getName().equals(e.getClassName())) {
-                sb.append(callback);
+                sb.append(getClassSignature(callback));
                 break;
             }
         }
-        return sb.length() == 0 ? "<UNKNOWN>" : sb.toString();
+        return sb.length() == 0 ? UNKNOWN_SIGNATURE : sb.toString();
+    }
+
+    private static String getClassSignature(Object callback) {
+        String name = callback.getClass().getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static Object getCallSite(Runnable callback) {
+        return callback instanceof CallSiteProvider
+                ? ((CallSiteProvider) callback).getCallSite() : callback;
+    }
+
+    /**
+     * Whether all the instances of {@code clazz} are created at a single place in the source, so
+     * that the caller found on the stack of the first post can stand for all of them.
+     */
+    private static boolean isSingleCallSiteClass(@NonNull Class<?> clazz) {
+        return clazz.isSynthetic() || clazz.isAnonymousClass()
+                || clazz.getName().contains("$$Lambda")
+                || clazz.getName().contains("$$ExternalSyntheticLambda");
+    }
+
+    private boolean isOverrunDetectionEnabled() {
+        return mRunningTimeThresholdInMilliseconds > 0;
+    }
+
+    /**
+     * Whether the caller of a lambda or anonymous class is worth looking up on the stack, i.e.
+     * the signature is used for tracing or for overrun detection.
+     */
+    private boolean shouldResolveCallerFromStack() {
+        return Trace.isEnabled() || isOverrunDetectionEnabled();
+    }
+
+    /**
+     * Makes sure the signature of the call site posting {@code callback} is cached. The stack is
+     * only walked the first time a lambda or anonymous class is posted while
+     * {@link #shouldResolveCallerFromStack()}.
+     */
+    private void resolveCallSite(@NonNull Runnable callback) {
+        Object callSite = getCallSite(callback);
+        Class<?> key = callSite.getClass();
+        if (mCallSiteSignatures.containsKey(key)) return;
+        if (!isSingleCallSiteClass(key)) {
+            mCallSiteSignatures.putIfAbsent(key, getClassSignature(callSite));
+        } else if (shouldResolveCallerFromStack()) {
+            mCallSiteSignatures.putIfAbsent(key,
+                    getSignature(new Throwable("RunnerHandler:").getStackTrace(), callSite));
+        }
+    }
+
+    @NonNull
+    private String getSignature(@NonNull Message msg) {
+        Runnable callback = msg.getCallback();
+        if (callback == null) {
+            String signature = mWhatSignatures.get(msg.what);
+            if (signature == null) {
+                signature = getClassSignature(this) + "#what=" + msg.what;
+                mWhatSignatures.put(msg.what, signature);
+            }
+            return signature;
+        }
+        Object callSite = getCallSite(callback);
+        Class<?> key = callSite.getClass();
+        String signature = mCallSiteSignatures.get(key);
+        if (signature != null) {
+            return signature;
+        }
+        if (!isSingleCallSiteClass(key)) {
+            // Posted without going through sendMessageAtTime, e.g. sendMessageAtFrontOfQueue.
+            signature = getClassSignature(callSite);
+            mCallSiteSignatures.putIfAbsent(key, signature);
+            return signature;
+        }
+        // The caller was not looked up, keep the class name until it is.
+        signature = mUnresolvedClassSignatures.get(key);
+        if (signature == null) {
+            signature = getClassSignature(callSite);
+            mUnresolvedClassSignatures.put(key, signature);
+        }
+        return signature;
     }
 
     @Override
     public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
-        String signature = getSignature(new Throwable("RunnerHandler:").getStackTrace(),
-                msg.getCallback());
-        Bundle bundle = msg.getData();
-        bundle.putString(KEY_SIGNATURE, signature);
+        Runnable callback = msg.getCallback();
+        if (callback != null) {
+            resolveCallSite(callback);
+        }
         return super.sendMessageAtTime(msg, uptimeMillis);
     }
 
     @Override
     public void dispatchMessage(@NonNull Message msg) {
-        final Bundle bundle = msg.getData();
-        final String signature = bundle.getString(KEY_SIGNATURE);
-        if (signature != null) {
+        final String signature = getSignature(msg);
+        final boolean tracing = Trace.isEnabled();
+        if (tracing) {
             Trace.traceBegin(Trace.TRACE_TAG_NETWORK, signature);
         }
-        // The message sent to front of the queue has when=0, get from the bundle in that case.
-        final long when = msg.getWhen() != 0 ? msg.getWhen() : bundle.getLong(KEY_WHEN);
-        final long start = SystemClock.uptimeMillis();
+        // The message sent to front of the queue has when=0, get it from the wrapper instead.
+        final Runnable callback = msg.getCallback();
+        final long when = msg.getWhen() != 0 || !(callback instanceof FrontOfQueueRunnable)
+                ? msg.getWhen() : ((FrontOfQueueRunnable) callback).mEnqueueTimeMillis;
+        final long start = mClock.getUptimeSinceBootMillis();
+        final long startNanos = mClock.getElapsedSinceBootNanos();
         final long scheduleLatency = start - when;
         super.dispatchMessage(msg);
-        if (signature != null) {
+        if (tracing) {
             Trace.traceEnd(Trace.TRACE_TAG_NETWORK);
         }
-        final long runTime = SystemClock.uptimeMillis() - start;
-        final String signatureToLog = signature != null ? signature : "unknown";
-        if (runTime > mRunningTimeThresholdInMilliseconds) {
-            mLocalLog.log(signatureToLog + " was running for " + runTime);
+        final long runTimeMicros = (mClock.getElapsedSinceBootNanos() - startNanos) / 1000;
+        final long runTime = mClock.getUptimeSinceBootMillis() - start;
+        TaskStats stats = mTaskStats.get(signature);
+        if (stats == null) {
+            stats = new TaskStats(signature);
+            mTaskStats.put(signature, stats);
+        }
+        stats.record(runTimeMicros, scheduleLatency);
+        if (isOverrunDetectionEnabled() && runTime > mRunningTimeThresholdInMilliseconds) {
+            mLocalLog.log(signature + " was running for " + runTime);
         }
         if (scheduleLatency > WifiThreadRunner.getScissorsTimeoutThreshold()) {
-            mLocalLog.log(signatureToLog + " schedule latency " + scheduleLatency + " ms");
+            mLocalLog.log(signature + " schedule latency " + scheduleLatency + " ms");
         }
         if (runTime > METRICS_THRESHOLD_MILLIS || scheduleLatency > METRICS_THRESHOLD_MILLIS) {
             WifiStatsLog.write(
                     WIFI_THREAD_TASK_EXECUTED,
                     (int) runTime,
                     (int) scheduleLatency,
-                    signatureToLog);
+                    signature);
         }
     }
 
@@ -148,12 +390,58 @@ public class RunnerHandler extends Handler {
      * @return true when success
      */
     public final boolean postToFront(@NonNull Runnable r) {
-        Message msg = Message.obtain(this, r);
-        String signature = getSignature(new Throwable("RunnerHandler:").getStackTrace(),
-                msg.getCallback());
-        Bundle bundle = msg.getData();
-        bundle.putString(KEY_SIGNATURE, signature);
-        bundle.putLong(KEY_WHEN, SystemClock.uptimeMillis());
-        return sendMessageAtFrontOfQueue(msg);
+        resolveCallSite(r);
+        return sendMessageAtFrontOfQueue(Message.obtain(this,
+                new FrontOfQueueRunnable(r, mClock.getUptimeSinceBootMillis())));
+    }
+
+    /**
+     * Returns the aggregated stats of the {@code topN} signatures with the largest cumulative run
+     * time, most expensive first. Must be called on the handler thread.
+     */
+    @VisibleForTesting
+    List<TaskStats> getTopTaskStats(int topN) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("topN must be positive: " + topN);
+        }
+        List<TaskStats> stats = new ArrayList<>(mTaskStats.values());
+        stats.sort(Comparator.comparingLong((TaskStats s) -> s.mTotalRunTimeMicros).reversed());
+        return topN < stats.size() ? stats.subList(0, topN) : stats;
+    }
+
+    /**
+     * Clears the aggregated per-signature stats. Must be called on the handler thread.
+     */
+    public void resetTaskStats() {
+        mTaskStats.clear();
+        mTaskStatsStartTimeMillis = mClock.getUptimeSinceBootMillis();
+    }
+
+    /**
+     * Dumps the aggregated stats of the {@code topN} signatures with the largest cumulative run
+     * time. Must be called on the handler thread.
+     */
+    public void dumpTaskStats(@NonNull PrintWriter pw, int topN) {
+        long totalRunTimeMicros = 0;
+        int totalCount = 0;
+        for (int i = 0; i < mTaskStats.size(); i++) {
+            totalRunTimeMicros += mTaskStats.valueAt(i).mTotalRunTimeMicros;
+            totalCount += mTaskStats.valueAt(i).mCount;
+        }
+        pw.println("Wifi handler thread task stats over the last "
+                + (mClock.getUptimeSinceBootMillis() - mTaskStatsStartTimeMillis) + " ms: "
+                + mTaskStats.size() + " signatures, " + totalCount + " tasks, "
+                + totalRunTimeMicros + " us total run time");
+        for (TaskStats stats : getTopTaskStats(topN)) {
+            pw.println("  " + stats);
+        }
+    }
+
+    /**
+     * Dumps the aggregated stats of the most expensive signatures. Must be called on the handler
+     * thread.
+     */
+    public void dump(@NonNull PrintWriter pw) {
+        dumpTaskStats(pw, DUMP_TOP_N);
     }
 }
@@ -20,33 +20,65 @@ import android.annotation.NonNull;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
 
+import android.util.Log;
+
 import com.android.server.wifi.hotspot2.NetworkDetail;
+import com.android.server.wifi.hotspot2.Utils;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Maps BSSIDs to their individual ScanDetails for a given WifiConfiguration.
+ *
+ * Entries are keyed by the BSSID as a {@code long} in a chained hash table and are linked in the
+ * order they were last put, so that lookup, insertion, eviction of the least recently put entry
+ * and retrieval of the most recent entry are all O(1) and do not box or copy.
  */
 public class ScanDetailCache {
 
     private static final String TAG = "ScanDetailCache";
     private static final boolean DBG = false;
+    // Most networks are only seen through a handful of BSSIDs, start with a small table.
+    private static final int INITIAL_TABLE_SIZE = 8;
+
+    private static final class Node {
+        final long mBssid;
+        ScanDetail mScanDetail;
+        // Next node in the same hash bucket.
+        Node mHashNext;
+        // Neighbours in put order, mPrev is older and mNext is newer.
+        Node mPrev;
+        Node mNext;
+
+        Node(long bssid, ScanDetail scanDetail) {
+            mBssid = bssid;
+            mScanDetail = scanDetail;
+        }
+    }
 
     private final WifiConfiguration mConfig;
     private final int mMaxSize;
     private final int mTrimSize;
-    private final HashMap<String, ScanDetail> mMap;
+    private final int mMaxTableSize;
+    private Node[] mTable;
+    private int mSize;
+    // Least and most recently put nodes.
+    private Node mOldest;
+    private Node mNewest;
+    // Most recent entry as defined by compareRecency(), or null if it has to be recomputed.
+    private Node mMostRecent;
 
     /**
      * Scan Detail cache associated with each configured network.
      *
-     * The cache size is trimmed down to |trimSize| once it crosses the provided |maxSize|.
-     * Since this operation is relatively expensive, ensure that |maxSize| and |trimSize| are not
-     * too close to each other. |trimSize| should always be <= |maxSize|.
+     * The cache size is trimmed down to |trimSize| once it crosses the provided |maxSize|, by
+     * evicting the entries which were put least recently.
+     * |trimSize| should always be <= |maxSize|.
      *
      * @param config   WifiConfiguration object corresponding to the network.
      * @param maxSize  Max size desired for the cache.
@@ -56,16 +88,155 @@ public class ScanDetailCache {
         mConfig = config;
         mMaxSize = maxSize;
         mTrimSize = trimSize;
-        mMap = new HashMap(16, 0.75f);
+        // Power of two table with a load factor of at most 0.5 at |maxSize|. It starts small and
+        // doubles as entries are put, up to this size.
+        mMaxTableSize = Integer.highestOneBit(Math.max(maxSize, 8) - 1) << 2;
+        mTable = new Node[Math.min(INITIAL_TABLE_SIZE, mMaxTableSize)];
+    }
+
+    private int bucketOf(long bssid) {
+        int h = (int) (bssid ^ (bssid >>> 32)) * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (mTable.length - 1);
+    }
+
+    /**
+     * Double the size of the table if it is more than half full, unless it already has the size
+     * needed for |maxSize| entries.
+     */
+    private void growTableIfNeeded() {
+        if (mSize <= mTable.length / 2 || mTable.length >= mMaxTableSize) {
+            return;
+        }
+        Node[] oldTable = mTable;
+        mTable = new Node[oldTable.length * 2];
+        for (Node head : oldTable) {
+            Node n = head;
+            while (n != null) {
+                Node next = n.mHashNext;
+                int bucket = bucketOf(n.mBssid);
+                n.mHashNext = mTable[bucket];
+                mTable[bucket] = n;
+                n = next;
+            }
+        }
+    }
+
+    private Node find(long bssid) {
+        for (Node n = mTable[bucketOf(bssid)]; n != null; n = n.mHashNext) {
+            if (n.mBssid == bssid) return n;
+        }
+        return null;
+    }
+
+    private static long toBssidKey(@NonNull ScanDetail scanDetail) {
+        NetworkDetail networkDetail = scanDetail.getNetworkDetail();
+        if (networkDetail != null) {
+            return networkDetail.getBSSID();
+        }
+        return Utils.parseMac(scanDetail.getScanResult().BSSID);
+    }
+
+    private void linkNewest(Node n) {
+        n.mPrev = mNewest;
+        n.mNext = null;
+        if (mNewest != null) {
+            mNewest.mNext = n;
+        } else {
+            mOldest = n;
+        }
+        mNewest = n;
+    }
+
+    private void unlink(Node n) {
+        if (n.mPrev != null) {
+            n.mPrev.mNext = n.mNext;
+        } else {
+            mOldest = n.mNext;
+        }
+        if (n.mNext != null) {
+            n.mNext.mPrev = n.mPrev;
+        } else {
+            mNewest = n.mPrev;
+        }
+        n.mPrev = null;
+        n.mNext = null;
+    }
+
+    private void removeNode(Node n) {
+        int bucket = bucketOf(n.mBssid);
+        Node prev = null;
+        for (Node cur = mTable[bucket]; cur != null; prev = cur, cur = cur.mHashNext) {
+            if (cur != n) continue;
+            if (prev == null) {
+                mTable[bucket] = cur.mHashNext;
+            } else {
+                prev.mHashNext = cur.mHashNext;
+            }
+            break;
+        }
+        unlink(n);
+        mSize--;
+        if (n == mMostRecent) {
+            mMostRecent = null;
+        }
     }
 
     void put(ScanDetail scanDetail) {
-        // First check if we have reached |maxSize|. if yes, trim it down to |trimSize|.
-        if (mMap.size() >= mMaxSize) {
-            trim();
+        final long bssid;
+        try {
+            bssid = toBssidKey(scanDetail);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring scan detail with invalid BSSID: " + e.getMessage());
+            return;
+        }
+        Node node = find(bssid);
+        if (node != null) {
+            unlink(node);
+            node.mScanDetail = scanDetail;
+            if (node == mMostRecent) {
+                // The entry may have become older or weaker, recompute on demand.
+                mMostRecent = null;
+            }
+        } else {
+            // First check if we have reached |maxSize|. if yes, trim it down to |trimSize|.
+            if (mSize >= mMaxSize) {
+                trim();
+            }
+            node = new Node(bssid, scanDetail);
+            mSize++;
+            growTableIfNeeded();
+            int bucket = bucketOf(bssid);
+            node.mHashNext = mTable[bucket];
+            mTable[bucket] = node;
         }
+        linkNewest(node);
+        if (mMostRecent != null && compareRecency(scanDetail, mMostRecent.mScanDetail) < 0) {
+            mMostRecent = node;
+        } else if (mSize == 1) {
+            mMostRecent = node;
+        }
+    }
 
-        mMap.put(scanDetail.getBSSIDString(), scanDetail);
+    /**
+     * Notify the cache that the ScanResult of a cached ScanDetail was updated in place (e.g. with
+     * a newer timestamp and RSSI), so that it is treated as the most recently put entry and is no
+     * longer the first one evicted, and the most recent entry is recomputed on demand.
+     *
+     * @param scanDetail the updated ScanDetail, ignored if it is not the cached instance.
+     */
+    void onScanDetailUpdated(@NonNull ScanDetail scanDetail) {
+        final Node node;
+        try {
+            node = find(toBssidKey(scanDetail));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (node == null || node.mScanDetail != scanDetail) {
+            return;
+        }
+        unlink(node);
+        linkNewest(node);
+        mMostRecent = null;
     }
 
     /**
@@ -86,15 +257,39 @@ public class ScanDetailCache {
      * @return {@code null} if no match ScanDetail is found.
      */
     public ScanDetail getScanDetail(@NonNull String bssid) {
-        return mMap.get(bssid);
+        if (bssid == null) return null;
+        try {
+            return getScanDetail(Utils.parseMac(bssid));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get ScanDetail object corresponding to the provided BSSID.
+     *
+     * @param bssid provided BSSID, as returned by {@link NetworkDetail#getBSSID()}
+     * @return {@code null} if no match ScanDetail is found.
+     */
+    public ScanDetail getScanDetail(long bssid) {
+        Node node = find(bssid);
+        return node == null ? null : node.mScanDetail;
     }
 
     void remove(@NonNull String bssid) {
-        mMap.remove(bssid);
+        final Node node;
+        try {
+            node = find(Utils.parseMac(bssid));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        if (node != null) {
+            removeNode(node);
+        }
     }
 
     int size() {
-        return mMap.size();
+        return mSize;
     }
 
     boolean isEmpty() {
@@ -102,55 +297,85 @@ public class ScanDetailCache {
     }
 
     Collection<String> keySet() {
-        return mMap.keySet();
+        List<String> keys = new ArrayList<>(mSize);
+        for (Node n = mOldest; n != null; n = n.mNext) {
+            keys.add(n.mScanDetail.getBSSIDString());
+        }
+        return keys;
     }
 
+    /**
+     * Returns a read-only view of the cached ScanDetails, from least to most recently put.
+     */
     Collection<ScanDetail> values() {
-        return mMap.values();
+        return new AbstractCollection<ScanDetail>() {
+            @Override
+            public Iterator<ScanDetail> iterator() {
+                return new Iterator<ScanDetail>() {
+                    private Node mNextNode = mOldest;
+
+                    @Override
+                    public boolean hasNext() {
+                        return mNextNode != null;
+                    }
+
+                    @Override
+                    public ScanDetail next() {
+                        if (mNextNode == null) {
+                            throw new NoSuchElementException();
+                        }
+                        ScanDetail scanDetail = mNextNode.mScanDetail;
+                        mNextNode = mNextNode.mNext;
+                        return scanDetail;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+        };
     }
 
     /**
-     * Method to reduce the cache to |mTrimSize| size by removing the oldest entries.
-     * TODO: Investigate if this method can be further optimized.
+     * Method to reduce the cache to |mTrimSize| size by removing the least recently put entries.
      */
     private void trim() {
-        int currentSize = mMap.size();
-        if (currentSize < mTrimSize) {
-            return; // Nothing to trim
-        }
-        ArrayList<ScanDetail> list = new ArrayList<ScanDetail>(mMap.values());
-        if (list.size() != 0) {
-            // Sort by ascending timestamp (oldest scan results first)
-            Collections.sort(list, new Comparator() {
-                public int compare(Object o1, Object o2) {
-                    ScanDetail a = (ScanDetail) o1;
-                    ScanDetail b = (ScanDetail) o2;
-                    if (a.getSeen() > b.getSeen()) {
-                        return 1;
-                    }
-                    if (a.getSeen() < b.getSeen()) {
-                        return -1;
-                    }
-                    return a.getBSSIDString().compareTo(b.getBSSIDString());
-                }
-            });
+        while (mSize > mTrimSize && mOldest != null) {
+            removeNode(mOldest);
+        }
+    }
+
+    /**
+     * Orders ScanDetails by descending timestamp, followed by descending RSSI, followed by
+     * BSSID. Returns a negative value if |a| is more recent than |b|.
+     */
+    private static int compareRecency(ScanDetail d1, ScanDetail d2) {
+        ScanResult a = d1.getScanResult();
+        ScanResult b = d2.getScanResult();
+        if (a.seen != b.seen) {
+            return a.seen > b.seen ? -1 : 1;
         }
-        for (int i = 0; i < currentSize - mTrimSize; i++) {
-            // Remove oldest results from scan cache
-            ScanDetail result = list.get(i);
-            mMap.remove(result.getBSSIDString());
+        if (a.level != b.level) {
+            return a.level > b.level ? -1 : 1;
         }
+        return a.BSSID.compareTo(b.BSSID);
     }
 
     /**
      * Return the most recent ScanResult for this network, or null if non exists.
      */
     public ScanResult getMostRecentScanResult() {
-        ArrayList<ScanDetail> list = sort();
-        if (list.size() == 0) {
-            return null;
+        if (mMostRecent == null) {
+            for (Node n = mOldest; n != null; n = n.mNext) {
+                if (mMostRecent == null
+                        || compareRecency(n.mScanDetail, mMostRecent.mScanDetail) < 0) {
+                    mMostRecent = n;
+                }
+            }
         }
-        return list.get(0).getScanResult();
+        return mMostRecent == null ? null : mMostRecent.mScanDetail.getScanResult();
     }
 
     /**
@@ -159,28 +384,8 @@ public class ScanDetailCache {
      * @hide
      **/
     private ArrayList<ScanDetail> sort() {
-        ArrayList<ScanDetail> list = new ArrayList<ScanDetail>(mMap.values());
-        if (list.size() != 0) {
-            Collections.sort(list, new Comparator() {
-                public int compare(Object o1, Object o2) {
-                    ScanResult a = ((ScanDetail) o1).getScanResult();
-                    ScanResult b = ((ScanDetail) o2).getScanResult();
-                    if (a.seen > b.seen) {
-                        return -1;
-                    }
-                    if (a.seen < b.seen) {
-                        return 1;
-                    }
-                    if (a.level > b.level) {
-                        return -1;
-                    }
-                    if (a.level < b.level) {
-                        return 1;
-                    }
-                    return a.BSSID.compareTo(b.BSSID);
-                }
-            });
-        }
+        ArrayList<ScanDetail> list = new ArrayList<ScanDetail>(values());
+        list.sort(ScanDetailCache::compareRecency);
         return list;
     }
 
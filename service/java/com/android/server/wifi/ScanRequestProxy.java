@@ -50,6 +50,7 @@ import com.android.server.wifi.util.WifiPermissionsUtil;
 import com.android.wifi.resources.R;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -83,6 +84,15 @@ import javax.annotation.concurrent.NotThreadSafe;
 public class ScanRequestProxy {
     private static final String TAG = "WifiScanRequestProxy";
 
+    // Security classes indexed by |mSecurityClassesBySsid|.
+    private static final int SECURITY_CLASS_PSK_ONLY = 1 << 0;
+    private static final int SECURITY_CLASS_SAE_ONLY = 1 << 1;
+    private static final int SECURITY_CLASS_PSK_SAE_TRANSITION = 1 << 2;
+    private static final int SECURITY_CLASS_OPEN_ONLY = 1 << 3;
+    private static final int SECURITY_CLASS_OWE_ONLY = 1 << 4;
+    private static final int SECURITY_CLASS_WPA2_ENTERPRISE_ONLY = 1 << 5;
+    private static final int SECURITY_CLASS_WPA3_ENTERPRISE_ONLY = 1 << 6;
+
     @VisibleForTesting
     public static final int SCAN_REQUEST_THROTTLE_TIME_WINDOW_FG_APPS_MS = 120 * 1000;
     @VisibleForTesting
@@ -127,6 +137,12 @@ public class ScanRequestProxy {
     // Partial scan results cached since the last full single scan request.
     private final LruCache<String, ScanResult> mPartialScanCache =
             new LruCache<>(PARTIAL_SCAN_CACHE_SIZE);
+    // Immutable view of the combined full & partial scan caches. Republished on the handler
+    // thread whenever the caches change, so it can be read from any thread without locking.
+    private volatile List<ScanResult> mScanResultsSnapshot = Collections.emptyList();
+    // Security classes seen in |mScanResultsSnapshot| for each quoted SSID, as a bitmask of
+    // SECURITY_CLASS_* values. Rebuilt along with the snapshot, see publishScanResultsSnapshot().
+    private Map<String, Integer> mSecurityClassesBySsid = Collections.emptyMap();
     // external ScanResultCallback tracker
     private final RemoteCallbackList<IScanResultsCallback> mRegisteredScanResultsCallbacks;
     private class GlobalScanListener implements WifiScanner.ScanListener {
@@ -185,6 +201,7 @@ public class ScanRequestProxy {
                     mPartialScanCache.put(s.BSSID, s);
                 }
             }
+            publishScanResultsSnapshot();
             if (isFullBandScan) {
                 // Only trigger broadcasts for full scans
                 sendScanResultBroadcast(true);
@@ -570,7 +587,78 @@ public class ScanRequestProxy {
      */
     public List<ScanResult> getScanResults() {
         // return a copy to prevent external modification
-        return new ArrayList<>(combineScanResultsCache().values());
+        return new ArrayList<>(mScanResultsSnapshot);
+    }
+
+    /**
+     * Same as {@link #getScanResults()}, but returns the last published immutable list instead
+     * of a copy. Unlike the other methods of this class, this may be invoked from any thread.
+     *
+     * @return the unmodifiable list of results
+     */
+    public @NonNull List<ScanResult> getScanResultsSnapshot() {
+        return mScanResultsSnapshot;
+    }
+
+    /**
+     * Republish the snapshot and the security class index from the scan caches. Both are rebuilt
+     * from scratch rather than updated from the scan delta: the snapshot has to be copied anyway
+     * to stay immutable, the index is one more pass over the same bounded list, and a bitmask
+     * index can't drop the classes of results evicted from the caches.
+     */
+    private void publishScanResultsSnapshot() {
+        List<ScanResult> scanResults = new ArrayList<>(combineScanResultsCache().values());
+        mSecurityClassesBySsid = buildSecurityClassesBySsid(scanResults);
+        mScanResultsSnapshot = Collections.unmodifiableList(scanResults);
+    }
+
+    private static Map<String, Integer> buildSecurityClassesBySsid(List<ScanResult> scanResults) {
+        Map<String, Integer> securityClassesBySsid = new HashMap<>();
+        for (ScanResult r : scanResults) {
+            if (r.getWifiSsid() != null) {
+                int securityClasses = 0;
+                if (ScanResultUtil.isScanResultForPskOnlyNetwork(r)) {
+                    securityClasses |= SECURITY_CLASS_PSK_ONLY;
+                }
+                if (ScanResultUtil.isScanResultForSaeOnlyNetwork(r)) {
+                    securityClasses |= SECURITY_CLASS_SAE_ONLY;
+                }
+                if (ScanResultUtil.isScanResultForOpenOnlyNetwork(r)) {
+                    securityClasses |= SECURITY_CLASS_OPEN_ONLY;
+                }
+                if (ScanResultUtil.isScanResultForOweOnlyNetwork(r)) {
+                    securityClasses |= SECURITY_CLASS_OWE_ONLY;
+                }
+                if (ScanResultUtil.isScanResultForWpa2EnterpriseOnlyNetwork(r)) {
+                    securityClasses |= SECURITY_CLASS_WPA2_ENTERPRISE_ONLY;
+                }
+                if (ScanResultUtil.isScanResultForWpa3EnterpriseOnlyNetwork(r)) {
+                    securityClasses |= SECURITY_CLASS_WPA3_ENTERPRISE_ONLY;
+                }
+                addSecurityClasses(securityClassesBySsid, r.getWifiSsid().toString(),
+                        securityClasses);
+            }
+            // Transition networks have always been matched on the quoted SSID string rather than
+            // the WifiSsid representation, which differs for non UTF-8 SSIDs.
+            if (ScanResultUtil.isScanResultForPskSaeTransitionNetwork(r)) {
+                addSecurityClasses(securityClassesBySsid, ScanResultUtil.createQuotedSsid(r.SSID),
+                        SECURITY_CLASS_PSK_SAE_TRANSITION);
+            }
+        }
+        return securityClassesBySsid;
+    }
+
+    private static void addSecurityClasses(Map<String, Integer> securityClassesBySsid,
+            String ssid, int securityClasses) {
+        if (securityClasses == 0) return;
+        Integer existing = securityClassesBySsid.get(ssid);
+        securityClassesBySsid.put(ssid,
+                existing == null ? securityClasses : existing | securityClasses);
+    }
+
+    private boolean isSecurityClassInRange(String ssid, int securityClass) {
+        Integer securityClasses = mSecurityClassesBySsid.get(ssid);
+        return securityClasses != null && (securityClasses & securityClass) != 0;
     }
 
     /**
@@ -597,6 +685,7 @@ public class ScanRequestProxy {
         synchronized (mThrottleEnabledLock) {
             mFullScanCache.clear();
             mPartialScanCache.evictAll();
+            publishScanResultsSnapshot();
             mLastScanTimestampForBgApps = 0;
             mLastScanTimestampsForFgApps.clear();
         }
@@ -683,50 +772,36 @@ public class ScanRequestProxy {
 
     /** Indicate whether there are WPA2 personal only networks. */
     public boolean isWpa2PersonalOnlyNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                        && ScanResultUtil.isScanResultForPskOnlyNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_PSK_ONLY);
     }
 
     /** Indicate whether there are WPA3 only networks. */
     public boolean isWpa3PersonalOnlyNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                        && ScanResultUtil.isScanResultForSaeOnlyNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_SAE_ONLY);
     }
 
     /** Indicate whether there are WPA2/WPA3 transition mode networks. */
     public boolean isWpa2Wpa3PersonalTransitionNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, ScanResultUtil.createQuotedSsid(r.SSID))
-                        && ScanResultUtil.isScanResultForPskSaeTransitionNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_PSK_SAE_TRANSITION);
     }
 
     /** Indicate whether there are OPEN only networks. */
     public boolean isOpenOnlyNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                        && ScanResultUtil.isScanResultForOpenOnlyNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_OPEN_ONLY);
     }
 
     /** Indicate whether there are OWE only networks. */
     public boolean isOweOnlyNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                        && ScanResultUtil.isScanResultForOweOnlyNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_OWE_ONLY);
     }
 
     /** Indicate whether there are WPA2 Enterprise only networks. */
     public boolean isWpa2EnterpriseOnlyNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                        && ScanResultUtil.isScanResultForWpa2EnterpriseOnlyNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_WPA2_ENTERPRISE_ONLY);
     }
 
     /** Indicate whether there are WPA3 Enterprise only networks. */
     public boolean isWpa3EnterpriseOnlyNetworkInRange(String ssid) {
-        return combineScanResultsCache().values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                        && ScanResultUtil.isScanResultForWpa3EnterpriseOnlyNetwork(r));
+        return isSecurityClassInRange(ssid, SECURITY_CLASS_WPA3_ENTERPRISE_ONLY);
     }
 }
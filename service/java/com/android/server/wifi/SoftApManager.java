@@ -75,6 +75,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -237,6 +238,12 @@ public class SoftApManager implements ActiveModeManager {
     private SoftApCapability mCurrentSoftApCapability;
 
     private Map<String, List<WifiClient>> mConnectedClientWithApInfoMap = new HashMap<>();
+    /**
+     * Index of the clients in {@link #mConnectedClientWithApInfoMap} across all the instances,
+     * in connection order. Kept in sync with the map so that the client count and membership
+     * checks done on every association don't need to rebuild the client list.
+     */
+    private final Set<WifiClient> mConnectedClients = new LinkedHashSet<>();
     @VisibleForTesting
     Map<WifiClient, Integer> mPendingDisconnectClients = new HashMap<>();
 
@@ -667,7 +674,7 @@ public class SoftApManager implements ActiveModeManager {
                         + mSpecifiedModeConfiguration.getTargetMode());
         pw.println("mCurrentSoftApConfiguration: " + mCurrentSoftApConfiguration);
         pw.println("mCurrentSoftApCapability: " + mCurrentSoftApCapability);
-        pw.println("getConnectedClientList().size(): " + getConnectedClientList().size());
+        pw.println("getConnectedClientCount(): " + getConnectedClientCount());
         pw.println("mTimeoutEnabled: " + mTimeoutEnabled);
         pw.println("mBridgedModeOpportunisticsShutdownTimeoutEnabled: "
                 + mBridgedModeOpportunisticsShutdownTimeoutEnabled);
@@ -837,9 +844,17 @@ public class SoftApManager implements ActiveModeManager {
         SoftApConfiguration.Builder localConfigBuilder =
                 new SoftApConfiguration.Builder(mCurrentSoftApConfiguration);
 
+        List<ScanResult> scanResults = null;
+        WifiChannelUtilization channelUtilization = null;
+        if (mContext.getResources().getBoolean(
+                R.bool.config_wifiSoftApInterferenceAwareChannelSelection)) {
+            scanResults = mWifiInjector.getScanRequestProxy().getScanResultsSnapshot();
+            channelUtilization = mWifiInjector.getWifiChannelUtilizationScan();
+        }
         startResult = ApConfigUtil.updateApChannelConfig(
                 mWifiNative, mCoexManager, mContext.getResources(), mCountryCode,
-                localConfigBuilder, mCurrentSoftApConfiguration, mCurrentSoftApCapability);
+                localConfigBuilder, mCurrentSoftApConfiguration, mCurrentSoftApCapability,
+                scanResults, channelUtilization);
         if (startResult != START_RESULT_SUCCESS) {
             Log.e(getTag(), "Failed to update AP band and channel");
             return startResult;
@@ -907,7 +922,7 @@ public class SoftApManager implements ActiveModeManager {
      * This is usually done just before stopSoftAp().
      */
     private void disconnectAllClients() {
-        for (WifiClient client : getConnectedClientList()) {
+        for (WifiClient client : mConnectedClients) {
             mWifiNative.forceClientDisconnect(mApInterfaceName, client.getMacAddress(),
                     SAP_CLIENT_DISCONNECT_REASON_CODE_UNSPECIFIED);
         }
@@ -934,12 +949,20 @@ public class SoftApManager implements ActiveModeManager {
                 SOFT_AP_PENDING_DISCONNECTION_CHECK_DELAY_MS);
     }
 
-    private List<WifiClient> getConnectedClientList() {
-        List<WifiClient> connectedClientList = new ArrayList<>();
-        for (List<WifiClient> it : mConnectedClientWithApInfoMap.values()) {
-            connectedClientList.addAll(it);
+    private int getConnectedClientCount() {
+        return mConnectedClients.size();
+    }
+
+    private void clearConnectedClients() {
+        mConnectedClientWithApInfoMap.clear();
+        mConnectedClients.clear();
+    }
+
+    private void removeConnectedClientsOfInstance(String instance) {
+        List<WifiClient> clientList = mConnectedClientWithApInfoMap.remove(instance);
+        if (clientList != null) {
+            mConnectedClients.removeAll(clientList);
         }
-        return connectedClientList;
     }
 
     private boolean checkSoftApClient(SoftApConfiguration config, WifiClient newClient) {
@@ -976,7 +999,7 @@ public class SoftApManager implements ActiveModeManager {
             maxConfig = Math.min(maxConfig, config.getMaxNumberOfClients());
         }
 
-        if (getConnectedClientList().size() >= maxConfig) {
+        if (getConnectedClientCount() >= maxConfig) {
             Log.i(getTag(), "No more room for new client:" + newClient);
             if (!mWifiNative.forceClientDisconnect(
                     mApInterfaceName, newClient.getMacAddress(),
@@ -1540,7 +1563,7 @@ public class SoftApManager implements ActiveModeManager {
                 final boolean timeoutEnabled = isTetheringInterface ? mTimeoutEnabled
                         : (mBridgedModeOpportunisticsShutdownTimeoutEnabled && !mIsPlugged);
                 final int clientNumber = isTetheringInterface
-                        ? getConnectedClientList().size()
+                        ? getConnectedClientCount()
                         : mConnectedClientWithApInfoMap.get(instance).size();
                 Log.d(getTag(), "rescheduleTimeoutMessageIfNeeded " + instance + ", timeoutEnabled="
                         + timeoutEnabled + ", isPlugged=" + mIsPlugged + ", clientNumber="
@@ -1586,10 +1609,9 @@ public class SoftApManager implements ActiveModeManager {
                     finalMaxClientCount = Math.min(userApConfigMaxClientCount,
                             maxAllowedClientsByHardwareAndCarrier);
                 }
-                List<WifiClient> currentClients = getConnectedClientList();
-                int targetDisconnectClientNumber = currentClients.size() - finalMaxClientCount;
+                int targetDisconnectClientNumber = getConnectedClientCount() - finalMaxClientCount;
                 List<WifiClient> allowedConnectedList = new ArrayList<>();
-                Iterator<WifiClient> iterator = currentClients.iterator();
+                Iterator<WifiClient> iterator = mConnectedClients.iterator();
                 while (iterator.hasNext()) {
                     WifiClient client = iterator.next();
                     if (mBlockedClientList.contains(client.getMacAddress())
@@ -1644,9 +1666,8 @@ public class SoftApManager implements ActiveModeManager {
                 String apInstanceIdentifier = client.getApInstanceIdentifier();
                 List clientList = mConnectedClientWithApInfoMap.computeIfAbsent(
                         apInstanceIdentifier, k -> new ArrayList<>());
-                int index = clientList.indexOf(client);
 
-                if ((index != -1) == isConnected) {
+                if (mConnectedClients.contains(client) == isConnected) {
                     Log.e(getTag(), "Drop client connection event, client "
                             + client + "isConnected: " + isConnected
                             + " , duplicate event or client is blocked");
@@ -1656,13 +1677,15 @@ public class SoftApManager implements ActiveModeManager {
                     boolean isAllow = checkSoftApClient(mCurrentSoftApConfiguration, client);
                     if (isAllow) {
                         clientList.add(client);
+                        mConnectedClients.add(client);
                     } else {
                         return;
                     }
                 } else {
-                    if (null == clientList.remove(index)) {
+                    if (!clientList.remove(client)) {
                         Log.e(getTag(), "client doesn't exist in list, it should NOT happen");
                     }
+                    mConnectedClients.remove(client);
                 }
 
                 // Update clients list.
@@ -1682,7 +1705,7 @@ public class SoftApManager implements ActiveModeManager {
                 }
 
                 mWifiMetrics.addSoftApNumAssociatedStationsChangedEvent(
-                        getConnectedClientList().size(),
+                        getConnectedClientCount(),
                         mConnectedClientWithApInfoMap.get(apInstanceIdentifier).size(),
                         mSpecifiedModeConfiguration.getTargetMode(),
                         mCurrentSoftApInfoMap.get(apInstanceIdentifier));
@@ -1698,7 +1721,7 @@ public class SoftApManager implements ActiveModeManager {
                 if (apInfo == null) {
                     // Clean up
                     mCurrentSoftApInfoMap.clear();
-                    mConnectedClientWithApInfoMap.clear();
+                    clearConnectedClients();
                     mSoftApCallback.onConnectedClientsOrInfoChanged(mCurrentSoftApInfoMap,
                             mConnectedClientWithApInfoMap, isBridgeRequired());
                     return;
@@ -1710,12 +1733,12 @@ public class SoftApManager implements ActiveModeManager {
                                 mConnectedClientWithApInfoMap.get(changedInstance).size() > 0;
                         mCurrentSoftApInfoMap.remove(changedInstance);
                         mSoftApTimeoutMessageMap.remove(changedInstance);
-                        mConnectedClientWithApInfoMap.remove(changedInstance);
+                        removeConnectedClientsOfInstance(changedInstance);
                         mSoftApCallback.onConnectedClientsOrInfoChanged(mCurrentSoftApInfoMap,
                                 mConnectedClientWithApInfoMap, isBridgeRequired());
                         if (isClientConnected) {
                             mWifiMetrics.addSoftApNumAssociatedStationsChangedEvent(
-                                    getConnectedClientList().size(),
+                                    getConnectedClientCount(),
                                     0,
                                     mSpecifiedModeConfiguration.getTargetMode(),
                                     apInfo);
@@ -1790,7 +1813,7 @@ public class SoftApManager implements ActiveModeManager {
                     mModeListener.onStarted(SoftApManager.this);
                     mWifiMetrics.incrementSoftApStartResult(true, 0);
                     mCurrentSoftApInfoMap.clear();
-                    mConnectedClientWithApInfoMap.clear();
+                    clearConnectedClients();
                     if (mSoftApCallback != null) {
                         mSoftApCallback.onConnectedClientsOrInfoChanged(mCurrentSoftApInfoMap,
                                 mConnectedClientWithApInfoMap, isBridgeRequired());
@@ -1833,7 +1856,7 @@ public class SoftApManager implements ActiveModeManager {
                 }
                 mSarManager.setSapWifiState(WifiManager.WIFI_AP_STATE_ENABLED);
                 Log.d(getTag(), "Resetting connected clients on start");
-                mConnectedClientWithApInfoMap.clear();
+                clearConnectedClients();
                 mPendingDisconnectClients.clear();
                 mEverReportMetricsForMaxClient = false;
                 writeSoftApStartedEvent(START_RESULT_SUCCESS);
@@ -1847,7 +1870,7 @@ public class SoftApManager implements ActiveModeManager {
                 if (SdkLevel.isAtLeastS()) {
                     mCoexManager.unregisterCoexListener(mCoexListener);
                 }
-                if (getConnectedClientList().size() != 0) {
+                if (getConnectedClientCount() != 0) {
                     Log.d(getTag(), "Resetting num stations on stop");
                     for (List<WifiClient> it : mConnectedClientWithApInfoMap.values()) {
                         if (it.size() != 0) {
@@ -1858,7 +1881,7 @@ public class SoftApManager implements ActiveModeManager {
                                     mCurrentSoftApInfoMap.get(it.get(0).getApInstanceIdentifier()));
                         }
                     }
-                    mConnectedClientWithApInfoMap.clear();
+                    clearConnectedClients();
                     if (mSoftApCallback != null) {
                         mSoftApCallback.onConnectedClientsOrInfoChanged(mCurrentSoftApInfoMap,
                                 mConnectedClientWithApInfoMap, isBridgeRequired());
@@ -1975,7 +1998,7 @@ public class SoftApManager implements ActiveModeManager {
                                     + " Dropping.");
                             break;
                         }
-                        if (getConnectedClientList().size() != 0) {
+                        if (getConnectedClientCount() != 0) {
                             Log.i(getTag(), "Timeout message received but has clients. "
                                     + "Dropping.");
                             break;
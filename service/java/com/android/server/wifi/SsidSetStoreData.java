@@ -64,6 +64,11 @@ public class SsidSetStoreData implements WifiConfigStore.StoreData {
          * @param ssidSet The set of SSIDs
          */
         void setSsids(Set<String> ssidSet);
+
+        /**
+         * Whether there is new data to serialize.
+         */
+        boolean hasNewDataToSerialize();
     }
 
     /**
@@ -120,8 +125,7 @@ public class SsidSetStoreData implements WifiConfigStore.StoreData {
 
     @Override
     public boolean hasNewDataToSerialize() {
-        // always persist.
-        return true;
+        return mDataSource.hasNewDataToSerialize();
     }
 
     @Override
@@ -247,10 +247,12 @@ class SupplicantStaIfaceCallbackAidlImpl extends ISupplicantStaIfaceCallback.Stu
      * Parse the ANQP element data and add to the provided elements map if successful.
      *
      * @param elementsMap Map to add the parsed out element to.
+     * @param rawPayloadsMap Map to add the raw payload of the parsed out element to.
      * @param infoID  Element type.
      * @param payload Raw payload bytes.
      */
     private void addAnqpElementToMap(Map<Constants.ANQPElementType, ANQPElement> elementsMap,
+            Map<Constants.ANQPElementType, byte[]> rawPayloadsMap,
             Constants.ANQPElementType infoID, byte[] payload) {
         synchronized (mLock) {
             if (payload == null || payload.length == 0) {
@@ -259,6 +261,7 @@ class SupplicantStaIfaceCallbackAidlImpl extends ISupplicantStaIfaceCallback.Stu
             ANQPElement element = parseAnqpElement(infoID, payload);
             if (element != null) {
                 elementsMap.put(infoID, element);
+                rawPayloadsMap.put(infoID, payload);
             }
         }
     }
@@ -268,19 +271,27 @@ class SupplicantStaIfaceCallbackAidlImpl extends ISupplicantStaIfaceCallback.Stu
         synchronized (mLock) {
             mStaIfaceHal.logCallback("onAnqpQueryDone");
             Map<Constants.ANQPElementType, ANQPElement> elementsMap = new HashMap<>();
-            addAnqpElementToMap(elementsMap, ANQPVenueName, data.venueName);
-            addAnqpElementToMap(elementsMap, ANQPRoamingConsortium, data.roamingConsortium);
-            addAnqpElementToMap(elementsMap, ANQPIPAddrAvailability, data.ipAddrTypeAvailability);
-            addAnqpElementToMap(elementsMap, ANQPNAIRealm, data.naiRealm);
-            addAnqpElementToMap(elementsMap, ANQP3GPPNetwork, data.anqp3gppCellularNetwork);
-            addAnqpElementToMap(elementsMap, ANQPDomName, data.domainName);
-            addAnqpElementToMap(elementsMap, ANQPVenueUrl, data.venueUrl);
-            addAnqpElementToMap(elementsMap, HSFriendlyName, hs20Data.operatorFriendlyName);
-            addAnqpElementToMap(elementsMap, HSWANMetrics, hs20Data.wanMetrics);
-            addAnqpElementToMap(elementsMap, HSConnCapability, hs20Data.connectionCapability);
-            addAnqpElementToMap(elementsMap, HSOSUProviders, hs20Data.osuProvidersList);
-            mWifiMonitor.broadcastAnqpDoneEvent(
-                    mIfaceName, new AnqpEvent(NativeUtil.macAddressToLong(bssid), elementsMap));
+            // The payloads are owned by this callback, they are handed over without a copy.
+            Map<Constants.ANQPElementType, byte[]> rawPayloadsMap = new HashMap<>();
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPVenueName, data.venueName);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPRoamingConsortium,
+                    data.roamingConsortium);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPIPAddrAvailability,
+                    data.ipAddrTypeAvailability);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPNAIRealm, data.naiRealm);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQP3GPPNetwork,
+                    data.anqp3gppCellularNetwork);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPDomName, data.domainName);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPVenueUrl, data.venueUrl);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, HSFriendlyName,
+                    hs20Data.operatorFriendlyName);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, HSWANMetrics, hs20Data.wanMetrics);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, HSConnCapability,
+                    hs20Data.connectionCapability);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, HSOSUProviders,
+                    hs20Data.osuProvidersList);
+            mWifiMonitor.broadcastAnqpDoneEvent(mIfaceName, new AnqpEvent(
+                    NativeUtil.macAddressToLong(bssid), elementsMap, rawPayloadsMap));
         }
     }
 
@@ -653,7 +664,7 @@ class SupplicantStaIfaceCallbackAidlImpl extends ISupplicantStaIfaceCallback.Stu
         }
 
         mStaIfaceHal.addPmkCacheEntry(mIfaceName, curConfig.networkId, bssid, expirationTimeInSec,
-                NativeUtil.byteArrayToArrayList(serializedEntry));
+                serializedEntry);
         mStaIfaceHal.logCallback(
                 "handlePmkSaCacheAddedEvent: update pmk cache for config id "
                         + curConfig.networkId + " on " + mIfaceName);
@@ -116,15 +116,12 @@ abstract class SupplicantStaIfaceCallbackHidlImpl extends ISupplicantStaIfaceCal
      * @param payload Raw payload bytes.
      * @return AnqpElement instance on success, null on failure.
      */
-    private ANQPElement parseAnqpElement(Constants.ANQPElementType infoID,
-                                         ArrayList<Byte> payload) {
+    private ANQPElement parseAnqpElement(Constants.ANQPElementType infoID, byte[] payload) {
         synchronized (mLock) {
             try {
                 return Constants.getANQPElementID(infoID) != null
-                        ? ANQPParser.parseElement(
-                        infoID, ByteBuffer.wrap(NativeUtil.byteArrayFromArrayList(payload)))
-                        : ANQPParser.parseHS20Element(
-                        infoID, ByteBuffer.wrap(NativeUtil.byteArrayFromArrayList(payload)));
+                        ? ANQPParser.parseElement(infoID, ByteBuffer.wrap(payload))
+                        : ANQPParser.parseHS20Element(infoID, ByteBuffer.wrap(payload));
             } catch (IOException | BufferUnderflowException e) {
                 Log.e(TAG, "Failed parsing ANQP element payload: " + infoID, e);
                 return null;
@@ -136,17 +133,21 @@ abstract class SupplicantStaIfaceCallbackHidlImpl extends ISupplicantStaIfaceCal
      * Parse the ANQP element data and add to the provided elements map if successful.
      *
      * @param elementsMap Map to add the parsed out element to.
+     * @param rawPayloadsMap Map to add the raw payload of the parsed out element to.
      * @param infoID  Element type.
      * @param payload Raw payload bytes.
      */
     private void addAnqpElementToMap(Map<Constants.ANQPElementType, ANQPElement> elementsMap,
+                                     Map<Constants.ANQPElementType, byte[]> rawPayloadsMap,
                                      Constants.ANQPElementType infoID,
                                      ArrayList<Byte> payload) {
         synchronized (mLock) {
             if (payload == null || payload.isEmpty()) return;
-            ANQPElement element = parseAnqpElement(infoID, payload);
+            byte[] rawPayload = NativeUtil.byteArrayFromArrayList(payload);
+            ANQPElement element = parseAnqpElement(infoID, rawPayload);
             if (element != null) {
                 elementsMap.put(infoID, element);
+                rawPayloadsMap.put(infoID, rawPayload);
             }
         }
     }
@@ -213,22 +214,28 @@ abstract class SupplicantStaIfaceCallbackHidlImpl extends ISupplicantStaIfaceCal
             ISupplicantStaIfaceCallback.Hs20AnqpData hs20Data,
             android.hardware.wifi.supplicant.V1_4.ISupplicantStaIfaceCallback.AnqpData dataV14) {
         Map<Constants.ANQPElementType, ANQPElement> elementsMap = new HashMap<>();
-        addAnqpElementToMap(elementsMap, ANQPVenueName, data.venueName);
-        addAnqpElementToMap(elementsMap, ANQPRoamingConsortium, data.roamingConsortium);
-        addAnqpElementToMap(
-                elementsMap, ANQPIPAddrAvailability, data.ipAddrTypeAvailability);
-        addAnqpElementToMap(elementsMap, ANQPNAIRealm, data.naiRealm);
-        addAnqpElementToMap(elementsMap, ANQP3GPPNetwork, data.anqp3gppCellularNetwork);
-        addAnqpElementToMap(elementsMap, ANQPDomName, data.domainName);
+        Map<Constants.ANQPElementType, byte[]> rawPayloadsMap = new HashMap<>();
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPVenueName, data.venueName);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPRoamingConsortium,
+                data.roamingConsortium);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPIPAddrAvailability,
+                data.ipAddrTypeAvailability);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPNAIRealm, data.naiRealm);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQP3GPPNetwork,
+                data.anqp3gppCellularNetwork);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPDomName, data.domainName);
         if (dataV14 != null) {
-            addAnqpElementToMap(elementsMap, ANQPVenueUrl, dataV14.venueUrl);
+            addAnqpElementToMap(elementsMap, rawPayloadsMap, ANQPVenueUrl, dataV14.venueUrl);
         }
-        addAnqpElementToMap(elementsMap, HSFriendlyName, hs20Data.operatorFriendlyName);
-        addAnqpElementToMap(elementsMap, HSWANMetrics, hs20Data.wanMetrics);
-        addAnqpElementToMap(elementsMap, HSConnCapability, hs20Data.connectionCapability);
-        addAnqpElementToMap(elementsMap, HSOSUProviders, hs20Data.osuProvidersList);
-        mWifiMonitor.broadcastAnqpDoneEvent(
-                mIfaceName, new AnqpEvent(NativeUtil.macAddressToLong(bssid), elementsMap));
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, HSFriendlyName,
+                hs20Data.operatorFriendlyName);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, HSWANMetrics, hs20Data.wanMetrics);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, HSConnCapability,
+                hs20Data.connectionCapability);
+        addAnqpElementToMap(elementsMap, rawPayloadsMap, HSOSUProviders,
+                hs20Data.osuProvidersList);
+        mWifiMonitor.broadcastAnqpDoneEvent(mIfaceName, new AnqpEvent(
+                NativeUtil.macAddressToLong(bssid), elementsMap, rawPayloadsMap));
     }
     @Override
     public void onAnqpQueryDone(byte[/* 6 */] bssid,
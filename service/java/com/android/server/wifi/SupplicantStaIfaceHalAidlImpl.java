@@ -743,11 +743,11 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
                     .getCandidateSecurityParams();
             if (params != null && !(params.isSecurityType(WifiConfiguration.SECURITY_TYPE_PSK)
                     || params.isSecurityType(WifiConfiguration.SECURITY_TYPE_DPP))) {
-                List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(config.networkId);
+                List<byte[]> pmkDataList = mPmkCacheManager.get(config.networkId);
                 if (pmkDataList != null) {
                     Log.i(TAG, "Set PMK cache for config id " + config.networkId);
                     pmkDataList.forEach(pmkData -> {
-                        if (networkHandle.setPmkCache(NativeUtil.byteArrayFromArrayList(pmkData))) {
+                        if (networkHandle.setPmkCache(pmkData)) {
                             mWifiMetrics.setConnectionPmkCache(ifaceName, true);
                         }
                     });
@@ -2500,7 +2500,7 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     }
 
     protected void addPmkCacheEntry(String ifaceName, int networkId, byte[/* 6 */] bssid,
-            long expirationTimeInSec, ArrayList<Byte> serializedEntry) {
+            long expirationTimeInSec, byte[] serializedEntry) {
         synchronized (mLock) {
             String macAddressStr = getMacAddress(ifaceName);
             try {
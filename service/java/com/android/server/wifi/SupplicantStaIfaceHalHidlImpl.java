@@ -1087,11 +1087,11 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
             SecurityParams params = config.getNetworkSelectionStatus()
                     .getCandidateSecurityParams();
             if (params != null && !params.isSecurityType(WifiConfiguration.SECURITY_TYPE_PSK)) {
-                List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(config.networkId);
+                List<byte[]> pmkDataList = mPmkCacheManager.get(config.networkId);
                 if (pmkDataList != null) {
                     logi("Set PMK cache for config id " + config.networkId);
                     pmkDataList.forEach(pmkData -> {
-                        if (networkHandle.setPmkCache(pmkData)) {
+                        if (networkHandle.setPmkCache(NativeUtil.byteArrayToArrayList(pmkData))) {
                             mWifiMetrics.setConnectionPmkCache(ifaceName, true);
                         }
                     });
@@ -2891,7 +2891,8 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
         String macAddressStr = getMacAddress(ifaceName);
         try {
             if (!mPmkCacheManager.add(MacAddress.fromString(macAddressStr),
-                    networkId, null, expirationTimeInSec, serializedEntry)) {
+                    networkId, null, expirationTimeInSec, serializedEntry == null
+                            ? null : NativeUtil.byteArrayFromArrayList(serializedEntry))) {
                 Log.w(TAG, "Cannot add PMK cache for " + ifaceName);
             }
         } catch (IllegalArgumentException ex) {
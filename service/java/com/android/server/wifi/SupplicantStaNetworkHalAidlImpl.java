@@ -238,8 +238,7 @@ public class SupplicantStaNetworkHalAidlImpl {
             for (int i = 0; i < 4; i++) {
                 config.wepKeys[i] = null;
                 if (getWepKey(i) && !ArrayUtils.isEmpty(mWepKey)) {
-                    config.wepKeys[i] = NativeUtil.bytesToHexOrQuotedString(
-                            NativeUtil.byteArrayToArrayList(mWepKey));
+                    config.wepKeys[i] = NativeUtil.bytesToHexOrQuotedString(mWepKey);
                 }
             }
 
@@ -449,8 +448,8 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (config.wepKeys != null) {
                 for (int i = 0; i < config.wepKeys.length; i++) {
                     if (config.wepKeys[i] != null) {
-                        if (!setWepKey(i, NativeUtil.byteArrayFromArrayList(
-                                NativeUtil.hexOrQuotedStringToBytes(config.wepKeys[i])))) {
+                        if (!setWepKey(i,
+                                NativeUtil.hexOrQuotedStringToByteArray(config.wepKeys[i]))) {
                             Log.e(TAG, "failed to set wep_key " + i);
                             return false;
                         }
@@ -107,9 +107,16 @@ public class ThroughputPredictor {
 
     private static final int B_MODE_MAX_MBPS = 11;
     private final Context mContext;
+    // Device spatial stream override, read once since overlays do not change at runtime
+    private final boolean mMaxNumSpatialStreamDeviceOverrideEnabled;
+    private final int mMaxNumSpatialStreamDeviceOverrideValue;
 
     ThroughputPredictor(Context context) {
         mContext = context;
+        mMaxNumSpatialStreamDeviceOverrideEnabled = context.getResources().getBoolean(
+                R.bool.config_wifiFrameworkMaxNumSpatialStreamDeviceOverrideEnable);
+        mMaxNumSpatialStreamDeviceOverrideValue = context.getResources().getInteger(
+                R.integer.config_wifiFrameworkMaxNumSpatialStreamDeviceOverrideValue);
     }
 
     /**
@@ -198,10 +205,8 @@ public class ThroughputPredictor {
         int maxNumSpatialStreamDevice = Math.min(deviceCapabilities.getMaxNumberTxSpatialStreams(),
                 deviceCapabilities.getMaxNumberRxSpatialStreams());
 
-        if (mContext.getResources().getBoolean(
-                R.bool.config_wifiFrameworkMaxNumSpatialStreamDeviceOverrideEnable)) {
-            maxNumSpatialStreamDevice = mContext.getResources().getInteger(
-                    R.integer.config_wifiFrameworkMaxNumSpatialStreamDeviceOverrideValue);
+        if (mMaxNumSpatialStreamDeviceOverrideEnabled) {
+            maxNumSpatialStreamDevice = mMaxNumSpatialStreamDeviceOverrideValue;
         }
 
         int maxNumSpatialStream = Math.min(maxNumSpatialStreamDevice, maxNumSpatialStreamAp);
@@ -383,9 +388,9 @@ public class ThroughputPredictor {
             return WifiInfo.LINK_SPEED_UNKNOWN;
         }
 
-        // 6Ghz RSSI boost
-        if (mContext.getResources().getBoolean(R.bool.config_wifiEnable6GhzBeaconRssiBoost)
-                && ScanResult.is6GHz(frequency)) {
+        // 6Ghz RSSI boost. Check the band first to skip the resource lookup for other bands.
+        if (ScanResult.is6GHz(frequency) && mContext.getResources().getBoolean(
+                R.bool.config_wifiEnable6GhzBeaconRssiBoost)) {
             switch (channelWidth) {
                 case ScanResult.CHANNEL_WIDTH_40MHZ:
                     rssiDbm += 3;
@@ -76,6 +76,11 @@ public class WakeupConfigStoreData implements StoreData {
          * @param data Data retrieved from the store
          */
         void setData(T data);
+
+        /**
+         * Returns whether the data changed since it was last retrieved with {@link #getData()}.
+         */
+        boolean hasNewDataToSerialize();
     }
 
     /**
@@ -357,8 +362,10 @@ public class WakeupConfigStoreData implements StoreData {
 
     @Override
     public boolean hasNewDataToSerialize() {
-        // always persist.
-        return true;
+        return mIsActiveDataSource.hasNewDataToSerialize()
+                || mIsOnboardedDataSource.hasNewDataToSerialize()
+                || mNotificationsDataSource.hasNewDataToSerialize()
+                || mNetworkDataSource.hasNewDataToSerialize();
     }
 
     @Override
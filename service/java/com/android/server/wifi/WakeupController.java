@@ -115,6 +115,9 @@ public class WakeupController {
     /** Whether the WakeupController is currently active. */
     private boolean mIsActive = false;
 
+    /** Whether {@link #mIsActive} changed since it was last serialized. */
+    private boolean mHasNewDataToSerialize = false;
+
     /**
      *  The number of scans that have been handled by the controller since last
      * {@link #onWifiEnabled()}.
@@ -211,6 +214,7 @@ public class WakeupController {
         if (mIsActive != isActive) {
             Log.d(TAG, "Setting active to " + isActive);
             mIsActive = isActive;
+            mHasNewDataToSerialize = true;
             mWifiConfigManager.saveToStore(false /* forceWrite */);
         }
     }
@@ -515,6 +519,7 @@ public class WakeupController {
 
         @Override
         public Boolean getData() {
+            mHasNewDataToSerialize = false;
             return mIsActive;
         }
 
@@ -522,6 +527,11 @@ public class WakeupController {
         public void setData(Boolean data) {
             mIsActive = data;
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewDataToSerialize;
+        }
     }
 
     public void resetNotification() {
@@ -52,6 +52,7 @@ public class WakeupLock {
     private long mLockTimestamp;
     private boolean mIsInitialized;
     private int mNumScans;
+    private boolean mHasNewDataToSerialize;
 
     public WakeupLock(WifiConfigManager wifiConfigManager, WifiWakeMetrics wifiWakeMetrics,
                       Clock clock) {
@@ -79,6 +80,7 @@ public class WakeupLock {
 
         Log.d(TAG, "Lock set. Number of networks: " + mLockedNetworks.size());
 
+        mHasNewDataToSerialize = true;
         mWifiConfigManager.saveToStore(false /* forceWrite */);
     }
 
@@ -160,6 +162,7 @@ public class WakeupLock {
         }
 
         if (hasChanged) {
+            mHasNewDataToSerialize = true;
             mWifiConfigManager.saveToStore(false /* forceWrite */);
         }
 
@@ -206,6 +209,7 @@ public class WakeupLock {
         }
 
         if (hasChanged) {
+            mHasNewDataToSerialize = true;
             mWifiConfigManager.saveToStore(false /* forceWrite */);
         }
 
@@ -278,6 +282,7 @@ public class WakeupLock {
 
         @Override
         public Set<ScanResultMatchInfo> getData() {
+            mHasNewDataToSerialize = false;
             return mLockedNetworks.keySet();
         }
 
@@ -290,5 +295,10 @@ public class WakeupLock {
             // lock is considered initialized if loaded from store
             mIsInitialized = true;
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewDataToSerialize;
+        }
     }
 }
@@ -62,6 +62,7 @@ public class WakeupOnboarding {
 
     private boolean mIsOnboarded;
     private int mTotalNotificationsShown;
+    private boolean mHasNewDataToSerialize;
     private long mLastShownTimestamp = NOT_SHOWN_TIMESTAMP;
     private boolean mIsNotificationShowing;
 
@@ -143,6 +144,7 @@ public class WakeupOnboarding {
      */
     private void incrementTotalNotificationsShown() {
         mTotalNotificationsShown++;
+        mHasNewDataToSerialize = true;
         if (mTotalNotificationsShown >= NOTIFICATIONS_UNTIL_ONBOARDED) {
             setOnboarded();
         } else {
@@ -185,6 +187,7 @@ public class WakeupOnboarding {
         }
         Log.d(TAG, "Setting user as onboarded.");
         mIsOnboarded = true;
+        mHasNewDataToSerialize = true;
         mWifiConfigManager.saveToStore(false /* forceWrite */);
     }
 
@@ -202,6 +205,7 @@ public class WakeupOnboarding {
 
         @Override
         public Boolean getData() {
+            mHasNewDataToSerialize = false;
             return mIsOnboarded;
         }
 
@@ -209,12 +213,18 @@ public class WakeupOnboarding {
         public void setData(Boolean data) {
             mIsOnboarded = data;
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewDataToSerialize;
+        }
     }
 
     private class NotificationsDataSource implements WakeupConfigStoreData.DataSource<Integer> {
 
         @Override
         public Integer getData() {
+            mHasNewDataToSerialize = false;
             return mTotalNotificationsShown;
         }
 
@@ -222,5 +232,10 @@ public class WakeupOnboarding {
         public void setData(Integer data) {
             mTotalNotificationsShown = data;
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewDataToSerialize;
+        }
     }
 }
@@ -50,10 +50,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * This class manages the addition and removal of BSSIDs to the BSSID blocklist, which is used
@@ -116,6 +115,7 @@ public class WifiBlocklistMonitor {
     private boolean mFailureCountDisableThresholdArrayInitialized = false;
     private static final long ABNORMAL_DISCONNECT_RESET_TIME_MS = TimeUnit.HOURS.toMillis(3);
     private static final int MIN_RSSI_DIFF_TO_UNBLOCK_BSSID = 5;
+    private static final int MIN_EXPIRY_QUEUE_SIZE_TO_COMPACT = 32;
     @VisibleForTesting
     public static final int NUM_CONSECUTIVE_FAILURES_PER_NETWORK_EXP_BACKOFF = 5;
     @VisibleForTesting
@@ -138,6 +138,13 @@ public class WifiBlocklistMonitor {
 
     // Map of bssid to BssidStatus
     private Map<String, BssidStatus> mBssidStatusMap = new ArrayMap<>();
+    // Map of ssid to the BssidStatus entries of that ssid
+    private final Map<String, SsidIndex> mSsidIndexMap = new ArrayMap<>();
+    // BSSIDs currently in the blocklist, and a read-only view of it handed out to callers
+    private final Set<String> mBlockedBssids = new ArraySet<>();
+    private final Set<String> mBlockedBssidsView = Collections.unmodifiableSet(mBlockedBssids);
+    // Blocked entries ordered by blocklist end time. Records are dropped lazily once stale.
+    private final PriorityQueue<ExpiryRecord> mExpiryQueue = new PriorityQueue<>();
     private Set<String> mDisabledSsids = new ArraySet<>();
 
     // Internal logger to make sure imporatant logs do not get lost.
@@ -296,6 +303,7 @@ public class WifiBlocklistMonitor {
         pw.println("WifiBlocklistMonitor - Bssid blocklist begin ----");
         mBssidStatusMap.values().stream().forEach(entry -> pw.println(entry));
         pw.println("WifiBlocklistMonitor - Bssid blocklist end ----");
+        pw.println("mExpiryQueue.size()=" + mExpiryQueue.size());
         pw.println("Dump of BSSID to Affiliated BSSID mapping");
         mAffiliatedBssidMap.forEach((bssid, aList) -> pw.println(bssid + " -> " + aList));
         mBssidBlocklistMonitorLogger.dump(pw);
@@ -303,7 +311,14 @@ public class WifiBlocklistMonitor {
 
     private void addToBlocklist(@NonNull BssidStatus entry, long durationMs,
             @FailureReason int reason, int rssi) {
+        boolean wasInBlocklist = entry.isInBlocklist;
         entry.setAsBlocked(durationMs, reason, rssi);
+        if (!wasInBlocklist) {
+            mBlockedBssids.add(entry.bssid);
+            getOrCreateSsidIndex(entry.ssid).numBlocked++;
+        }
+        mExpiryQueue.add(new ExpiryRecord(entry));
+        maybeCompactExpiryQueue();
         localLog(TAG + " addToBlocklist: bssid=" + entry.bssid + ", ssid=" + entry.ssid
                 + ", durationMs=" + durationMs + ", reason=" + getFailureReasonString(reason)
                 + ", rssi=" + rssi);
@@ -331,13 +346,73 @@ public class WifiBlocklistMonitor {
             if (status != null) {
                 localLog("getOrCreateBssidStatus: BSSID=" + bssid + ", SSID changed from "
                         + status.ssid + " to " + ssid);
+                removeBssidStatus(status);
             }
             status = new BssidStatus(bssid, ssid);
             mBssidStatusMap.put(bssid, status);
+            getOrCreateSsidIndex(ssid).statuses.add(status);
         }
         return status;
     }
 
+    private @NonNull SsidIndex getOrCreateSsidIndex(String ssid) {
+        SsidIndex index = mSsidIndexMap.get(ssid);
+        if (index == null) {
+            index = new SsidIndex();
+            mSsidIndexMap.put(ssid, index);
+        }
+        return index;
+    }
+
+    /**
+     * Remove the BssidStatus from the map and from all the indexes.
+     */
+    private void removeBssidStatus(@NonNull BssidStatus status) {
+        if (mBssidStatusMap.get(status.bssid) == status) {
+            mBssidStatusMap.remove(status.bssid);
+        }
+        SsidIndex index = mSsidIndexMap.get(status.ssid);
+        if (index != null) {
+            index.statuses.remove(status);
+            if (status.isInBlocklist) {
+                index.numBlocked--;
+            }
+            if (index.statuses.isEmpty()) {
+                mSsidIndexMap.remove(status.ssid);
+            }
+        }
+        if (status.isInBlocklist) {
+            mBlockedBssids.remove(status.bssid);
+        }
+    }
+
+    /**
+     * Rebuild the expiry queue once stale records make up most of it, so that entries which are
+     * unblocked before they expire do not accumulate.
+     */
+    private void maybeCompactExpiryQueue() {
+        if (mExpiryQueue.size() <= 2 * mBlockedBssids.size() + MIN_EXPIRY_QUEUE_SIZE_TO_COMPACT) {
+            return;
+        }
+        mExpiryQueue.removeIf(record -> !record.isValid());
+    }
+
+    /**
+     * Removes the entries whose blocklist duration is over.
+     */
+    private void removeExpiredEntries() {
+        long curTime = mClock.getWallClockMillis();
+        while (!mExpiryQueue.isEmpty() && mExpiryQueue.peek().blocklistEndTimeMs < curTime) {
+            ExpiryRecord record = mExpiryQueue.poll();
+            if (!record.isValid()) {
+                continue;
+            }
+            mBssidBlocklistMonitorLogger.logBssidUnblocked(
+                    record.status, "blocklist duration expired");
+            removeBssidStatus(record.status);
+        }
+    }
+
     /**
      * Set a list of SSIDs that will always be enabled for network selection.
      */
@@ -686,7 +761,7 @@ public class WifiBlocklistMonitor {
 
         if (status.isInBlocklist) {
             mBssidBlocklistMonitorLogger.logBssidUnblocked(status, reasonString);
-            mBssidStatusMap.remove(bssid);
+            removeBssidStatus(status);
         }
     }
 
@@ -727,24 +802,17 @@ public class WifiBlocklistMonitor {
      * @param ssid
      */
     public void clearBssidBlocklistForSsid(@NonNull String ssid) {
-        int prevSize = mBssidStatusMap.size();
-        mBssidStatusMap.entrySet().removeIf(e -> {
-            BssidStatus status = e.getValue();
-            if (status.ssid == null) {
-                return false;
-            }
-            if (status.ssid.equals(ssid)) {
-                mBssidBlocklistMonitorLogger.logBssidUnblocked(
-                        status, "clearBssidBlocklistForSsid");
-                return true;
-            }
-            return false;
-        });
-        int diff = prevSize - mBssidStatusMap.size();
-        if (diff > 0) {
-            localLog(TAG + " clearBssidBlocklistForSsid: SSID=" + ssid
-                    + ", num BSSIDs cleared=" + diff);
+        SsidIndex index = mSsidIndexMap.get(ssid);
+        if (index == null) {
+            return;
+        }
+        int numCleared = index.statuses.size();
+        for (BssidStatus status : new ArrayList<>(index.statuses)) {
+            mBssidBlocklistMonitorLogger.logBssidUnblocked(status, "clearBssidBlocklistForSsid");
+            removeBssidStatus(status);
         }
+        localLog(TAG + " clearBssidBlocklistForSsid: SSID=" + ssid
+                + ", num BSSIDs cleared=" + numCleared);
     }
 
     /**
@@ -757,6 +825,9 @@ public class WifiBlocklistMonitor {
                 mBssidBlocklistMonitorLogger.logBssidUnblocked(status, "clearBssidBlocklist");
             }
             mBssidStatusMap.clear();
+            mSsidIndexMap.clear();
+            mExpiryQueue.clear();
+            mBlockedBssids.clear();
             localLog(TAG + " clearBssidBlocklist: num BSSIDs cleared="
                     + (prevSize - mBssidStatusMap.size()));
         }
@@ -768,17 +839,21 @@ public class WifiBlocklistMonitor {
      * @return the number of BSSIDs currently in the blocklist for the |ssid|.
      */
     public int updateAndGetNumBlockedBssidsForSsid(@NonNull String ssid) {
-        return (int) updateAndGetBssidBlocklistInternal()
-                .filter(entry -> ssid.equals(entry.ssid)).count();
+        removeExpiredEntries();
+        return getNumBlockedBssidsForSsid(ssid);
+    }
+
+    private int getNumBlockedBssidsForSsid(String ssid) {
+        SsidIndex index = mSsidIndexMap.get(ssid);
+        return index == null ? 0 : index.numBlocked;
     }
 
     private int getNumBlockedBssidsForSsids(@NonNull Set<String> ssids) {
-        if (ssids.isEmpty()) {
-            return 0;
+        int numBlocked = 0;
+        for (String ssid : ssids) {
+            numBlocked += getNumBlockedBssidsForSsid(ssid);
         }
-        return (int) mBssidStatusMap.values().stream()
-                .filter(entry -> entry.isInBlocklist && ssids.contains(entry.ssid))
-                .count();
+        return numBlocked;
     }
 
     /**
@@ -799,12 +874,12 @@ public class WifiBlocklistMonitor {
 
     /**
      * Gets the BSSIDs that are currently in the blocklist.
-     * @return Set of BSSIDs currently in the blocklist
+     * @return Read-only view of the BSSIDs currently in the blocklist. The view reflects later
+     * changes to the blocklist, callers that need a snapshot should copy it.
      */
     public Set<String> updateAndGetBssidBlocklist() {
-        return updateAndGetBssidBlocklistInternal()
-                .map(entry -> entry.bssid)
-                .collect(Collectors.toSet());
+        removeExpiredEntries();
+        return mBlockedBssidsView;
     }
 
     /**
@@ -815,10 +890,17 @@ public class WifiBlocklistMonitor {
         if (ssid == null) {
             return Collections.emptySet();
         }
-        return mBssidStatusMap.values().stream()
-                .filter(entry -> entry.isInBlocklist && ssid.equals(entry.ssid))
-                .map(entry -> entry.blockReason)
-                .collect(Collectors.toSet());
+        SsidIndex index = mSsidIndexMap.get(ssid);
+        if (index == null || index.numBlocked == 0) {
+            return Collections.emptySet();
+        }
+        Set<Integer> reasons = new ArraySet<>();
+        for (BssidStatus status : index.statuses) {
+            if (status.isInBlocklist) {
+                reasons.add(status.blockReason);
+            }
+        }
+        return reasons;
     }
 
     /**
@@ -864,28 +946,6 @@ public class WifiBlocklistMonitor {
                 : mBssidDisableReasons.get(blockReason).isLowRssiSensitive;
     }
 
-    /**
-     * Removes expired BssidStatus entries and then return remaining entries in the blocklist.
-     * @return Stream of BssidStatus for BSSIDs that are in the blocklist.
-     */
-    private Stream<BssidStatus> updateAndGetBssidBlocklistInternal() {
-        Stream.Builder<BssidStatus> builder = Stream.builder();
-        long curTime = mClock.getWallClockMillis();
-        mBssidStatusMap.entrySet().removeIf(e -> {
-            BssidStatus status = e.getValue();
-            if (status.isInBlocklist) {
-                if (status.blocklistEndTimeMs < curTime) {
-                    mBssidBlocklistMonitorLogger.logBssidUnblocked(
-                            status, "updateAndGetBssidBlocklistInternal");
-                    return true;
-                }
-                builder.accept(status);
-            }
-            return false;
-        });
-        return builder.build();
-    }
-
     /**
      * Sends the BSSIDs belonging to the input SSID down to the firmware to prevent auto-roaming
      * to those BSSIDs.
@@ -895,11 +955,25 @@ public class WifiBlocklistMonitor {
         if (!mConnectivityHelper.isFirmwareRoamingSupported()) {
             return;
         }
-        ArrayList<String> bssidBlocklist = updateAndGetBssidBlocklistInternal()
-                .filter(entry -> ssids.contains(entry.ssid))
-                .sorted((o1, o2) -> (int) (o2.blocklistEndTimeMs - o1.blocklistEndTimeMs))
-                .map(entry -> entry.bssid)
-                .collect(Collectors.toCollection(ArrayList::new));
+        removeExpiredEntries();
+        List<BssidStatus> blockedStatuses = new ArrayList<>();
+        for (String ssid : ssids) {
+            SsidIndex index = mSsidIndexMap.get(ssid);
+            if (index == null || index.numBlocked == 0) {
+                continue;
+            }
+            for (BssidStatus status : index.statuses) {
+                if (status.isInBlocklist) {
+                    blockedStatuses.add(status);
+                }
+            }
+        }
+        blockedStatuses.sort((o1, o2) ->
+                Long.compare(o2.blocklistEndTimeMs, o1.blocklistEndTimeMs));
+        ArrayList<String> bssidBlocklist = new ArrayList<>(blockedStatuses.size());
+        for (BssidStatus status : blockedStatuses) {
+            bssidBlocklist.add(status.bssid);
+        }
         int fwMaxBlocklistSize = mConnectivityHelper.getMaxNumBlocklistBssid();
         if (fwMaxBlocklistSize <= 0) {
             Log.e(TAG, "Invalid max BSSID blocklist size:  " + fwMaxBlocklistSize);
@@ -1017,6 +1091,39 @@ public class WifiBlocklistMonitor {
         }
     }
 
+    /**
+     * Helper class that indexes the BssidStatus entries of a SSID.
+     */
+    private static class SsidIndex {
+        public final Set<BssidStatus> statuses = new ArraySet<>();
+        // Number of entries in |statuses| that are in the blocklist.
+        public int numBlocked;
+    }
+
+    /**
+     * Records the blocklist end time of a BssidStatus at the time it was blocked. The record
+     * becomes stale once the entry is removed or blocked again with a different end time.
+     */
+    private class ExpiryRecord implements Comparable<ExpiryRecord> {
+        public final BssidStatus status;
+        public final long blocklistEndTimeMs;
+
+        ExpiryRecord(BssidStatus status) {
+            this.status = status;
+            this.blocklistEndTimeMs = status.blocklistEndTimeMs;
+        }
+
+        public boolean isValid() {
+            return status.isInBlocklist && status.blocklistEndTimeMs == blocklistEndTimeMs
+                    && mBssidStatusMap.get(status.bssid) == status;
+        }
+
+        @Override
+        public int compareTo(ExpiryRecord other) {
+            return Long.compare(blocklistEndTimeMs, other.blocklistEndTimeMs);
+        }
+    }
+
     /**
      * Helper class that counts the number of failures per BSSID.
      */
@@ -661,6 +661,17 @@ public class WifiCandidates {
      */
     public @Nullable Key keyFromScanDetailAndConfig(ScanDetail scanDetail,
             WifiConfiguration config) {
+        return keyFromScanDetailAndConfig(scanDetail, config, null);
+    }
+
+    /**
+     * Makes a Key from a ScanDetail and WifiConfiguration (null if error).
+     *
+     * @param scanResultMatchInfo match info of the scan result of |scanDetail| if already known,
+     *                            otherwise null.
+     */
+    public @Nullable Key keyFromScanDetailAndConfig(ScanDetail scanDetail,
+            WifiConfiguration config, @Nullable ScanResultMatchInfo scanResultMatchInfo) {
         if (!validConfigAndScanDetail(config, scanDetail)) {
             Log.e(
                     TAG,
@@ -672,19 +683,22 @@ public class WifiCandidates {
         }
 
         ScanResult scanResult = scanDetail.getScanResult();
-        SecurityParams params = ScanResultMatchInfo.fromScanResult(scanResult)
+        if (scanResultMatchInfo == null) {
+            scanResultMatchInfo = ScanResultMatchInfo.fromScanResult(scanResult);
+        }
+        SecurityParams params = scanResultMatchInfo
                 .matchForNetworkSelection(ScanResultMatchInfo.fromWifiConfiguration(config));
         if (null == params) {
             Log.e(
                     TAG,
                     "matchForNetworkSelection failed! ScanResult: "
-                            + ScanResultMatchInfo.fromScanResult(scanResult)
+                            + scanResultMatchInfo
                             + " WifiConfig: "
                             + ScanResultMatchInfo.fromWifiConfiguration(config));
             return null;
         }
         MacAddress bssid = MacAddress.fromString(scanResult.BSSID);
-        return new Key(ScanResultMatchInfo.fromScanResult(scanResult), bssid, config.networkId,
+        return new Key(scanResultMatchInfo, bssid, config.networkId,
                 params.getSecurityType());
     }
 
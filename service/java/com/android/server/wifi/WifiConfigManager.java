@@ -394,6 +394,17 @@ public class WifiConfigManager {
     private final NetworkListSharedStoreData mNetworkListSharedStoreData;
     private final NetworkListUserStoreData mNetworkListUserStoreData;
     private final RandomizedMacStoreData mRandomizedMacStoreData;
+    /**
+     * Flags to indicate that a persisted field of a network or the randomized MAC address mapping
+     * changed since the last write. The sections serialized in the previous write are reused
+     * otherwise. The network list flag is set by the shared mutation paths
+     * ({@link #addOrUpdateNetworkInternal}, {@link #removeNetworkInternal},
+     * {@link #updateNetworkSelectionStatus(WifiConfiguration, int)}, {@link #setNetworkStatus}
+     * and the connect choice helpers); any other writer of a field serialized by
+     * {@link NetworkListStoreData} must set it as well.
+     */
+    private boolean mHasNewNetworkListToSerialize = false;
+    private boolean mHasNewMacMappingToSerialize = false;
 
     private static class NetworkIdentifier {
         private WifiSsid mSsid;
@@ -581,6 +592,7 @@ public class WifiConfigManager {
             } catch (IllegalArgumentException e) {
                 Log.e(TAG, "Error creating randomized MAC address from stored value.");
                 mRandomizedMacAddressMapping.remove(config.getNetworkKey());
+                mHasNewMacMappingToSerialize = true;
             }
         }
         MacAddress result = mMacAddressUtil.calculatePersistentMacForSta(config.getNetworkKey(),
@@ -631,6 +643,7 @@ public class WifiConfigManager {
         }
         WifiConfiguration internalConfig = getInternalConfiguredNetwork(config.networkId);
         setRandomizedMacAddress(internalConfig, persistentMac);
+        mHasNewNetworkListToSerialize = true;
         return persistentMac;
     }
 
@@ -650,6 +663,7 @@ public class WifiConfigManager {
         }
         WifiConfiguration internalConfig = getInternalConfiguredNetwork(config.networkId);
         setRandomizedMacAddress(internalConfig, MacAddressUtils.createRandomUnicastAddress());
+        mHasNewNetworkListToSerialize = true;
         return internalConfig.getRandomizedMacAddress();
     }
 
@@ -1603,6 +1617,7 @@ public class WifiConfigManager {
                 mConfiguredNetworks.remove(existingInternalConfig.networkId);
             }
             mConfiguredNetworks.put(newInternalConfig);
+            mHasNewNetworkListToSerialize = true;
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Failed to add network to config map", e);
             return new Pair<>(
@@ -1749,6 +1764,7 @@ public class WifiConfigManager {
      */
     public void incrementNumRebootsSinceLastUse() {
         getInternalConfiguredNetworks().forEach(config -> config.numRebootsSinceLastUse++);
+        mHasNewNetworkListToSerialize = true;
         saveToStore(false);
     }
 
@@ -1906,6 +1922,7 @@ public class WifiConfigManager {
             removeConnectChoiceFromAllNetworks(config.getProfileKey());
         }
         mConfiguredNetworks.remove(config.networkId);
+        mHasNewNetworkListToSerialize = true;
         mScanDetailCaches.remove(config.networkId);
         // Stage the backup of the SettingsProvider package which backs this up.
         mBackupManagerProxy.notifyDataChanged();
@@ -2126,6 +2143,7 @@ public class WifiConfigManager {
      */
     private void setNetworkStatus(WifiConfiguration config, int status) {
         config.status = status;
+        mHasNewNetworkListToSerialize = true;
         sendConfiguredNetworkChangedBroadcast(WifiManager.CHANGE_REASON_CONFIG_CHANGE, config);
     }
 
@@ -2172,6 +2190,7 @@ public class WifiConfigManager {
             // may need to update the wrong password text.
             sendConfiguredNetworkChangedBroadcast(WifiManager.CHANGE_REASON_CONFIG_CHANGE, config);
         }
+        mHasNewNetworkListToSerialize = true;
         saveToStore(false);
         return true;
     }
@@ -2348,6 +2367,7 @@ public class WifiConfigManager {
         }
         sendConfiguredNetworkChangedBroadcast(WifiManager.CHANGE_REASON_CONFIG_CHANGE, config);
         if (!config.ephemeral) {
+            mHasNewNetworkListToSerialize = true;
             saveToStore(true);
         }
         return true;
@@ -2373,6 +2393,7 @@ public class WifiConfigManager {
             return false;
         }
         config.lastConnectUid = uid;
+        mHasNewNetworkListToSerialize = true;
         return true;
     }
 
@@ -2419,6 +2440,7 @@ public class WifiConfigManager {
         setNetworkStatus(config, WifiConfiguration.Status.CURRENT);
         config.isCurrentlyConnected = true;
         config.setIsUserSelected(isUserSelected);
+        mHasNewNetworkListToSerialize = true;
         saveToStore(false);
         return true;
     }
@@ -2429,8 +2451,9 @@ public class WifiConfigManager {
      */
     public void noteCaptivePortalDetected(int networkId) {
         WifiConfiguration config = getInternalConfiguredNetwork(networkId);
-        if (config != null) {
+        if (config != null && config.getNetworkSelectionStatus().hasNeverDetectedCaptivePortal()) {
             config.getNetworkSelectionStatus().setHasNeverDetectedCaptivePortal(false);
+            mHasNewNetworkListToSerialize = true;
         }
     }
 
@@ -2463,6 +2486,7 @@ public class WifiConfigManager {
         }
         config.isCurrentlyConnected = false;
         config.setIsUserSelected(false);
+        mHasNewNetworkListToSerialize = true;
         saveToStore(false);
         return true;
     }
@@ -2480,6 +2504,7 @@ public class WifiConfigManager {
             return false;
         }
         config.defaultGwMacAddress = macAddress;
+        mHasNewNetworkListToSerialize = true;
         return true;
     }
 
@@ -2604,6 +2629,7 @@ public class WifiConfigManager {
         }
         config.numNoInternetAccessReports++;
         config.validatedInternetAccess = false;
+        mHasNewNetworkListToSerialize = true;
         return true;
     }
 
@@ -2624,6 +2650,7 @@ public class WifiConfigManager {
             config.numNoInternetAccessReports = 0;
             config.getNetworkSelectionStatus().setHasEverValidatedInternetAccess(true);
         }
+        mHasNewNetworkListToSerialize = true;
         saveToStore(false);
         return true;
     }
@@ -2641,6 +2668,7 @@ public class WifiConfigManager {
             return false;
         }
         config.noInternetAccessExpected = expected;
+        mHasNewNetworkListToSerialize = true;
         return true;
     }
 
@@ -2889,6 +2917,7 @@ public class WifiConfigManager {
                     result.level = (int) ((double) result.level * (1 - alpha)
                                         + (double) previousRssi * alpha);
                 }
+                scanDetailCache.onScanDetailUpdated(scanDetail);
                 if (mVerboseLoggingEnabled) {
                     Log.v(TAG, "Updating scan detail cache freq=" + result.frequency
                             + " BSSID=" + result.BSSID
@@ -3009,6 +3038,7 @@ public class WifiConfigManager {
         // public interface changes and need some migration of existing store data.
         network2.linkedConfigurations.put(network1.getProfileKey(), 1);
         network1.linkedConfigurations.put(network2.getProfileKey(), 1);
+        mHasNewNetworkListToSerialize = true;
     }
 
     /**
@@ -3025,6 +3055,7 @@ public class WifiConfigManager {
                         + " from " + network2.getProfileKey());
             }
             network2.linkedConfigurations.remove(network1.getProfileKey());
+            mHasNewNetworkListToSerialize = true;
         }
         if (network1.linkedConfigurations != null
                 && (network1.linkedConfigurations.get(network2.getProfileKey()) != null)) {
@@ -3033,6 +3064,7 @@ public class WifiConfigManager {
                         + " from " + network1.getProfileKey());
             }
             network1.linkedConfigurations.remove(network2.getProfileKey());
+            mHasNewNetworkListToSerialize = true;
         }
     }
 
@@ -3169,6 +3201,7 @@ public class WifiConfigManager {
                 + mUserTemporarilyDisabledList.size() + ", maxDisableDurationMinutes:"
                 + maxDisableDurationMinutes);
         removeUserChoiceFromDisabledNetwork(network, uid);
+        mHasNewNetworkListToSerialize = true;
         saveToStore(false);
     }
 
@@ -3297,6 +3330,7 @@ public class WifiConfigManager {
                 }
                 // do not reset anonymous identity since it may be dependent on user-entry
                 // (i.e. cannot re-request on every reboot/SIM re-entry)
+                mHasNewNetworkListToSerialize = true;
             } else {
                 // reset identity as well: supplicant will ask us for it
                 config.enterpriseConfig.setIdentity("");
@@ -3304,6 +3338,7 @@ public class WifiConfigManager {
                         config.enterpriseConfig.getAnonymousIdentity())) {
                     config.enterpriseConfig.setAnonymousIdentity("");
                 }
+                mHasNewNetworkListToSerialize = true;
             }
         }
     }
@@ -3462,6 +3497,9 @@ public class WifiConfigManager {
         mUserTemporarilyDisabledList.clear();
         mNonCarrierMergedNetworksStatusTracker.clear();
         mRandomizedMacAddressMapping.clear();
+        // Everything is rewritten with the next write, including data loaded after this.
+        mHasNewNetworkListToSerialize = true;
+        mHasNewMacMappingToSerialize = true;
         mScanDetailCaches.clear();
         clearLastSelectedNetwork();
     }
@@ -3498,6 +3536,7 @@ public class WifiConfigManager {
         if (!removedNetworkIds.isEmpty()) {
             sendConfiguredNetworkChangedBroadcast(WifiManager.CHANGE_REASON_REMOVED, null);
         }
+        mHasNewNetworkListToSerialize = true;
         mUserTemporarilyDisabledList.clear();
         mNonCarrierMergedNetworksStatusTracker.clear();
         mScanDetailCaches.clear();
@@ -3554,6 +3593,7 @@ public class WifiConfigManager {
      * @param configurations list of configurations retrieved from store.
      */
     private void loadInternalDataFromUserStore(List<WifiConfiguration> configurations) {
+        mHasNewNetworkListToSerialize = true;
         long supportedFeatures = mWifiInjector.getActiveModeWarden()
                 .getPrimaryClientModeManager().getSupportedFeatures();
 
@@ -3807,8 +3847,12 @@ public class WifiConfigManager {
                 continue;
             }
 
-            config.isMostRecentlyConnected =
+            boolean isMostRecentlyConnected =
                     mLruConnectionTracker.isMostRecentlyConnected(config);
+            if (config.isMostRecentlyConnected != isMostRecentlyConnected) {
+                config.isMostRecentlyConnected = isMostRecentlyConnected;
+                mHasNewNetworkListToSerialize = true;
+            }
 
             // We push all shared networks & private networks not belonging to the current
             // user to the shared store. Ideally, private networks for other users should
@@ -3828,17 +3872,24 @@ public class WifiConfigManager {
         // Remove the configurations for migrated Passpoint configurations.
         for (int networkId : legacyPasspointNetId) {
             mConfiguredNetworks.remove(networkId);
+            mHasNewNetworkListToSerialize = true;
         }
 
         // Setup store data for write.
         mNetworkListSharedStoreData.setConfigurations(sharedConfigurations);
         mNetworkListUserStoreData.setConfigurations(userConfigurations);
         mRandomizedMacStoreData.setMacMapping(mRandomizedMacAddressMapping);
+        mNetworkListSharedStoreData.setHasNewDataToSerialize(mHasNewNetworkListToSerialize);
+        mNetworkListUserStoreData.setHasNewDataToSerialize(mHasNewNetworkListToSerialize);
+        mRandomizedMacStoreData.setHasNewDataToSerialize(mHasNewMacMappingToSerialize);
 
         try {
             long start = mClock.getElapsedSinceBootMillis();
             mWifiConfigStore.write(forceWrite);
             mWifiMetrics.wifiConfigStored((int) (mClock.getElapsedSinceBootMillis() - start));
+            // The data has been handed over to the store files.
+            mHasNewNetworkListToSerialize = false;
+            mHasNewMacMappingToSerialize = false;
         } catch (IOException | IllegalStateException e) {
             Log.wtf(TAG, "Writing to store failed. Saved networks maybe lost!", e);
             return false;
@@ -4077,11 +4128,13 @@ public class WifiConfigManager {
     private void clearConnectChoiceInternal(WifiConfiguration config) {
         config.getNetworkSelectionStatus().setConnectChoice(null);
         config.getNetworkSelectionStatus().setConnectChoiceRssi(0);
+        mHasNewNetworkListToSerialize = true;
     }
 
     private void setConnectChoiceInternal(WifiConfiguration config, String key, int rssi) {
         config.getNetworkSelectionStatus().setConnectChoice(key);
         config.getNetworkSelectionStatus().setConnectChoiceRssi(rssi);
+        mHasNewNetworkListToSerialize = true;
         localLog("Add connect choice key: " + key + " rssi: " + rssi + " to "
                 + WifiNetworkSelector.toNetworkString(config));
     }
@@ -4173,6 +4226,7 @@ public class WifiConfigManager {
             changed = true;
         }
         if (changed) {
+            mHasNewNetworkListToSerialize = true;
             for (OnNetworkUpdateListener listener : mListeners) {
                 listener.onSecurityParamsUpdate(copy, config.getSecurityParamsList());
             }
@@ -4210,6 +4264,7 @@ public class WifiConfigManager {
             return;
         }
         internalConfig.linkedConfigurations = new HashMap<>();
+        mHasNewNetworkListToSerialize = true;
         attemptNetworkLinking(internalConfig);
     }
 
@@ -4265,6 +4320,7 @@ public class WifiConfigManager {
             return;
         }
         internalConfig.enableFils(isFilsSha256Supported, isFilsSha384Supported);
+        mHasNewNetworkListToSerialize = true;
     }
 
     /**
@@ -4282,6 +4338,7 @@ public class WifiConfigManager {
             return;
         }
         internalConfig.setSecurityParamsIsAddedByAutoUpgrade(securityType, isAddedByAutoUpgrade);
+        mHasNewNetworkListToSerialize = true;
         saveToStore(true);
     }
 
@@ -4428,8 +4485,10 @@ public class WifiConfigManager {
                 .filter(config -> config.isEnterprise())
                 .filter(config -> config.enterpriseConfig.isEapMethodServerCertUsed())
                 .filter(config -> !config.enterpriseConfig.hasCaCertificate())
-                .forEach(config ->
-                        config.enterpriseConfig.enableTrustOnFirstUse(enableTrustOnFirstUse));
+                .forEach(config -> {
+                    config.enterpriseConfig.enableTrustOnFirstUse(enableTrustOnFirstUse);
+                    mHasNewNetworkListToSerialize = true;
+                });
     }
 
     /**
@@ -4444,6 +4503,7 @@ public class WifiConfigManager {
         if (!internalConfig.isEnterprise()) return;
         if (!internalConfig.enterpriseConfig.isEapMethodServerCertUsed()) return;
         internalConfig.enterpriseConfig.setUserApproveNoCaCert(approved);
+        mHasNewNetworkListToSerialize = true;
     }
 
     /**
@@ -4458,6 +4518,7 @@ public class WifiConfigManager {
         if (!internalConfig.isEnterprise()) return;
         if (!internalConfig.enterpriseConfig.isEapMethodServerCertUsed()) return;
         internalConfig.enterpriseConfig.enableTrustOnFirstUse(enable);
+        mHasNewNetworkListToSerialize = true;
     }
 
     /**
@@ -4472,6 +4533,7 @@ public class WifiConfigManager {
         if (!internalConfig.isEnterprise()) return;
         if (!internalConfig.enterpriseConfig.isEapMethodServerCertUsed()) return;
         internalConfig.enterpriseConfig.setTofuDialogApproved(approved);
+        mHasNewNetworkListToSerialize = true;
     }
 
     /**
@@ -4493,6 +4555,7 @@ public class WifiConfigManager {
         if (!internalConfig.isEnterprise()) return;
         if (!internalConfig.enterpriseConfig.isEapMethodServerCertUsed()) return;
         internalConfig.enterpriseConfig.setTofuConnectionState(state);
+        mHasNewNetworkListToSerialize = true;
     }
 
     /**
@@ -27,6 +27,8 @@ import android.net.wifi.WifiMigration;
 import android.net.wifi.util.Environment;
 import android.os.Handler;
 import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.AtomicFile;
 import android.util.Log;
 import android.util.SparseArray;
@@ -35,6 +37,8 @@ import android.util.Xml;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.internal.util.Preconditions;
+import com.android.modules.utils.BinaryXmlPullParser;
+import com.android.modules.utils.BinaryXmlSerializer;
 import com.android.server.wifi.util.EncryptedData;
 import com.android.server.wifi.util.FileUtils;
 import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
@@ -56,13 +60,20 @@ import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -77,7 +88,8 @@ import java.util.stream.Stream;
  * use {@link WifiConfigManager#saveToStore(boolean)} for any writes.</li>
  * <li>{@link WifiConfigManager} controls {@link WifiConfigStore} and initiates read at bootup and
  * store file changes on user switch.</li>
- * <li>Not thread safe!</li>
+ * <li>Not thread safe! All the public methods must be invoked on the handler thread. When a
+ * writer handler is provided, only the file I/O is performed on the writer thread.</li>
  */
 public class WifiConfigStore {
     /**
@@ -153,6 +165,16 @@ public class WifiConfigStore {
      * Time interval for buffering file writes for non-forced writes
      */
     private static final int BUFFERED_WRITE_ALARM_INTERVAL_MS = 10 * 1000;
+    /**
+     * Maximum time to wait for the writer thread to flush out pending writes for forced writes
+     * and reads.
+     */
+    private static final int WRITER_FLUSH_TIMEOUT_MS = 10 * 1000;
+    /**
+     * Length of the header identifying a store file in the binary XML format.
+     */
+    private static final int BINARY_FORMAT_MAGIC_LENGTH =
+            BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_0.length;
     /**
      * Config store file name for general shared store file.
      */
@@ -184,6 +206,11 @@ public class WifiConfigStore {
      * Handler instance to post alarm timeouts to
      */
     private final Handler mEventHandler;
+    /**
+     * Handler instance to perform the file writes on. If null, the writes are performed
+     * synchronously on the caller thread.
+     */
+    private final @Nullable Handler mWriterHandler;
     /**
      * Alarm manager instance to start buffer timeout alarms.
      */
@@ -207,6 +234,11 @@ public class WifiConfigStore {
      * Verbose logging flag.
      */
     private boolean mVerboseLoggingEnabled = false;
+    /**
+     * Whether to write the store files in the binary XML format. Files are always readable in
+     * either format.
+     */
+    private boolean mBinaryFormatEnabled = false;
     /**
      * Flag to indicate if there is a buffered write pending.
      */
@@ -229,6 +261,27 @@ public class WifiConfigStore {
      * List of data containers.
      */
     private final List<StoreData> mStoreDataList;
+    /**
+     * Serialized section of each data container from the last write, reused as is when the
+     * container has no new data to serialize. Cleared whenever the containers are reset.
+     */
+    private final Map<StoreData, SerializedSection> mSerializedSections = new ArrayMap<>();
+    private int mNumSectionsSerialized = 0;
+    private int mNumSectionsReused = 0;
+
+    /**
+     * Serialized bytes of one {@link StoreData} section, along with the file it was serialized
+     * for (the encryption used may differ across files).
+     */
+    private static class SerializedSection {
+        public final StoreFile storeFile;
+        public final byte[] bytes;
+
+        SerializedSection(StoreFile storeFile, byte[] bytes) {
+            this.storeFile = storeFile;
+            this.bytes = bytes;
+        }
+    }
 
     /**
      * Create a new instance of WifiConfigStore.
@@ -244,9 +297,27 @@ public class WifiConfigStore {
      */
     public WifiConfigStore(Context context, Handler handler, Clock clock, WifiMetrics wifiMetrics,
             List<StoreFile> sharedStores) {
+        this(context, handler, null, clock, wifiMetrics, sharedStores);
+    }
+
+    /**
+     * Create a new instance of WifiConfigStore which performs the file writes on a separate
+     * thread.
+     *
+     * The data is still serialized on |handler|'s thread since the {@link StoreData} modules are
+     * not thread safe, but the resulting bytes are handed over to |writerHandler| for the
+     * actual file write. Writes queued up on the writer are coalesced, i.e only the latest
+     * serialized data for each file is written.
+     *
+     * @param writerHandler handler instance to perform the file writes on, or null to write
+     *                      synchronously.
+     */
+    public WifiConfigStore(Context context, Handler handler, @Nullable Handler writerHandler,
+            Clock clock, WifiMetrics wifiMetrics, List<StoreFile> sharedStores) {
 
         mAlarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
         mEventHandler = handler;
+        mWriterHandler = writerHandler;
         mClock = clock;
         mWifiMetrics = wifiMetrics;
         mStoreDataList = new ArrayList<>();
@@ -373,6 +444,18 @@ public class WifiConfigStore {
         mVerboseLoggingEnabled = verbose;
     }
 
+    /**
+     * Enable/Disable writing the store files in the compact binary XML format instead of text
+     * XML. The {@link StoreData} modules are unaffected, they are handed a parser/serializer for
+     * the format in use. Store files found in the other format on the next read are converted
+     * once, so the setting can be switched in both directions.
+     *
+     * Note: Must be invoked before the first read.
+     */
+    public void setBinaryFormatEnabled(boolean enabled) {
+        mBinaryFormatEnabled = enabled;
+    }
+
     /**
      * Retrieve the list of {@link StoreData} instances registered for the provided
      * {@link StoreFile}.
@@ -385,12 +468,27 @@ public class WifiConfigStore {
     }
 
     /**
-     * Check if any of the provided list of {@link StoreData} instances registered
-     * for the provided {@link StoreFile }have indicated that they have new data to serialize.
+     * Serialize the data for the provided {@link StoreFile} and hand it over to the file, if any
+     * of the {@link StoreData} instances registered for it have indicated that they have new data
+     * to serialize.
+     *
+     * @return true if there was new data to serialize, false otherwise.
      */
-    private boolean hasNewDataToSerialize(@NonNull StoreFile storeFile) {
+    private boolean serializeNewData(@NonNull StoreFile storeFile)
+            throws XmlPullParserException, IOException {
         List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
-        return storeDataList.stream().anyMatch(s -> s.hasNewDataToSerialize());
+        Set<StoreData> storeDatasWithNewData = new ArraySet<>();
+        for (StoreData storeData : storeDataList) {
+            if (storeData.hasNewDataToSerialize()) {
+                storeDatasWithNewData.add(storeData);
+            }
+        }
+        if (storeDatasWithNewData.isEmpty()) {
+            return false;
+        }
+        storeFile.storeRawDataToWrite(
+                serializeData(storeFile, storeDataList, storeDatasWithNewData));
+        return true;
     }
 
     /**
@@ -407,17 +505,13 @@ public class WifiConfigStore {
         // Serialize the provided data and send it to the respective stores. The actual write will
         // be performed later depending on the |forceSync| flag .
         for (StoreFile sharedStoreFile : mSharedStores) {
-            if (hasNewDataToSerialize(sharedStoreFile)) {
-                byte[] sharedDataBytes = serializeData(sharedStoreFile);
-                sharedStoreFile.storeRawDataToWrite(sharedDataBytes);
+            if (serializeNewData(sharedStoreFile)) {
                 hasAnyNewData = true;
             }
         }
         if (mUserStores != null) {
             for (StoreFile userStoreFile : mUserStores) {
-                if (hasNewDataToSerialize(userStoreFile)) {
-                    byte[] userDataBytes = serializeData(userStoreFile);
-                    userStoreFile.storeRawDataToWrite(userDataBytes);
+                if (serializeNewData(userStoreFile)) {
                     hasAnyNewData = true;
                 }
             }
@@ -427,14 +521,17 @@ public class WifiConfigStore {
             // Every write provides a new snapshot to be persisted, so |forceSync| flag overrides
             // any pending buffer writes.
             if (forceSync) {
-                writeBufferedData();
+                writeBufferedDataAndWait();
             } else {
                 startBufferedWriteAlarm();
             }
         } else if (forceSync && mBufferedWritePending) {
             // no new data to write, but there is a pending buffered write. So, |forceSync| should
             // flush that out.
-            writeBufferedData();
+            writeBufferedDataAndWait();
+        } else if (forceSync) {
+            // Make sure that any write already handed over to the writer is persisted.
+            waitForWriter();
         }
     }
 
@@ -442,36 +539,75 @@ public class WifiConfigStore {
      * Serialize all the data from all the {@link StoreData} clients registered for the provided
      * {@link StoreFile}.
      *
-     * This method also computes the integrity of the data being written and serializes the computed
-     * {@link EncryptedData} to the output.
+     * Only the clients in |storeDatasWithNewData| are asked to serialize their data, the sections
+     * of the other clients are copied from the previous write when available.
      *
      * @param storeFile StoreFile that we want to write to.
+     * @param storeDataList all the StoreData registered for |storeFile|.
+     * @param storeDatasWithNewData the StoreData which have new data to serialize.
      * @return byte[] of serialized bytes
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private byte[] serializeData(@NonNull StoreFile storeFile)
+    private byte[] serializeData(@NonNull StoreFile storeFile,
+            @NonNull List<StoreData> storeDataList, @NonNull Set<StoreData> storeDatasWithNewData)
             throws XmlPullParserException, IOException {
-        List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
-
-        final XmlSerializer out = new FastXmlSerializer();
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        final XmlSerializer out = newSerializer(outputStream, mBinaryFormatEnabled);
 
         // First XML header.
         XmlUtil.writeDocumentStart(out, XML_TAG_DOCUMENT_HEADER);
         // Next version.
         XmlUtil.writeNextValue(out, XML_TAG_VERSION, CURRENT_CONFIG_STORE_DATA_VERSION);
+        if (mBinaryFormatEnabled) {
+            // The binary format interns strings across the whole document, so sections cannot
+            // be serialized separately and spliced.
+            for (StoreData storeData : storeDataList) {
+                String tag = storeData.getName();
+                XmlUtil.writeNextSectionStart(out, tag);
+                storeData.serializeData(out, storeFile.getEncryptionUtil());
+                XmlUtil.writeNextSectionEnd(out, tag);
+                mNumSectionsSerialized++;
+            }
+            XmlUtil.writeDocumentEnd(out, XML_TAG_DOCUMENT_HEADER);
+            return outputStream.toByteArray();
+        }
+        // Each section is a self contained XML fragment, splice them in after the header.
+        out.flush();
         for (StoreData storeData : storeDataList) {
-            String tag = storeData.getName();
-            XmlUtil.writeNextSectionStart(out, tag);
-            storeData.serializeData(out, storeFile.getEncryptionUtil());
-            XmlUtil.writeNextSectionEnd(out, tag);
+            outputStream.write(getSerializedSection(storeFile, storeData,
+                    storeDatasWithNewData.contains(storeData)));
         }
         XmlUtil.writeDocumentEnd(out, XML_TAG_DOCUMENT_HEADER);
         return outputStream.toByteArray();
     }
 
+    /**
+     * Returns the serialized section for the provided {@link StoreData}, serializing it only if
+     * it has new data or if there is no section from a previous write to reuse.
+     */
+    private byte[] getSerializedSection(@NonNull StoreFile storeFile,
+            @NonNull StoreData storeData, boolean hasNewData)
+            throws XmlPullParserException, IOException {
+        SerializedSection section = mSerializedSections.get(storeData);
+        if (!hasNewData && section != null && section.storeFile == storeFile) {
+            mNumSectionsReused++;
+            return section.bytes;
+        }
+        final XmlSerializer out = new FastXmlSerializer();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        String tag = storeData.getName();
+        XmlUtil.writeNextSectionStart(out, tag);
+        storeData.serializeData(out, storeFile.getEncryptionUtil());
+        XmlUtil.writeNextSectionEnd(out, tag);
+        out.flush();
+        byte[] bytes = outputStream.toByteArray();
+        mSerializedSections.put(storeData, new SerializedSection(storeFile, bytes));
+        mNumSectionsSerialized++;
+        return bytes;
+    }
+
     /**
      * Helper method to start a buffered write alarm if one doesn't already exist.
      */
@@ -495,20 +631,130 @@ public class WifiConfigStore {
     }
 
     /**
-     * Helper method to actually perform the writes to the file. This flushes out any write data
-     * being buffered in the respective stores and cancels any pending buffer write alarms.
+     * Helper method to flush out any write data being buffered in the respective stores and
+     * cancel any pending buffer write alarms. If there is a writer handler, the write is only
+     * queued on it.
      */
     private void writeBufferedData() throws IOException {
         stopBufferedWriteAlarm();
+        List<StoreFile> storeFiles = getAllStoreFiles();
+        if (mWriterHandler == null) {
+            writeStoreFiles(storeFiles);
+            return;
+        }
+        mWriterHandler.post(() -> {
+            try {
+                writeStoreFiles(storeFiles);
+            } catch (IOException e) {
+                Log.wtf(TAG, "Buffered write failed", e);
+            }
+        });
+    }
 
-        long writeStartTime = mClock.getElapsedSinceBootMillis();
-        for (StoreFile sharedStoreFile : mSharedStores) {
-            sharedStoreFile.writeBufferedRawData();
+    /**
+     * Same as {@link #writeBufferedData()}, but also waits for the writer to persist the data.
+     * Used by forced writes, which must be durable when they return (e.g before shutdown).
+     */
+    private void writeBufferedDataAndWait() throws IOException {
+        stopBufferedWriteAlarm();
+        List<StoreFile> storeFiles = getAllStoreFiles();
+        if (mWriterHandler == null) {
+            writeStoreFiles(storeFiles);
+            return;
         }
-        if (mUserStores != null) {
-            for (StoreFile userStoreFile : mUserStores) {
-                userStoreFile.writeBufferedRawData();
+        runOnWriterAndWait(new FutureTask<>(() -> {
+            writeStoreFiles(storeFiles);
+            return null;
+        }));
+    }
+
+    /**
+     * Wait for all the writes already queued on the writer to complete.
+     */
+    private void waitForWriter() throws IOException {
+        if (mWriterHandler == null) return;
+        runOnWriterAndWait(new FutureTask<>(() -> null));
+    }
+
+    /**
+     * Wait for all the writes already queued on the writer to complete before reading the store
+     * files. Waits at most {@link #WRITER_FLUSH_TIMEOUT_MS}, like a forced write, but does not
+     * fail the read when the writer is still busy: failing it would leave the wifi stack without
+     * any of the saved data, so the store files are read as they are.
+     */
+    private void waitForWriterBeforeRead() {
+        if (mWriterHandler == null) return;
+        FutureTask<Void> task = new FutureTask<>(() -> null);
+        if (!mWriterHandler.post(task)) {
+            // Nothing queued on the writer will run anymore.
+            Log.e(TAG, "Writer thread is not running, reading the store files as they are");
+            return;
+        }
+        try {
+            task.get(WRITER_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.e(TAG, "Writer thread still busy after " + WRITER_FLUSH_TIMEOUT_MS
+                    + " ms, reading the store files as they are");
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted waiting for the writer thread, reading the store files");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Not thrown by an empty task.
+        }
+    }
+
+    /**
+     * Returns the user store files read by {@link #prefetchUserStoreFiles()}, or null if they
+     * could not be read on the writer thread, in which case they are read again by the caller.
+     */
+    private @Nullable List<RawStoreFileData> getPrefetchedUserStoreFiles(
+            @Nullable FutureTask<List<RawStoreFileData>> prefetch) {
+        if (prefetch == null) return null;
+        try {
+            return waitForWriterTask(prefetch);
+        } catch (IOException e) {
+            Log.w(TAG, "Prefetching the user store files failed, reading them again", e);
+            prefetch.cancel(false);
+            return null;
+        }
+    }
+
+    private <T> T runOnWriterAndWait(FutureTask<T> task) throws IOException {
+        if (!mWriterHandler.post(task)) {
+            throw new IOException("Writer thread is not running");
+        }
+        return waitForWriterTask(task);
+    }
+
+    private <T> T waitForWriterTask(FutureTask<T> task) throws IOException {
+        try {
+            return task.get(WRITER_FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
+            throw new IOException("Writer task failed", e.getCause());
+        } catch (InterruptedException | TimeoutException e) {
+            throw new IOException("Timed out waiting for the writer thread", e);
+        }
+    }
+
+    private List<StoreFile> getAllStoreFiles() {
+        List<StoreFile> storeFiles = new ArrayList<>(mSharedStores);
+        if (mUserStores != null) {
+            storeFiles.addAll(mUserStores);
+        }
+        return storeFiles;
+    }
+
+    /**
+     * Helper method to actually perform the writes to the files. Invoked on the writer thread
+     * if there is one.
+     */
+    private void writeStoreFiles(List<StoreFile> storeFiles) throws IOException {
+        long writeStartTime = mClock.getElapsedSinceBootMillis();
+        for (StoreFile storeFile : storeFiles) {
+            storeFile.writeBufferedRawData();
         }
         long writeTime = mClock.getElapsedSinceBootMillis() - writeStartTime;
         try {
@@ -585,6 +831,67 @@ public class WifiConfigStore {
         return readAtomicFileFully(migrationIs);
     }
 
+    /**
+     * Raw content of a store file along with the time it took to read it from disk.
+     */
+    private static class RawStoreFileData {
+        public final byte[] bytes;
+        public final long readTimeMs;
+
+        RawStoreFileData(byte[] bytes, long readTimeMs) {
+            this.bytes = bytes;
+            this.readTimeMs = readTimeMs;
+        }
+    }
+
+    private RawStoreFileData readRawStoreFileData(@NonNull StoreFile storeFile)
+            throws IOException {
+        long readStartTime = mClock.getElapsedSinceBootMillis();
+        byte[] bytes = storeFile.readRawData();
+        return new RawStoreFileData(bytes, mClock.getElapsedSinceBootMillis() - readStartTime);
+    }
+
+    /**
+     * Start reading the user store files on the writer thread, so that the disk reads overlap
+     * with parsing the shared store files on the caller thread.
+     *
+     * @return the pending read or null if there is no writer thread or no user store files.
+     */
+    private @Nullable FutureTask<List<RawStoreFileData>> prefetchUserStoreFiles() {
+        if (mWriterHandler == null || mUserStores == null) return null;
+        final List<StoreFile> userStores = mUserStores;
+        FutureTask<List<RawStoreFileData>> task = new FutureTask<>(() -> {
+            List<RawStoreFileData> rawDataList = new ArrayList<>();
+            for (StoreFile userStoreFile : userStores) {
+                rawDataList.add(readRawStoreFileData(userStoreFile));
+            }
+            return rawDataList;
+        });
+        return mWriterHandler.post(task) ? task : null;
+    }
+
+    /**
+     * Helper method to parse the data of a store file and report the per file timings.
+     */
+    private void deserializeDataAndNoteDurations(byte[] dataBytes, @NonNull StoreFile storeFile,
+            long readTimeMs) throws XmlPullParserException, IOException {
+        WifiConfigStoreEncryptionUtil encryptionUtil = storeFile.getEncryptionUtil();
+        if (encryptionUtil != null) {
+            encryptionUtil.getAndResetDecryptDurationNanos();
+        }
+        long parseStartTime = mClock.getElapsedSinceBootMillis();
+        deserializeData(dataBytes, storeFile);
+        long parseTimeMs = mClock.getElapsedSinceBootMillis() - parseStartTime;
+        long decryptTimeMs = encryptionUtil == null ? 0
+                : TimeUnit.NANOSECONDS.toMillis(encryptionUtil.getAndResetDecryptDurationNanos());
+        try {
+            mWifiMetrics.noteWifiConfigStoreFileReadDurations(toIntExact(readTimeMs),
+                    toIntExact(parseTimeMs), toIntExact(decryptTimeMs));
+        } catch (ArithmeticException e) {
+            // Silently ignore on any overflow errors.
+        }
+    }
+
     /**
      * Helper method to read from the shared store files.
      * @throws XmlPullParserException
@@ -592,11 +899,13 @@ public class WifiConfigStore {
      */
     private void readFromSharedStoreFiles() throws XmlPullParserException, IOException {
         for (StoreFile sharedStoreFile : mSharedStores) {
+            long readStartTime = mClock.getElapsedSinceBootMillis();
             byte[] sharedDataBytes =
                     readDataFromMigrationSharedStoreFile(sharedStoreFile.getFileId());
             if (sharedDataBytes == null) {
                 // nothing to migrate, do normal read.
                 sharedDataBytes = sharedStoreFile.readRawData();
+                convertStoreFileFormatIfNeeded(sharedStoreFile, sharedDataBytes);
             } else {
                 Log.i(TAG, "Read data out of shared migration store file: "
                         + sharedStoreFile.getName());
@@ -609,22 +918,36 @@ public class WifiConfigStore {
                 WifiMigration.removeSharedConfigStoreFile(
                         getMigrationStoreFileId(sharedStoreFile.getFileId()));
             }
-            deserializeData(sharedDataBytes, sharedStoreFile);
+            deserializeDataAndNoteDurations(sharedDataBytes, sharedStoreFile,
+                    mClock.getElapsedSinceBootMillis() - readStartTime);
         }
     }
 
     /**
      * Helper method to read from the user store files.
+     *
+     * @param prefetchedRawData Raw data of |mUserStores| already read by
+     *                          {@link #prefetchUserStoreFiles()}, or null to read the files here.
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private void readFromUserStoreFiles() throws XmlPullParserException, IOException {
-        for (StoreFile userStoreFile : mUserStores) {
+    private void readFromUserStoreFiles(@Nullable List<RawStoreFileData> prefetchedRawData)
+            throws XmlPullParserException, IOException {
+        for (int i = 0; i < mUserStores.size(); i++) {
+            StoreFile userStoreFile = mUserStores.get(i);
+            long readStartTime = mClock.getElapsedSinceBootMillis();
+            long readTimeMs = -1;
             byte[] userDataBytes = readDataFromMigrationUserStoreFile(
                     userStoreFile.getFileId(), userStoreFile.mUserHandle);
             if (userDataBytes == null) {
                 // nothing to migrate, do normal read.
-                userDataBytes = userStoreFile.readRawData();
+                if (prefetchedRawData != null) {
+                    userDataBytes = prefetchedRawData.get(i).bytes;
+                    readTimeMs = prefetchedRawData.get(i).readTimeMs;
+                } else {
+                    userDataBytes = userStoreFile.readRawData();
+                }
+                convertStoreFileFormatIfNeeded(userStoreFile, userDataBytes);
             } else {
                 Log.i(TAG, "Read data out of user migration store file: "
                         + userStoreFile.getName());
@@ -638,7 +961,10 @@ public class WifiConfigStore {
                         getMigrationStoreFileId(userStoreFile.getFileId()),
                         userStoreFile.mUserHandle);
             }
-            deserializeData(userDataBytes, userStoreFile);
+            if (readTimeMs < 0) {
+                readTimeMs = mClock.getElapsedSinceBootMillis() - readStartTime;
+            }
+            deserializeDataAndNoteDurations(userDataBytes, userStoreFile, readTimeMs);
         }
     }
 
@@ -646,8 +972,12 @@ public class WifiConfigStore {
      * API to read the store data from the config stores.
      * The method reads the user specific configurations from user specific config store and the
      * shared configurations from the shared config store.
+     * When there is a writer thread, the user store files are read from disk on it while the
+     * shared store files are being parsed.
      */
     public void read() throws XmlPullParserException, IOException {
+        // Don't read the files while the writer may still be writing them.
+        waitForWriterBeforeRead();
         // Reset both share and user store data.
         for (StoreFile sharedStoreFile : mSharedStores) {
             resetStoreData(sharedStoreFile);
@@ -658,9 +988,10 @@ public class WifiConfigStore {
             }
         }
         long readStartTime = mClock.getElapsedSinceBootMillis();
+        FutureTask<List<RawStoreFileData>> userStoresPrefetch = prefetchUserStoreFiles();
         readFromSharedStoreFiles();
         if (mUserStores != null) {
-            readFromUserStoreFiles();
+            readFromUserStoreFiles(getPrefetchedUserStoreFiles(userStoresPrefetch));
         }
         long readTime = mClock.getElapsedSinceBootMillis() - readStartTime;
         try {
@@ -689,11 +1020,12 @@ public class WifiConfigStore {
 
         // Stop any pending buffered writes, if any.
         stopBufferedWriteAlarm();
+        waitForWriterBeforeRead();
         mUserStores = userStores;
 
         // Now read from the user store files.
         long readStartTime = mClock.getElapsedSinceBootMillis();
-        readFromUserStoreFiles();
+        readFromUserStoreFiles(null);
         long readTime = mClock.getElapsedSinceBootMillis() - readStartTime;
         mWifiMetrics.noteWifiConfigStoreReadDuration(toIntExact(readTime));
         Log.d(TAG, "Reading from user stores completed in " + readTime + " ms.");
@@ -705,6 +1037,8 @@ public class WifiConfigStore {
     private void resetStoreData(@NonNull StoreFile storeFile) {
         for (StoreData storeData: retrieveStoreDataListForStoreFile(storeFile)) {
             storeData.resetData();
+            // The data is about to be replaced by the content of the file.
+            mSerializedSections.remove(storeData);
         }
     }
 
@@ -739,9 +1073,7 @@ public class WifiConfigStore {
                     storeFile.getEncryptionUtil());
             return;
         }
-        final XmlPullParser in = Xml.newPullParser();
-        final ByteArrayInputStream inputStream = new ByteArrayInputStream(dataBytes);
-        in.setInput(inputStream, StandardCharsets.UTF_8.name());
+        final XmlPullParser in = newPullParser(dataBytes);
 
         // Start parsing the XML stream.
         int rootTagDepth = in.getDepth() + 1;
@@ -778,6 +1110,113 @@ public class WifiConfigStore {
         indicateNoDataForStoreDatas(storeDatasNotInvoked, version, storeFile.getEncryptionUtil());
     }
 
+    /**
+     * Check if the provided store file content is in the binary XML format.
+     */
+    private static boolean isBinaryFormat(@NonNull byte[] dataBytes) {
+        if (dataBytes.length < BINARY_FORMAT_MAGIC_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < BINARY_FORMAT_MAGIC_LENGTH; i++) {
+            if (dataBytes[i] != BinaryXmlSerializer.PROTOCOL_MAGIC_VERSION_0[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create a parser for the provided store file content, in whichever format it is in.
+     */
+    private static XmlPullParser newPullParser(@NonNull byte[] dataBytes)
+            throws XmlPullParserException {
+        final XmlPullParser in = isBinaryFormat(dataBytes)
+                ? new BinaryXmlPullParser() : Xml.newPullParser();
+        in.setInput(new ByteArrayInputStream(dataBytes), StandardCharsets.UTF_8.name());
+        return in;
+    }
+
+    private static XmlSerializer newSerializer(@NonNull ByteArrayOutputStream outputStream,
+            boolean binary) throws IOException {
+        final XmlSerializer out = binary ? new BinaryXmlSerializer() : new FastXmlSerializer();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        return out;
+    }
+
+    /**
+     * Convert store file content between the text and binary XML formats. The document structure,
+     * attributes and text are copied as is. Whitespace between elements is formatting and is
+     * dropped, whitespace only content of an element is kept.
+     *
+     * @param dataBytes store file content in either format.
+     * @param toBinary true to convert to the binary format, false to convert to text.
+     * @return the converted content.
+     */
+    @VisibleForTesting
+    public static byte[] convertFormat(@NonNull byte[] dataBytes, boolean toBinary)
+            throws XmlPullParserException, IOException {
+        final XmlPullParser in = newPullParser(dataBytes);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final XmlSerializer out = newSerializer(outputStream, toBinary);
+        out.startDocument(null, true);
+        String pendingWhitespace = null;
+        boolean afterStartTag = false;
+        int eventType;
+        while ((eventType = in.next()) != XmlPullParser.END_DOCUMENT) {
+            switch (eventType) {
+                case XmlPullParser.START_TAG:
+                    out.startTag(null, in.getName());
+                    for (int i = 0; i < in.getAttributeCount(); i++) {
+                        out.attribute(null, in.getAttributeName(i), in.getAttributeValue(i));
+                    }
+                    pendingWhitespace = null;
+                    afterStartTag = true;
+                    break;
+                case XmlPullParser.TEXT:
+                    if (in.isWhitespace()) {
+                        pendingWhitespace = in.getText();
+                    } else {
+                        out.text(in.getText());
+                        afterStartTag = false;
+                    }
+                    break;
+                case XmlPullParser.END_TAG:
+                    if (afterStartTag && pendingWhitespace != null) {
+                        out.text(pendingWhitespace);
+                    }
+                    out.endTag(null, in.getName());
+                    pendingWhitespace = null;
+                    afterStartTag = false;
+                    break;
+                default:
+                    break;
+            }
+        }
+        out.endDocument();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Rewrite the store file in the configured format if it was read in the other one. The
+     * converted data is handed over to the writer like any other write, so the read does not
+     * wait for the file I/O. On failure the file is left as is and will be rewritten in the
+     * configured format by the next write.
+     */
+    private void convertStoreFileFormatIfNeeded(@NonNull StoreFile storeFile,
+            @Nullable byte[] dataBytes) {
+        if (dataBytes == null || isBinaryFormat(dataBytes) == mBinaryFormatEnabled) {
+            return;
+        }
+        try {
+            storeFile.storeRawDataToWrite(convertFormat(dataBytes, mBinaryFormatEnabled));
+            writeBufferedData();
+            Log.i(TAG, "Converting " + storeFile.getName() + " to "
+                    + (mBinaryFormatEnabled ? "binary" : "text") + " XML format");
+        } catch (XmlPullParserException | IOException e) {
+            Log.e(TAG, "Failed to convert the format of " + storeFile.getName(), e);
+        }
+    }
+
     /**
      * Parse the version from the XML stream.
      * This is used for both the shared and user config store data.
@@ -819,8 +1258,10 @@ public class WifiConfigStore {
                 .forEach((storeFile) -> {
                     pw.print("Name: " + storeFile.mFileName);
                     pw.print(", File Id: " + storeFile.mFileId);
-                    pw.println(", Credentials encrypted: "
+                    pw.print(", Credentials encrypted: "
                             + (storeFile.getEncryptionUtil() != null));
+                    pw.println(", Unchanged writes skipped: "
+                            + storeFile.getNumUnchangedWritesSkipped());
                 });
         pw.println("WifiConfigStore - Store Data Begin ----");
         for (StoreData storeData : mStoreDataList) {
@@ -832,6 +1273,9 @@ public class WifiConfigStore {
             pw.print(", ");
             pw.println("File Name: " + STORE_ID_TO_FILE_NAME.get(storeData.getStoreFileId()));
         }
+        pw.println("Binary format enabled: " + mBinaryFormatEnabled);
+        pw.println("Sections serialized: " + mNumSectionsSerialized
+                + ", Sections reused: " + mNumSectionsReused);
         pw.println("WifiConfigStore - Store Data End ----");
     }
 
@@ -852,9 +1296,17 @@ public class WifiConfigStore {
          */
         private final AtomicFile mAtomicFile;
         /**
-         * This is an intermediate buffer to store the data to be written.
+         * This is an intermediate buffer to store the data to be written. Guarded by |this| since
+         * it is handed over from the handler thread to the writer thread.
          */
         private byte[] mWriteData;
+        /**
+         * SHA-256 digest of the data last written to the file, used to skip writes which would
+         * not change the file. Guarded by |this| since the file is written on the writer thread,
+         * or on the handler thread when there is no writer or when migrating a store file.
+         */
+        private byte[] mLastWrittenDigest;
+        private int mNumUnchangedWritesSkipped;
         /**
          * Store the file name for setting the file permissions/logging purposes.
          */
@@ -922,35 +1374,72 @@ public class WifiConfigStore {
          *
          * @param data raw data to be written to the file.
          */
-        public void storeRawDataToWrite(byte[] data) {
+        public synchronized void storeRawDataToWrite(byte[] data) {
             mWriteData = data;
         }
 
         /**
          * Write the stored raw data to the store file.
-         * After the write to file, the mWriteData member is reset.
+         * The mWriteData member is reset before the write, so that data stored while the write
+         * is in progress is kept for the next write. The write is skipped if the digest of the
+         * data matches the digest of the data last written to the file.
          * @throws IOException if an error occurs. The output stream is always closed by the method
          * even when an exception is encountered.
          */
         public void writeBufferedRawData() throws IOException {
-            if (mWriteData == null) return; // No data to write for this file.
+            byte[] writeData;
+            synchronized (this) {
+                writeData = mWriteData;
+                mWriteData = null;
+            }
+            if (writeData == null) return; // No data to write for this file.
+            byte[] digest = computeDigest(writeData);
+            synchronized (this) {
+                if (digest != null && Arrays.equals(digest, mLastWrittenDigest)) {
+                    mNumUnchangedWritesSkipped++;
+                    return;
+                }
+            }
             // Write the data to the atomic file.
             FileOutputStream out = null;
             try {
                 out = mAtomicFile.startWrite();
                 FileUtils.chmod(mFileName, FILE_MODE);
-                out.write(mWriteData);
+                out.write(writeData);
                 mAtomicFile.finishWrite(out);
             } catch (IOException e) {
                 if (out != null) {
                     mAtomicFile.failWrite(out);
                 }
+                // Keep the data for the next attempt, unless it has been superseded.
+                synchronized (this) {
+                    if (mWriteData == null) {
+                        mWriteData = writeData;
+                    }
+                    mLastWrittenDigest = null;
+                }
                 throw e;
-            } catch (NullPointerException e) {
-                Log.wtf(TAG, "Possible concurrent modify on mWriteData", e);
             }
-            // Reset the pending write data after write.
-            mWriteData = null;
+            synchronized (this) {
+                mLastWrittenDigest = digest;
+            }
+        }
+
+        @Nullable
+        private static byte[] computeDigest(@NonNull byte[] data) {
+            try {
+                return MessageDigest.getInstance("SHA-256").digest(data);
+            } catch (NoSuchAlgorithmException e) {
+                Log.e(TAG, "SHA-256 not supported.");
+                return null;
+            }
+        }
+
+        /**
+         * @return number of writes skipped because the data was identical to the file content.
+         */
+        public synchronized int getNumUnchangedWritesSkipped() {
+            return mNumUnchangedWritesSkipped;
         }
     }
 
@@ -1011,6 +1500,13 @@ public class WifiConfigStore {
         /**
          * Check if there is any new data to persist from the last write.
          *
+         * Note: This is invoked once per write for every registered module. When it returns
+         * false, the section serialized for the module in the previous write may be written out
+         * again instead of invoking {@link #serializeData(XmlSerializer,
+         * WifiConfigStoreEncryptionUtil)}, so it must only return false if the data is unchanged
+         * since the last serialization. This includes any value the module derives from other
+         * modules while serializing.
+         *
          * @return true if the module has new data to persist, false otherwise.
          */
         boolean hasNewDataToSerialize();
@@ -543,7 +543,7 @@ public class WifiConfigurationUtil {
             }
         }
         try {
-            NativeUtil.hexOrQuotedStringToBytes(password);
+            NativeUtil.hexOrQuotedStringToByteArray(password);
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "validatePassword failed: malformed string: " + password);
             return false;
@@ -578,10 +578,9 @@ public class WifiConfigurationUtil {
         for (int i = 0; i < wepKeys.length; i++) {
             if (wepKeys[i] != null) {
                 try {
-                    ArrayList<Byte> wepKeyBytes =
-                            NativeUtil.hexOrQuotedStringToBytes(wepKeys[i]);
-                    if (wepKeyBytes.size() != WEP40_KEY_BYTES_LEN
-                            && wepKeyBytes.size() != WEP104_KEY_BYTES_LEN) {
+                    byte[] wepKeyBytes = NativeUtil.hexOrQuotedStringToByteArray(wepKeys[i]);
+                    if (wepKeyBytes.length != WEP40_KEY_BYTES_LEN
+                            && wepKeyBytes.length != WEP104_KEY_BYTES_LEN) {
                         Log.e(TAG, "validateWepKeys: invalid wep key length "
                                 + wepKeys[i].length() + " at index " + i);
                         return false;
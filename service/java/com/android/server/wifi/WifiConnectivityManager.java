@@ -3435,9 +3435,14 @@ public class WifiConnectivityManager {
             mConfigManager.stopRestrictingAutoJoinToSubscriptionId();
             mConfigManager.clearUserTemporarilyDisabledList();
             mConfigManager.removeAllEphemeralOrPasspointConfiguredNetworks();
-            // Flush ANQP cache if configured to do so
+            // Clear ANQP requests and flush ANQP cache if configured to do so. A cache persisted
+            // across restarts is kept, its entries are only dropped when they expire.
             if (mWifiGlobals.flushAnqpCacheOnWifiToggleOffEvent()) {
-                mPasspointManager.clearAnqpRequestsAndFlushCache();
+                if (mWifiGlobals.isAnqpCachePersistenceEnabled()) {
+                    mPasspointManager.clearAnqpRequests();
+                } else {
+                    mPasspointManager.clearAnqpRequestsAndFlushCache();
+                }
             }
             if (mEnablePnoScanAfterWifiToggle) {
                 mPnoScanEnabledByFramework = true;
@@ -60,6 +60,7 @@ public class WifiGlobals {
     private final boolean mIsWpa3SaeUpgradeOffloadEnabled;
     private final boolean mIsOweUpgradeEnabled;
     private final boolean mFlushAnqpCacheOnWifiToggleOffEvent;
+    private final boolean mIsAnqpCachePersistenceEnabled;
     private final boolean mIsWpa3SaeH2eSupported;
     private final String mP2pDeviceNamePrefix;
     private final int mP2pDeviceNamePostfixNumDigits;
@@ -104,6 +105,8 @@ public class WifiGlobals {
                 .getBoolean(R.bool.config_wifiOweUpgradeEnabled);
         mFlushAnqpCacheOnWifiToggleOffEvent = mContext.getResources()
                 .getBoolean(R.bool.config_wifiFlushAnqpCacheOnWifiToggleOffEvent);
+        mIsAnqpCachePersistenceEnabled = mContext.getResources()
+                .getBoolean(R.bool.config_wifiPersistAnqpCacheEnabled);
         mIsWpa3SaeH2eSupported = mContext.getResources()
                 .getBoolean(R.bool.config_wifiSaeH2eSupported);
         mP2pDeviceNamePrefix = mContext.getResources()
@@ -417,6 +420,15 @@ public class WifiGlobals {
         return mFlushAnqpCacheOnWifiToggleOffEvent;
     }
 
+    /**
+     * Help method to check if the ANQP cache is persisted across Wi-Fi restarts and reboots.
+     *
+     * @return boolean true if the ANQP cache is persisted, false otherwise.
+     */
+    public boolean isAnqpCachePersistenceEnabled() {
+        return mIsAnqpCachePersistenceEnabled;
+    }
+
     /*
      * Help method to check if WPA3 SAE Hash-to-Element is supported on this device.
      *
@@ -585,6 +597,7 @@ public class WifiGlobals {
         pw.println("mIsWpa3SaeUpgradeOffloadEnabled=" + mIsWpa3SaeUpgradeOffloadEnabled);
         pw.println("mIsOweUpgradeEnabled=" + mIsOweUpgradeEnabled);
         pw.println("mFlushAnqpCacheOnWifiToggleOffEvent=" + mFlushAnqpCacheOnWifiToggleOffEvent);
+        pw.println("mIsAnqpCachePersistenceEnabled=" + mIsAnqpCachePersistenceEnabled);
         pw.println("mIsWpa3SaeH2eSupported=" + mIsWpa3SaeH2eSupported);
         pw.println("mP2pDeviceNamePrefix=" + mP2pDeviceNamePrefix);
         pw.println("mP2pDeviceNamePostfixNumDigits=" + mP2pDeviceNamePostfixNumDigits);
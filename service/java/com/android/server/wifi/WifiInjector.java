@@ -158,6 +158,7 @@ public class WifiInjector {
     private final HandlerThread mWifiP2pServiceHandlerThread;
     private final HandlerThread mPasspointProvisionerHandlerThread;
     private final HandlerThread mWifiDiagnosticsHandlerThread;
+    private final HandlerThread mWifiConfigStoreWriterHandlerThread;
     private final WifiTrafficPoller mWifiTrafficPoller;
     private final WifiCountryCode mCountryCode;
     private final BackupManagerProxy mBackupManagerProxy = new BackupManagerProxy();
@@ -193,6 +194,7 @@ public class WifiInjector {
     private final WifiConnectivityHelper mWifiConnectivityHelper;
     private final LocalLog mConnectivityLocalLog;
     private final LocalLog mWifiHandlerLocalLog;
+    private final RunnerHandler mWifiHandler;
     private final ThroughputScorer mThroughputScorer;
     private final WifiNetworkSelector mWifiNetworkSelector;
     private final SavedNetworkNominator mSavedNetworkNominator;
@@ -296,7 +298,8 @@ public class WifiInjector {
         mWifiP2pMetrics = new WifiP2pMetrics(mClock, mContext);
         RunnerHandler wifiHandler = new RunnerHandler(wifiLooper, context.getResources().getInteger(
                 R.integer.config_wifiConfigurationWifiRunnerThresholdInMs),
-                mWifiHandlerLocalLog);
+                mWifiHandlerLocalLog, mClock);
+        mWifiHandler = wifiHandler;
         mWifiDeviceStateChangeManager = new WifiDeviceStateChangeManager(context, wifiHandler);
         mWifiMetrics = new WifiMetrics(mContext, mFrameworkFacade, mClock, wifiLooper,
                 awareMetrics, rttMetrics, new WifiPowerMetrics(mBatteryStats), mWifiP2pMetrics,
@@ -377,8 +380,14 @@ public class WifiInjector {
         mKeyStore = keyStore;
         mWifiKeyStore = new WifiKeyStore(mContext, mKeyStore, mFrameworkFacade);
         // New config store
-        mWifiConfigStore = new WifiConfigStore(mContext, wifiHandler, mClock, mWifiMetrics,
+        mWifiConfigStoreWriterHandlerThread = new HandlerThread("WifiConfigStoreWriter");
+        mWifiConfigStoreWriterHandlerThread.start();
+        mWifiConfigStore = new WifiConfigStore(mContext, wifiHandler,
+                new Handler(mWifiConfigStoreWriterHandlerThread.getLooper()), mClock,
+                mWifiMetrics,
                 WifiConfigStore.createSharedFiles(mFrameworkFacade.isNiapModeOn(mContext)));
+        mWifiConfigStore.setBinaryFormatEnabled(mContext.getResources().getBoolean(
+                R.bool.config_wifiConfigStoreBinaryFormatEnabled));
         mWifiPseudonymManager =
                 new WifiPseudonymManager(
                         mContext,
@@ -1073,6 +1082,10 @@ public class WifiInjector {
         return mScanRequestProxy;
     }
 
+    public WifiChannelUtilization getWifiChannelUtilizationScan() {
+        return mWifiChannelUtilizationScan;
+    }
+
     public Runtime getJavaRuntime() {
         return Runtime.getRuntime();
     }
@@ -1282,6 +1295,12 @@ public class WifiInjector {
         return mWifiHandlerLocalLog;
     }
 
+    /** Get the RunnerHandler of the main wifi thread. */
+    @NonNull
+    public RunnerHandler getWifiHandler() {
+        return mWifiHandler;
+    }
+
     @NonNull
     public WifiKeyStore getWifiKeyStore() {
         return mWifiKeyStore;
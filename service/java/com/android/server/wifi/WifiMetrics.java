@@ -488,6 +488,11 @@ public class WifiMetrics {
     /** WifiConfigStore write duration histogram. */
     private SparseIntArray mWifiConfigStoreWriteDurationHistogram = new SparseIntArray();
 
+    /** WifiConfigStore per file read, parse and decrypt duration histograms. */
+    private SparseIntArray mWifiConfigStoreFileReadDurationHistogram = new SparseIntArray();
+    private SparseIntArray mWifiConfigStoreFileParseDurationHistogram = new SparseIntArray();
+    private SparseIntArray mWifiConfigStoreFileDecryptDurationHistogram = new SparseIntArray();
+
     /** New  API surface metrics */
     private final WifiNetworkRequestApiLog mWifiNetworkRequestApiLog =
             new WifiNetworkRequestApiLog();
@@ -4923,6 +4928,12 @@ public class WifiMetrics {
                         + mWifiConfigStoreReadDurationHistogram.toString());
                 pw.println("mWifiConfigStoreWriteDurationHistogram:"
                         + mWifiConfigStoreWriteDurationHistogram.toString());
+                pw.println("mWifiConfigStoreFileReadDurationHistogram:"
+                        + mWifiConfigStoreFileReadDurationHistogram.toString());
+                pw.println("mWifiConfigStoreFileParseDurationHistogram:"
+                        + mWifiConfigStoreFileParseDurationHistogram.toString());
+                pw.println("mWifiConfigStoreFileDecryptDurationHistogram:"
+                        + mWifiConfigStoreFileDecryptDurationHistogram.toString());
 
                 pw.println("mLinkProbeSuccessRssiCounts:" + mLinkProbeSuccessRssiCounts);
                 pw.println("mLinkProbeFailureRssiCounts:" + mLinkProbeFailureRssiCounts);
@@ -5612,6 +5623,15 @@ public class WifiMetrics {
             mWifiLogProto.wifiConfigStoreIo.writeDurations =
                     makeWifiConfigStoreIODurationBucketArray(
                             mWifiConfigStoreWriteDurationHistogram);
+            mWifiLogProto.wifiConfigStoreIo.fileReadDurations =
+                    makeWifiConfigStoreIODurationBucketArray(
+                            mWifiConfigStoreFileReadDurationHistogram);
+            mWifiLogProto.wifiConfigStoreIo.fileParseDurations =
+                    makeWifiConfigStoreIODurationBucketArray(
+                            mWifiConfigStoreFileParseDurationHistogram);
+            mWifiLogProto.wifiConfigStoreIo.fileDecryptDurations =
+                    makeWifiConfigStoreIODurationBucketArray(
+                            mWifiConfigStoreFileDecryptDurationHistogram);
 
             LinkProbeStats linkProbeStats = new LinkProbeStats();
             linkProbeStats.successRssiCounts = mLinkProbeSuccessRssiCounts.toProto();
@@ -5957,6 +5977,9 @@ public class WifiMetrics {
             mMeteredNetworkStatsBuilder.clear();
             mWifiConfigStoreReadDurationHistogram.clear();
             mWifiConfigStoreWriteDurationHistogram.clear();
+            mWifiConfigStoreFileReadDurationHistogram.clear();
+            mWifiConfigStoreFileParseDurationHistogram.clear();
+            mWifiConfigStoreFileDecryptDurationHistogram.clear();
             mLinkProbeSuccessRssiCounts.clear();
             mLinkProbeFailureRssiCounts.clear();
             mLinkProbeSuccessLinkSpeedCounts.clear();
@@ -7928,6 +7951,28 @@ public class WifiMetrics {
         }
     }
 
+    /**
+     * Update the wifi config store read, parse and decrypt durations of a single store file.
+     *
+     * @param readTimeMs Time it took to read the file from disk, in milliseconds
+     * @param parseTimeMs Time it took to parse the file (including decryption), in milliseconds
+     * @param decryptTimeMs Time it took to decrypt the credentials in the file, in milliseconds
+     */
+    public void noteWifiConfigStoreFileReadDurations(int readTimeMs, int parseTimeMs,
+            int decryptTimeMs) {
+        synchronized (mLock) {
+            MetricsUtils.addValueToLinearHistogram(readTimeMs,
+                    mWifiConfigStoreFileReadDurationHistogram,
+                    WIFI_CONFIG_STORE_IO_DURATION_BUCKET_RANGES_MS);
+            MetricsUtils.addValueToLinearHistogram(parseTimeMs,
+                    mWifiConfigStoreFileParseDurationHistogram,
+                    WIFI_CONFIG_STORE_IO_DURATION_BUCKET_RANGES_MS);
+            MetricsUtils.addValueToLinearHistogram(decryptTimeMs,
+                    mWifiConfigStoreFileDecryptDurationHistogram,
+                    WIFI_CONFIG_STORE_IO_DURATION_BUCKET_RANGES_MS);
+        }
+    }
+
     /**
      * Update wifi config store write duration.
      *
@@ -70,6 +70,7 @@ import com.android.server.wifi.hotspot2.NetworkDetail;
 import com.android.server.wifi.mockwifi.MockWifiServiceUtil;
 import com.android.server.wifi.proto.WifiStatsLog;
 import com.android.server.wifi.util.FrameParser;
+import com.android.server.wifi.util.InformationElementIndex;
 import com.android.server.wifi.util.InformationElementUtil;
 import com.android.server.wifi.util.NativeUtil;
 import com.android.server.wifi.util.NetdWrapper;
@@ -1714,9 +1715,7 @@ public class WifiNative {
         List<byte[]> hiddenNetworkSsidsArrays = new ArrayList<>();
         for (String hiddenNetworkSsid : hiddenNetworkSSIDs) {
             try {
-                hiddenNetworkSsidsArrays.add(
-                        NativeUtil.byteArrayFromArrayList(
-                                NativeUtil.decodeSsid(hiddenNetworkSsid)));
+                hiddenNetworkSsidsArrays.add(NativeUtil.decodeSsidToByteArray(hiddenNetworkSsid));
             } catch (IllegalArgumentException e) {
                 Log.e(TAG, "Illegal argument " + hiddenNetworkSsid, e);
                 continue;
@@ -1867,20 +1866,23 @@ public class WifiNative {
                 continue;
             }
             String bssid = bssidMac.toString();
-            ScanResult.InformationElement[] ies =
-                    InformationElementUtil.parseInformationElements(result.getInformationElements());
+            InformationElementIndex ieIndex =
+                    InformationElementIndex.parse(result.getInformationElements());
             InformationElementUtil.Capabilities capabilities =
                     new InformationElementUtil.Capabilities();
-            capabilities.from(ies, result.getCapabilities(), mIsEnhancedOpenSupported,
+            capabilities.from(ieIndex, result.getCapabilities(), mIsEnhancedOpenSupported,
                               result.getFrequencyMhz());
             String flags = capabilities.generateCapabilitiesString();
             NetworkDetail networkDetail;
             try {
-                networkDetail = new NetworkDetail(bssid, ies, null, result.getFrequencyMhz());
+                networkDetail = new NetworkDetail(bssid, ieIndex, null, result.getFrequencyMhz());
             } catch (IllegalArgumentException e) {
                 Log.e(TAG, "Illegal argument for scan result with bssid: " + bssid, e);
                 continue;
             }
+            // The scan result exposes all the elements, reusing the ones the parsers above
+            // already materialized.
+            ScanResult.InformationElement[] ies = ieIndex.toArray();
 
             WifiSsid translatedSsid = mWifiInjector.getSsidTranslator()
                     .getTranslatedSsidAndRecordBssidCharset(originalSsid, bssidMac);
@@ -3314,8 +3316,7 @@ public class WifiNative {
             nativePnoNetwork.setHidden(
                     (flags & WifiScanner.PnoSettings.PnoNetwork.FLAG_DIRECTED_SCAN) != 0);
             try {
-                nativePnoNetwork.setSsid(
-                        NativeUtil.byteArrayFromArrayList(NativeUtil.decodeSsid(ssid)));
+                nativePnoNetwork.setSsid(NativeUtil.decodeSsidToByteArray(ssid));
             } catch (IllegalArgumentException e) {
                 Log.e(TAG, "Illegal argument " + ssid, e);
                 return null;
@@ -1797,6 +1797,8 @@ public class WifiNetworkFactory extends NetworkFactory {
             // keep the most recently used AP in the end
             approvedAccessPoints.remove(accessPoint);
             approvedAccessPoints.add(accessPoint);
+            // The order is persisted, write it along with the next store write.
+            mHasNewDataToSerialize = true;
             if (mVerboseLoggingEnabled) {
                 Log.v(TAG, "Found " + bssid
                         + " in internal user approved access point for " + requestorPackageName);
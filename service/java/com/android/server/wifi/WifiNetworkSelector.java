@@ -60,7 +60,9 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -136,6 +138,102 @@ public class WifiNetworkSelector {
     private final WifiNative mWifiNative;
     private final DevicePolicyManager mDevicePolicyManager;
 
+    // Per-BSSID filter state reused by later selections while the BSS advertises the same SSID,
+    // capabilities and MBO indication, and the filter configuration is unchanged.
+    private final Map<String, BssFilterState> mBssFilterStates = new HashMap<>();
+    private FilterConfig mFilterConfig;
+    private long mFilterConfigGeneration;
+    private long mNumNetworkSelections;
+    private long mNumBssFilterStatesReused;
+    private long mNumBssFilterStatesEvaluated;
+
+    // Result of the per-BSS filter checks that only depend on the BSS and the filter config.
+    private static final int FILTER_RESULT_PASSED = 0;
+    private static final int FILTER_RESULT_MBO_ASSOCIATION_DISALLOWED = 1;
+    private static final int FILTER_RESULT_ADMIN_RESTRICTED = 2;
+    private static final int FILTER_RESULT_DEPRECATED_SECURITY_TYPE = 3;
+
+    // Number of network selections a BSS may be missing from the scan results before its
+    // filter state is dropped.
+    private static final int BSS_FILTER_STATE_MAX_IDLE_SELECTIONS = 10;
+
+    /**
+     * Inputs of the per-BSS filter checks that do not come from the scan result.
+     */
+    private static class FilterConfig {
+        public final int adminMinimumSecurityLevel;
+        public final boolean adminSsidRestrictionSet;
+        public final Set<WifiSsid> adminSsidAllowlist;
+        public final Set<WifiSsid> adminSsidDenylist;
+        public final boolean wpaPersonalDeprecated;
+        public final boolean wepDeprecated;
+
+        FilterConfig(int adminMinimumSecurityLevel, boolean adminSsidRestrictionSet,
+                Set<WifiSsid> adminSsidAllowlist, Set<WifiSsid> adminSsidDenylist,
+                boolean wpaPersonalDeprecated, boolean wepDeprecated) {
+            this.adminMinimumSecurityLevel = adminMinimumSecurityLevel;
+            this.adminSsidRestrictionSet = adminSsidRestrictionSet;
+            this.adminSsidAllowlist = adminSsidAllowlist;
+            this.adminSsidDenylist = adminSsidDenylist;
+            this.wpaPersonalDeprecated = wpaPersonalDeprecated;
+            this.wepDeprecated = wepDeprecated;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof FilterConfig)) return false;
+            FilterConfig that = (FilterConfig) other;
+            return adminMinimumSecurityLevel == that.adminMinimumSecurityLevel
+                    && adminSsidRestrictionSet == that.adminSsidRestrictionSet
+                    && adminSsidAllowlist.equals(that.adminSsidAllowlist)
+                    && adminSsidDenylist.equals(that.adminSsidDenylist)
+                    && wpaPersonalDeprecated == that.wpaPersonalDeprecated
+                    && wepDeprecated == that.wepDeprecated;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(adminMinimumSecurityLevel, adminSsidRestrictionSet,
+                    adminSsidAllowlist, adminSsidDenylist, wpaPersonalDeprecated, wepDeprecated);
+        }
+    }
+
+    /**
+     * Filter state of a single BSS, together with the scan result fields it was derived from.
+     */
+    private static class BssFilterState {
+        public WifiSsid wifiSsid;
+        public String ssid;
+        public String capabilities;
+        public long flags;
+        public int mboAssociationDisallowedReasonCode;
+        public long filterConfigGeneration = -1;
+        public int filterResult;
+        public long lastSeenSelection;
+        // Derived from the SSID and capabilities only, shared by the candidate keys of this BSS.
+        public ScanResultMatchInfo matchInfo;
+
+        /**
+         * Returns true if the state was derived from the same SSID and security fields.
+         */
+        public boolean matches(ScanResult scanResult) {
+            return Objects.equals(wifiSsid, scanResult.getWifiSsid())
+                    && TextUtils.equals(ssid, scanResult.SSID)
+                    && TextUtils.equals(capabilities, scanResult.capabilities)
+                    && flags == scanResult.flags;
+        }
+
+        /**
+         * Returns true if the state was derived from the same scan result fields.
+         */
+        public boolean matches(ScanResult scanResult, int mboAssociationDisallowedReasonCode) {
+            return matches(scanResult)
+                    && this.mboAssociationDisallowedReasonCode
+                            == mboAssociationDisallowedReasonCode;
+        }
+    }
+
     /**
      * Interface for WiFi Network Nominator
      *
@@ -468,7 +566,6 @@ public class WifiNetworkSelector {
         return (scanResult.level < mScoringParams.getEntryRssi(scanResult.frequency));
     }
 
-    @SuppressLint("NewApi")
     private List<ScanDetail> filterScanResults(List<ScanDetail> scanDetails,
             Set<String> bssidBlocklist, List<ClientModeManagerState> cmmStates) {
         List<ScanDetail> validScanDetails = new ArrayList<>();
@@ -483,26 +580,10 @@ public class WifiNetworkSelector {
                 .collect(Collectors.toList());
         Set<String> scanResultPresentForCurrentBssids = new ArraySet<>();
 
-        int adminMinimumSecurityLevel = 0;
-        boolean adminSsidRestrictionSet = false;
-        Set<WifiSsid> adminSsidAllowlist = new ArraySet<>();
-        Set<WifiSsid> admindSsidDenylist = new ArraySet<>();
-
         int numBssidFiltered = 0;
 
-        if (mDevicePolicyManager != null && SdkLevel.isAtLeastT()) {
-            adminMinimumSecurityLevel =
-                    mDevicePolicyManager.getMinimumRequiredWifiSecurityLevel();
-            WifiSsidPolicy policy = mDevicePolicyManager.getWifiSsidPolicy();
-            if (policy != null) {
-                adminSsidRestrictionSet = true;
-                if (policy.getPolicyType() == WifiSsidPolicy.WIFI_SSID_POLICY_TYPE_ALLOWLIST) {
-                    adminSsidAllowlist = policy.getSsids();
-                } else {
-                    admindSsidDenylist = policy.getSsids();
-                }
-            }
-        }
+        updateFilterConfig();
+        mNumNetworkSelections++;
 
         for (ScanDetail scanDetail : scanDetails) {
             ScanResult scanResult = scanDetail.getScanResult();
@@ -541,81 +622,29 @@ public class WifiNetworkSelector {
                 continue;
             }
 
-            // Skip BSS which is not accepting new connections.
-            NetworkDetail networkDetail = scanDetail.getNetworkDetail();
-            if (networkDetail != null) {
-                if (networkDetail.getMboAssociationDisallowedReasonCode()
-                        != MboOceConstants.MBO_OCE_ATTRIBUTE_NOT_PRESENT) {
+            BssFilterState state = getBssFilterState(scanDetail);
+            switch (state.filterResult) {
+                case FILTER_RESULT_MBO_ASSOCIATION_DISALLOWED:
+                    // Skip BSS which is not accepting new connections.
                     mWifiMetrics
                             .incrementNetworkSelectionFilteredBssidCountDueToMboAssocDisallowInd();
                     mboAssociationDisallowedBssid.append(scanId).append("(")
-                            .append(networkDetail.getMboAssociationDisallowedReasonCode())
+                            .append(state.mboAssociationDisallowedReasonCode)
                             .append(")").append(" / ");
                     continue;
-                }
-            }
-
-            // Skip network that does not meet the admin set SSID restriction
-            if (adminSsidRestrictionSet) {
-                WifiSsid ssid = scanResult.getWifiSsid();
-                // Allowlist policy set but network is not present in the list
-                if (!adminSsidAllowlist.isEmpty() && !adminSsidAllowlist.contains(ssid)) {
+                case FILTER_RESULT_ADMIN_RESTRICTED:
                     adminRestrictedSsid.append(scanId).append(" / ");
                     continue;
-                }
-                // Denylist policy set but network is present in the list
-                if (!admindSsidDenylist.isEmpty() && admindSsidDenylist.contains(ssid)) {
-                    adminRestrictedSsid.append(scanId).append(" / ");
-                    continue;
-                }
-            }
-
-            // Skip network that does not meet the admin set minimum security level restriction
-            if (adminMinimumSecurityLevel != 0) {
-                boolean securityRestrictionPassed = false;
-                @WifiAnnotations.SecurityType int[] securityTypes = scanResult.getSecurityTypes();
-                for (int type : securityTypes) {
-                    int securityLevel = WifiInfo.convertSecurityTypeToDpmWifiSecurity(type);
-
-                    // Skip unknown security type since security level cannot be determined.
-                    // If all the security types are unknown when the minimum security level
-                    // restriction is set, the scan result is ignored.
-                    if (securityLevel == WifiInfo.DPM_SECURITY_TYPE_UNKNOWN) continue;
-
-                    if (adminMinimumSecurityLevel <= securityLevel) {
-                        securityRestrictionPassed = true;
-                        break;
-                    }
-                }
-                if (!securityRestrictionPassed) {
-                    adminRestrictedSsid.append(scanId).append(" / ");
-                    continue;
-                }
-            }
-
-            // Skip network that has deprecated security type
-            if (mWifiGlobals.isWpaPersonalDeprecated() || mWifiGlobals.isWepDeprecated()) {
-                boolean securityTypeDeprecated = false;
-                @WifiAnnotations.SecurityType int[] securityTypes = scanResult.getSecurityTypes();
-                for (int type : securityTypes) {
-                    if (mWifiGlobals.isWepDeprecated() && type == WifiInfo.SECURITY_TYPE_WEP) {
-                        securityTypeDeprecated = true;
-                        break;
-                    }
-                    if (mWifiGlobals.isWpaPersonalDeprecated() && type == WifiInfo.SECURITY_TYPE_PSK
-                            && ScanResultUtil.isScanResultForWpaPersonalOnlyNetwork(scanResult)) {
-                        securityTypeDeprecated = true;
-                        break;
-                    }
-                }
-                if (securityTypeDeprecated) {
+                case FILTER_RESULT_DEPRECATED_SECURITY_TYPE:
                     deprecatedSecurityTypeSsid.add(scanId);
                     continue;
-                }
+                default:
+                    break;
             }
 
             validScanDetails.add(scanDetail);
         }
+        removeIdleBssFilterStates();
         mWifiMetrics.incrementNetworkSelectionFilteredBssidCount(numBssidFiltered);
 
         // WNS listens to all single scan results. Some scan requests may not include
@@ -669,6 +698,187 @@ public class WifiNetworkSelector {
         return validScanDetails;
     }
 
+    /**
+     * Reads the admin restrictions and deprecated security types applied by the per-BSS filter
+     * checks, and moves to a new filter config generation if any of them changed since the last
+     * network selection.
+     */
+    @SuppressLint("NewApi")
+    private void updateFilterConfig() {
+        int adminMinimumSecurityLevel = 0;
+        boolean adminSsidRestrictionSet = false;
+        Set<WifiSsid> adminSsidAllowlist = new ArraySet<>();
+        Set<WifiSsid> admindSsidDenylist = new ArraySet<>();
+
+        if (mDevicePolicyManager != null && SdkLevel.isAtLeastT()) {
+            adminMinimumSecurityLevel =
+                    mDevicePolicyManager.getMinimumRequiredWifiSecurityLevel();
+            WifiSsidPolicy policy = mDevicePolicyManager.getWifiSsidPolicy();
+            if (policy != null) {
+                adminSsidRestrictionSet = true;
+                if (policy.getPolicyType() == WifiSsidPolicy.WIFI_SSID_POLICY_TYPE_ALLOWLIST) {
+                    adminSsidAllowlist = policy.getSsids();
+                } else {
+                    admindSsidDenylist = policy.getSsids();
+                }
+            }
+        }
+
+        FilterConfig filterConfig = new FilterConfig(adminMinimumSecurityLevel,
+                adminSsidRestrictionSet, adminSsidAllowlist, admindSsidDenylist,
+                mWifiGlobals.isWpaPersonalDeprecated(), mWifiGlobals.isWepDeprecated());
+        if (!filterConfig.equals(mFilterConfig)) {
+            mFilterConfig = filterConfig;
+            mFilterConfigGeneration++;
+        }
+    }
+
+    /**
+     * Returns the filter state of the BSS of |scanDetail|. The state of the previous network
+     * selection is reused if the BSS still advertises the same SSID, capabilities and MBO
+     * indication, and the filter config is unchanged. Otherwise the BSS is re-evaluated.
+     */
+    private BssFilterState getBssFilterState(ScanDetail scanDetail) {
+        ScanResult scanResult = scanDetail.getScanResult();
+        NetworkDetail networkDetail = scanDetail.getNetworkDetail();
+        int mboAssociationDisallowedReasonCode = networkDetail != null
+                ? networkDetail.getMboAssociationDisallowedReasonCode()
+                : MboOceConstants.MBO_OCE_ATTRIBUTE_NOT_PRESENT;
+        BssFilterState state = mBssFilterStates.get(scanResult.BSSID);
+        if (state == null) {
+            state = new BssFilterState();
+            mBssFilterStates.put(scanResult.BSSID, state);
+        }
+        state.lastSeenSelection = mNumNetworkSelections;
+        if (state.filterConfigGeneration == mFilterConfigGeneration
+                && state.matches(scanResult, mboAssociationDisallowedReasonCode)) {
+            mNumBssFilterStatesReused++;
+            return state;
+        }
+        if (!state.matches(scanResult, mboAssociationDisallowedReasonCode)) {
+            state.wifiSsid = scanResult.getWifiSsid();
+            state.ssid = scanResult.SSID;
+            state.capabilities = scanResult.capabilities;
+            state.flags = scanResult.flags;
+            state.mboAssociationDisallowedReasonCode = mboAssociationDisallowedReasonCode;
+            state.matchInfo = null;
+        }
+        state.filterResult = evaluateBssFilter(scanResult, mboAssociationDisallowedReasonCode);
+        state.filterConfigGeneration = mFilterConfigGeneration;
+        mNumBssFilterStatesEvaluated++;
+        return state;
+    }
+
+    /**
+     * Runs the per-BSS filter checks that depend only on the scan result and the filter config.
+     */
+    private int evaluateBssFilter(ScanResult scanResult, int mboAssociationDisallowedReasonCode) {
+        // Skip BSS which is not accepting new connections.
+        if (mboAssociationDisallowedReasonCode != MboOceConstants.MBO_OCE_ATTRIBUTE_NOT_PRESENT) {
+            return FILTER_RESULT_MBO_ASSOCIATION_DISALLOWED;
+        }
+
+        // Skip network that does not meet the admin set SSID restriction
+        if (mFilterConfig.adminSsidRestrictionSet) {
+            WifiSsid ssid = scanResult.getWifiSsid();
+            // Allowlist policy set but network is not present in the list
+            if (!mFilterConfig.adminSsidAllowlist.isEmpty()
+                    && !mFilterConfig.adminSsidAllowlist.contains(ssid)) {
+                return FILTER_RESULT_ADMIN_RESTRICTED;
+            }
+            // Denylist policy set but network is present in the list
+            if (!mFilterConfig.adminSsidDenylist.isEmpty()
+                    && mFilterConfig.adminSsidDenylist.contains(ssid)) {
+                return FILTER_RESULT_ADMIN_RESTRICTED;
+            }
+        }
+
+        // Skip network that does not meet the admin set minimum security level restriction
+        if (mFilterConfig.adminMinimumSecurityLevel != 0) {
+            boolean securityRestrictionPassed = false;
+            @WifiAnnotations.SecurityType int[] securityTypes = scanResult.getSecurityTypes();
+            for (int type : securityTypes) {
+                int securityLevel = WifiInfo.convertSecurityTypeToDpmWifiSecurity(type);
+
+                // Skip unknown security type since security level cannot be determined.
+                // If all the security types are unknown when the minimum security level
+                // restriction is set, the scan result is ignored.
+                if (securityLevel == WifiInfo.DPM_SECURITY_TYPE_UNKNOWN) continue;
+
+                if (mFilterConfig.adminMinimumSecurityLevel <= securityLevel) {
+                    securityRestrictionPassed = true;
+                    break;
+                }
+            }
+            if (!securityRestrictionPassed) {
+                return FILTER_RESULT_ADMIN_RESTRICTED;
+            }
+        }
+
+        // Skip network that has deprecated security type
+        if (mFilterConfig.wpaPersonalDeprecated || mFilterConfig.wepDeprecated) {
+            @WifiAnnotations.SecurityType int[] securityTypes = scanResult.getSecurityTypes();
+            for (int type : securityTypes) {
+                if (mFilterConfig.wepDeprecated && type == WifiInfo.SECURITY_TYPE_WEP) {
+                    return FILTER_RESULT_DEPRECATED_SECURITY_TYPE;
+                }
+                if (mFilterConfig.wpaPersonalDeprecated && type == WifiInfo.SECURITY_TYPE_PSK
+                        && ScanResultUtil.isScanResultForWpaPersonalOnlyNetwork(scanResult)) {
+                    return FILTER_RESULT_DEPRECATED_SECURITY_TYPE;
+                }
+            }
+        }
+        return FILTER_RESULT_PASSED;
+    }
+
+    /**
+     * Drops the filter state of BSSes which have not been in the scan results of the last
+     * {@link #BSS_FILTER_STATE_MAX_IDLE_SELECTIONS} network selections.
+     */
+    private void removeIdleBssFilterStates() {
+        Iterator<BssFilterState> iter = mBssFilterStates.values().iterator();
+        while (iter.hasNext()) {
+            if (mNumNetworkSelections - iter.next().lastSeenSelection
+                    > BSS_FILTER_STATE_MAX_IDLE_SELECTIONS) {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the match info of the BSS of |scanDetail| if it was filtered by the ongoing network
+     * selection, computing it once per BSS. Returns null for a BSS without filter state.
+     */
+    private @Nullable ScanResultMatchInfo getScanResultMatchInfo(ScanDetail scanDetail) {
+        ScanResult scanResult = scanDetail.getScanResult();
+        if (scanResult == null) return null;
+        BssFilterState state = mBssFilterStates.get(scanResult.BSSID);
+        if (state == null || state.lastSeenSelection != mNumNetworkSelections
+                || !state.matches(scanResult)) {
+            return null;
+        }
+        if (state.matchInfo == null) {
+            state.matchInfo = ScanResultMatchInfo.fromScanResult(scanResult);
+        }
+        return state.matchInfo;
+    }
+
+    /**
+     * Returns the number of times the filter state of a BSS was reused (for tests).
+     */
+    @VisibleForTesting
+    public long getNumBssFilterStatesReused() {
+        return mNumBssFilterStatesReused;
+    }
+
+    /**
+     * Returns the number of times a BSS was evaluated by the per-BSS filter checks (for tests).
+     */
+    @VisibleForTesting
+    public long getNumBssFilterStatesEvaluated() {
+        return mNumBssFilterStatesEvaluated;
+    }
+
     private ScanDetail findScanDetailForBssid(List<ScanDetail> scanDetails,
             String currentBssid) {
         for (ScanDetail scanDetail : scanDetails) {
@@ -908,6 +1118,7 @@ public class WifiNetworkSelector {
     public void resetOnDisable() {
         mWifiConfigManager.clearLastSelectedNetwork();
         mKnownMeteredNetworkIds.clear();
+        mBssFilterStates.clear();
     }
 
     /**
@@ -1139,7 +1350,7 @@ public class WifiNetworkSelector {
                     untrustedNetworkAllowed, oemPaidNetworkAllowed, oemPrivateNetworkAllowed,
                     restrictedNetworkAllowedUids, (scanDetail, config) -> {
                         WifiCandidates.Key key = wifiCandidates.keyFromScanDetailAndConfig(
-                                scanDetail, config);
+                                scanDetail, config, getScanResultMatchInfo(scanDetail));
                         if (key != null) {
                             boolean metered = false;
                             for (ClientModeManagerState cmmState : cmmStates) {
@@ -75,6 +75,7 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -444,6 +445,11 @@ public class WifiNetworkSuggestionsManager {
      */
     private final List<OnSuggestionUpdateListener> mListeners = new ArrayList<>();
 
+    /**
+     * Processing time of the suggestion changes, per batch size.
+     */
+    private final BatchStats mBatchStats = new BatchStats();
+
     /**
      * Intent filter for processing notification actions.
      */
@@ -457,6 +463,12 @@ public class WifiNetworkSuggestionsManager {
      * Indicates that we have new data to serialize.
      */
     private boolean mHasNewDataToSerialize = false;
+    /**
+     * {@link LruConnectionTracker#getGeneration()} when the suggestions were last serialized.
+     * isMostRecentlyConnected is persisted with the suggestions but changes on connections to
+     * any network, without going through this class.
+     */
+    private int mLastSerializedLruGeneration = 0;
     /**
      * The {@link Clock#getElapsedSinceBootMillis()} must be at least this value for us
      * to update/show the notification.
@@ -530,6 +542,7 @@ public class WifiNetworkSuggestionsManager {
             // Clear the flag after writing to disk.
             // TODO(b/115504887): Don't reset the flag on write failure.
             mHasNewDataToSerialize = false;
+            mLastSerializedLruGeneration = mLruConnectionTracker.getGeneration();
             return mActiveNetworkSuggestionsPerApp;
         }
 
@@ -571,7 +584,8 @@ public class WifiNetworkSuggestionsManager {
 
         @Override
         public boolean hasNewDataToSerialize() {
-            return mHasNewDataToSerialize;
+            return mHasNewDataToSerialize
+                    || mLruConnectionTracker.getGeneration() != mLastSerializedLruGeneration;
         }
     }
 
@@ -635,6 +649,42 @@ public class WifiNetworkSuggestionsManager {
                 }
             };
 
+    /**
+     * Processing time of the suggestion add and remove calls, bucketed by the number of
+     * suggestions in the call.
+     */
+    private static class BatchStats {
+        // Upper bounds (inclusive) of the batch size buckets, the last bucket is unbounded.
+        private static final int[] BATCH_SIZE_BUCKETS = {1, 10, 100, 1000};
+
+        private final int[] mNumBatches = new int[BATCH_SIZE_BUCKETS.length + 1];
+        private final long[] mTotalDurationMs = new long[BATCH_SIZE_BUCKETS.length + 1];
+        private final long[] mMaxDurationMs = new long[BATCH_SIZE_BUCKETS.length + 1];
+
+        void record(int batchSize, long durationMs) {
+            int bucket = 0;
+            while (bucket < BATCH_SIZE_BUCKETS.length && batchSize > BATCH_SIZE_BUCKETS[bucket]) {
+                bucket++;
+            }
+            mNumBatches[bucket]++;
+            mTotalDurationMs[bucket] += durationMs;
+            mMaxDurationMs[bucket] = Math.max(mMaxDurationMs[bucket], durationMs);
+        }
+
+        void dump(PrintWriter pw) {
+            pw.println("WifiNetworkSuggestionsManager - Batch processing time:");
+            for (int i = 0; i < mNumBatches.length; i++) {
+                if (mNumBatches[i] == 0) continue;
+                String range = i < BATCH_SIZE_BUCKETS.length
+                        ? "<=" + BATCH_SIZE_BUCKETS[i]
+                        : ">" + BATCH_SIZE_BUCKETS[BATCH_SIZE_BUCKETS.length - 1];
+                pw.println("  batchSize" + range + ": count=" + mNumBatches[i]
+                        + ", avgMs=" + mTotalDurationMs[i] / mNumBatches[i]
+                        + ", maxMs=" + mMaxDurationMs[i]);
+            }
+        }
+    }
+
     /**
      * Interface for other modules to listen to the suggestion updated events.
      */
@@ -911,12 +961,125 @@ public class WifiNetworkSuggestionsManager {
         if (mVerboseLoggingEnabled) {
             Log.v(TAG, "Adding " + networkSuggestions.size() + " networks from " + packageName);
         }
+        return applyNetworkSuggestionChanges(networkSuggestions, Collections.emptyList(), uid,
+                packageName, featureId, ACTION_REMOVE_SUGGESTION_DISCONNECT);
+    }
+
+    /**
+     * Apply a diff to the provided app's active list in a single pass: add or update
+     * {@code addOrUpdateSuggestions} and remove {@code removeSuggestions}. Both {@link #add} and
+     * {@link #remove} go through here. All the changes are validated before any of them is
+     * applied, listeners are notified once per kind of change and a single store write is
+     * triggered for the whole diff.
+     *
+     * An empty removal list removes nothing. A suggestion can't be both added and removed by the
+     * same diff.
+     *
+     * The diff is applied as a whole: if the store can't be serialized after the diff is applied
+     * (out of memory), the added suggestions are removed and the removed or updated suggestions
+     * are added back as they were, which notifies the listeners and writes the store once more.
+     */
+    private @WifiManager.NetworkSuggestionsStatusCode int applyNetworkSuggestionChanges(
+            @NonNull List<WifiNetworkSuggestion> addOrUpdateSuggestions,
+            @NonNull List<WifiNetworkSuggestion> removeSuggestions, int uid,
+            String packageName, @Nullable String featureId,
+            @WifiManager.ActionAfterRemovingSuggestion int action) {
+        long startTimeMs = mClock.getElapsedSinceBootMillis();
+        // Validate the removals against the current active list.
+        PerAppInfo perAppInfo = mActiveNetworkSuggestionsPerApp.get(packageName);
+        Set<ExtendedWifiNetworkSuggestion> removingExtSuggestions = new HashSet<>();
+        Set<Integer> removingKeys = new HashSet<>();
+        if (!removeSuggestions.isEmpty()) {
+            if (!checkNetworkSuggestionsNoNulls(removeSuggestions)) {
+                Log.e(TAG, "Null in suggestion remove from app: " + packageName);
+                return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_REMOVE_INVALID;
+            }
+            if (perAppInfo == null) {
+                Log.e(TAG, "Failed to remove network suggestions for " + packageName
+                        + ". No network suggestions found");
+                return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_REMOVE_INVALID;
+            }
+            removingExtSuggestions = convertToExtendedWnsSet(removeSuggestions, perAppInfo);
+            for (ExtendedWifiNetworkSuggestion ewns : removingExtSuggestions) {
+                removingKeys.add(ewns.hashCode());
+            }
+            if (!perAppInfo.extNetworkSuggestions.keySet().containsAll(removingKeys)) {
+                Log.e(TAG, "Failed to remove network suggestions for " + packageName
+                        + ". Network suggestions not found in active network suggestions");
+                return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_REMOVE_INVALID;
+            }
+        }
+
+        // Validate the additions, taking the removals into account for the max per app.
+        Set<ExtendedWifiNetworkSuggestion> addingExtSuggestions = new HashSet<>();
+        if (!addOrUpdateSuggestions.isEmpty()) {
+            int carrierId = mWifiCarrierInfoManager
+                    .getCarrierIdForPackageWithCarrierPrivileges(packageName);
+            int status = validateNetworkSuggestionsToAdd(addOrUpdateSuggestions, uid,
+                    packageName, carrierId);
+            if (status != WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS) {
+                return status;
+            }
+            perAppInfo = getOrCreatePerAppInfo(uid, packageName, featureId, carrierId);
+            addingExtSuggestions = convertToExtendedWnsSet(addOrUpdateSuggestions, perAppInfo);
+            for (ExtendedWifiNetworkSuggestion ewns : addingExtSuggestions) {
+                if (removingKeys.contains(ewns.hashCode())) {
+                    Log.e(TAG, "Network suggestion both added and removed by app: "
+                            + packageName);
+                    return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_ADD_INVALID;
+                }
+            }
+            if (exceedsMaxNumberOfSuggestions(perAppInfo, addingExtSuggestions, removingKeys)) {
+                return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_ADD_EXCEEDS_MAX_PER_APP;
+            }
+        }
+
+        // Keep the entries removed or replaced by the diff to restore them on rollback.
+        Set<ExtendedWifiNetworkSuggestion> previousExtSuggestions = new HashSet<>();
+        for (ExtendedWifiNetworkSuggestion ewns : removingExtSuggestions) {
+            previousExtSuggestions.add(perAppInfo.extNetworkSuggestions.get(ewns.hashCode()));
+        }
+        for (ExtendedWifiNetworkSuggestion ewns : addingExtSuggestions) {
+            ExtendedWifiNetworkSuggestion oldEwns =
+                    perAppInfo.extNetworkSuggestions.get(ewns.hashCode());
+            if (oldEwns != null) {
+                previousExtSuggestions.add(oldEwns);
+            }
+        }
+
+        if (!removingExtSuggestions.isEmpty()) {
+            removeInternal(removingExtSuggestions, packageName, perAppInfo, action);
+        }
+        if (!addingExtSuggestions.isEmpty()) {
+            addOrUpdateExtSuggestions(addingExtSuggestions, perAppInfo, uid, packageName);
+            for (OnSuggestionUpdateListener listener : mListeners) {
+                listener.onSuggestionsAddedOrUpdated(addOrUpdateSuggestions);
+            }
+            perAppInfo.maxSize = Math.max(perAppInfo.extNetworkSuggestions.size(),
+                    perAppInfo.maxSize);
+        }
+        try {
+            saveToStore();
+        } catch (OutOfMemoryError e) {
+            logSerializeOutOfMemory();
+            rollBackNetworkSuggestionChanges(addingExtSuggestions, previousExtSuggestions,
+                    perAppInfo, uid, packageName);
+            return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_INTERNAL;
+        }
+        mWifiMetrics.incrementNetworkSuggestionApiNumModification();
+        mWifiMetrics.noteNetworkSuggestionApiListSizeHistogram(getAllMaxSizes());
+        mBatchStats.record(addOrUpdateSuggestions.size() + removeSuggestions.size(),
+                mClock.getElapsedSinceBootMillis() - startTimeMs);
+        return WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS;
+    }
+
+    private @WifiManager.NetworkSuggestionsStatusCode int validateNetworkSuggestionsToAdd(
+            List<WifiNetworkSuggestion> networkSuggestions, int uid, String packageName,
+            int carrierId) {
         if (!validateNetworkSuggestions(networkSuggestions, packageName, uid)) {
             Log.e(TAG, "Invalid suggestion add from app: " + packageName);
             return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_ADD_INVALID;
         }
-        int carrierId = mWifiCarrierInfoManager
-                .getCarrierIdForPackageWithCarrierPrivileges(packageName);
         if (!validateCarrierNetworkSuggestions(networkSuggestions, uid, packageName, carrierId)) {
             Log.e(TAG, "bad wifi suggestion from app: " + packageName);
             return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_ADD_NOT_ALLOWED;
@@ -929,7 +1092,11 @@ public class WifiNetworkSuggestionsManager {
                 return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_ADD_INVALID;
             }
         }
+        return WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS;
+    }
 
+    private PerAppInfo getOrCreatePerAppInfo(int uid, String packageName,
+            @Nullable String featureId, int carrierId) {
         PerAppInfo perAppInfo = mActiveNetworkSuggestionsPerApp.get(packageName);
         if (perAppInfo == null) {
             perAppInfo = new PerAppInfo(uid, packageName, featureId);
@@ -965,29 +1132,43 @@ public class WifiNetworkSuggestionsManager {
         perAppInfo.setUid(uid);
         // If App became carrier privileged, set the carrier Id.
         perAppInfo.setCarrierId(carrierId);
-        Set<ExtendedWifiNetworkSuggestion> extNetworkSuggestions =
-                convertToExtendedWnsSet(networkSuggestions, perAppInfo);
+        return perAppInfo;
+    }
+
+    /**
+     * Check whether the app's active list would exceed the max size per app once the provided
+     * suggestions are added and the ones matching {@code removingKeys} are removed.
+     */
+    private boolean exceedsMaxNumberOfSuggestions(PerAppInfo perAppInfo,
+            Set<ExtendedWifiNetworkSuggestion> extNetworkSuggestions, Set<Integer> removingKeys) {
         boolean isLowRamDevice = mActivityManager.isLowRamDevice();
         int networkSuggestionsMaxPerApp =
                 WifiManager.getMaxNumberOfNetworkSuggestionsPerApp(isLowRamDevice);
         if (perAppInfo.extNetworkSuggestions.size() + extNetworkSuggestions.size()
-                > networkSuggestionsMaxPerApp) {
-            Set<Integer> keySet = extNetworkSuggestions
-                    .stream()
-                    .map(ExtendedWifiNetworkSuggestion::hashCode)
-                    .collect(Collectors.toSet());
-            Set<Integer> savedKeySet = new HashSet<>(perAppInfo.extNetworkSuggestions.keySet());
-            savedKeySet.addAll(keySet);
-            if (savedKeySet.size() > networkSuggestionsMaxPerApp) {
-                Log.e(TAG, "Failed to add network suggestions for " + packageName
-                        + ". Exceeds max per app, current list size: "
-                        + perAppInfo.extNetworkSuggestions.size()
-                        + ", new list size: "
-                        + extNetworkSuggestions.size());
-                return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_ADD_EXCEEDS_MAX_PER_APP;
-            }
+                <= networkSuggestionsMaxPerApp) {
+            return false;
+        }
+        Set<Integer> keySet = extNetworkSuggestions
+                .stream()
+                .map(ExtendedWifiNetworkSuggestion::hashCode)
+                .collect(Collectors.toSet());
+        Set<Integer> savedKeySet = new HashSet<>(perAppInfo.extNetworkSuggestions.keySet());
+        savedKeySet.removeAll(removingKeys);
+        savedKeySet.addAll(keySet);
+        if (savedKeySet.size() > networkSuggestionsMaxPerApp) {
+            Log.e(TAG, "Failed to add network suggestions for " + perAppInfo.packageName
+                    + ". Exceeds max per app, current list size: "
+                    + perAppInfo.extNetworkSuggestions.size()
+                    + ", new list size: "
+                    + extNetworkSuggestions.size());
+            return true;
         }
+        return false;
+    }
 
+    private void addOrUpdateExtSuggestions(
+            Set<ExtendedWifiNetworkSuggestion> extNetworkSuggestions, PerAppInfo perAppInfo,
+            int uid, String packageName) {
         for (ExtendedWifiNetworkSuggestion ewns: extNetworkSuggestions) {
             ExtendedWifiNetworkSuggestion oldEwns = perAppInfo.extNetworkSuggestions
                     .get(ewns.hashCode());
@@ -1053,31 +1234,44 @@ public class WifiNetworkSuggestionsManager {
             perAppInfo.extNetworkSuggestions.remove(ewns.hashCode());
             perAppInfo.extNetworkSuggestions.put(ewns.hashCode(), ewns);
         }
-        for (OnSuggestionUpdateListener listener : mListeners) {
-            listener.onSuggestionsAddedOrUpdated(networkSuggestions);
+    }
+
+    /**
+     * Revert a diff applied by {@link #applyNetworkSuggestionChanges(List, List, int, String,
+     * String, int)}: remove the added suggestions, add back the ones it removed or replaced and
+     * write the store again.
+     */
+    private void rollBackNetworkSuggestionChanges(
+            Set<ExtendedWifiNetworkSuggestion> addedExtSuggestions,
+            Set<ExtendedWifiNetworkSuggestion> previousExtSuggestions, PerAppInfo perAppInfo,
+            int uid, String packageName) {
+        // An empty list would remove all the suggestions of the app.
+        if (!addedExtSuggestions.isEmpty()) {
+            removeInternal(addedExtSuggestions, packageName, perAppInfo,
+                    ACTION_REMOVE_SUGGESTION_DISCONNECT);
         }
-        // Update the max size for this app.
-        perAppInfo.maxSize = Math.max(perAppInfo.extNetworkSuggestions.size(), perAppInfo.maxSize);
-        try {
-            saveToStore();
-        } catch (OutOfMemoryError e) {
-            Optional<PerAppInfo> appInfo = mActiveNetworkSuggestionsPerApp.values()
-                    .stream()
-                    .max(Comparator.comparingInt(a -> a.extNetworkSuggestions.size()));
-            if (appInfo.isPresent()) {
-                EventLog.writeEvent(0x534e4554, "245299920", appInfo.get().uid,
-                        "Trying to add large number of suggestion, num="
-                                + appInfo.get().extNetworkSuggestions.size());
-            } else {
-                Log.e(TAG, "serialize out of memory but no app has suggestion!");
+        if (!previousExtSuggestions.isEmpty()) {
+            addOrUpdateExtSuggestions(previousExtSuggestions, perAppInfo, uid, packageName);
+            List<WifiNetworkSuggestion> restoredSuggestions =
+                    new ArrayList<>(convertToWnsSet(previousExtSuggestions));
+            for (OnSuggestionUpdateListener listener : mListeners) {
+                listener.onSuggestionsAddedOrUpdated(restoredSuggestions);
             }
-            // Remove the most recently added suggestions, which should cause the failure.
-            remove(networkSuggestions, uid, packageName, ACTION_REMOVE_SUGGESTION_DISCONNECT);
-            return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_INTERNAL;
         }
-        mWifiMetrics.incrementNetworkSuggestionApiNumModification();
-        mWifiMetrics.noteNetworkSuggestionApiListSizeHistogram(getAllMaxSizes());
-        return WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS;
+        saveToStore();
+    }
+
+    private void logSerializeOutOfMemory() {
+        Optional<PerAppInfo> appInfo = mActiveNetworkSuggestionsPerApp.values()
+                .stream()
+                .max(Comparator.comparingInt(a -> a.extNetworkSuggestions.size()));
+        if (appInfo.isPresent()) {
+            EventLog.writeEvent(0x534e4554, "245299920", appInfo.get().uid,
+                    "Trying to add large number of suggestion, num="
+                            + appInfo.get().extNetworkSuggestions.size());
+        } else {
+            Log.e(TAG, "serialize out of memory but no app has suggestion!");
+        }
     }
 
     private int getCarrierIdFromSuggestion(ExtendedWifiNetworkSuggestion ewns) {
@@ -1403,34 +1597,19 @@ public class WifiNetworkSuggestionsManager {
         if (mVerboseLoggingEnabled) {
             Log.v(TAG, "Removing " + networkSuggestions.size() + " networks from " + packageName);
         }
-        if (!checkNetworkSuggestionsNoNulls(networkSuggestions)) {
-            Log.e(TAG, "Null in suggestion remove from app: " + packageName);
-            return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_REMOVE_INVALID;
-        }
         PerAppInfo perAppInfo = mActiveNetworkSuggestionsPerApp.get(packageName);
         if (perAppInfo == null) {
             Log.e(TAG, "Failed to remove network suggestions for " + packageName
                     + ". No network suggestions found");
             return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_REMOVE_INVALID;
         }
-        Set<ExtendedWifiNetworkSuggestion> extNetworkSuggestions =
-                convertToExtendedWnsSet(networkSuggestions, perAppInfo);
-        Set<Integer> keySet = extNetworkSuggestions
-                .stream()
-                .map(ExtendedWifiNetworkSuggestion::hashCode)
-                .collect(Collectors.toSet());
-        // check if all the request network suggestions are present in the active list.
-        if (!extNetworkSuggestions.isEmpty()
-                && !perAppInfo.extNetworkSuggestions.keySet().containsAll(keySet)) {
-            Log.e(TAG, "Failed to remove network suggestions for " + packageName
-                    + ". Network suggestions not found in active network suggestions");
-            return WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_REMOVE_INVALID;
+        if (networkSuggestions.isEmpty()) {
+            // An empty list removes all the suggestions of the app.
+            networkSuggestions = new ArrayList<>(
+                    convertToWnsSet(perAppInfo.extNetworkSuggestions.values()));
         }
-        removeInternal(extNetworkSuggestions, packageName, perAppInfo, action);
-        saveToStore();
-        mWifiMetrics.incrementNetworkSuggestionApiNumModification();
-        mWifiMetrics.noteNetworkSuggestionApiListSizeHistogram(getAllMaxSizes());
-        return WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS;
+        return applyNetworkSuggestionChanges(Collections.emptyList(), networkSuggestions, uid,
+                packageName, null, action);
     }
 
     /**
@@ -2538,52 +2717,82 @@ public class WifiNetworkSuggestionsManager {
                 || scanResults == null || scanResults.isEmpty()) {
             return filteredScanResults;
         }
+        // Compute the match info of each scan result once, and bucket them by SSID so that each
+        // suggestion is only compared against the scan results which have the same SSID.
+        Map<String, List<Pair<ScanResultMatchInfo, ScanResult>>> scanResultsBySsid =
+                groupScanResultsBySsid(scanResults);
         for (WifiNetworkSuggestion suggestion : wifiNetworkSuggestions) {
             if (suggestion == null || suggestion.wifiConfiguration == null) {
                 continue;
             }
-            filteredScanResults.put(suggestion,
-                    getMatchingScanResultsForSuggestion(suggestion, scanResults));
+            filteredScanResults.put(suggestion, getMatchingScanResultsForSuggestion(suggestion,
+                    scanResults, scanResultsBySsid));
         }
 
         return filteredScanResults;
     }
 
-    private List<ScanResult> getMatchingScanResultsForSuggestion(WifiNetworkSuggestion suggestion,
-            List<ScanResult> scanResults) {
-        if (suggestion.passpointConfiguration != null) {
-            return mWifiInjector.getPasspointManager().getMatchingScanResults(
-                    suggestion.passpointConfiguration, scanResults);
-        } else {
-            return getMatchingScanResults(suggestion.wifiConfiguration, scanResults);
+    @NonNull
+    private Map<String, List<Pair<ScanResultMatchInfo, ScanResult>>> groupScanResultsBySsid(
+            @NonNull List<ScanResult> scanResults) {
+        Map<String, List<Pair<ScanResultMatchInfo, ScanResult>>> scanResultsBySsid =
+                new HashMap<>();
+        for (ScanResult scanResult : scanResults) {
+            if (scanResult == null) {
+                continue;
+            }
+            ScanResultMatchInfo matchInfo = ScanResultMatchInfo.fromScanResult(scanResult);
+            if (matchInfo == null) {
+                continue;
+            }
+            scanResultsBySsid.computeIfAbsent(matchInfo.networkSsid, k -> new ArrayList<>())
+                    .add(Pair.create(matchInfo, scanResult));
         }
+        return scanResultsBySsid;
     }
 
     /**
      * Get the filtered ScanResults which may be authenticated by the {@link WifiConfiguration}.
      * @param wifiConfiguration The instance of {@link WifiConfiguration}
-     * @param scanResults The list of {@link ScanResult}
+     * @param scanResultsBySsid The scan results and their match info, grouped by SSID
      * @return The filtered ScanResults
      */
     @NonNull
     private List<ScanResult> getMatchingScanResults(
             @NonNull WifiConfiguration wifiConfiguration,
-            @NonNull List<ScanResult> scanResults) {
+            @NonNull Map<String, List<Pair<ScanResultMatchInfo, ScanResult>>> scanResultsBySsid) {
         ScanResultMatchInfo matchInfoFromConfigration =
                 ScanResultMatchInfo.fromWifiConfiguration(wifiConfiguration);
         if (matchInfoFromConfigration == null) {
             return new ArrayList<>();
         }
+        List<Pair<ScanResultMatchInfo, ScanResult>> candidates =
+                scanResultsBySsid.get(matchInfoFromConfigration.networkSsid);
         List<ScanResult> filteredScanResult = new ArrayList<>();
-        for (ScanResult scanResult : scanResults) {
-            if (matchInfoFromConfigration.equals(ScanResultMatchInfo.fromScanResult(scanResult))) {
-                filteredScanResult.add(scanResult);
+        if (candidates == null) {
+            return filteredScanResult;
+        }
+        // Match info with different SSIDs never match, so no other bucket needs to be checked.
+        for (Pair<ScanResultMatchInfo, ScanResult> candidate : candidates) {
+            if (matchInfoFromConfigration.equals(candidate.first)) {
+                filteredScanResult.add(candidate.second);
             }
         }
 
         return filteredScanResult;
     }
 
+    private List<ScanResult> getMatchingScanResultsForSuggestion(WifiNetworkSuggestion suggestion,
+            List<ScanResult> scanResults,
+            Map<String, List<Pair<ScanResultMatchInfo, ScanResult>>> scanResultsBySsid) {
+        if (suggestion.passpointConfiguration != null) {
+            return mWifiInjector.getPasspointManager().getMatchingScanResults(
+                    suggestion.passpointConfiguration, scanResults);
+        } else {
+            return getMatchingScanResults(suggestion.wifiConfiguration, scanResultsBySsid);
+        }
+    }
+
     /**
      * Add the suggestion update event listener
      */
@@ -2692,9 +2901,12 @@ public class WifiNetworkSuggestionsManager {
         }
         List<ScanResult> scanResults = scanDetails.stream().map(ScanDetail::getScanResult)
                 .collect(Collectors.toList());
+        Map<String, List<Pair<ScanResultMatchInfo, ScanResult>>> scanResultsBySsid =
+                groupScanResultsBySsid(scanResults);
         // Check if the secure suggestion is in the range.
         for (ExtendedWifiNetworkSuggestion ewns : secureExtSuggestions) {
-            if (!getMatchingScanResultsForSuggestion(ewns.wns, scanResults).isEmpty()) {
+            if (!getMatchingScanResultsForSuggestion(ewns.wns, scanResults, scanResultsBySsid)
+                    .isEmpty()) {
                 return true;
             }
         }
@@ -2845,6 +3057,7 @@ public class WifiNetworkSuggestionsManager {
             }
         }
         pw.println("WifiNetworkSuggestionsManager - Networks End ----");
+        mBatchStats.dump(pw);
     }
 
     public void resetNotification() {
@@ -2294,9 +2294,9 @@ public class WifiScoreCard {
      * @return
      */
     public static long computeHashLong(String ssid, MacAddress mac, String l2KeySeed) {
-        final ArrayList<Byte> decodedSsid;
+        final byte[] decodedSsid;
         try {
-            decodedSsid = NativeUtil.decodeSsid(ssid);
+            decodedSsid = NativeUtil.decodeSsidToByteArray(ssid);
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "NativeUtil.decodeSsid failed: malformed string: " + ssid);
             return 0;
@@ -2305,7 +2305,7 @@ public class WifiScoreCard {
                 // Our seed keeps the L2Keys specific to this device
                 l2KeySeed.getBytes(),
                 // ssid is either quoted utf8 or hex-encoded bytes; turn it into plain bytes.
-                NativeUtil.byteArrayFromArrayList(decodedSsid),
+                decodedSsid,
                 // And the BSSID
                 mac.toByteArray()
         };
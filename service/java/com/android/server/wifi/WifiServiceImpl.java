@@ -201,6 +201,7 @@ import com.android.server.wifi.proto.nano.WifiMetricsProto.UserActionEvent;
 import com.android.server.wifi.util.ActionListenerWrapper;
 import com.android.server.wifi.util.ApConfigUtil;
 import com.android.server.wifi.util.GeneralUtil.Mutable;
+import com.android.server.wifi.util.IntHistogram;
 import com.android.server.wifi.util.LastCallerInfoManager;
 import com.android.server.wifi.util.RssiUtil;
 import com.android.server.wifi.util.WifiPermissionsUtil;
@@ -237,6 +238,7 @@ import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
@@ -969,6 +971,36 @@ public class WifiServiceImpl extends BaseWifiService {
 
     private boolean mInIdleMode;
     private boolean mScanPending;
+    // Number of getScanResults calls served from the published snapshot instead of a blocking
+    // call on the wifi thread.
+    private final AtomicLong mNumScanResultsSnapshotReads = new AtomicLong();
+    // Latency of the calls which read the scan results or the configured networks for apps.
+    private final CallLatencyStats mGetScanResultsLatency = new CallLatencyStats();
+    private final CallLatencyStats mGetConfiguredNetworksLatency = new CallLatencyStats();
+    private final CallLatencyStats mGetPrivilegedConfiguredNetworksLatency =
+            new CallLatencyStats();
+
+    /**
+     * Histogram of the latency of a binder call, in milliseconds. Updated from binder threads.
+     */
+    private static final class CallLatencyStats {
+        private static final int[] BUCKET_BOUNDARIES_MS =
+                {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 4000};
+        private final IntHistogram mHistogram = new IntHistogram(BUCKET_BOUNDARIES_MS);
+
+        synchronized void noteLatency(long latencyMs) {
+            mHistogram.increment((int) Math.min(latencyMs, Integer.MAX_VALUE));
+        }
+
+        synchronized void dump(PrintWriter pw, String callName) {
+            // Latencies beyond the last boundary are reported as the last boundary.
+            int maxMs = BUCKET_BOUNDARIES_MS[BUCKET_BOUNDARIES_MS.length - 1];
+            pw.println(callName + " latency ms: p50="
+                    + Math.round(mHistogram.quantileFunction(0.5, 0, maxMs))
+                    + " p99=" + Math.round(mHistogram.quantileFunction(0.99, 0, maxMs))
+                    + " histogram=" + mHistogram);
+        }
+    }
 
     private void handleIdleModeChanged() {
         boolean doScan = false;
@@ -3123,6 +3155,17 @@ public class WifiServiceImpl extends BaseWifiService {
     @Override
     public ParceledListSlice<WifiConfiguration> getConfiguredNetworks(String packageName,
             String featureId, boolean callerNetworksOnly) {
+        long startMs = mClock.getElapsedSinceBootMillis();
+        try {
+            return getConfiguredNetworksInternal(packageName, featureId, callerNetworksOnly);
+        } finally {
+            mGetConfiguredNetworksLatency.noteLatency(
+                    mClock.getElapsedSinceBootMillis() - startMs);
+        }
+    }
+
+    private ParceledListSlice<WifiConfiguration> getConfiguredNetworksInternal(
+            String packageName, String featureId, boolean callerNetworksOnly) {
         enforceAccessPermission();
         int callingUid = Binder.getCallingUid();
         // bypass shell: can get various pkg name
@@ -3203,6 +3246,17 @@ public class WifiServiceImpl extends BaseWifiService {
     @Override
     public ParceledListSlice<WifiConfiguration> getPrivilegedConfiguredNetworks(
             String packageName, String featureId, Bundle extras) {
+        long startMs = mClock.getElapsedSinceBootMillis();
+        try {
+            return getPrivilegedConfiguredNetworksInternal(packageName, featureId, extras);
+        } finally {
+            mGetPrivilegedConfiguredNetworksLatency.noteLatency(
+                    mClock.getElapsedSinceBootMillis() - startMs);
+        }
+    }
+
+    private ParceledListSlice<WifiConfiguration> getPrivilegedConfiguredNetworksInternal(
+            String packageName, String featureId, Bundle extras) {
         enforceReadCredentialPermission();
         enforceAccessPermission();
         int callingUid = Binder.getCallingUid();
@@ -4365,11 +4419,14 @@ public class WifiServiceImpl extends BaseWifiService {
 
     /**
      * Return the results of the most recent access point scan, in the form of
-     * a list of {@link ScanResult} objects.
+     * a list of {@link ScanResult} objects. The list is returned as a {@link ParceledListSlice}
+     * so that large result sets are split across binder transactions as needed.
      * @return the list of results
      */
     @Override
-    public List<ScanResult> getScanResults(String callingPackage, String callingFeatureId) {
+    public ParceledListSlice<ScanResult> getScanResults(String callingPackage,
+            String callingFeatureId) {
+        long startMs = mClock.getElapsedSinceBootMillis();
         enforceAccessPermission();
         int uid = Binder.getCallingUid();
         long ident = Binder.clearCallingIdentity();
@@ -4379,18 +4436,18 @@ public class WifiServiceImpl extends BaseWifiService {
         try {
             mWifiPermissionsUtil.enforceCanAccessScanResults(callingPackage, callingFeatureId,
                     uid, null);
-            List<ScanResult> scanResults = mWifiThreadRunner.call(
-                    mScanRequestProxy::getScanResults, Collections.emptyList());
-            if (scanResults.size() > 200) {
-                Log.i(TAG, "too many scan results, may break binder transaction");
-            }
-            return scanResults;
+            // Read the published snapshot directly, so a busy wifi thread does not block the
+            // caller. The snapshot is immutable, so it can be parceled without a copy.
+            List<ScanResult> scanResults = mScanRequestProxy.getScanResultsSnapshot();
+            mNumScanResultsSnapshotReads.incrementAndGet();
+            return new ParceledListSlice<>(scanResults);
         } catch (SecurityException e) {
             Log.w(TAG, "Permission violation - getScanResults not allowed for uid="
                     + uid + ", packageName=" + callingPackage + ", reason=" + e);
-            return new ArrayList<>();
+            return new ParceledListSlice<>(new ArrayList<>());
         } finally {
             Binder.restoreCallingIdentity(ident);
+            mGetScanResultsLatency.noteLatency(mClock.getElapsedSinceBootMillis() - startMs);
         }
     }
 
@@ -5308,6 +5365,11 @@ public class WifiServiceImpl extends BaseWifiService {
                         mContext, Settings.Global.STAY_ON_WHILE_PLUGGED_IN, 0));
                 pw.println("mInIdleMode " + mInIdleMode);
                 pw.println("mScanPending " + mScanPending);
+                pw.println("mNumScanResultsSnapshotReads " + mNumScanResultsSnapshotReads.get());
+                mGetScanResultsLatency.dump(pw, "getScanResults");
+                mGetConfiguredNetworksLatency.dump(pw, "getConfiguredNetworks");
+                mGetPrivilegedConfiguredNetworksLatency.dump(pw,
+                        "getPrivilegedConfiguredNetworks");
                 pw.println("SupportedFeatures:" + Long.toHexString(getSupportedFeaturesInternal()));
                 pw.println("SettingsStore:");
                 mSettingsStore.dump(fd, pw, args);
@@ -212,6 +212,7 @@ public class WifiShellCommand extends BasicShellCommandHandler {
     private final WifiDiagnostics mWifiDiagnostics;
     private final DeviceConfigFacade mDeviceConfig;
     private final AfcManager mAfcManager;
+    private final RunnerHandler mWifiHandler;
     private static final int[] OP_MODE_LIST = {
             WifiAvailableChannel.OP_MODE_STA,
             WifiAvailableChannel.OP_MODE_SAP,
@@ -461,6 +462,7 @@ public class WifiShellCommand extends BasicShellCommandHandler {
         mWifiDiagnostics = wifiInjector.getWifiDiagnostics();
         mDeviceConfig = wifiInjector.getDeviceConfigFacade();
         mAfcManager = wifiInjector.getAfcManager();
+        mWifiHandler = wifiInjector.getWifiHandler();
     }
 
     private String getOpModeName(@WifiAvailableChannel.OpMode int mode) {
@@ -958,7 +960,7 @@ public class WifiShellCommand extends BasicShellCommandHandler {
                     return 0;
                 case "list-scan-results":
                     List<ScanResult> scanResults =
-                            mWifiService.getScanResults(SHELL_PACKAGE_NAME, null);
+                            mWifiService.getScanResults(SHELL_PACKAGE_NAME, null).getList();
                     if (scanResults.isEmpty()) {
                         pw.println("No scan results");
                     } else {
@@ -1410,6 +1412,33 @@ public class WifiShellCommand extends BasicShellCommandHandler {
                 case "reset-fake-scans":
                     mWifiNative.resetFakeScanDetails();
                     return 0;
+                case "get-wifi-thread-task-stats": {
+                    int topN = Integer.MAX_VALUE;
+                    String option = getNextOption();
+                    while (option != null) {
+                        if (option.equals("-n")) {
+                            try {
+                                topN = Integer.parseInt(getNextArgRequired());
+                            } catch (NumberFormatException e) {
+                                topN = 0;
+                            }
+                            if (topN <= 0) {
+                                pw.println("Invalid argument to 'get-wifi-thread-task-stats' "
+                                        + "- <top N> must be a positive integer");
+                                return -1;
+                            }
+                        } else {
+                            pw.println("Ignoring unknown option " + option);
+                        }
+                        option = getNextOption();
+                    }
+                    final int finalTopN = topN;
+                    mWifiThreadRunner.run(() -> mWifiHandler.dumpTaskStats(pw, finalTopN));
+                    return 0;
+                }
+                case "reset-wifi-thread-task-stats":
+                    mWifiThreadRunner.run(() -> mWifiHandler.resetTaskStats());
+                    return 0;
                 case "start-faking-scans":
                     mWifiNative.startFakingScanDetails();
                     mWifiService.startScan(SHELL_PACKAGE_NAME, null); // to trigger update
@@ -2508,7 +2537,7 @@ public class WifiShellCommand extends BasicShellCommandHandler {
         // So, find scan result with the best rssi level to set in the request.
         if (bssid == null && !nullBssid && !noSsid) {
             ScanResult matchingScanResult =
-                    mWifiService.getScanResults(SHELL_PACKAGE_NAME, null)
+                    mWifiService.getScanResults(SHELL_PACKAGE_NAME, null).getList()
                             .stream()
                             .filter(s -> s.SSID.equals(ssid))
                             .max(Comparator.comparingInt(s -> s.level))
@@ -3127,6 +3156,12 @@ public class WifiShellCommand extends BasicShellCommandHandler {
         pw.println("    -x - Specifies the SSID as hex digits instead of plain text");
         pw.println("  reset-fake-scans");
         pw.println("    Resets all fake scan results added by 'add-fake-scan'.");
+        pw.println("  get-wifi-thread-task-stats [-n <top N>]");
+        pw.println("    Prints per-signature stats of the tasks run on the wifi thread, sorted by "
+                + "cumulative run time.");
+        pw.println("    -n - Only print the N most expensive signatures.");
+        pw.println("  reset-wifi-thread-task-stats");
+        pw.println("    Clears the stats printed by 'get-wifi-thread-task-stats'.");
         pw.println("  enable-scanning enabled|disabled [-h]");
         pw.println("    Sets whether all scanning should be enabled or disabled");
         pw.println("    -h - Enable scanning for hidden networks.");
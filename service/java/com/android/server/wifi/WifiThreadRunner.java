@@ -79,7 +79,7 @@ public class WifiThreadRunner {
     public <T> T call(@NonNull Supplier<T> supplier, T valueToReturnOnTimeout) {
         Mutable<T> result = new Mutable<>();
         boolean runWithScissorsSuccess = runWithScissors(mHandler,
-                () -> result.value = supplier.get(),
+                () -> result.value = supplier.get(), supplier,
                 RUN_WITH_SCISSORS_TIMEOUT_MILLIS, false);
         if (runWithScissorsSuccess) {
             return result.value;
@@ -108,7 +108,8 @@ public class WifiThreadRunner {
      */
     public boolean run(@NonNull Runnable runnable) {
         boolean runWithScissorsSuccess =
-                runWithScissors(mHandler, runnable, RUN_WITH_SCISSORS_TIMEOUT_MILLIS, false);
+                runWithScissors(mHandler, runnable, runnable, RUN_WITH_SCISSORS_TIMEOUT_MILLIS,
+                        false);
         if (runWithScissorsSuccess) {
             return true;
         } else {
@@ -131,7 +132,8 @@ public class WifiThreadRunner {
      */
     public boolean runAtFront(@NonNull Runnable runnable) {
         boolean runWithScissorsSuccess =
-                runWithScissors(mHandler, runnable, RUN_WITH_SCISSORS_TIMEOUT_MILLIS, true);
+                runWithScissors(mHandler, runnable, runnable, RUN_WITH_SCISSORS_TIMEOUT_MILLIS,
+                        true);
         if (runWithScissorsSuccess) {
             return true;
         } else {
@@ -256,6 +258,8 @@ public class WifiThreadRunner {
      * </p>
      *
      * @param r The Runnable that will be executed synchronously.
+     * @param callSite The object whose class identifies the caller, used as the signature of
+     *                 the posted job by {@link RunnerHandler}.
      * @param timeout The timeout in milliseconds, or 0 to wait indefinitely.
      * @param atFront Message needs to be posted at the front of the queue or not.
      *
@@ -268,7 +272,7 @@ public class WifiThreadRunner {
      * less funny like runUnsafe().
      */
     private boolean runWithScissors(@NonNull Handler handler, @NonNull Runnable r,
-            long timeout, boolean atFront) {
+            @NonNull Object callSite, long timeout, boolean atFront) {
         if (r == null) {
             throw new IllegalArgumentException("runnable must not be null");
         }
@@ -286,16 +290,24 @@ public class WifiThreadRunner {
             return true;
         }
 
-        BlockingRunnable br = new BlockingRunnable(r);
+        BlockingRunnable br = new BlockingRunnable(r, callSite);
         return br.postAndWait(handler, timeout, atFront);
     }
 
-    private static final class BlockingRunnable implements Runnable {
+    private static final class BlockingRunnable implements Runnable,
+            RunnerHandler.CallSiteProvider {
         private final Runnable mTask;
+        private final Object mCallSite;
         private boolean mDone;
 
-        BlockingRunnable(Runnable task) {
+        BlockingRunnable(Runnable task, Object callSite) {
             mTask = task;
+            mCallSite = callSite;
+        }
+
+        @Override
+        public Object getCallSite() {
+            return mCallSite;
         }
 
         @Override
@@ -16,6 +16,8 @@
 
 package com.android.server.wifi.hotspot2;
 
+import android.annotation.Nullable;
+
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.Clock;
 import com.android.server.wifi.hotspot2.anqp.ANQPElement;
@@ -25,6 +27,7 @@ import com.android.server.wifi.hotspot2.anqp.HSWanMetricsElement;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Class for maintaining ANQP elements and managing the lifetime of the elements.
@@ -37,8 +40,16 @@ public class ANQPData {
     public static final long DATA_LIFETIME_MILLISECONDS = 3_600_000L; // One hour
     public static final long DATA_SHORT_LIFETIME_MILLISECONDS = 600_000L; // Ten minutes
 
+    private static final AtomicLong sNextGeneration = new AtomicLong();
+
     private final Clock mClock;
     private final Map<Constants.ANQPElementType, ANQPElement> mANQPElements;
+    private final Map<Constants.ANQPElementType, ANQPElement> mANQPElementsView;
+    // Identifies the content of |mANQPElements|, see getGeneration().
+    private long mGeneration;
+    // Raw payloads of |mANQPElements|, only kept when the ANQP cache is persisted. Null if they
+    // were not kept for all the elements.
+    private Map<Constants.ANQPElementType, byte[]> mRawPayloads;
     private long mExpiryTime;
 
     public ANQPData(Clock clock, Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
@@ -63,26 +74,107 @@ public class ANQPData {
                 }
             }
         }
+        mANQPElementsView = Collections.unmodifiableMap(mANQPElements);
+        mGeneration = sNextGeneration.getAndIncrement();
         mExpiryTime = mClock.getElapsedSinceBootMillis() + dataLifetime;
     }
 
+    /**
+     * Create an entry which keeps the raw payloads of its elements, so that it can be persisted.
+     *
+     * @param clock Instance of {@link Clock}
+     * @param anqpElements ANQP elements of the entry
+     * @param rawPayloads Raw payloads of the ANQP elements, or null if they were not kept
+     */
+    ANQPData(Clock clock, Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            @Nullable Map<Constants.ANQPElementType, byte[]> rawPayloads) {
+        this(clock, anqpElements);
+        if (rawPayloads != null && (anqpElements == null
+                || rawPayloads.keySet().containsAll(anqpElements.keySet()))) {
+            mRawPayloads = new HashMap<>(rawPayloads);
+        }
+    }
+
+    /**
+     * Create an entry with a given expiry time, used to restore persisted entries.
+     *
+     * @param clock Instance of {@link Clock}
+     * @param anqpElements ANQP elements of the entry
+     * @param rawPayloads Raw payloads of the ANQP elements
+     * @param expiryTime Expiry time of the entry, in milliseconds since boot
+     */
+    ANQPData(Clock clock, Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            Map<Constants.ANQPElementType, byte[]> rawPayloads, long expiryTime) {
+        this(clock, anqpElements, rawPayloads);
+        mExpiryTime = expiryTime;
+    }
+
     /**
      * Update an entry with post association ANQP elelemtns
      *
      * @param anqpElements ANQP elements to add
      */
     public void update(Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
+        update(anqpElements, null);
+    }
+
+    /**
+     * Update an entry with post association ANQP elements and their raw payloads. The raw
+     * payloads of the entry are dropped if the new elements come without theirs.
+     *
+     * @param anqpElements ANQP elements to add
+     * @param rawPayloads Raw payloads of the ANQP elements, or null if they were not kept
+     */
+    void update(Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            @Nullable Map<Constants.ANQPElementType, byte[]> rawPayloads) {
         mANQPElements.putAll(anqpElements);
+        mGeneration = sNextGeneration.getAndIncrement();
         mExpiryTime = mClock.getElapsedSinceBootMillis() + DATA_LIFETIME_MILLISECONDS;
+        if (mRawPayloads != null && rawPayloads != null
+                && rawPayloads.keySet().containsAll(anqpElements.keySet())) {
+            mRawPayloads.putAll(rawPayloads);
+        } else {
+            mRawPayloads = null;
+        }
     }
 
     /**
      * Return the ANQP elements.
      *
-     * @return Map of ANQP elements
+     * @return Read-only map of ANQP elements
      */
     public Map<Constants.ANQPElementType, ANQPElement> getElements() {
-        return Collections.unmodifiableMap(mANQPElements);
+        return mANQPElementsView;
+    }
+
+    /**
+     * Return a number identifying the ANQP elements of this entry. It is unique across all
+     * entries and changes whenever the elements are updated, so results computed from the
+     * elements can be keyed on it without holding on to the entry.
+     *
+     * @return generation of the ANQP elements, never negative
+     */
+    public long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Return the raw payloads of the ANQP elements, which can be passed back to
+     * {@link com.android.server.wifi.hotspot2.anqp.ANQPParser} to recreate the elements. The
+     * returned map and arrays must not be modified.
+     *
+     * @return Map of raw payloads covering all the elements, or null if they were not kept
+     */
+    @Nullable
+    public Map<Constants.ANQPElementType, byte[]> getRawPayloads() {
+        return mRawPayloads;
+    }
+
+    /**
+     * @return the time at which this entry expires, see {@link #expired(long)}.
+     */
+    public long getExpiryTime() {
+        return mExpiryTime;
     }
 
     /**
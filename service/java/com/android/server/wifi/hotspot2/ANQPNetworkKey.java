@@ -65,6 +65,22 @@ public class ANQPNetworkKey {
         return new ANQPNetworkKey(ssid, 0, 0, anqpDomainId);
     }
 
+    String getSsid() {
+        return mSSID;
+    }
+
+    long getBssid() {
+        return mBSSID;
+    }
+
+    long getHessid() {
+        return mHESSID;
+    }
+
+    int getAnqpDomainId() {
+        return mAnqpDomainID;
+    }
+
     @Override
     public int hashCode() {
         if (mHESSID != 0) {
@@ -17,6 +17,7 @@
 package com.android.server.wifi.hotspot2;
 
 import android.app.AlarmManager;
+import android.net.wifi.WifiInfo;
 import android.os.Handler;
 import android.util.Log;
 
@@ -27,21 +28,34 @@ import com.android.server.wifi.hotspot2.anqp.Constants;
 import com.android.wifi.flags.FeatureFlags;
 
 import java.io.PrintWriter;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.PriorityQueue;
 
 /**
  * Class for managing sending of ANQP requests.  This manager will ignore ANQP requests for a
  * period of time (hold off time) to a specified AP if the previous request to that AP goes
  * unanswered or failed.  The hold off time will increase exponentially until the max is reached.
+ *
+ * Requests which cannot be sent right away are queued and sent as in-flight requests complete,
+ * APs advertising an OI of a configured provider first, then the strongest APs first. Only one
+ * request is sent at a time per {@link ANQPNetworkKey}, since the APs sharing a key also share
+ * their ANQP data. The other APs queued for the same key are kept as fallbacks, and are queried
+ * instead when the preferred AP is held off.
  */
 public class ANQPRequestManager {
     private static final int ANQP_REQUEST_ALARM_INTERVAL_MS = 2_000;
+    /**
+     * Maximum number of requests waiting for a response when requests are not serialized with
+     * {@link FeatureFlags#anqpRequestWaitForResponse()}. A request stops counting toward the
+     * limit after {@link #ANQP_REQUEST_ALARM_INTERVAL_MS} even if no response was received.
+     */
+    @VisibleForTesting
+    public static final int MAX_IN_FLIGHT_REQUESTS = 4;
     @VisibleForTesting
     public static final String ANQP_REQUEST_ALARM_TAG = "anqpRequestAlarm";
     private static final String TAG = "ANQPRequestManager";
@@ -53,10 +67,24 @@ public class ANQPRequestManager {
     private boolean mAnqpRequestPending;
 
     /**
-     * List of pending ANQP request associated with an AP (BSSID).
+     * List of pending ANQP request associated with an AP (BSSID). Queries which got no response
+     * within {@link #ANQP_REQUEST_ALARM_INTERVAL_MS} are expired, see
+     * {@link #expireUnansweredQueries(long)}.
+     */
+    private final Map<Long, PendingQuery> mPendingQueries;
+    /**
+     * Requests waiting to be sent, highest priority first, and the same requests by network key.
      */
-    private final Map<Long, ANQPNetworkKey> mPendingQueries;
-    private final Queue<AnqpRequest> mPendingRequest = new ArrayDeque<>();
+    private final PriorityQueue<AnqpRequest> mPendingRequest = new PriorityQueue<>();
+    private final Map<ANQPNetworkKey, AnqpRequest> mPendingRequestByKey = new HashMap<>();
+    private long mNextRequestSequence;
+
+    // Scheduler stats, reported in dump.
+    private int mMaxPendingRequestDepth;
+    private long mNumDeduplicatedRequests;
+    private long mNumAnsweredRequests;
+    private long mTotalTimeToAnqpMs;
+    private long mMaxTimeToAnqpMs;
 
     /**
      * List of hold off time information associated with APs specified by their BSSID.
@@ -109,19 +137,66 @@ public class ANQPRequestManager {
          */
         public long holdOffExpirationTime;
     }
-    private static class AnqpRequest {
+    private static class AnqpRequest implements Comparable<AnqpRequest> {
 
         AnqpRequest(long bssid, boolean rcOIs, NetworkDetail.HSRelease hsRelease,
-                ANQPNetworkKey anqpNetworkKey) {
+                ANQPNetworkKey anqpNetworkKey, int rssi, boolean isProviderCandidate,
+                long requestTime, long sequence) {
             mBssid = bssid;
             mAnqpNetworkKey = anqpNetworkKey;
             mRcOIs = rcOIs;
             mHsRelease = hsRelease;
+            mRssi = rssi;
+            mIsProviderCandidate = isProviderCandidate;
+            mRequestTime = requestTime;
+            mSequence = sequence;
         }
         public final long mBssid;
         public final boolean mRcOIs;
         public final NetworkDetail.HSRelease mHsRelease;
         public final ANQPNetworkKey mAnqpNetworkKey;
+        public final int mRssi;
+        public final boolean mIsProviderCandidate;
+        // Time of the first request for the network key, used for the time-to-ANQP stats.
+        public long mRequestTime;
+        public final long mSequence;
+        // Other APs with the same network key, queried instead when this one is held off.
+        public final List<AnqpRequest> mFallbacks = new ArrayList<>();
+
+        /**
+         * @return true if this request should be sent before the other one
+         */
+        boolean hasPriorityOver(AnqpRequest other) {
+            if (mIsProviderCandidate != other.mIsProviderCandidate) {
+                return mIsProviderCandidate;
+            }
+            return mRssi > other.mRssi;
+        }
+
+        @Override
+        public int compareTo(AnqpRequest other) {
+            if (hasPriorityOver(other)) {
+                return -1;
+            }
+            if (other.hasPriorityOver(this)) {
+                return 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    /**
+     * A request which was sent and is waiting for a response.
+     */
+    private static class PendingQuery {
+        PendingQuery(ANQPNetworkKey anqpNetworkKey, long requestTime, long sendTime) {
+            mAnqpNetworkKey = anqpNetworkKey;
+            mRequestTime = requestTime;
+            mSendTime = sendTime;
+        }
+        public final ANQPNetworkKey mAnqpNetworkKey;
+        public final long mRequestTime;
+        public final long mSendTime;
     }
 
     private final AlarmManager.OnAlarmListener mAnqpRequestListener =
@@ -155,65 +230,203 @@ public class ANQPRequestManager {
      *              Roaming Consortium ANQP element will be requested
      * @param hsReleaseVer Indicates Hotspot 2.0 Release version. When set to R2 or higher,
      *              the Release 2 ANQP elements {@link #R2_ANQP_BASE_SET} will be requested
-     * @return true if a request was sent successfully
+     * @return true if a request was sent successfully or queued
      */
     public boolean requestANQPElements(long bssid, ANQPNetworkKey anqpNetworkKey, boolean rcOIs,
             NetworkDetail.HSRelease hsReleaseVer) {
-        if (mFeatureFlags.anqpRequestWaitForResponse()) {
+        return requestANQPElements(bssid, anqpNetworkKey, rcOIs, hsReleaseVer,
+                WifiInfo.INVALID_RSSI, false);
+    }
+
+    /**
+     * Request ANQP elements from the specified AP, see
+     * {@link #requestANQPElements(long, ANQPNetworkKey, boolean, NetworkDetail.HSRelease)}.
+     * When the request cannot be sent right away, it is queued behind the requests with a higher
+     * priority.
+     *
+     * @param bssid The BSSID of the AP
+     * @param anqpNetworkKey The unique network key associated with this request
+     * @param rcOIs Flag indicating the inclusion of roaming consortium OIs
+     * @param hsReleaseVer Indicates Hotspot 2.0 Release version
+     * @param rssi The RSSI of the AP, stronger APs are queried first
+     * @param isProviderCandidate Flag indicating that the AP advertises an OI of a configured
+     *              provider, these APs are queried before the others
+     * @return true if a request was sent successfully or queued
+     */
+    public boolean requestANQPElements(long bssid, ANQPNetworkKey anqpNetworkKey, boolean rcOIs,
+            NetworkDetail.HSRelease hsReleaseVer, int rssi, boolean isProviderCandidate) {
+        long now = mClock.getElapsedSinceBootMillis();
+        expireUnansweredQueries(now);
+        AnqpRequest request = new AnqpRequest(bssid, rcOIs, hsReleaseVer, anqpNetworkKey, rssi,
+                isProviderCandidate, now, mNextRequestSequence++);
+        boolean waitForResponse = mFeatureFlags.anqpRequestWaitForResponse();
+        // Check if we are allow to send the request now.
+        if (!waitForResponse && !canSendRequestNow(bssid)) {
+            return false;
+        }
+        if (isQueryInFlight(anqpNetworkKey)) {
+            // The same ANQP data is already being requested from another AP.
+            mNumDeduplicatedRequests++;
+            return true;
+        }
+        if (waitForResponse || !mPendingRequest.isEmpty() || !hasCapacity()) {
             // Put the new request in the queue, process it if possible(no more pending request)
-            mPendingRequest.offer(new AnqpRequest(bssid, rcOIs, hsReleaseVer, anqpNetworkKey));
+            enqueueRequest(request);
             processNextRequest();
             return true;
         }
-        // Check if we are allow to send the request now.
-        if (!canSendRequestNow(bssid)) {
-            return false;
-        }
+        return sendRequest(request, now);
+    }
 
-        // No need to hold off future requests for send failures.
-        if (!mPasspointHandler.requestANQP(bssid, getRequestElementIDs(rcOIs, hsReleaseVer))) {
-            return false;
+    /**
+     * Queue a request, or merge it with the request already queued for the same network key. The
+     * request of the AP with the highest priority is queued, the others are kept as its fallbacks.
+     */
+    private void enqueueRequest(AnqpRequest request) {
+        AnqpRequest queued = mPendingRequestByKey.get(request.mAnqpNetworkKey);
+        if (queued != null) {
+            mNumDeduplicatedRequests++;
+            // Keep the original request time of the network key.
+            request.mRequestTime = queued.mRequestTime;
+            // A newer request for the same AP replaces the previous one.
+            queued.mFallbacks.removeIf(fallback -> fallback.mBssid == request.mBssid);
+            if (queued.mBssid != request.mBssid && !request.hasPriorityOver(queued)) {
+                queued.mFallbacks.add(request);
+                return;
+            }
+            // Query the AP with the highest priority instead.
+            mPendingRequest.remove(queued);
+            request.mFallbacks.addAll(queued.mFallbacks);
+            queued.mFallbacks.clear();
+            if (queued.mBssid != request.mBssid) {
+                request.mFallbacks.add(queued);
+            }
         }
-
-        // Update hold off info on when we are allowed to send the next ANQP request to
-        // the given AP.
-        updateHoldOffInfo(bssid);
-
-        mPendingQueries.put(bssid, anqpNetworkKey);
-        return true;
+        mPendingRequest.offer(request);
+        mPendingRequestByKey.put(request.mAnqpNetworkKey, request);
+        mMaxPendingRequestDepth = Math.max(mMaxPendingRequestDepth, mPendingRequest.size());
     }
 
     private void processNextRequest() {
-        if (mAnqpRequestPending) {
-            return;
-        }
         AnqpRequest request;
-        while ((request = mPendingRequest.poll()) != null) {
-            // Check if we are allow to send the request now.
-            if (!canSendRequestNow(request.mBssid)) {
+        long now = mClock.getElapsedSinceBootMillis();
+        expireUnansweredQueries(now);
+        while (hasCapacity() && (request = mPendingRequest.poll()) != null) {
+            mPendingRequestByKey.remove(request.mAnqpNetworkKey);
+            if (isQueryInFlight(request.mAnqpNetworkKey)) {
+                mNumDeduplicatedRequests++;
+                continue;
+            }
+            // Check if we are allow to send the request now, or to one of the fallback APs.
+            request = getSendableRequest(request);
+            if (request == null) {
                 continue;
             }
             // No need to hold off future requests and set next alarm for send failures.
-            if (mPasspointHandler.requestANQP(request.mBssid, getRequestElementIDs(request.mRcOIs,
-                    request.mHsRelease))) {
-                break;
+            if (!sendRequest(request, now) || !mFeatureFlags.anqpRequestWaitForResponse()) {
+                continue;
+            }
+            // Schedule next request in case of time out waiting for response.
+            mAlarmManager.set(
+                    AlarmManager.ELAPSED_REALTIME,
+                    now + ANQP_REQUEST_ALARM_INTERVAL_MS,
+                    ANQP_REQUEST_ALARM_TAG,
+                    mAnqpRequestListener,
+                    mHandler);
+            mAnqpRequestPending = true;
+        }
+        if (!mFeatureFlags.anqpRequestWaitForResponse() && !mPendingRequest.isEmpty()
+                && !mAnqpRequestPending) {
+            // Requests are queued behind the in-flight cap. Drain the queue when the oldest
+            // in-flight request times out, in case no response ever arrives.
+            mAlarmManager.set(
+                    AlarmManager.ELAPSED_REALTIME,
+                    getNextInFlightTimeout(now),
+                    ANQP_REQUEST_ALARM_TAG,
+                    mAnqpRequestListener,
+                    mHandler);
+            mAnqpRequestPending = true;
+        }
+    }
+
+    /**
+     * @return the given request if its AP can be queried now, otherwise the fallback with the
+     * highest priority which can, or null if all of them are held off
+     */
+    private AnqpRequest getSendableRequest(AnqpRequest request) {
+        if (canSendRequestNow(request.mBssid)) {
+            return request;
+        }
+        Collections.sort(request.mFallbacks);
+        for (AnqpRequest fallback : request.mFallbacks) {
+            if (canSendRequestNow(fallback.mBssid)) {
+                fallback.mRequestTime = request.mRequestTime;
+                return fallback;
             }
         }
-        if (request == null) {
-            return;
+        return null;
+    }
+
+    /**
+     * @return the time at which the oldest in-flight request stops counting toward the cap
+     */
+    private long getNextInFlightTimeout(long now) {
+        long timeout = now + ANQP_REQUEST_ALARM_INTERVAL_MS;
+        for (PendingQuery query : mPendingQueries.values()) {
+            timeout = Math.min(timeout, query.mSendTime + ANQP_REQUEST_ALARM_INTERVAL_MS);
+        }
+        return timeout;
+    }
+
+    /**
+     * Forget the queries which got no response within {@link #ANQP_REQUEST_ALARM_INTERVAL_MS},
+     * so that they stop counting toward the in-flight cap and don't block other requests for
+     * their network key. A response arriving after that is ignored.
+     */
+    private void expireUnansweredQueries(long now) {
+        mPendingQueries.values().removeIf(query ->
+                now - query.mSendTime >= ANQP_REQUEST_ALARM_INTERVAL_MS);
+    }
+
+    /**
+     * Send a request to the AP.
+     *
+     * @return true if the request was sent successfully
+     */
+    private boolean sendRequest(AnqpRequest request, long now) {
+        // No need to hold off future requests for send failures.
+        if (!mPasspointHandler.requestANQP(request.mBssid,
+                getRequestElementIDs(request.mRcOIs, request.mHsRelease))) {
+            return false;
         }
         // Update hold off info on when we are allowed to send the next ANQP request to
         // the given AP.
         updateHoldOffInfo(request.mBssid);
-        mPendingQueries.put(request.mBssid, request.mAnqpNetworkKey);
-        // Schedule next request in case of time out waiting for response.
-        mAlarmManager.set(
-                AlarmManager.ELAPSED_REALTIME,
-                mClock.getElapsedSinceBootMillis() + ANQP_REQUEST_ALARM_INTERVAL_MS,
-                ANQP_REQUEST_ALARM_TAG,
-                mAnqpRequestListener,
-                mHandler);
-        mAnqpRequestPending = true;
+        mPendingQueries.put(request.mBssid,
+                new PendingQuery(request.mAnqpNetworkKey, request.mRequestTime, now));
+        return true;
+    }
+
+    /**
+     * @return true if another request can be sent now
+     */
+    private boolean hasCapacity() {
+        if (mFeatureFlags.anqpRequestWaitForResponse()) {
+            return !mAnqpRequestPending;
+        }
+        return mPendingQueries.size() < MAX_IN_FLIGHT_REQUESTS;
+    }
+
+    /**
+     * @return true if a request for the given network key is waiting for a response
+     */
+    private boolean isQueryInFlight(ANQPNetworkKey anqpNetworkKey) {
+        for (PendingQuery query : mPendingQueries.values()) {
+            if (query.mAnqpNetworkKey.equals(anqpNetworkKey)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -239,15 +452,22 @@ public class ANQPRequestManager {
      * @return {@link ANQPNetworkKey} associated with the completed request
      */
     public ANQPNetworkKey onRequestCompleted(long bssid, boolean success) {
+        PendingQuery query = mPendingQueries.remove(bssid);
         if (success) {
             // Query succeeded.  No need to hold off request to the given AP.
             mHoldOffInfo.remove(bssid);
+            if (query != null) {
+                long timeToAnqpMs = mClock.getElapsedSinceBootMillis() - query.mRequestTime;
+                mNumAnsweredRequests++;
+                mTotalTimeToAnqpMs += timeToAnqpMs;
+                mMaxTimeToAnqpMs = Math.max(mMaxTimeToAnqpMs, timeToAnqpMs);
+            }
         }
         // Cancel the schedule, and process next request.
         mAlarmManager.cancel(mAnqpRequestListener);
         mAnqpRequestPending = false;
         processNextRequest();
-        return mPendingQueries.remove(bssid);
+        return query == null ? null : query.mAnqpNetworkKey;
     }
 
     /**
@@ -322,6 +542,11 @@ public class ANQPRequestManager {
      */
     public void dump(PrintWriter pw) {
         pw.println("ANQPRequestManager - Begin ---");
+        pw.println("Pending requests: " + mPendingRequest.size() + ", max: "
+                + mMaxPendingRequestDepth + ", deduplicated: " + mNumDeduplicatedRequests);
+        pw.println("Answered requests: " + mNumAnsweredRequests + ", average time to ANQP: "
+                + (mNumAnsweredRequests == 0 ? 0 : mTotalTimeToAnqpMs / mNumAnsweredRequests)
+                + " ms, max: " + mMaxTimeToAnqpMs + " ms");
         for (Map.Entry<Long, HoldOffInfo> holdOffInfo : mHoldOffInfo.entrySet()) {
             long bssid = holdOffInfo.getKey();
             pw.println("For BBSID: " + Utils.macToString(bssid));
@@ -342,5 +567,6 @@ public class ANQPRequestManager {
         mAlarmManager.cancel(mAnqpRequestListener);
         mAnqpRequestPending = false;
         mPendingRequest.clear();
+        mPendingRequestByKey.clear();
     }
 }
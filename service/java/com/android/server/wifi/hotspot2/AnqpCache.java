@@ -16,6 +16,10 @@
 
 package com.android.server.wifi.hotspot2;
 
+import android.annotation.Nullable;
+import android.util.Log;
+import android.util.Pair;
+
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.Clock;
 import com.android.server.wifi.hotspot2.anqp.ANQPElement;
@@ -24,25 +28,88 @@ import com.android.server.wifi.hotspot2.anqp.Constants;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 /**
  * Cache for storing ANQP data.  This is simply a data cache, all the logic related to
  * ANQP data query will be handled elsewhere (e.g. the consumer of the cache).
+ *
+ * The cache is bounded both in number of entries and in the estimated size of the stored
+ * elements. Entries are also kept in a queue ordered by expiry time, so that sweeping and
+ * eviction only visit the entries being removed. When the cache is full, the entries closest
+ * to expiry are evicted first.
+ *
+ * The content of the cache can be persisted through {@link AnqpCacheStoreData}, which restores
+ * the unexpired entries with {@link #restoreEntry(ANQPNetworkKey, Map, Map, long)}. The raw
+ * payloads needed to persist an entry are only kept when they are provided by the caller, that is
+ * when the persistence is enabled.
  */
 public class AnqpCache {
+    private static final String TAG = "AnqpCache";
+
     @VisibleForTesting
     public static final long CACHE_SWEEP_INTERVAL_MILLISECONDS = 60000L;
+    @VisibleForTesting
+    public static final int MAX_CACHE_ENTRIES = 1000;
+    @VisibleForTesting
+    public static final int MAX_CACHE_SIZE_BYTES = 512 * 1024;
+    /**
+     * Rough per element overhead of the parsed representation on top of its payload, also used
+     * as the size of elements which were not parsed from the air.
+     */
+    @VisibleForTesting
+    public static final int ELEMENT_OVERHEAD_BYTES = 64;
 
     private long mLastSweep;
     private Clock mClock;
 
-    private final Map<ANQPNetworkKey, ANQPData> mANQPCache;
+    private final Map<ANQPNetworkKey, CacheEntry> mANQPCache;
+    /**
+     * Entries ordered by expiry time. An entry is re-queued when its expiry time changes, the
+     * stale copy left behind is dropped when it reaches the head of the queue.
+     */
+    private final PriorityQueue<ExpiryRecord> mExpiryQueue;
+    private long mTotalSizeBytes;
+    private long mHits;
+    private long mMisses;
+    private long mExpirations;
+    private long mEvictions;
+    private boolean mHasNewDataToPersist;
+
+    private static class CacheEntry {
+        public final ANQPData data;
+        public int sizeBytes;
+
+        CacheEntry(ANQPData data) {
+            this.data = data;
+        }
+    }
+
+    private static class ExpiryRecord implements Comparable<ExpiryRecord> {
+        public final ANQPNetworkKey key;
+        public final CacheEntry entry;
+        public final long expiryTime;
+
+        ExpiryRecord(ANQPNetworkKey key, CacheEntry entry) {
+            this.key = key;
+            this.entry = entry;
+            this.expiryTime = entry.data.getExpiryTime();
+        }
+
+        @Override
+        public int compareTo(ExpiryRecord other) {
+            return Long.compare(expiryTime, other.expiryTime);
+        }
+    }
 
     public AnqpCache(Clock clock) {
         mClock = clock;
         mANQPCache = new HashMap<>();
+        mExpiryQueue = new PriorityQueue<>();
         mLastSweep = mClock.getElapsedSinceBootMillis();
     }
 
@@ -54,8 +121,27 @@ public class AnqpCache {
      */
     public void addEntry(ANQPNetworkKey key,
             Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
-        ANQPData data = new ANQPData(mClock, anqpElements);
-        mANQPCache.put(key, data);
+        addEntry(key, anqpElements, null);
+    }
+
+    /**
+     * Add an ANQP entry associated with the given key, keeping the raw payloads of its elements.
+     *
+     * @param key The key that's associated with the entry
+     * @param anqpElements The ANQP elements from the AP
+     * @param rawPayloads The raw payloads of the ANQP elements, or null to not keep them
+     */
+    public void addEntry(ANQPNetworkKey key,
+            Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            @Nullable Map<Constants.ANQPElementType, byte[]> rawPayloads) {
+        CacheEntry entry = new CacheEntry(new ANQPData(mClock, anqpElements, rawPayloads));
+        CacheEntry previous = mANQPCache.put(key, entry);
+        if (previous != null) {
+            mTotalSizeBytes -= previous.sizeBytes;
+        }
+        updateSizeAndExpiry(key, entry);
+        trimToSize();
+        mHasNewDataToPersist = true;
     }
 
     /**
@@ -68,12 +154,81 @@ public class AnqpCache {
      */
     public void addOrUpdateEntry(ANQPNetworkKey key,
             Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
-        if (!mANQPCache.containsKey(key)) {
+        addOrUpdateEntry(key, anqpElements, null);
+    }
+
+    /**
+     * Add or update additional ANQP elements to an ANQP entry associated with a given key,
+     * keeping the raw payloads of the elements.
+     *
+     * @param key The key that's associated with the entry
+     * @param anqpElements The additional ANQP elements from the AP, post connection
+     * @param rawPayloads The raw payloads of the ANQP elements, or null to not keep them
+     */
+    public void addOrUpdateEntry(ANQPNetworkKey key,
+            Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            @Nullable Map<Constants.ANQPElementType, byte[]> rawPayloads) {
+        CacheEntry entry = mANQPCache.get(key);
+        if (entry == null) {
             // Create a new entry
-            addEntry(key, anqpElements);
+            addEntry(key, anqpElements, rawPayloads);
+            return;
+        }
+        entry.data.update(anqpElements, rawPayloads);
+        updateSizeAndExpiry(key, entry);
+        trimToSize();
+        mHasNewDataToPersist = true;
+    }
+
+    /**
+     * Restore a persisted ANQP entry. Nothing is done if the entry already expired or if the
+     * cache already has an entry for the key, which is more recent than the persisted one.
+     *
+     * @param key The key that's associated with the entry
+     * @param anqpElements The ANQP elements of the entry
+     * @param rawPayloads The raw payloads of the ANQP elements
+     * @param expiryTime The expiry time of the entry, in milliseconds since boot
+     */
+    public void restoreEntry(ANQPNetworkKey key,
+            Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            Map<Constants.ANQPElementType, byte[]> rawPayloads, long expiryTime) {
+        if (expiryTime <= mClock.getElapsedSinceBootMillis() || mANQPCache.containsKey(key)) {
             return;
         }
-        mANQPCache.get(key).update(anqpElements);
+        CacheEntry entry = new CacheEntry(
+                new ANQPData(mClock, anqpElements, rawPayloads, expiryTime));
+        mANQPCache.put(key, entry);
+        updateSizeAndExpiry(key, entry);
+        trimToSize();
+    }
+
+    /**
+     * @return true if the content of the cache changed since the last call to
+     * {@link #getEntriesToPersist()}.
+     */
+    public boolean hasNewDataToPersist() {
+        return mHasNewDataToPersist;
+    }
+
+    /**
+     * Get the unexpired entries of the cache, the entries expiring last first. Entries without
+     * raw payloads cannot be persisted and are left out.
+     *
+     * @return List of entries to persist
+     */
+    public List<Pair<ANQPNetworkKey, ANQPData>> getEntriesToPersist() {
+        long now = mClock.getElapsedSinceBootMillis();
+        List<Pair<ANQPNetworkKey, ANQPData>> entries = new ArrayList<>();
+        for (Map.Entry<ANQPNetworkKey, CacheEntry> entry : mANQPCache.entrySet()) {
+            ANQPData data = entry.getValue().data;
+            if (!data.expired(now) && data.getRawPayloads() != null) {
+                entries.add(Pair.create(entry.getKey(), data));
+            }
+        }
+        entries.sort((e1, e2) -> Long.compare(
+                e2.second.getExpiryTime(), e1.second.getExpiryTime()));
+        mHasNewDataToPersist = false;
+        return entries;
     }
 
     /**
@@ -83,39 +238,57 @@ public class AnqpCache {
      * @return {@link ANQPData}
      */
     public ANQPData getEntry(ANQPNetworkKey key) {
-        return mANQPCache.get(key);
+        CacheEntry entry = mANQPCache.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.data;
     }
 
     /**
      * Go through the cache to remove any expired entries.
+     *
+     * @return true if the cache was swept, false if the last sweep is too recent
      */
-    public void sweep() {
+    public boolean sweep() {
         long now = mClock.getElapsedSinceBootMillis();
         // Check if it is time to perform the sweep.
         if (now < mLastSweep + CACHE_SWEEP_INTERVAL_MILLISECONDS) {
-            return;
+            return false;
         }
 
-        // Get all expired keys.
-        List<ANQPNetworkKey> expiredKeys = new ArrayList<>();
-        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mANQPCache.entrySet()) {
-            if (entry.getValue().expired(now)) {
-                expiredKeys.add(entry.getKey());
+        // Remove all expired entries, they are at the head of the queue.
+        while (!mExpiryQueue.isEmpty() && mExpiryQueue.peek().expiryTime <= now) {
+            if (removeRecord(mExpiryQueue.poll())) {
+                mExpirations++;
             }
         }
+        mLastSweep = now;
+        return true;
+    }
 
-        // Remove all expired entries.
-        for (ANQPNetworkKey key : expiredKeys) {
-            mANQPCache.remove(key);
+    /**
+     * @return the {@link ANQPData#getGeneration()} of all the entries in the cache.
+     */
+    public Set<Long> getGenerations() {
+        Set<Long> generations = new HashSet<>();
+        for (CacheEntry entry : mANQPCache.values()) {
+            generations.add(entry.data.getGeneration());
         }
-        mLastSweep = now;
+        return generations;
     }
 
     public void dump(PrintWriter out) {
         out.println("Last sweep " + Utils.toHMS(mClock.getElapsedSinceBootMillis() - mLastSweep)
                 + " ago.");
-        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mANQPCache.entrySet()) {
-            out.println(entry.getKey() + ": " + entry.getValue());
+        out.println("Entries: " + mANQPCache.size() + "/" + MAX_CACHE_ENTRIES
+                + ", estimated size: " + mTotalSizeBytes + "/" + MAX_CACHE_SIZE_BYTES + " bytes");
+        out.println("Hits: " + mHits + ", misses: " + mMisses + ", expirations: "
+                + mExpirations + ", evictions: " + mEvictions);
+        for (Map.Entry<ANQPNetworkKey, CacheEntry> entry : mANQPCache.entrySet()) {
+            out.println(entry.getKey() + ": " + entry.getValue().data);
         }
     }
 
@@ -124,6 +297,77 @@ public class AnqpCache {
      */
     public void flush() {
         mANQPCache.clear();
+        mExpiryQueue.clear();
+        mTotalSizeBytes = 0;
         mLastSweep = mClock.getElapsedSinceBootMillis();
+        mHasNewDataToPersist = true;
+    }
+
+    /**
+     * @return the number of entries in the cache.
+     */
+    @VisibleForTesting
+    public int size() {
+        return mANQPCache.size();
+    }
+
+    /**
+     * @return the estimated size in bytes of the elements stored in the cache.
+     */
+    @VisibleForTesting
+    public long getSizeBytes() {
+        return mTotalSizeBytes;
+    }
+
+    private void updateSizeAndExpiry(ANQPNetworkKey key, CacheEntry entry) {
+        mTotalSizeBytes -= entry.sizeBytes;
+        entry.sizeBytes = estimateSizeBytes(entry.data);
+        mTotalSizeBytes += entry.sizeBytes;
+        mExpiryQueue.add(new ExpiryRecord(key, entry));
+    }
+
+    /**
+     * Evict the entries closest to expiry until the cache is within its bounds.
+     */
+    private void trimToSize() {
+        while ((mANQPCache.size() > MAX_CACHE_ENTRIES || mTotalSizeBytes > MAX_CACHE_SIZE_BYTES)
+                && !mExpiryQueue.isEmpty()) {
+            ExpiryRecord record = mExpiryQueue.poll();
+            if (removeRecord(record)) {
+                mEvictions++;
+                Log.d(TAG, "Evicted ANQP entry for " + record.key);
+            }
+        }
+    }
+
+    /**
+     * Remove the entry of a record taken off the expiry queue, unless the record is stale.
+     *
+     * @return true if the entry was removed
+     */
+    private boolean removeRecord(ExpiryRecord record) {
+        // The entry was replaced or its expiry time was extended since the record was queued.
+        if (mANQPCache.get(record.key) != record.entry
+                || record.entry.data.getExpiryTime() != record.expiryTime) {
+            return false;
+        }
+        mANQPCache.remove(record.key);
+        mTotalSizeBytes -= record.entry.sizeBytes;
+        mHasNewDataToPersist = true;
+        return true;
+    }
+
+    private static int estimateSizeBytes(ANQPData data) {
+        int sizeBytes = 0;
+        for (ANQPElement element : data.getElements().values()) {
+            sizeBytes += element.getPayloadLength() + ELEMENT_OVERHEAD_BYTES;
+        }
+        Map<Constants.ANQPElementType, byte[]> rawPayloads = data.getRawPayloads();
+        if (rawPayloads != null) {
+            for (byte[] rawPayload : rawPayloads.values()) {
+                sizeBytes += rawPayload.length;
+            }
+        }
+        return sizeBytes;
     }
 }
@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import android.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.wifi.Clock;
+import com.android.server.wifi.WifiConfigStore;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.ANQPParser;
+import com.android.server.wifi.hotspot2.anqp.Constants;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
+import com.android.server.wifi.util.XmlUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Responsible for persisting the content of the {@link AnqpCache} in the shared store, so that
+ * previously seen Passpoint APs can be matched without querying them again after a Wi-Fi
+ * restart or a reboot.
+ *
+ * Each entry is stored as its {@link ANQPNetworkKey}, its expiry time and the raw payload of
+ * each of its ANQP elements, which are parsed again when the entry is restored. Expiry times are
+ * stored in wall clock time since the time since boot does not survive a reboot.
+ *
+ * The store is only a cache: an entry which cannot be restored is logged and skipped, and
+ * reading never fails because of this section, so that it can't affect the other data of the
+ * shared store.
+ */
+public class AnqpCacheStoreData implements WifiConfigStore.StoreData {
+    private static final String TAG = "AnqpCacheStoreData";
+
+    /**
+     * Maximum number of entries to persist, the entries expiring last are kept.
+     */
+    @VisibleForTesting
+    public static final int MAX_PERSISTED_ENTRIES = 100;
+
+    private static final String XML_TAG_SECTION_HEADER_ANQP_CACHE = "AnqpCache";
+    private static final String XML_TAG_SECTION_HEADER_ANQP_ENTRY = "AnqpEntry";
+    private static final String XML_TAG_SECTION_HEADER_ANQP_ELEMENTS = "AnqpElements";
+    private static final String XML_TAG_SSID = "SSID";
+    private static final String XML_TAG_BSSID = "BSSID";
+    private static final String XML_TAG_HESSID = "HESSID";
+    private static final String XML_TAG_ANQP_DOMAIN_ID = "AnqpDomainId";
+    private static final String XML_TAG_EXPIRY_WALL_CLOCK_MILLIS = "ExpiryWallClockMillis";
+
+    private final DataSource mDataSource;
+    private final Clock mClock;
+
+    /**
+     * Interface define the data source for the ANQP cache store data.
+     */
+    public interface DataSource {
+        /**
+         * @return true if the cache changed since the last call to {@link #getEntries()}
+         */
+        boolean hasNewData();
+
+        /**
+         * Retrieve the entries to persist, the entries expiring last first.
+         *
+         * @return List of ANQP entries
+         */
+        List<Pair<ANQPNetworkKey, ANQPData>> getEntries();
+
+        /**
+         * Restore a persisted entry.
+         *
+         * @param key The key that's associated with the entry
+         * @param anqpElements The ANQP elements of the entry
+         * @param rawPayloads The raw payloads the ANQP elements were parsed from
+         * @param expiryTime The expiry time of the entry, in milliseconds since boot
+         */
+        void restoreEntry(ANQPNetworkKey key,
+                Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+                Map<Constants.ANQPElementType, byte[]> rawPayloads, long expiryTime);
+    }
+
+    AnqpCacheStoreData(DataSource dataSource, Clock clock) {
+        mDataSource = dataSource;
+        mClock = clock;
+    }
+
+    @Override
+    public void serializeData(XmlSerializer out,
+            @Nullable WifiConfigStoreEncryptionUtil encryptionUtil)
+            throws XmlPullParserException, IOException {
+        long wallClockOffset = mClock.getWallClockMillis() - mClock.getElapsedSinceBootMillis();
+        int numPersisted = 0;
+        for (Pair<ANQPNetworkKey, ANQPData> entry : mDataSource.getEntries()) {
+            if (numPersisted >= MAX_PERSISTED_ENTRIES) {
+                break;
+            }
+            if (serializeEntry(out, entry.first, entry.second, wallClockOffset)) {
+                numPersisted++;
+            }
+        }
+    }
+
+    @Override
+    public void deserializeData(XmlPullParser in, int outerTagDepth,
+            @WifiConfigStore.Version int version,
+            @Nullable WifiConfigStoreEncryptionUtil encryptionUtil)
+            throws XmlPullParserException, IOException {
+        // Ignore empty reads.
+        if (in == null) {
+            return;
+        }
+        long now = mClock.getElapsedSinceBootMillis();
+        long wallClockNow = mClock.getWallClockMillis();
+        try {
+            while (XmlUtil.gotoNextSectionWithNameOrEnd(in, XML_TAG_SECTION_HEADER_ANQP_ENTRY,
+                    outerTagDepth)) {
+                deserializeEntry(in, outerTagDepth + 1, now, wallClockNow);
+            }
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            // The rest of the section is skipped by the caller, the entries read so far are kept.
+            Log.e(TAG, "Failed to restore the ANQP cache, skipping the remaining entries: " + e);
+        }
+    }
+
+    /**
+     * The ANQP cache only uses the store to warm up, there is nothing to reset.
+     */
+    @Override
+    public void resetData() {
+    }
+
+    @Override
+    public boolean hasNewDataToSerialize() {
+        return mDataSource.hasNewData();
+    }
+
+    @Override
+    public String getName() {
+        return XML_TAG_SECTION_HEADER_ANQP_CACHE;
+    }
+
+    @Override
+    public @WifiConfigStore.StoreFileId int getStoreFileId() {
+        // Shared general store.
+        return WifiConfigStore.STORE_FILE_SHARED_GENERAL;
+    }
+
+    /**
+     * Serialize an ANQP entry to a XML block. Entries without the raw payloads of their elements
+     * cannot be restored and are skipped.
+     *
+     * @param out The output stream to serialize data to
+     * @param key The key of the entry
+     * @param data The ANQP data of the entry
+     * @param wallClockOffset Offset to convert the time since boot to wall clock time
+     * @return true if the entry was written
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    private boolean serializeEntry(XmlSerializer out, ANQPNetworkKey key, ANQPData data,
+            long wallClockOffset) throws XmlPullParserException, IOException {
+        Map<Constants.ANQPElementType, byte[]> rawPayloads = data.getRawPayloads();
+        if (rawPayloads == null) {
+            return false;
+        }
+        XmlUtil.writeNextSectionStart(out, XML_TAG_SECTION_HEADER_ANQP_ENTRY);
+        XmlUtil.writeNextValue(out, XML_TAG_SSID, key.getSsid());
+        XmlUtil.writeNextValue(out, XML_TAG_BSSID, key.getBssid());
+        XmlUtil.writeNextValue(out, XML_TAG_HESSID, key.getHessid());
+        XmlUtil.writeNextValue(out, XML_TAG_ANQP_DOMAIN_ID, key.getAnqpDomainId());
+        XmlUtil.writeNextValue(out, XML_TAG_EXPIRY_WALL_CLOCK_MILLIS,
+                data.getExpiryTime() + wallClockOffset);
+        XmlUtil.writeNextSectionStart(out, XML_TAG_SECTION_HEADER_ANQP_ELEMENTS);
+        for (Constants.ANQPElementType type : data.getElements().keySet()) {
+            XmlUtil.writeNextValue(out, type.name(), rawPayloads.get(type));
+        }
+        XmlUtil.writeNextSectionEnd(out, XML_TAG_SECTION_HEADER_ANQP_ELEMENTS);
+        XmlUtil.writeNextSectionEnd(out, XML_TAG_SECTION_HEADER_ANQP_ENTRY);
+        return true;
+    }
+
+    /**
+     * Deserialize an ANQP entry from the input stream and restore it, unless it expired or it
+     * cannot be restored. An entry with a missing or malformed value is logged and skipped.
+     *
+     * @param in The input stream to read data from
+     * @param outerTagDepth The tag depth of the current XML section
+     * @param now The current time since boot
+     * @param wallClockNow The current wall clock time
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    private void deserializeEntry(XmlPullParser in, int outerTagDepth, long now,
+            long wallClockNow) throws XmlPullParserException, IOException {
+        String ssid = null;
+        long bssid = 0;
+        long hessid = 0;
+        int anqpDomainId = 0;
+        Long expiryWallClockMillis = null;
+        Map<Constants.ANQPElementType, ANQPElement> elements = null;
+        Map<Constants.ANQPElementType, byte[]> rawPayloads = new HashMap<>();
+        boolean valid = true;
+        while (XmlUtil.nextElementWithin(in, outerTagDepth)) {
+            if (in.getAttributeValue(null, "name") != null) {
+                // Value elements.
+                String[] name = new String[1];
+                Object value = XmlUtil.readCurrentValue(in, name);
+                boolean wasValid = valid;
+                switch (name[0]) {
+                    case XML_TAG_SSID:
+                        if (value instanceof String) {
+                            ssid = (String) value;
+                        } else {
+                            valid = false;
+                        }
+                        break;
+                    case XML_TAG_BSSID:
+                        if (value instanceof Long) {
+                            bssid = (long) value;
+                        } else {
+                            valid = false;
+                        }
+                        break;
+                    case XML_TAG_HESSID:
+                        if (value instanceof Long) {
+                            hessid = (long) value;
+                        } else {
+                            valid = false;
+                        }
+                        break;
+                    case XML_TAG_ANQP_DOMAIN_ID:
+                        if (value instanceof Integer) {
+                            anqpDomainId = (int) value;
+                        } else {
+                            valid = false;
+                        }
+                        break;
+                    case XML_TAG_EXPIRY_WALL_CLOCK_MILLIS:
+                        if (value instanceof Long) {
+                            expiryWallClockMillis = (Long) value;
+                        } else {
+                            valid = false;
+                        }
+                        break;
+                    default:
+                        Log.w(TAG, "Ignoring unknown value name found " + name[0]);
+                        break;
+                }
+                if (wasValid && !valid) {
+                    Log.w(TAG, "Malformed value " + name[0] + " in AnqpEntry: " + value);
+                }
+            } else if (TextUtils.equals(in.getName(), XML_TAG_SECTION_HEADER_ANQP_ELEMENTS)) {
+                elements = deserializeElements(in, outerTagDepth + 1, rawPayloads);
+            } else {
+                Log.w(TAG, "Ignoring unexpected section under AnqpEntry: " + in.getName());
+            }
+        }
+        if (!valid) {
+            return;
+        }
+        if (ssid == null || expiryWallClockMillis == null) {
+            Log.w(TAG, "Skipping AnqpEntry without SSID or expiry time");
+            return;
+        }
+        if (elements == null) {
+            // Some elements could not be parsed, query the AP again instead.
+            return;
+        }
+        // Never extend the lifetime of an entry, in case the wall clock moved backwards.
+        long remainingLifetime = Math.min(expiryWallClockMillis - wallClockNow,
+                ANQPData.DATA_LIFETIME_MILLISECONDS);
+        if (remainingLifetime <= 0) {
+            return;
+        }
+        mDataSource.restoreEntry(new ANQPNetworkKey(ssid, bssid, hessid, anqpDomainId),
+                elements, rawPayloads, now + remainingLifetime);
+    }
+
+    /**
+     * Deserialize and parse the ANQP elements of an entry from the input stream.
+     *
+     * @param in The input stream to read data from
+     * @param outerTagDepth The tag depth of the current XML section
+     * @param rawPayloads Map to add the raw payloads of the parsed elements to
+     * @return Map of ANQP elements, or null if any of the elements cannot be parsed
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    private @Nullable Map<Constants.ANQPElementType, ANQPElement> deserializeElements(
+            XmlPullParser in, int outerTagDepth,
+            Map<Constants.ANQPElementType, byte[]> rawPayloads)
+            throws XmlPullParserException, IOException {
+        Map<Constants.ANQPElementType, ANQPElement> elements = new HashMap<>();
+        boolean valid = true;
+        while (!XmlUtil.isNextSectionEnd(in, outerTagDepth)) {
+            String[] name = new String[1];
+            Object value = XmlUtil.readCurrentValue(in, name);
+            if (!valid) {
+                // Keep reading until the end of the section.
+                continue;
+            }
+            try {
+                Constants.ANQPElementType type = Constants.ANQPElementType.valueOf(name[0]);
+                byte[] rawPayload = (byte[]) value;
+                ByteBuffer payload = ByteBuffer.wrap(rawPayload);
+                elements.put(type, Constants.getANQPElementID(type) != null
+                        ? ANQPParser.parseElement(type, payload)
+                        : ANQPParser.parseHS20Element(type, payload));
+                rawPayloads.put(type, rawPayload);
+            } catch (IllegalArgumentException | ClassCastException | NullPointerException
+                    | ProtocolException | BufferUnderflowException e) {
+                Log.w(TAG, "Failed to restore ANQP element " + name[0] + ": " + e);
+                valid = false;
+            }
+        }
+        return valid ? elements : null;
+    }
+}
@@ -16,6 +16,8 @@
 
 package com.android.server.wifi.hotspot2;
 
+import android.annotation.Nullable;
+
 import com.android.server.wifi.hotspot2.anqp.ANQPElement;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 
@@ -53,9 +55,20 @@ public class AnqpEvent {
      */
     private final Map<Constants.ANQPElementType, ANQPElement> mElements;
 
+    /**
+     * Map of ANQP element type to the raw payload each element was parsed from.
+     */
+    private final Map<Constants.ANQPElementType, byte[]> mRawPayloads;
+
     public AnqpEvent(long bssid, Map<Constants.ANQPElementType, ANQPElement> elements) {
+        this(bssid, elements, null);
+    }
+
+    public AnqpEvent(long bssid, Map<Constants.ANQPElementType, ANQPElement> elements,
+            @Nullable Map<Constants.ANQPElementType, byte[]> rawPayloads) {
         mBssid = bssid;
         mElements = elements;
+        mRawPayloads = rawPayloads;
     }
 
     /**
@@ -72,4 +85,12 @@ public class AnqpEvent {
         return mElements;
     }
 
+    /**
+     * Get the raw payloads the ANQP elements were parsed from, or null if they were not kept.
+     */
+    @Nullable
+    public Map<Constants.ANQPElementType, byte[]> getRawPayloads() {
+        return mRawPayloads;
+    }
+
 }
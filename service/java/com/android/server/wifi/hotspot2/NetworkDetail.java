@@ -8,6 +8,7 @@ import android.util.Log;
 import com.android.server.wifi.hotspot2.anqp.ANQPElement;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 import com.android.server.wifi.hotspot2.anqp.RawByteElement;
+import com.android.server.wifi.util.InformationElementIndex;
 import com.android.server.wifi.util.InformationElementUtil;
 
 import java.nio.BufferUnderflowException;
@@ -172,8 +173,18 @@ public class NetworkDetail {
 
     public NetworkDetail(String bssid, ScanResult.InformationElement[] infoElements,
             List<String> anqpLines, int freq) {
+        this(bssid, InformationElementIndex.wrap(infoElements), anqpLines, freq);
+    }
+
+    /**
+     * Builds the network detail from an {@link InformationElementIndex}. Elements are dispatched
+     * to their parsers in a single pass, and the elements consumed here are shared with
+     * {@link InformationElementIndex#toArray()} rather than copied again.
+     */
+    public NetworkDetail(String bssid, InformationElementIndex infoElements,
+            List<String> anqpLines, int freq) {
         if (infoElements == null) {
-            infoElements = new ScanResult.InformationElement[0];
+            infoElements = InformationElementIndex.parse(null);
         }
 
         mBSSID = Utils.parseMac(bssid);
@@ -227,72 +238,74 @@ public class NetworkDetail {
 
         RuntimeException exception = null;
 
-        ArrayList<Integer> iesFound = new ArrayList<Integer>();
+        boolean erpFound = false;
         try {
-            for (ScanResult.InformationElement ie : infoElements) {
-                iesFound.add(ie.id);
-                switch (ie.id) {
+            for (int i = 0; i < infoElements.size(); i++) {
+                switch (infoElements.getId(i)) {
                     case ScanResult.InformationElement.EID_SSID:
-                        ssidOctets = ie.bytes;
+                        ssidOctets = infoElements.get(i).bytes;
+                        break;
+                    case ScanResult.InformationElement.EID_ERP:
+                        erpFound = true;
                         break;
                     case ScanResult.InformationElement.EID_BSS_LOAD:
-                        bssLoad.from(ie);
+                        bssLoad.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_HT_OPERATION:
-                        htOperation.from(ie);
+                        htOperation.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_VHT_OPERATION:
-                        vhtOperation.from(ie);
+                        vhtOperation.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_HT_CAPABILITIES:
-                        htCapabilities.from(ie);
+                        htCapabilities.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_VHT_CAPABILITIES:
-                        vhtCapabilities.from(ie);
+                        vhtCapabilities.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_INTERWORKING:
-                        interworking.from(ie);
+                        interworking.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_ROAMING_CONSORTIUM:
-                        roamingConsortium.from(ie);
+                        roamingConsortium.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_VSA:
-                        vsa.from(ie);
+                        vsa.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_EXTENDED_CAPS:
-                        extendedCapabilities.from(ie);
+                        extendedCapabilities.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_COUNTRY:
-                        country.from(ie);
+                        country.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_TIM:
-                        trafficIndicationMap.from(ie);
+                        trafficIndicationMap.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_SUPPORTED_RATES:
-                        supportedRates.from(ie);
+                        supportedRates.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_EXTENDED_SUPPORTED_RATES:
-                        extendedSupportedRates.from(ie);
+                        extendedSupportedRates.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_RNR:
-                        rnr.from(ie);
+                        rnr.from(infoElements.get(i));
                         break;
                     case ScanResult.InformationElement.EID_EXTENSION_PRESENT:
-                        switch(ie.idExt) {
+                        switch (infoElements.getIdExt(i)) {
                             case ScanResult.InformationElement.EID_EXT_HE_OPERATION:
-                                heOperation.from(ie);
+                                heOperation.from(infoElements.get(i));
                                 break;
                             case ScanResult.InformationElement.EID_EXT_HE_CAPABILITIES:
-                                heCapabilities.from(ie);
+                                heCapabilities.from(infoElements.get(i));
                                 break;
                             case ScanResult.InformationElement.EID_EXT_EHT_OPERATION:
-                                ehtOperation.from(ie);
+                                ehtOperation.from(infoElements.get(i));
                                 break;
                             case ScanResult.InformationElement.EID_EXT_EHT_CAPABILITIES:
-                                ehtCapabilities.from(ie);
+                                ehtCapabilities.from(infoElements.get(i));
                                 break;
                             case ScanResult.InformationElement.EID_EXT_MULTI_LINK:
-                                multiLink.from(ie);
+                                multiLink.from(infoElements.get(i));
                                 break;
                             default:
                                 break;
@@ -458,7 +471,7 @@ public class NetworkDetail {
             mWifiMode = InformationElementUtil.WifiMode.determineMode(mPrimaryFreq, mMaxRate,
                     ehtOperation.isPresent(), heOperation.isPresent(), vhtOperation.isPresent(),
                     htOperation.isPresent(),
-                    iesFound.contains(ScanResult.InformationElement.EID_ERP));
+                    erpFound);
         } else {
             mWifiMode = 0;
             mMaxRate = 0;
@@ -503,7 +516,7 @@ public class NetworkDetail {
                     + ", VHT: " + String.valueOf(vhtOperation.isPresent())
                     + ", HT: " + String.valueOf(htOperation.isPresent())
                     + ", ERP: " + String.valueOf(
-                    iesFound.contains(ScanResult.InformationElement.EID_ERP))
+                    erpFound)
                     + ", SupportedRates: " + supportedRates.toString()
                     + " ExtendedSupportedRates: " + extendedSupportedRates.toString());
         }
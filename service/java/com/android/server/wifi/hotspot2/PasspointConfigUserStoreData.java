@@ -102,6 +102,11 @@ public class PasspointConfigUserStoreData implements WifiConfigStore.StoreData {
          * @param providers The list of providers
          */
         void setProviders(List<PasspointProvider> providers);
+
+        /**
+         * Whether there is new data to serialize.
+         */
+        boolean hasNewDataToSerialize();
     }
 
     PasspointConfigUserStoreData(WifiKeyStore keyStore,
@@ -141,8 +146,7 @@ public class PasspointConfigUserStoreData implements WifiConfigStore.StoreData {
 
     @Override
     public boolean hasNewDataToSerialize() {
-        // always persist.
-        return true;
+        return mDataSource.hasNewDataToSerialize();
     }
 
     @Override
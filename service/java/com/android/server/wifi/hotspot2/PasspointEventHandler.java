@@ -47,9 +47,11 @@ public class PasspointEventHandler {
          * Invoked on received of ANQP response. |anqpElements| will be null on failure.
          * @param bssid BSSID of the AP
          * @param anqpElements ANQP elements to be queried
+         * @param rawPayloads raw payloads the elements were parsed from, may be null
          */
         void onANQPResponse(long bssid,
-                            Map<Constants.ANQPElementType, ANQPElement> anqpElements);
+                            Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+                            Map<Constants.ANQPElementType, byte[]> rawPayloads);
 
         /**
          * Invoked on received of icon response. |filename| and |data| will be null
@@ -122,7 +124,8 @@ public class PasspointEventHandler {
      */
     public void notifyANQPDone(AnqpEvent anqpEvent) {
         if (anqpEvent == null) return;
-        mCallbacks.onANQPResponse(anqpEvent.getBssid(), anqpEvent.getElements());
+        mCallbacks.onANQPResponse(anqpEvent.getBssid(), anqpEvent.getElements(),
+                anqpEvent.getRawPayloads());
     }
 
     /**
@@ -146,6 +146,9 @@ public class PasspointManager {
 
     // Counter used for assigning unique identifier to each provider.
     private long mProviderIndex;
+    // Whether the providers or the provider index changed since they were last serialized.
+    private boolean mHasNewUserDataToSerialize = false;
+    private boolean mHasNewSharedDataToSerialize = false;
     private boolean mVerboseLoggingEnabled = false;
     // Set default value to false before receiving boot completed event.
     private boolean mEnabled = false;
@@ -158,7 +161,8 @@ public class PasspointManager {
 
         @Override
         public void onANQPResponse(long bssid,
-                Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
+                Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+                Map<Constants.ANQPElementType, byte[]> rawPayloads) {
             if (mVerboseLoggingEnabled) {
                 Log.d(TAG, "ANQP response received from BSSID "
                         + Utils.macToString(bssid) + " - List of ANQP elements:");
@@ -183,8 +187,10 @@ public class PasspointManager {
                 mWifiMetrics.incrementTotalNumberOfPasspointConnectionsWithVenueUrl();
             }
 
-            // Add new entry to the cache.
-            mAnqpCache.addOrUpdateEntry(anqpKey, anqpElements);
+            // Add new entry to the cache. The raw payloads are only needed to persist it.
+            mAnqpCache.addOrUpdateEntry(anqpKey, anqpElements,
+                    mWifiInjector.getWifiGlobals().isAnqpCachePersistenceEnabled()
+                            ? rawPayloads : null);
         }
 
         @Override
@@ -205,6 +211,7 @@ public class PasspointManager {
     private class UserDataSourceHandler implements PasspointConfigUserStoreData.DataSource {
         @Override
         public List<PasspointProvider> getProviders() {
+            mHasNewUserDataToSerialize = false;
             List<PasspointProvider> providers = new ArrayList<>();
             for (Map.Entry<String, PasspointProvider> entry : mProviders.entrySet()) {
                 providers.add(entry.getValue());
@@ -224,6 +231,11 @@ public class PasspointManager {
                 }
             }
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewUserDataToSerialize;
+        }
     }
 
     /**
@@ -233,6 +245,7 @@ public class PasspointManager {
     private class SharedDataSourceHandler implements PasspointConfigSharedStoreData.DataSource {
         @Override
         public long getProviderIndex() {
+            mHasNewSharedDataToSerialize = false;
             return mProviderIndex;
         }
 
@@ -240,6 +253,43 @@ public class PasspointManager {
         public void setProviderIndex(long providerIndex) {
             mProviderIndex = providerIndex;
         }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mHasNewSharedDataToSerialize;
+        }
+    }
+
+    /**
+     * Data provider for the ANQP cache store data. Nothing is persisted or restored unless the
+     * persistence of the ANQP cache is enabled.
+     */
+    private class AnqpCacheDataSourceHandler implements AnqpCacheStoreData.DataSource {
+        @Override
+        public boolean hasNewData() {
+            return isAnqpCachePersistenceEnabled() && mAnqpCache.hasNewDataToPersist();
+        }
+
+        @Override
+        public List<Pair<ANQPNetworkKey, ANQPData>> getEntries() {
+            if (!isAnqpCachePersistenceEnabled()) {
+                return Collections.emptyList();
+            }
+            return mAnqpCache.getEntriesToPersist();
+        }
+
+        @Override
+        public void restoreEntry(ANQPNetworkKey key,
+                Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+                Map<Constants.ANQPElementType, byte[]> rawPayloads, long expiryTime) {
+            if (isAnqpCachePersistenceEnabled()) {
+                mAnqpCache.restoreEntry(key, anqpElements, rawPayloads, expiryTime);
+            }
+        }
+
+        private boolean isAnqpCachePersistenceEnabled() {
+            return mWifiInjector.getWifiGlobals().isAnqpCachePersistenceEnabled();
+        }
     }
 
     /**
@@ -306,6 +356,7 @@ public class PasspointManager {
             }
         });
         if (modified.get()) {
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
         }
     }
@@ -322,6 +373,7 @@ public class PasspointManager {
         if (provider != null) {
             provider.setUserConnectChoice(null, 0);
         }
+        mHasNewUserDataToSerialize = true;
         mWifiConfigManager.saveToStore(true);
     }
 
@@ -390,6 +442,8 @@ public class PasspointManager {
                 mKeyStore, mWifiCarrierInfoManager, new UserDataSourceHandler(), clock));
         wifiConfigStore.registerStoreData(objectFactory.makePasspointConfigSharedStoreData(
                 new SharedDataSourceHandler()));
+        wifiConfigStore.registerStoreData(objectFactory.makeAnqpCacheStoreData(
+                new AnqpCacheDataSourceHandler(), clock));
         mPasspointProvisioner = objectFactory.makePasspointProvisioner(context, wifiNative,
                 this, wifiMetrics);
         ActivityManager activityManager = context.getSystemService(ActivityManager.class);
@@ -514,6 +568,7 @@ public class PasspointManager {
         PasspointProvider newProvider = mObjectFactory.makePasspointProvider(config, mKeyStore,
                 mWifiCarrierInfoManager, mProviderIndex++, uid, packageName, isFromSuggestion,
                 mClock);
+        mHasNewSharedDataToSerialize = true;
         newProvider.setTrusted(isTrusted);
         newProvider.setRestricted(isRestricted);
 
@@ -579,6 +634,8 @@ public class PasspointManager {
         }
         newProvider.enableVerboseLogging(mVerboseLoggingEnabled);
         mProviders.put(config.getUniqueId(), newProvider);
+        // Suggestion providers are persisted too, with the write of the suggestion.
+        mHasNewUserDataToSerialize = true;
         if (!isFromSuggestion) {
             // Suggestions will be handled by the WifiNetworkSuggestionsManager
             mWifiConfigManager.saveToStore(true /* forceWrite */);
@@ -629,6 +686,7 @@ public class PasspointManager {
         }
         String uniqueId = provider.getConfig().getUniqueId();
         mProviders.remove(uniqueId);
+        mHasNewUserDataToSerialize = true;
         mWifiConfigManager.removeConnectChoiceFromAllNetworks(uniqueId);
         if (!provider.isFromSuggestion()) {
             // Suggestions will be handled by the WifiNetworkSuggestionsManager
@@ -728,6 +786,7 @@ public class PasspointManager {
                         provider.getPackageName(), provider.isFromSuggestion());
             }
 
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
             return true;
         }
@@ -752,6 +811,7 @@ public class PasspointManager {
             }
         }
         if (found) {
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
         }
         return found;
@@ -783,6 +843,7 @@ public class PasspointManager {
             }
         }
         if (found) {
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
         }
         return found;
@@ -811,6 +872,7 @@ public class PasspointManager {
             }
         }
         if (found) {
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
         }
         return found;
@@ -893,6 +955,22 @@ public class PasspointManager {
         return getAllMatchedProviders(scanResult, true);
     }
 
+    /**
+     * Check if the AP advertises in its beacon an OI of any of the configured providers.
+     */
+    private boolean isAdvertisingAnyProviderOi(
+            InformationElementUtil.RoamingConsortium roamingConsortium) {
+        if (roamingConsortium.getRoamingConsortiums() == null) {
+            return false;
+        }
+        for (PasspointProvider provider : mProviders.values()) {
+            if (provider.isAdvertisingProviderOi(roamingConsortium)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Return a list of all providers that can provide service through the given AP.
      *
@@ -929,7 +1007,8 @@ public class PasspointManager {
         if (anqpEntry == null) {
             if (anqpRequestAllowed) {
                 mAnqpRequestManager.requestANQPElements(bssid, anqpKey,
-                        roamingConsortium.anqpOICount > 0, vsa.hsRelease);
+                        roamingConsortium.anqpOICount > 0, vsa.hsRelease, scanResult.level,
+                        isAdvertisingAnyProviderOi(roamingConsortium));
             }
             Log.d(TAG, "ANQP entry not found for: " + anqpKey);
             return allMatches;
@@ -945,14 +1024,15 @@ public class PasspointManager {
                         + " with "
                         + anqpEntry.getElements().get(Constants.ANQPElementType.ANQPDomName));
             }
-            PasspointMatch matchStatus = provider.match(anqpEntry.getElements(),
-                    roamingConsortium, scanResult);
+            PasspointMatch matchStatus = provider.match(anqpEntry, roamingConsortium,
+                    scanResult);
             if (matchStatus == PasspointMatch.HomeProvider
                     || matchStatus == PasspointMatch.RoamingProvider) {
                 allMatches.add(Pair.create(provider, matchStatus));
             }
         }
         if (anyProviderUpdated) {
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
         }
         if (allMatches.size() != 0) {
@@ -991,10 +1071,17 @@ public class PasspointManager {
     }
 
     /**
-     * Sweep the ANQP cache to remove expired entries.
+     * Sweep the ANQP cache to remove expired entries, along with the match results the providers
+     * cached for entries which are gone.
      */
     public void sweepCache() {
-        mAnqpCache.sweep();
+        if (!mAnqpCache.sweep()) {
+            return;
+        }
+        Set<Long> anqpGenerations = mAnqpCache.getGenerations();
+        for (PasspointProvider provider : mProviders.values()) {
+            provider.retainAnqpMatches(anqpGenerations);
+        }
     }
 
     /**
@@ -1032,7 +1119,7 @@ public class PasspointManager {
 
     /**
      * Lookup the ANQP elements associated with the given AP from the cache. An empty map
-     * will be returned if no match found in the cache.
+     * will be returned if no match found in the cache. The returned map must not be modified.
      *
      * @param scanResult The scan result associated with the AP
      * @return Map of ANQP elements
@@ -1048,14 +1135,14 @@ public class PasspointManager {
             bssid = Utils.parseMac(scanResult.BSSID);
         } catch (IllegalArgumentException e) {
             Log.e(TAG, "Invalid BSSID provided in the scan result: " + scanResult.BSSID);
-            return new HashMap<>();
+            return Collections.emptyMap();
         }
         ANQPData anqpEntry = mAnqpCache.getEntry(ANQPNetworkKey.buildKey(
                 scanResult.SSID, bssid, scanResult.hessid, vsa.anqpDomainID));
         if (anqpEntry != null) {
             return anqpEntry.getElements();
         }
-        return new HashMap<>();
+        return Collections.emptyMap();
     }
 
     /**
@@ -1302,6 +1389,7 @@ public class PasspointManager {
         if (!provider.getHasEverConnected()) {
             // First successful connection using this provider.
             provider.setHasEverConnected(true);
+            mHasNewUserDataToSerialize = true;
         }
         provider.setMostRecentSsid(ssid);
         provider.updateMostRecentConnectionTime();
@@ -1389,6 +1477,8 @@ public class PasspointManager {
                 enterpriseConfig.getClientCertificateAlias(), null, false, false, mClock);
         provider.enableVerboseLogging(mVerboseLoggingEnabled);
         mProviders.put(passpointConfig.getUniqueId(), provider);
+        mHasNewUserDataToSerialize = true;
+        mHasNewSharedDataToSerialize = true;
         return true;
     }
 
@@ -1466,8 +1556,18 @@ public class PasspointManager {
      * Clear ANQP requests and flush ANQP Cache (for factory reset)
      */
     public void clearAnqpRequestsAndFlushCache() {
-        mAnqpRequestManager.clear();
+        clearAnqpRequests();
         mAnqpCache.flush();
+        for (PasspointProvider provider : mProviders.values()) {
+            provider.clearAnqpMatches();
+        }
+    }
+
+    /**
+     * Clear pending ANQP requests and provider blocks, but keep the ANQP Cache
+     */
+    public void clearAnqpRequests() {
+        mAnqpRequestManager.clear();
         mProviders.values().forEach(PasspointProvider::clearProviderBlock);
     }
 
@@ -1644,6 +1744,7 @@ public class PasspointManager {
         PasspointProvider provider = mProviders.get(configuration.getProfileKey());
         if (provider != null) {
             provider.setAnonymousIdentity(configuration.enterpriseConfig.getAnonymousIdentity());
+            mHasNewUserDataToSerialize = true;
             mWifiConfigManager.saveToStore(true);
         }
     }
@@ -1653,6 +1754,7 @@ public class PasspointManager {
      */
     public void resetSimPasspointNetwork() {
         mProviders.values().forEach(p -> p.setAnonymousIdentity(null));
+        mHasNewUserDataToSerialize = true;
         mWifiConfigManager.saveToStore(true);
     }
 
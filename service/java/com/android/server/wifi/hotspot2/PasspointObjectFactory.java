@@ -97,6 +97,17 @@ public class PasspointObjectFactory{
         return new PasspointConfigSharedStoreData(dataSource);
     }
 
+    /**
+     * Create a {@link AnqpCacheStoreData} instance.
+     * @param dataSource ANQP cache data source
+     * @param clock Instance of {@link Clock}
+     * @return {@link AnqpCacheStoreData}
+     */
+    public AnqpCacheStoreData makeAnqpCacheStoreData(AnqpCacheStoreData.DataSource dataSource,
+            Clock clock) {
+        return new AnqpCacheStoreData(dataSource, clock);
+    }
+
     /**
      * Create a AnqpCache instance.
      *
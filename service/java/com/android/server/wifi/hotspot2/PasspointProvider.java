@@ -37,6 +37,7 @@ import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.Pair;
 
 import com.android.modules.utils.build.SdkLevel;
@@ -69,6 +70,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Abstraction for Passpoint service provider.  This class contains the both static
@@ -87,6 +89,8 @@ public class PasspointProvider {
 
     private static final String SYSTEM_CA_STORE_PATH = "/system/etc/security/cacerts";
     private static final long MAX_RCOI_ENTRY_LIFETIME_MS = 600_000; // 10 minutes
+    // Generation passed when the ANQP elements don't come from the ANQP cache.
+    private static final long NO_ANQP_GENERATION = -1;
 
     private final PasspointConfiguration mConfig;
     private final WifiKeyStore mKeyStore;
@@ -132,6 +136,56 @@ public class PasspointProvider {
     // used later when connecting to an RCOI-based Passpoint network.
     private final Map<String, Pair<Long, Long>> mRcoiMatchForNetwork = new HashMap<>();
 
+    // Results of matching the ANQP elements of recently seen APs against this provider. See
+    // AnqpMatchKey for what the results depend on. Sized to hold a result for every entry of the
+    // ANQP cache. Results of entries which left the ANQP cache are dropped by
+    // retainAnqpMatches().
+    private final LruCache<AnqpMatchKey, AnqpMatchResult> mAnqpMatchCache =
+            new LruCache<>(AnqpCache.MAX_CACHE_ENTRIES);
+
+    /**
+     * Key of {@link #mAnqpMatchCache}. The ANQP elements are identified by
+     * {@link ANQPData#getGeneration()}, so that the cache doesn't keep them alive.
+     */
+    private static class AnqpMatchKey {
+        private final long mAnqpGeneration;
+        private final long[] mApRoamingConsortiums;
+        private final String mMatchingSimImsi;
+
+        AnqpMatchKey(long anqpGeneration, long[] apRoamingConsortiums, String matchingSimImsi) {
+            mAnqpGeneration = anqpGeneration;
+            mApRoamingConsortiums = apRoamingConsortiums;
+            mMatchingSimImsi = matchingSimImsi;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof AnqpMatchKey)) return false;
+            AnqpMatchKey that = (AnqpMatchKey) other;
+            return mAnqpGeneration == that.mAnqpGeneration
+                    && Arrays.equals(mApRoamingConsortiums, that.mApRoamingConsortiums)
+                    && TextUtils.equals(mMatchingSimImsi, that.mMatchingSimImsi);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mAnqpGeneration,
+                    Arrays.hashCode(mApRoamingConsortiums), mMatchingSimImsi);
+        }
+    }
+
+    private static class AnqpMatchResult {
+        public final PasspointMatch match;
+        // The RCOI selected for a RoamingProvider match based on RCOI, 0 otherwise.
+        public final long matchedRcoi;
+
+        AnqpMatchResult(PasspointMatch match, long matchedRcoi) {
+            this.match = match;
+            this.matchedRcoi = matchedRcoi;
+        }
+    }
+
     /**
      * Comparator to sort PasspointProviders in descending order by their most recent connection
      * time.
@@ -464,6 +518,28 @@ public class PasspointProvider {
      */
     public PasspointMatch match(Map<ANQPElementType, ANQPElement> anqpElements,
             RoamingConsortium roamingConsortiumFromAp, ScanResult scanResult) {
+        return match(anqpElements, NO_ANQP_GENERATION, roamingConsortiumFromAp, scanResult);
+    }
+
+    /**
+     * Return the matching status with the given AP, based on its entry in the ANQP cache. The
+     * result of matching the elements is reused until the entry is updated, see
+     * {@link #retainAnqpMatches(Set)}.
+     *
+     * @param anqpData                ANQP cache entry of the AP
+     * @param roamingConsortiumFromAp Roaming Consortium information element from the AP
+     * @param scanResult              Latest Scan result
+     * @return {@link PasspointMatch}
+     */
+    public PasspointMatch match(ANQPData anqpData, RoamingConsortium roamingConsortiumFromAp,
+            ScanResult scanResult) {
+        return match(anqpData.getElements(), anqpData.getGeneration(), roamingConsortiumFromAp,
+                scanResult);
+    }
+
+    private PasspointMatch match(Map<ANQPElementType, ANQPElement> anqpElements,
+            long anqpGeneration, RoamingConsortium roamingConsortiumFromAp,
+            ScanResult scanResult) {
         sweepMatchedRcoiMap();
         if (isProviderBlocked(scanResult)) {
             if (mVerboseLoggingEnabled) {
@@ -488,10 +564,54 @@ public class PasspointProvider {
             }
         }
 
+        // The rest of the matching only depends on the AP's elements and on the SIM, reuse the
+        // result of a previous match of the same elements.
+        AnqpMatchResult result;
+        if (anqpGeneration == NO_ANQP_GENERATION) {
+            result = matchAnqpElements(anqpElements, roamingConsortiumFromAp, matchingSimImsi);
+        } else {
+            AnqpMatchKey key = new AnqpMatchKey(anqpGeneration,
+                    roamingConsortiumFromAp.getRoamingConsortiums(), matchingSimImsi);
+            result = mAnqpMatchCache.get(key);
+            if (result == null) {
+                result = matchAnqpElements(anqpElements, roamingConsortiumFromAp,
+                        matchingSimImsi);
+                mAnqpMatchCache.put(key, result);
+            }
+        }
+        if (result.matchedRcoi != 0) {
+            addMatchedRcoi(scanResult, result.matchedRcoi);
+        }
+        return result.match;
+    }
+
+    /**
+     * Drop the cached match results of ANQP cache entries which are gone or were updated.
+     *
+     * @param anqpGenerations generations of the entries currently in the ANQP cache
+     */
+    public void retainAnqpMatches(Set<Long> anqpGenerations) {
+        for (AnqpMatchKey key : mAnqpMatchCache.snapshot().keySet()) {
+            if (!anqpGenerations.contains(key.mAnqpGeneration)) {
+                mAnqpMatchCache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop all the cached match results, used when the ANQP cache is flushed.
+     */
+    public void clearAnqpMatches() {
+        mAnqpMatchCache.evictAll();
+    }
+
+    private AnqpMatchResult matchAnqpElements(Map<ANQPElementType, ANQPElement> anqpElements,
+            RoamingConsortium roamingConsortiumFromAp, String matchingSimImsi) {
         // Match FQDN for Home provider or RCOI(s) for Roaming provider
         // For SIM credential, the FQDN is in the format of wlan.mnc*.mcc*.3gppnetwork.org
+        long[] matchedRcoi = new long[1];
         PasspointMatch providerMatch = matchFqdnAndRcoi(anqpElements, roamingConsortiumFromAp,
-                matchingSimImsi, scanResult);
+                matchingSimImsi, matchedRcoi);
 
         // 3GPP Network matching
         if (providerMatch == PasspointMatch.None && ANQPMatcher.matchThreeGPPNetwork(
@@ -501,7 +621,7 @@ public class PasspointProvider {
                 Log.d(TAG, "Final RoamingProvider match with "
                         + anqpElements.get(ANQPElementType.ANQP3GPPNetwork));
             }
-            return PasspointMatch.RoamingProvider;
+            return new AnqpMatchResult(PasspointMatch.RoamingProvider, 0);
         }
 
         // Perform NAI Realm matching
@@ -514,7 +634,7 @@ public class PasspointProvider {
             if (mVerboseLoggingEnabled) {
                 Log.d(TAG, "No NAI realm match, final match: " + providerMatch);
             }
-            return providerMatch;
+            return new AnqpMatchResult(providerMatch, matchedRcoi[0]);
         }
 
         if (mVerboseLoggingEnabled) {
@@ -530,7 +650,7 @@ public class PasspointProvider {
         if (mVerboseLoggingEnabled) {
             Log.d(TAG, "Final match: " + providerMatch);
         }
-        return providerMatch;
+        return new AnqpMatchResult(providerMatch, matchedRcoi[0]);
     }
 
     /**
@@ -830,6 +950,38 @@ public class PasspointProvider {
                 || passpointConfig.getUsageLimitTimeLimitInMinutes() > 0;
     }
 
+    /**
+     * Check if the AP advertises in its beacon any of the OIs configured for this provider. Used
+     * before the ANQP data of the AP is available, to tell which APs are likely to be matched.
+     *
+     * @param roamingConsortiumFromAp RCOIs in the AP scan results
+     * @return true if any of the OIs of the provider is advertised by the AP
+     */
+    public boolean isAdvertisingProviderOi(RoamingConsortium roamingConsortiumFromAp) {
+        long[] apRoamingConsortiums = roamingConsortiumFromAp.getRoamingConsortiums();
+        if (apRoamingConsortiums == null) {
+            return false;
+        }
+        HomeSp homeSp = mConfig.getHomeSp();
+        return containsAnyOi(homeSp.getMatchAllOis(), apRoamingConsortiums)
+                || containsAnyOi(homeSp.getMatchAnyOis(), apRoamingConsortiums)
+                || containsAnyOi(homeSp.getRoamingConsortiumOis(), apRoamingConsortiums);
+    }
+
+    private static boolean containsAnyOi(long[] providerOis, long[] apRoamingConsortiums) {
+        if (providerOis == null) {
+            return false;
+        }
+        for (long providerOi : providerOis) {
+            for (long apOi : apRoamingConsortiums) {
+                if (providerOi == apOi) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Match given OIs to the Roaming Consortium OIs
      *
@@ -890,12 +1042,12 @@ public class PasspointProvider {
      * @param roamingConsortiumFromAp Roaming Consortium information element from the AP
      * @param matchingSIMImsi         Installed SIM IMSI that matches the SIM credential ANQP
      *                                element
-     * @param scanResult              The relevant scan result
+     * @param outMatchedRcoi          Set to the selected RCOI on an RCOI based match
      * @return {@link PasspointMatch}
      */
     private PasspointMatch matchFqdnAndRcoi(Map<ANQPElementType, ANQPElement> anqpElements,
             RoamingConsortium roamingConsortiumFromAp, String matchingSIMImsi,
-            ScanResult scanResult) {
+            long[] outMatchedRcoi) {
         // Domain name matching.
         if (ANQPMatcher.matchDomainName(
                 (DomainNameElement) anqpElements.get(ANQPElementType.ANQPDomName),
@@ -958,7 +1110,7 @@ public class PasspointProvider {
                 Log.d(TAG, String.format("RCOI match: RoamingProvider, selected RCOI = 0x%x",
                         matchedRcoi));
             }
-            addMatchedRcoi(scanResult, matchedRcoi);
+            outMatchedRcoi[0] = matchedRcoi;
             return PasspointMatch.RoamingProvider;
         }
 
@@ -5,6 +5,8 @@ package com.android.server.wifi.hotspot2.anqp;
  */
 public abstract class ANQPElement {
     private final Constants.ANQPElementType mID;
+    // Size of the payload this element was parsed from, 0 if it was not parsed from the air.
+    private int mPayloadLength;
 
     protected ANQPElement(Constants.ANQPElementType id) {
         mID = id;
@@ -13,4 +15,16 @@ public abstract class ANQPElement {
     public Constants.ANQPElementType getID() {
         return mID;
     }
+
+    /**
+     * @return the size in bytes of the payload this element was parsed from, or 0 if it was not
+     * created by {@link ANQPParser}.
+     */
+    public int getPayloadLength() {
+        return mPayloadLength;
+    }
+
+    void setPayloadLength(int payloadLength) {
+        mPayloadLength = payloadLength;
+    }
 }
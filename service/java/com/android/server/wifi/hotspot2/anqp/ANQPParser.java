@@ -57,6 +57,14 @@ public class ANQPParser {
      */
     public static ANQPElement parseElement(Constants.ANQPElementType infoID, ByteBuffer payload)
             throws ProtocolException {
+        int payloadLength = payload.remaining();
+        ANQPElement element = parseElementInternal(infoID, payload);
+        element.setPayloadLength(payloadLength);
+        return element;
+    }
+
+    private static ANQPElement parseElementInternal(Constants.ANQPElementType infoID,
+            ByteBuffer payload) throws ProtocolException {
         switch (infoID) {
             case ANQPVenueName:
                 return VenueNameElement.parse(payload);
@@ -90,6 +98,14 @@ public class ANQPParser {
      */
     public static ANQPElement parseHS20Element(Constants.ANQPElementType infoID,
             ByteBuffer payload) throws ProtocolException {
+        int payloadLength = payload.remaining();
+        ANQPElement element = parseHS20ElementInternal(infoID, payload);
+        element.setPayloadLength(payloadLength);
+        return element;
+    }
+
+    private static ANQPElement parseHS20ElementInternal(Constants.ANQPElementType infoID,
+            ByteBuffer payload) throws ProtocolException {
         switch (infoID) {
             case HSFriendlyName:
                 return HSFriendlyNameElement.parse(payload);
@@ -265,8 +265,7 @@ public class SupplicantP2pIfaceCallbackAidlImpl extends ISupplicantP2pIfaceCallb
         group.setInterface(groupIfName);
 
         try {
-            String quotedSsid = NativeUtil.encodeSsid(
-                    NativeUtil.byteArrayToArrayList(ssid));
+            String quotedSsid = NativeUtil.encodeSsid(ssid);
             group.setNetworkName(NativeUtil.removeEnclosingQuotes(quotedSsid));
         } catch (Exception e) {
             Log.e(TAG, "Could not encode SSID.", e);
@@ -680,8 +680,7 @@ public class SupplicantP2pIfaceHalAidlImpl implements ISupplicantP2pIfaceHal {
 
             try {
                 mISupplicantP2pIface.setSsidPostfix(
-                        NativeUtil.byteArrayFromArrayList(
-                                NativeUtil.decodeSsid("\"" + postfix + "\"")));
+                        NativeUtil.decodeSsidToByteArray("\"" + postfix + "\""));
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1009,9 +1008,7 @@ public class SupplicantP2pIfaceHalAidlImpl implements ISupplicantP2pIfaceHal {
                 if (ssid == null) {
                     return null;
                 }
-                return NativeUtil.removeEnclosingQuotes(
-                        NativeUtil.encodeSsid(
-                                NativeUtil.byteArrayToArrayList(ssid)));
+                return NativeUtil.removeEnclosingQuotes(NativeUtil.encodeSsid(ssid));
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
             } catch (ServiceSpecificException e) {
@@ -1120,8 +1117,7 @@ public class SupplicantP2pIfaceHalAidlImpl implements ISupplicantP2pIfaceHal {
 
             byte[] ssid = null;
             try {
-                ssid = NativeUtil.byteArrayFromArrayList(
-                        NativeUtil.decodeSsid("\"" + networkName + "\""));
+                ssid = NativeUtil.decodeSsidToByteArray("\"" + networkName + "\"");
             } catch (Exception e) {
                 Log.e(TAG, "Could not parse ssid.", e);
                 return false;
@@ -1954,8 +1950,7 @@ public class SupplicantP2pIfaceHalAidlImpl implements ISupplicantP2pIfaceHal {
                 }
                 if (gotResult && !ArrayUtils.isEmpty(ssid)) {
                     group.setNetworkName(NativeUtil.removeEnclosingQuotes(
-                            NativeUtil.encodeSsid(
-                                    NativeUtil.byteArrayToArrayList(ssid))));
+                            NativeUtil.encodeSsid(ssid)));
                 }
 
                 byte[] bssid = null;
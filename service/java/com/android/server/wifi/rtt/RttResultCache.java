@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.rtt;
+
+import android.annotation.Nullable;
+import android.net.wifi.rtt.RangingRequest;
+import android.net.wifi.rtt.RangingResult;
+import android.net.wifi.rtt.ResponderConfig;
+import android.util.Pair;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.wifi.Clock;
+import com.android.server.wifi.hal.WifiRttController;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Short-lived cache of the successful ranging results received from the HAL for AP responders.
+ * Used to serve repeated ranging requests to the same responders without ranging again.
+ *
+ * Results are cached per responder and burst size, and are stored as received from the HAL: the
+ * per-requester post-processing is applied when they are served. Not thread-safe, expected to be
+ * used on the RTT service thread.
+ */
+public class RttResultCache {
+    /**
+     * Maximum number of cached results, the oldest results are evicted first.
+     */
+    @VisibleForTesting
+    public static final int MAX_CACHE_SIZE = 64;
+
+    private final Clock mClock;
+    private final Map<Pair<ResponderConfig, Integer>, CacheEntry> mCache =
+            new LinkedHashMap<Pair<ResponderConfig, Integer>, CacheEntry>() {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<Pair<ResponderConfig, Integer>, CacheEntry> eldest) {
+                    return size() > MAX_CACHE_SIZE;
+                }
+            };
+
+    private long mNumHits = 0;
+    private long mNumMisses = 0;
+
+    private static class CacheEntry {
+        public final RangingResult result;
+        public final long expiryTimeMs;
+
+        CacheEntry(RangingResult result, long expiryTimeMs) {
+            this.result = result;
+            this.expiryTimeMs = expiryTimeMs;
+        }
+    }
+
+    public RttResultCache(Clock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Get the cached results of all the peers of the request.
+     *
+     * @return the HAL results of the peers, or null unless all of them have a fresh result.
+     */
+    public @Nullable List<RangingResult> getResults(RangingRequest request) {
+        long now = mClock.getElapsedSinceBootMillis();
+        List<RangingResult> results = new ArrayList<>(request.mRttPeers.size());
+        for (ResponderConfig peer : request.mRttPeers) {
+            CacheEntry entry = mCache.get(Pair.create(peer, request.getRttBurstSize()));
+            if (entry == null || entry.expiryTimeMs <= now) {
+                if (entry != null) {
+                    mCache.remove(Pair.create(peer, request.getRttBurstSize()));
+                }
+                mNumMisses++;
+                return null;
+            }
+            results.add(entry.result);
+        }
+        mNumHits++;
+        return results;
+    }
+
+    /**
+     * Cache the successful results of the AP peers of a request dispatched to the HAL.
+     *
+     * @param request The request dispatched to the HAL
+     * @param results The results received from the HAL
+     * @param freshnessMs How long the results can be served from the cache
+     */
+    public void putResults(RangingRequest request, List<RangingResult> results,
+            long freshnessMs) {
+        if (results == null || freshnessMs <= 0) {
+            return;
+        }
+        long expiryTimeMs = mClock.getElapsedSinceBootMillis() + freshnessMs;
+        for (ResponderConfig peer : request.mRttPeers) {
+            if (peer.responderType != ResponderConfig.RESPONDER_AP || peer.macAddress == null) {
+                continue;
+            }
+            for (RangingResult result : results) {
+                if (result != null && peer.macAddress.equals(result.getMacAddress())
+                        && result.getStatus() == WifiRttController.FRAMEWORK_RTT_STATUS_SUCCESS) {
+                    Pair<ResponderConfig, Integer> key =
+                            Pair.create(peer, request.getRttBurstSize());
+                    // re-insert to keep the eviction order
+                    mCache.remove(key);
+                    mCache.put(key, new CacheEntry(result, expiryTimeMs));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all the cached results.
+     */
+    public void clear() {
+        mCache.clear();
+    }
+
+    /**
+     * @return the number of cached results, including the expired ones not evicted yet.
+     */
+    public int size() {
+        return mCache.size();
+    }
+
+    /**
+     * Dump the cache statistics.
+     */
+    public void dump(PrintWriter pw) {
+        long numLookups = mNumHits + mNumMisses;
+        pw.println("  RttResultCache: size=" + mCache.size() + ", hits=" + mNumHits + ", misses="
+                + mNumMisses + ", hitRate=" + (numLookups == 0 ? 0 : mNumHits * 100 / numLookups)
+                + "%");
+    }
+}
@@ -84,10 +84,12 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implementation of the IWifiRttManager AIDL interface and of the RttService state manager.
@@ -668,8 +670,20 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         private int mNextCommandId = 1000;
         private Map<Integer, RttRequesterInfo> mRttRequesterInfo = new HashMap<>();
         private List<RttRequestInfo> mRttRequestQueue = new LinkedList<>();
+        // The ranging request dispatched to the HAL for the requests at the top of the queue. It
+        // may combine several queued requests, see collectRequestsToBatch().
+        private RangingRequest mDispatchedRangingRequest = null;
         private WakeupMessage mRangingTimeoutMessage = null;
 
+        // scheduler statistics, for dump
+        private int mNumDispatchedCommands = 0;
+        private int mNumDispatchedRequests = 0;
+        private long mTotalQueueWaitMs = 0;
+        private long mMaxQueueWaitMs = 0;
+        private SparseIntArray mBatchSizeHistogram = new SparseIntArray();
+
+        private final RttResultCache mRttResultCache = new RttResultCache(mClock);
+
         RttServiceSynchronized(Looper looper) {
             mHandler = new Handler(looper);
             mRangingTimeoutMessage = new WakeupMessage(mContext, mHandler,
@@ -678,14 +692,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             });
         }
 
-        private void cancelRanging(RttRequestInfo rri) {
+        private void cancelRanging(int cmdId, RangingRequest request) {
             ArrayList<MacAddress> macAddresses = new ArrayList<>();
-            for (ResponderConfig peer : rri.request.mRttPeers) {
+            for (ResponderConfig peer : request.mRttPeers) {
                 macAddresses.add(peer.macAddress);
             }
 
             if (mWifiRttController != null) {
-                mWifiRttController.rangeCancel(rri.cmdId, macAddresses);
+                mWifiRttController.rangeCancel(cmdId, macAddresses);
             } else {
                 Log.e(TAG, "Could not call cancelRanging, rttControllerHal is null");
             }
@@ -693,14 +707,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
 
         private void cleanUpOnDisable() {
             if (VDBG) Log.v(TAG, "RttServiceSynchronized.cleanUpOnDisable");
+            if (getNumDispatchedRequests() > 0) {
+                // may not be necessary in some cases (e.g. Wi-Fi disable may already clear
+                // up active RTT), but in other cases will be needed (doze disabling RTT
+                // but Wi-Fi still up). Doesn't hurt - worst case will fail.
+                cancelRanging(mRttRequestQueue.get(0).cmdId, mDispatchedRangingRequest);
+            }
             for (RttRequestInfo rri : mRttRequestQueue) {
                 try {
-                    if (rri.dispatchedToNative) {
-                        // may not be necessary in some cases (e.g. Wi-Fi disable may already clear
-                        // up active RTT), but in other cases will be needed (doze disabling RTT
-                        // but Wi-Fi still up). Doesn't hurt - worst case will fail.
-                        cancelRanging(rri);
-                    }
                     mRttMetrics.recordOverallStatus(
                             WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
                     rri.callback.onRangingFailure(
@@ -712,7 +726,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 rri.binder.unlinkToDeath(rri.dr, 0);
             }
             mRttRequestQueue.clear();
+            mDispatchedRangingRequest = null;
             mRangingTimeoutMessage.cancel();
+            mRttResultCache.clear();
         }
 
         /**
@@ -722,6 +738,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
          *
          * A workSource specification will be cleared from the requested workSource and the request
          * cancelled only if there are no remaining uids in the work-source.
+         *
+         * A dispatched request which was batched with other requests is only dropped, the HAL
+         * command is cancelled once none of the batched requests remain.
          */
         private void cleanUpClientRequests(int uid, WorkSource workSource) {
             if (VDBG) {
@@ -729,6 +748,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                         + ", workSource=" + workSource + ", mRttRequestQueue=" + mRttRequestQueue);
             }
             boolean dispatchedRequestAborted = false;
+            int numDispatchedRequests = getNumDispatchedRequests();
             ListIterator<RttRequestInfo> it = mRttRequestQueue.listIterator();
             while (it.hasNext()) {
                 RttRequestInfo rri = it.next();
@@ -745,12 +765,18 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                     if (!rri.dispatchedToNative) {
                         it.remove();
                         rri.binder.unlinkToDeath(rri.dr, 0);
+                    } else if (numDispatchedRequests > 1) {
+                        Log.d(TAG, "Client death - dropping request from batched RTT operation in "
+                                + "progress: cmdId=" + rri.cmdId);
+                        it.remove();
+                        rri.binder.unlinkToDeath(rri.dr, 0);
+                        numDispatchedRequests--;
                     } else {
                         dispatchedRequestAborted = true;
                         Log.d(TAG, "Client death - cancelling RTT operation in progress: cmdId="
                                 + rri.cmdId);
                         mRangingTimeoutMessage.cancel();
-                        cancelRanging(rri);
+                        cancelRanging(rri.cmdId, mDispatchedRangingRequest);
                     }
                 }
             }
@@ -781,12 +807,17 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                         + "to native!?");
                 return;
             }
-            cancelRanging(rri);
-            try {
-                mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
-                rri.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
-            } catch (RemoteException e) {
-                Log.e(TAG, "RttServiceSynchronized.timeoutRangingRequest: callback failed: " + e);
+            cancelRanging(rri.cmdId, mDispatchedRangingRequest);
+            int numDispatchedRequests = getNumDispatchedRequests();
+            for (int i = 0; i < numDispatchedRequests; ++i) {
+                try {
+                    mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
+                    mRttRequestQueue.get(i).callback.onRangingFailure(
+                            RangingResultCallback.STATUS_CODE_FAIL);
+                } catch (RemoteException e) {
+                    Log.e(TAG, "RttServiceSynchronized.timeoutRangingRequest: callback failed: "
+                            + e);
+                }
             }
             executeNextRangingRequestIfPossible(true);
         }
@@ -822,6 +853,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             newRequest.callback = callback;
             newRequest.isCalledFromPrivilegedContext = isCalledFromPrivilegedContext;
             newRequest.attributionSource = attributionSource;
+            newRequest.queuedTimestampMs = mClock.getElapsedSinceBootMillis();
             mRttRequestQueue.add(newRequest);
 
             if (VDBG) {
@@ -881,8 +913,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                     Log.w(TAG, "executeNextRangingRequestIfPossible: pop requested - but empty "
                             + "queue!? Ignoring pop.");
                 } else {
-                    RttRequestInfo topOfQueueRequest = mRttRequestQueue.remove(0);
-                    topOfQueueRequest.binder.unlinkToDeath(topOfQueueRequest.dr, 0);
+                    // pop all the requests served by the dispatched HAL command, or only the top
+                    // of the queue if it was never dispatched
+                    int numToPop = Math.max(1, getNumDispatchedRequests());
+                    for (int i = 0; i < numToPop; ++i) {
+                        RttRequestInfo topOfQueueRequest = mRttRequestQueue.remove(0);
+                        topOfQueueRequest.binder.unlinkToDeath(topOfQueueRequest.dr, 0);
+                    }
+                    mDispatchedRangingRequest = null;
                 }
             }
 
@@ -946,12 +984,26 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
 
-            nextRequest.cmdId = mNextCommandId++;
+            if (serveFromResultCache(nextRequest)) {
+                executeNextRangingRequestIfPossible(true);
+                return;
+            }
+
+            int cmdId = mNextCommandId++;
+            List<RttRequestInfo> batch = collectRequestsToBatch(nextRequest);
+            RangingRequest halRequest = batch.size() == 1 ? nextRequest.request
+                    : buildBatchedRangingRequest(batch);
+            for (RttRequestInfo rri : batch) {
+                rri.cmdId = cmdId;
+                rri.dispatchedToNative = true;
+            }
+            mDispatchedRangingRequest = halRequest;
             mLastRequestTimestamp = mClock.getWallClockMillis();
             if (mWifiRttController != null
-                    && mWifiRttController.rangeRequest(nextRequest.cmdId, nextRequest.request)) {
+                    && mWifiRttController.rangeRequest(cmdId, halRequest)) {
+                recordDispatchedBatch(batch);
                 long timeout = HAL_RANGING_TIMEOUT_MS;
-                for (ResponderConfig responderConfig : nextRequest.request.mRttPeers) {
+                for (ResponderConfig responderConfig : halRequest.mRttPeers) {
                     if (responderConfig.responderType == ResponderConfig.RESPONDER_AWARE) {
                         timeout = HAL_AWARE_RANGING_TIMEOUT_MS;
                         break;
@@ -963,17 +1015,161 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 if (mWifiRttController == null) {
                     Log.e(TAG, "mWifiRttController is null");
                 }
-                try {
-                    mRttMetrics.recordOverallStatus(
-                            WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE);
-                    nextRequest.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
-                } catch (RemoteException e) {
-                    Log.e(TAG, "RttServiceSynchronized.startRanging: HAL request failed, callback "
-                            + "failed -- " + e);
+                for (RttRequestInfo rri : batch) {
+                    try {
+                        mRttMetrics.recordOverallStatus(
+                                WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE);
+                        rri.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
+                    } catch (RemoteException e) {
+                        Log.e(TAG, "RttServiceSynchronized.startRanging: HAL request failed, "
+                                + "callback failed -- " + e);
+                    }
                 }
                 executeNextRangingRequestIfPossible(true);
             }
-            nextRequest.dispatchedToNative = true;
+        }
+
+        private int getResultCacheFreshnessMs() {
+            return mContext.getResources().getInteger(
+                    R.integer.config_wifiRttResultCacheFreshnessMs);
+        }
+
+        /**
+         * Serve the request from the result cache if all of its peers were ranged recently.
+         *
+         * @return true if the request was served, false if it needs to be dispatched to the HAL.
+         */
+        private boolean serveFromResultCache(RttRequestInfo request) {
+            if (getResultCacheFreshnessMs() <= 0) {
+                return false;
+            }
+            List<RangingResult> cachedResults = mRttResultCache.getResults(request.request);
+            if (cachedResults == null) {
+                return false;
+            }
+            if (mVerboseLoggingEnabled) {
+                Log.v(TAG, "RttServiceSynchronized.serveFromResultCache: request=" + request);
+            }
+            forwardRangingResults(request, cachedResults);
+            return true;
+        }
+
+        /**
+         * Returns the number of requests at the top of the queue which are served by the ranging
+         * command currently dispatched to the HAL.
+         */
+        private int getNumDispatchedRequests() {
+            if (mRttRequestQueue.size() == 0 || !mRttRequestQueue.get(0).dispatchedToNative) {
+                return 0;
+            }
+            int cmdId = mRttRequestQueue.get(0).cmdId;
+            int numDispatchedRequests = 0;
+            for (RttRequestInfo rri : mRttRequestQueue) {
+                if (!rri.dispatchedToNative || rri.cmdId != cmdId) {
+                    break;
+                }
+                numDispatchedRequests++;
+            }
+            return numDispatchedRequests;
+        }
+
+        /**
+         * Collect the queued requests which can be executed together with the top of the queue in
+         * a single HAL command, and move them right behind it in the queue. A request can be
+         * batched if:
+         * - It doesn't need any PeerHandle translation and uses the same burst size
+         * - Its peers either are new or use the exact same configuration as the batched peers
+         * - The batched peers don't exceed the maximum number of peers of a request
+         * - It passes the pre-execution throttling checks
+         *
+         * @return the top of the queue followed by the requests batched with it.
+         */
+        private List<RttRequestInfo> collectRequestsToBatch(RttRequestInfo topOfQueueRequest) {
+            List<RttRequestInfo> batch = new ArrayList<>();
+            batch.add(topOfQueueRequest);
+            if (!mContext.getResources().getBoolean(R.bool.config_wifiRttBatchRangingRequests)
+                    || mRttRequestQueue.size() < 2
+                    || mRttRequestQueue.get(0) != topOfQueueRequest) {
+                return batch;
+            }
+
+            Map<MacAddress, ResponderConfig> batchedPeers = new HashMap<>();
+            for (ResponderConfig peer : topOfQueueRequest.request.mRttPeers) {
+                if (peer.macAddress == null) {
+                    return batch;
+                }
+                batchedPeers.put(peer.macAddress, peer);
+            }
+
+            int burstSize = topOfQueueRequest.request.getRttBurstSize();
+            ListIterator<RttRequestInfo> it = mRttRequestQueue.listIterator(1);
+            while (it.hasNext()) {
+                RttRequestInfo rri = it.next();
+                if (!canBatchRequest(rri, batchedPeers, burstSize)) {
+                    continue;
+                }
+                for (ResponderConfig peer : rri.request.mRttPeers) {
+                    batchedPeers.put(peer.macAddress, peer);
+                }
+                it.remove();
+                batch.add(rri);
+            }
+            mRttRequestQueue.addAll(1, batch.subList(1, batch.size()));
+            return batch;
+        }
+
+        private boolean canBatchRequest(RttRequestInfo rri,
+                Map<MacAddress, ResponderConfig> batchedPeers, int burstSize) {
+            if (rri.dispatchedToNative || rri.peerHandlesTranslated
+                    || rri.request.getRttBurstSize() != burstSize) {
+                return false;
+            }
+            Set<MacAddress> newPeers = new HashSet<>();
+            for (ResponderConfig peer : rri.request.mRttPeers) {
+                if (peer.macAddress == null) {
+                    return false;
+                }
+                ResponderConfig batchedPeer = batchedPeers.get(peer.macAddress);
+                if (batchedPeer == null) {
+                    newPeers.add(peer.macAddress);
+                } else if (!batchedPeer.equals(peer)) {
+                    return false;
+                }
+            }
+            if (batchedPeers.size() + newPeers.size() > RangingRequest.getMaxPeers()) {
+                return false;
+            }
+            // last since it updates the execution time of the requesters when permitted
+            return preExecThrottleCheck(rri.workSource, rri.callingPackage);
+        }
+
+        /**
+         * Build the request sent to the HAL for a batch of requests: each peer is ranged once.
+         */
+        private RangingRequest buildBatchedRangingRequest(List<RttRequestInfo> batch) {
+            RangingRequest.Builder builder = new RangingRequest.Builder();
+            Set<MacAddress> addedPeers = new HashSet<>();
+            for (RttRequestInfo rri : batch) {
+                for (ResponderConfig peer : rri.request.mRttPeers) {
+                    if (addedPeers.add(peer.macAddress)) {
+                        builder.addResponder(peer);
+                    }
+                }
+            }
+            builder.setRttBurstSize(batch.get(0).request.getRttBurstSize());
+            return builder.build();
+        }
+
+        private void recordDispatchedBatch(List<RttRequestInfo> batch) {
+            long now = mClock.getElapsedSinceBootMillis();
+            mNumDispatchedCommands++;
+            mBatchSizeHistogram.put(batch.size(), mBatchSizeHistogram.get(batch.size()) + 1);
+            for (RttRequestInfo rri : batch) {
+                long queueWaitMs = now - rri.queuedTimestampMs;
+                mNumDispatchedRequests++;
+                mTotalQueueWaitMs += queueWaitMs;
+                mMaxQueueWaitMs = Math.max(mMaxQueueWaitMs, queueWaitMs);
+            }
         }
 
         /**
@@ -1203,50 +1399,71 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
 
-            boolean onlyAwareApRanged = topOfQueueRequest.request.mRttPeers.stream().allMatch(
+            // fan the results out to each of the requests served by the HAL command
+            int numDispatchedRequests = Math.max(1, getNumDispatchedRequests());
+            boolean resultsForwarded = false;
+            for (int i = 0; i < numDispatchedRequests; ++i) {
+                resultsForwarded |= forwardRangingResults(mRttRequestQueue.get(i), results);
+            }
+            if (resultsForwarded) {
+                mRttMetrics.recordResult(mDispatchedRangingRequest, results,
+                        (int) (mClock.getWallClockMillis() - mLastRequestTimestamp));
+            }
+            mRttResultCache.putResults(mDispatchedRangingRequest, results,
+                    getResultCacheFreshnessMs());
+
+            executeNextRangingRequestIfPossible(true);
+        }
+
+        /**
+         * Forward the results of the HAL command to a request, if the requester is still permitted
+         * to receive them.
+         *
+         * @return true if the results were forwarded, false otherwise.
+         */
+        private boolean forwardRangingResults(RttRequestInfo request,
+                List<RangingResult> results) {
+            boolean onlyAwareApRanged = request.request.mRttPeers.stream().allMatch(
                     config -> config.responderType == ResponderConfig.RESPONDER_AWARE);
             boolean permissionGranted = false;
             if (onlyAwareApRanged && SdkLevel.isAtLeastT()) {
                 // Special case: if only aware APs are ranged, then allow this request if the caller
                 // has nearby permission.
                 permissionGranted = mWifiPermissionsUtil.checkNearbyDevicesPermission(
-                        (AttributionSource) topOfQueueRequest.attributionSource, true,
+                        (AttributionSource) request.attributionSource, true,
                         "wifi aware on ranging result");
             }
             if (!permissionGranted) {
                 permissionGranted =
                         mWifiPermissionsUtil.checkCallersLocationPermission(
-                                topOfQueueRequest.callingPackage,
-                                topOfQueueRequest.callingFeatureId,
-                                topOfQueueRequest.uid, /* coarseForTargetSdkLessThanQ */ false,
+                                request.callingPackage,
+                                request.callingFeatureId,
+                                request.uid, /* coarseForTargetSdkLessThanQ */ false,
                                 null) && mWifiPermissionsUtil.isLocationModeEnabled();
             }
             try {
                 if (permissionGranted) {
-                    List<RangingResult> finalResults = postProcessResults(topOfQueueRequest.request,
-                            results, topOfQueueRequest.isCalledFromPrivilegedContext);
+                    List<RangingResult> finalResults = postProcessResults(request.request,
+                            results, request.isCalledFromPrivilegedContext);
                     mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
-                    mRttMetrics.recordResult(topOfQueueRequest.request, results,
-                            (int) (mClock.getWallClockMillis() - mLastRequestTimestamp));
                     if (VDBG) {
                         Log.v(TAG, "RttServiceSynchronized.onRangingResults: finalResults="
                                 + finalResults);
                     }
-                    topOfQueueRequest.callback.onRangingResults(finalResults);
+                    request.callback.onRangingResults(finalResults);
                 } else {
                     Log.w(TAG, "RttServiceSynchronized.onRangingResults: location permission "
                             + "revoked - not forwarding results");
                     mRttMetrics.recordOverallStatus(
                             WifiMetricsProto.WifiRttLog.OVERALL_LOCATION_PERMISSION_MISSING);
-                    topOfQueueRequest.callback.onRangingFailure(
+                    request.callback.onRangingFailure(
                             RangingResultCallback.STATUS_CODE_FAIL);
                 }
             } catch (RemoteException e) {
                 Log.e(TAG,
                         "RttServiceSynchronized.onRangingResults: callback exception -- " + e);
             }
-
-            executeNextRangingRequestIfPossible(true);
+            return permissionGranted;
         }
 
         /*
@@ -1353,6 +1570,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             pw.println("  mNextCommandId: " + mNextCommandId);
             pw.println("  mRttRequesterInfo: " + mRttRequesterInfo);
             pw.println("  mRttRequestQueue: " + mRttRequestQueue);
+            pw.println("  mDispatchedRangingRequest: " + mDispatchedRangingRequest);
+            pw.println("  mNumDispatchedCommands: " + mNumDispatchedCommands
+                    + ", mNumDispatchedRequests: " + mNumDispatchedRequests);
+            pw.println("  mBatchSizeHistogram: " + mBatchSizeHistogram);
+            pw.println("  Queue wait time: avg=" + (mNumDispatchedRequests == 0 ? 0
+                    : mTotalQueueWaitMs / mNumDispatchedRequests) + "ms, max=" + mMaxQueueWaitMs
+                    + "ms");
+            mRttResultCache.dump(pw);
             pw.println("  mRangingTimeoutMessage: " + mRangingTimeoutMessage);
             pw.println("  mWifiRttController: " + mWifiRttController);
             pw.println("  mHalDeviceManager: " + mHalDeviceManager);
@@ -1377,6 +1602,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         public int cmdId = 0; // uninitialized cmdId value
         public boolean dispatchedToNative = false;
         public boolean peerHandlesTranslated = false;
+        public long queuedTimestampMs;
 
         @Override
         public String toString() {
@@ -49,8 +49,10 @@ import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseIntArray;
 
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.build.SdkLevel;
 import com.android.server.wifi.SoftApManager;
+import com.android.server.wifi.WifiChannelUtilization;
 import com.android.server.wifi.WifiNative;
 import com.android.server.wifi.WifiSettingsConfigStore;
 import com.android.server.wifi.coex.CoexManager;
@@ -83,6 +85,14 @@ public class ApConfigUtil {
 
     /* Random number generator used for AP channel selection. */
     private static final Random sRandom = new Random();
+
+    /* Constants used to rank the AP channels by the interference observed in the scan results. */
+    private static final int INTERFERENCE_RSSI_FLOOR_DBM = -95;
+    private static final int INTERFERENCE_BSS_BASE_WEIGHT = 10;
+    private static final int INTERFERENCE_BSS_MAX_RSSI_WEIGHT = 60;
+    private static final int INTERFERENCE_MAX_UTILIZATION_WEIGHT = 100;
+    private static final int CHANNEL_WIDTH_20_MHZ = 20;
+
     private static boolean sVerboseLoggingEnabled = false;
 
     /**
@@ -521,6 +531,27 @@ public class ApConfigUtil {
      */
     public static int chooseApChannel(int apBand, @NonNull CoexManager coexManager,
             @NonNull Resources resources, SoftApCapability capability) {
+        return chooseApChannel(apBand, coexManager, resources, capability, null, null);
+    }
+
+    /**
+     * Return a channel frequency for AP setup based on the frequency band.
+     * If {@code R.bool.config_wifiSoftApInterferenceAwareChannelSelection} is enabled and scan
+     * results are provided, the least interfered safe channel of the preferred band is selected
+     * instead of a random one. See {@link #getLeastInterferedFreqs(List, List,
+     * WifiChannelUtilization)}.
+     * @param apBand one or combination of the values of SoftApConfiguration.BAND_*.
+     * @param coexManager reference used to get unsafe channels to avoid for coex.
+     * @param resources the resources to use to get configured allowed channels.
+     * @param capability soft AP capability
+     * @param scanResults the latest scan results, or null if not available.
+     * @param channelUtilization the channel utilization history, or null if not available.
+     * @return a valid channel frequency on success, -1 on failure.
+     */
+    public static int chooseApChannel(int apBand, @NonNull CoexManager coexManager,
+            @NonNull Resources resources, SoftApCapability capability,
+            @Nullable List<ScanResult> scanResults,
+            @Nullable WifiChannelUtilization channelUtilization) {
         if (!isBandValid(apBand)) {
             Log.e(TAG, "Invalid band: " + apBand);
             return -1;
@@ -558,6 +589,13 @@ public class ApConfigUtil {
                     availableSafeFreqs.add(freq);
                 }
             }
+            // Rank the safe freqs by interference if enabled, the least interfered ones are kept.
+            if (availableSafeFreqs.size() > 1 && scanResults != null && !scanResults.isEmpty()
+                    && resources.getBoolean(
+                            R.bool.config_wifiSoftApInterferenceAwareChannelSelection)) {
+                availableSafeFreqs = getLeastInterferedFreqs(availableSafeFreqs, scanResults,
+                        channelUtilization);
+            }
             // If there are safe freqs available for this band, randomly select one.
             if (!availableSafeFreqs.isEmpty()) {
                 return availableSafeFreqs.get(sRandom.nextInt(availableSafeFreqs.size()));
@@ -591,6 +629,163 @@ public class ApConfigUtil {
         return -1;
     }
 
+    /**
+     * Rank the candidate AP channels by the interference observed on them and return the least
+     * interfered ones.
+     *
+     * The interference score of a channel is the sum of:
+     * - the weight of each BSS overlapping the channel, growing with its RSSI and scaled by the
+     *   overlap ratio. Every 20MHz subchannel occupied by a 40, 80, 160, 80+80 or 320MHz BSS
+     *   overlaps the candidate channel, and on 2.4GHz the BSSs on the adjacent channels
+     *   partially overlap it.
+     * - the highest channel utilization of the channel, reported by the overlapping BSSs in their
+     *   BSS Load element (scaled by the overlap ratio) or recorded in the channel utilization
+     *   history.
+     *
+     * @param candidateFreqs the candidate channel frequencies.
+     * @param scanResults the latest scan results.
+     * @param channelUtilization the channel utilization history, or null if not available.
+     * @return the candidate frequencies with the lowest interference score.
+     */
+    @VisibleForTesting
+    static @NonNull List<Integer> getLeastInterferedFreqs(
+            @NonNull List<Integer> candidateFreqs, @NonNull List<ScanResult> scanResults,
+            @Nullable WifiChannelUtilization channelUtilization) {
+        // The BSS weight and the BSS Load utilization only depend on the scan result, compute
+        // them once rather than for every candidate channel.
+        int[] bssWeights = new int[scanResults.size()];
+        int[] bssUtilizations = new int[scanResults.size()];
+        for (int i = 0; i < scanResults.size(); i++) {
+            ScanResult scanResult = scanResults.get(i);
+            if (scanResult == null) {
+                continue;
+            }
+            bssWeights[i] = INTERFERENCE_BSS_BASE_WEIGHT + Math.min(
+                    INTERFERENCE_BSS_MAX_RSSI_WEIGHT,
+                    Math.max(0, scanResult.level - INTERFERENCE_RSSI_FLOOR_DBM));
+            bssUtilizations[i] = getBssLoadChannelUtilization(scanResult);
+        }
+        List<Integer> leastInterferedFreqs = new ArrayList<>();
+        int lowestScore = Integer.MAX_VALUE;
+        for (int freq : candidateFreqs) {
+            int score = getInterferenceScore(freq, scanResults, bssWeights, bssUtilizations,
+                    channelUtilization);
+            if (sVerboseLoggingEnabled) {
+                Log.d(TAG, "Interference score of freq " + freq + " : " + score);
+            }
+            if (score < lowestScore) {
+                lowestScore = score;
+                leastInterferedFreqs.clear();
+            }
+            if (score == lowestScore) {
+                leastInterferedFreqs.add(freq);
+            }
+        }
+        return leastInterferedFreqs;
+    }
+
+    /**
+     * Return the interference score of a channel, given the weight and the BSS Load utilization
+     * of each scan result at the same index.
+     */
+    private static int getInterferenceScore(int freq, @NonNull List<ScanResult> scanResults,
+            @NonNull int[] bssWeights, @NonNull int[] bssUtilizations,
+            @Nullable WifiChannelUtilization channelUtilization) {
+        int bssScore = 0;
+        int utilization = 0;
+        if (channelUtilization != null) {
+            utilization = Math.max(utilization, channelUtilization.getUtilizationRatio(freq));
+        }
+        for (int i = 0; i < scanResults.size(); i++) {
+            ScanResult scanResult = scanResults.get(i);
+            if (scanResult == null) {
+                continue;
+            }
+            int overlapPercent = getOverlapPercent(freq, scanResult);
+            if (overlapPercent == 0) {
+                continue;
+            }
+            bssScore += bssWeights[i] * overlapPercent / 100;
+            utilization = Math.max(utilization, bssUtilizations[i] * overlapPercent / 100);
+        }
+        return bssScore + utilization * INTERFERENCE_MAX_UTILIZATION_WEIGHT
+                / InformationElementUtil.BssLoad.MAX_CHANNEL_UTILIZATION;
+    }
+
+    /**
+     * Return the percentage of a 20MHz channel overlapped by the bandwidth occupied by a BSS,
+     * i.e. by all the 20MHz subchannels of a 40, 80, 160, 80+80 or 320MHz BSS.
+     */
+    private static int getOverlapPercent(int channelFreq, @NonNull ScanResult scanResult) {
+        int overlapMhz;
+        int bssWidthMhz = getChannelWidthMhz(scanResult.channelWidth);
+        if (bssWidthMhz <= CHANNEL_WIDTH_20_MHZ || scanResult.centerFreq0 == 0) {
+            overlapMhz = getOverlapMhz(channelFreq, scanResult.frequency, CHANNEL_WIDTH_20_MHZ);
+        } else {
+            overlapMhz = getOverlapMhz(channelFreq, scanResult.centerFreq0, bssWidthMhz);
+            if (scanResult.channelWidth == ScanResult.CHANNEL_WIDTH_80MHZ_PLUS_MHZ
+                    && scanResult.centerFreq1 != 0) {
+                overlapMhz += getOverlapMhz(channelFreq, scanResult.centerFreq1, bssWidthMhz);
+            }
+        }
+        return Math.min(100, overlapMhz * 100 / CHANNEL_WIDTH_20_MHZ);
+    }
+
+    /**
+     * Return the overlap in MHz of a 20MHz channel with a segment of the given width.
+     */
+    private static int getOverlapMhz(int channelFreq, int segmentCenterFreq, int segmentWidthMhz) {
+        int lower = Math.max(channelFreq - CHANNEL_WIDTH_20_MHZ / 2,
+                segmentCenterFreq - segmentWidthMhz / 2);
+        int upper = Math.min(channelFreq + CHANNEL_WIDTH_20_MHZ / 2,
+                segmentCenterFreq + segmentWidthMhz / 2);
+        return Math.max(0, upper - lower);
+    }
+
+    /**
+     * Return the width in MHz of a {@link ScanResult#channelWidth}, or of each segment for
+     * 80+80MHz.
+     */
+    private static int getChannelWidthMhz(int channelWidth) {
+        switch (channelWidth) {
+            case ScanResult.CHANNEL_WIDTH_40MHZ:
+                return 40;
+            case ScanResult.CHANNEL_WIDTH_80MHZ:
+            case ScanResult.CHANNEL_WIDTH_80MHZ_PLUS_MHZ:
+                return 80;
+            case ScanResult.CHANNEL_WIDTH_160MHZ:
+                return 160;
+            case ScanResult.CHANNEL_WIDTH_320MHZ:
+                return 320;
+            default:
+                return CHANNEL_WIDTH_20_MHZ;
+        }
+    }
+
+    /**
+     * Return the channel utilization advertised in the BSS Load element of the scan result,
+     * or 0 if not available.
+     */
+    private static int getBssLoadChannelUtilization(@NonNull ScanResult scanResult) {
+        ScanResult.InformationElement[] ies = scanResult.informationElements;
+        if (ies == null) {
+            return 0;
+        }
+        for (ScanResult.InformationElement ie : ies) {
+            if (ie == null || ie.id != ScanResult.InformationElement.EID_BSS_LOAD) {
+                continue;
+            }
+            InformationElementUtil.BssLoad bssLoad = new InformationElementUtil.BssLoad();
+            try {
+                bssLoad.from(ie);
+            } catch (IllegalArgumentException e) {
+                return 0;
+            }
+            return Math.max(0, bssLoad.channelUtilization);
+        }
+        return 0;
+    }
+
     /**
      * Remove unavailable bands from the input band and return the resulting
      * (remaining) available bands. Unavailable bands are those which don't have channels available.
@@ -821,6 +1016,28 @@ public class ApConfigUtil {
             SoftApConfiguration.Builder configBuilder,
             SoftApConfiguration config,
             SoftApCapability capability) {
+        return updateApChannelConfig(wifiNative, coexManager, resources, countryCode,
+                configBuilder, config, capability, null, null);
+    }
+
+    /**
+     * Update AP band and channel based on the provided country code and band.
+     * Same as {@link #updateApChannelConfig(WifiNative, CoexManager, Resources, String,
+     * SoftApConfiguration.Builder, SoftApConfiguration, SoftApCapability)}, but the scan results
+     * and channel utilization history can be used to select the least interfered channel.
+     * @param scanResults the latest scan results, or null if not available.
+     * @param channelUtilization the channel utilization history, or null if not available.
+     * @return the corresponding {@link SoftApManager.StartResult} result code.
+     */
+    public static @SoftApManager.StartResult int updateApChannelConfig(WifiNative wifiNative,
+            @NonNull CoexManager coexManager,
+            Resources resources,
+            String countryCode,
+            SoftApConfiguration.Builder configBuilder,
+            SoftApConfiguration config,
+            SoftApCapability capability,
+            @Nullable List<ScanResult> scanResults,
+            @Nullable WifiChannelUtilization channelUtilization) {
         /* Use default band and channel for device without HAL. */
         if (!wifiNative.isHalStarted()) {
             configBuilder.setChannel(DEFAULT_AP_CHANNEL, DEFAULT_AP_BAND);
@@ -837,7 +1054,7 @@ public class ApConfigUtil {
             /* Select a channel if it is not specified and ACS is not enabled */
             if (config.getChannel() == 0) {
                 int freq = chooseApChannel(config.getBand(), coexManager, resources,
-                        capability);
+                        capability, scanResults, channelUtilization);
                 if (freq == -1) {
                     /* We're not able to get channel from wificond. */
                     Log.e(TAG, "Failed to get available channel.");
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.wifi.ScanResult.InformationElement;
+
+import com.android.server.wifi.hotspot2.anqp.Constants;
+
+import java.util.Arrays;
+
+/**
+ * Index-based view over the raw Information Element bytes of a single BSS.
+ *
+ * Parsing only records the id, extension id, offset and length of each element in primitive
+ * arrays; the payload is left in the original buffer. {@link InformationElement} objects are
+ * materialized on first access to a given element and cached, so an element which is consumed
+ * both by a parser and by the {@link #toArray()} path is copied once. Scan results still expose
+ * every element through {@link android.net.wifi.ScanResult#informationElements}, so on that path
+ * each element is copied exactly once; what is saved is the intermediate list, buffer and the
+ * per-element boxing of the array based parser.
+ *
+ * Instances are not thread safe and are intended to be used on the thread decoding the scan.
+ */
+public class InformationElementIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final InformationElement[] EMPTY_ARRAY = new InformationElement[0];
+
+    private final byte[] mBuffer;
+    private int mCount;
+    private int[] mIds;
+    private int[] mIdExts;
+    private int[] mOffsets;
+    private int[] mLengths;
+    // Only allocated when at least one fragmented element was found. An entry is non-null when
+    // the payload of the element lives in the defragmented copy rather than in mBuffer.
+    private byte[][] mDefragmented;
+    // Lazily materialized elements, allocated on the first call to get().
+    private InformationElement[] mElements;
+
+    private InformationElementIndex(byte[] buffer, int capacity) {
+        mBuffer = buffer;
+        mIds = new int[capacity];
+        mIdExts = new int[capacity];
+        mOffsets = new int[capacity];
+        mLengths = new int[capacity];
+    }
+
+    /**
+     * Builds an index over the given raw Information Element bytes. The buffer is retained and
+     * must not be modified while the index is in use.
+     *
+     * The framing rules (SSID padding, malformed extension elements, fragmented Multi-Link
+     * elements) are identical to {@link InformationElementUtil#parseInformationElements(byte[])}.
+     */
+    @NonNull
+    public static InformationElementIndex parse(@Nullable byte[] bytes) {
+        if (bytes == null) {
+            return new InformationElementIndex(null, 0);
+        }
+        InformationElementIndex index = new InformationElementIndex(bytes, INITIAL_CAPACITY);
+        boolean foundSsid = false;
+        int pos = 0;
+        final int end = bytes.length;
+        while (end - pos > 1) {
+            final int start = pos;
+            int eid = bytes[pos++] & Constants.BYTE_MASK;
+            int eidExt = 0;
+            int elementLength = bytes[pos++] & Constants.BYTE_MASK;
+
+            if (elementLength > end - pos || (eid == InformationElement.EID_SSID && foundSsid)) {
+                // APs often pad the data with bytes that happen to match that of the EID_SSID
+                // marker.
+                break;
+            }
+            if (eid == InformationElement.EID_SSID) {
+                foundSsid = true;
+            } else if (eid == InformationElement.EID_EXTENSION_PRESENT) {
+                if (elementLength == 0) {
+                    // Malformed IE, skipping
+                    break;
+                }
+                eidExt = bytes[pos++] & Constants.BYTE_MASK;
+                elementLength--;
+                if (InformationElementUtil.isFragmentable(eid, eidExt)
+                        && elementLength + 1 == InformationElementUtil.DefragmentElement
+                                .FRAG_MAX_LEN) {
+                    InformationElementUtil.DefragmentElement defrag =
+                            new InformationElementUtil.DefragmentElement(bytes, start, eid,
+                                    InformationElementUtil.DefragmentElement
+                                            .FRAGMENT_ELEMENT_EID);
+                    if (defrag.bytesRead == 0) {
+                        // Malformed IE skipping
+                        break;
+                    }
+                    // Skip first three bytes: eid, len, eidExt as it is already processed.
+                    index.addDefragmented(eid, eidExt, defrag.bytes);
+                    pos = start + defrag.bytesRead;
+                    continue;
+                }
+            }
+            index.add(eid, eidExt, pos, elementLength);
+            pos += elementLength;
+        }
+        return index;
+    }
+
+    /**
+     * Builds an index around already materialized elements, e.g. elements restored from the
+     * config store. No copy of the payloads is made.
+     */
+    @NonNull
+    public static InformationElementIndex wrap(@Nullable InformationElement[] elements) {
+        if (elements == null) {
+            return new InformationElementIndex(null, 0);
+        }
+        InformationElementIndex index = new InformationElementIndex(null, elements.length);
+        index.mElements = elements.clone();
+        for (InformationElement ie : elements) {
+            int length = ie.bytes == null ? 0 : ie.bytes.length;
+            index.add(ie.id, ie.idExt, 0, length);
+        }
+        return index;
+    }
+
+    private void add(int eid, int eidExt, int offset, int length) {
+        if (mCount == mIds.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, mCount * 2);
+            mIds = Arrays.copyOf(mIds, capacity);
+            mIdExts = Arrays.copyOf(mIdExts, capacity);
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+            if (mDefragmented != null) {
+                mDefragmented = Arrays.copyOf(mDefragmented, capacity);
+            }
+        }
+        mIds[mCount] = eid;
+        mIdExts[mCount] = eidExt;
+        mOffsets[mCount] = offset;
+        mLengths[mCount] = length;
+        mCount++;
+    }
+
+    private void addDefragmented(int eid, int eidExt, byte[] defragmented) {
+        add(eid, eidExt, 3, defragmented.length - 3);
+        if (mDefragmented == null) {
+            mDefragmented = new byte[mIds.length][];
+        }
+        mDefragmented[mCount - 1] = defragmented;
+    }
+
+    /** Returns the number of elements in this index. */
+    public int size() {
+        return mCount;
+    }
+
+    /** Returns the Element ID of the element at {@code index}. */
+    public int getId(int index) {
+        checkIndex(index);
+        return mIds[index];
+    }
+
+    /**
+     * Returns the Element ID Extension of the element at {@code index}, only meaningful when
+     * the Element ID is {@link InformationElement#EID_EXTENSION_PRESENT}.
+     */
+    public int getIdExt(int index) {
+        checkIndex(index);
+        return mIdExts[index];
+    }
+
+    /**
+     * Returns the element at {@code index}, materializing (and caching) it on first access.
+     */
+    @NonNull
+    public InformationElement get(int index) {
+        checkIndex(index);
+        if (mElements == null) {
+            mElements = new InformationElement[mIds.length];
+        } else if (mElements.length < mCount) {
+            mElements = Arrays.copyOf(mElements, mIds.length);
+        }
+        InformationElement ie = mElements[index];
+        if (ie == null) {
+            ie = new InformationElement();
+            ie.id = mIds[index];
+            ie.idExt = mIdExts[index];
+            byte[] source = mDefragmented != null && mDefragmented[index] != null
+                    ? mDefragmented[index] : mBuffer;
+            ie.bytes = Arrays.copyOfRange(source, mOffsets[index],
+                    mOffsets[index] + mLengths[index]);
+            mElements[index] = ie;
+        }
+        return ie;
+    }
+
+    /**
+     * Returns all elements as an array, for callers that need the legacy
+     * {@code InformationElement[]} representation (e.g. {@link android.net.wifi.ScanResult}).
+     * Elements already materialized through {@link #get(int)} are shared, not copied again.
+     */
+    @NonNull
+    public InformationElement[] toArray() {
+        if (mCount == 0) {
+            return EMPTY_ARRAY;
+        }
+        InformationElement[] result = new InformationElement[mCount];
+        for (int i = 0; i < mCount; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mCount) {
+            throw new IndexOutOfBoundsException("index=" + index + " size=" + mCount);
+        }
+    }
+}
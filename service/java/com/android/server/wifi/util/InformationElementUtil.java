@@ -69,7 +69,7 @@ public class InformationElementUtil {
      * Values: eid   255         fid       255           fid      m
      *
      */
-    private static class DefragmentElement {
+    static class DefragmentElement {
         /** Defagmented element bytes */
         public byte[] bytes;
         /** Bytes read to defragment the fragmented element */
@@ -143,76 +143,19 @@ public class InformationElementUtil {
         return parseInformationElements(HexEncoding.decode(data));
     }
 
-    private static boolean isFragmentable(int eid, int eidExt) {
+    static boolean isFragmentable(int eid, int eidExt) {
         // Refer IEE802.11BE D2.3, Section 9.4.2 Elements
         return ((eid == InformationElement.EID_EXTENSION_PRESENT)
                 && (eidExt == InformationElement.EID_EXT_MULTI_LINK));
     }
 
+    /**
+     * Parses information elements from raw bytes into an array of materialized elements.
+     * Hot paths should prefer {@link InformationElementIndex#parse(byte[])}, which only copies an
+     * element when it is first read.
+     */
     public static InformationElement[] parseInformationElements(byte[] bytes) {
-        if (bytes == null) {
-            return new InformationElement[0];
-        }
-        ByteBuffer data = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
-
-        ArrayList<InformationElement> infoElements = new ArrayList<>();
-        boolean found_ssid = false;
-        while (data.remaining() > 1) {
-            // Mark the start of the data
-            data.mark();
-            int eid = data.get() & Constants.BYTE_MASK;
-            int eidExt = 0;
-            int elementLength = data.get() & Constants.BYTE_MASK;
-            DefragmentElement defrag = null;
-
-            if (elementLength > data.remaining() || (eid == InformationElement.EID_SSID
-                    && found_ssid)) {
-                // APs often pad the data with bytes that happen to match that of the EID_SSID
-                // marker.  This is not due to a known issue for APs to incorrectly send the SSID
-                // name multiple times.
-                break;
-            }
-            if (eid == InformationElement.EID_SSID) {
-                found_ssid = true;
-            } else if (eid == InformationElement.EID_EXTENSION_PRESENT) {
-                if (elementLength == 0) {
-                    // Malformed IE, skipping
-                    break;
-                }
-                eidExt = data.get() & Constants.BYTE_MASK;
-                if (isFragmentable(eid, eidExt)
-                        && elementLength == DefragmentElement.FRAG_MAX_LEN) {
-                    // Fragmented IE. Reset the position to head to defragment.
-                    data.reset();
-                    defrag =
-                            new DefragmentElement(
-                                    bytes,
-                                    data.position(),
-                                    eid,
-                                    DefragmentElement.FRAGMENT_ELEMENT_EID);
-                }
-                elementLength--;
-            }
-
-            InformationElement ie = new InformationElement();
-            ie.id = eid;
-            ie.idExt = eidExt;
-            if (defrag != null) {
-                if (defrag.bytesRead == 0) {
-                    // Malformed IE skipping
-                    break;
-                }
-                // Skip first three bytes: eid, len, eidExt as it is already processed.
-                ie.bytes = Arrays.copyOfRange(defrag.bytes, 3, defrag.bytes.length);
-                int newPosition = data.position() + defrag.bytesRead;
-                data.position(newPosition);
-            } else {
-                ie.bytes = new byte[elementLength];
-                data.get(ie.bytes);
-            }
-            infoElements.add(ie);
-        }
-        return infoElements.toArray(new InformationElement[infoElements.size()]);
+        return InformationElementIndex.parse(bytes).toArray();
     }
 
     /**
@@ -2122,6 +2065,37 @@ public class InformationElementUtil {
             if (ies == null) {
                 return;
             }
+            parseBeaconCapabilities(beaconCap, freq);
+            for (InformationElement ie : ies) {
+                parseElement(ie, isOweSupported);
+            }
+        }
+
+        /**
+         * Same as {@link #from(InformationElement[], int, boolean, int)}, but reads the elements
+         * from an {@link InformationElementIndex}, so that the elements are shared with
+         * the other parsers of the index instead of going through an intermediate array.
+         *
+         * @param ieIndex        -- Index of the Information Elements
+         * @param beaconCap      -- 16-bit Beacon Capability Information field
+         * @param isOweSupported -- Boolean flag to indicate if OWE is supported by the device
+         * @param freq           -- Frequency on which frame/beacon was transmitted.
+         */
+        public void from(InformationElementIndex ieIndex, int beaconCap,
+                boolean isOweSupported, int freq) {
+            protocol = new ArrayList<>();
+            keyManagement = new ArrayList<>();
+            groupCipher = new ArrayList<>();
+            pairwiseCipher = new ArrayList<>();
+            groupManagementCipher = new ArrayList<>();
+
+            parseBeaconCapabilities(beaconCap, freq);
+            for (int i = 0; i < ieIndex.size(); i++) {
+                parseElement(ieIndex.get(i), isOweSupported);
+            }
+        }
+
+        private void parseBeaconCapabilities(int beaconCap, int freq) {
             isPrivacy = (beaconCap & NativeScanResult.BSS_CAPABILITY_PRIVACY) != 0;
             if (ScanResult.is60GHz(freq)) {
                 /* In DMG, bits 0 and 1 are parsed together, where ESS=0x3 and IBSS=0x1 */
@@ -2135,54 +2109,54 @@ public class InformationElementUtil {
                 isESS = (beaconCap & NativeScanResult.BSS_CAPABILITY_ESS) != 0;
                 isIBSS = (beaconCap & NativeScanResult.BSS_CAPABILITY_IBSS) != 0;
             }
-            for (InformationElement ie : ies) {
-                WifiNl80211Manager.OemSecurityType oemSecurityType =
-                        WifiNl80211Manager.parseOemSecurityTypeElement(
-                        ie.id, ie.idExt, ie.bytes);
-                if (oemSecurityType != null
-                        && oemSecurityType.protocol != ScanResult.PROTOCOL_NONE) {
-                    protocol.add(oemSecurityType.protocol);
-                    keyManagement.add(oemSecurityType.keyManagement);
-                    pairwiseCipher.add(oemSecurityType.pairwiseCipher);
-                    groupCipher.add(oemSecurityType.groupCipher);
-                }
+        }
 
-                if (ie.id == InformationElement.EID_RSN) {
-                    parseRsnElement(ie);
-                }
+        private void parseElement(InformationElement ie, boolean isOweSupported) {
+            WifiNl80211Manager.OemSecurityType oemSecurityType =
+                    WifiNl80211Manager.parseOemSecurityTypeElement(ie.id, ie.idExt, ie.bytes);
+            if (oemSecurityType != null
+                    && oemSecurityType.protocol != ScanResult.PROTOCOL_NONE) {
+                protocol.add(oemSecurityType.protocol);
+                keyManagement.add(oemSecurityType.keyManagement);
+                pairwiseCipher.add(oemSecurityType.pairwiseCipher);
+                groupCipher.add(oemSecurityType.groupCipher);
+            }
 
-                if (ie.id == InformationElement.EID_VSA) {
-                    if (isWpaOneElement(ie)) {
-                        parseWpaOneElement(ie);
-                    }
-                    if (isWpsElement(ie)) {
-                        // TODO(b/62134557): parse WPS IE to provide finer granularity information.
-                        isWPS = true;
-                    }
-                    if (isOweSupported && isOweElement(ie)) {
-                        /* From RFC 8110: Once the client and AP have finished 802.11 association,
-                           they then complete the Diffie-Hellman key exchange and create a Pairwise
-                           Master Key (PMK) and its associated identifier, PMKID [IEEE802.11].
-                           Upon completion of 802.11 association, the AP initiates the 4-way
-                           handshake to the client using the PMK generated above.  The 4-way
-                           handshake generates a Key-Encrypting Key (KEK), a Key-Confirmation
-                           Key (KCK), and a Message Integrity Code (MIC) to use for protection
-                           of the frames that define the 4-way handshake.
-
-                           We check if OWE is supported here because we are adding the OWE
-                           capabilities to the Open BSS. Non-supporting devices need to see this
-                           open network and ignore this element. Supporting devices need to hide
-                           the Open BSS of OWE in transition mode and connect to the Hidden one.
-                        */
-                        protocol.add(ScanResult.PROTOCOL_RSN);
-                        groupCipher.add(ScanResult.CIPHER_CCMP);
-                        ArrayList<Integer> owePairwiseCipher = new ArrayList<>();
-                        owePairwiseCipher.add(ScanResult.CIPHER_CCMP);
-                        pairwiseCipher.add(owePairwiseCipher);
-                        ArrayList<Integer> oweKeyManagement = new ArrayList<>();
-                        oweKeyManagement.add(ScanResult.KEY_MGMT_OWE_TRANSITION);
-                        keyManagement.add(oweKeyManagement);
-                    }
+            if (ie.id == InformationElement.EID_RSN) {
+                parseRsnElement(ie);
+            }
+
+            if (ie.id == InformationElement.EID_VSA) {
+                if (isWpaOneElement(ie)) {
+                    parseWpaOneElement(ie);
+                }
+                if (isWpsElement(ie)) {
+                    // TODO(b/62134557): parse WPS IE to provide finer granularity information.
+                    isWPS = true;
+                }
+                if (isOweSupported && isOweElement(ie)) {
+                    /* From RFC 8110: Once the client and AP have finished 802.11 association,
+                       they then complete the Diffie-Hellman key exchange and create a Pairwise
+                       Master Key (PMK) and its associated identifier, PMKID [IEEE802.11].
+                       Upon completion of 802.11 association, the AP initiates the 4-way
+                       handshake to the client using the PMK generated above.  The 4-way
+                       handshake generates a Key-Encrypting Key (KEK), a Key-Confirmation
+                       Key (KCK), and a Message Integrity Code (MIC) to use for protection
+                       of the frames that define the 4-way handshake.
+
+                       We check if OWE is supported here because we are adding the OWE
+                       capabilities to the Open BSS. Non-supporting devices need to see this
+                       open network and ignore this element. Supporting devices need to hide
+                       the Open BSS of OWE in transition mode and connect to the Hidden one.
+                    */
+                    protocol.add(ScanResult.PROTOCOL_RSN);
+                    groupCipher.add(ScanResult.CIPHER_CCMP);
+                    ArrayList<Integer> owePairwiseCipher = new ArrayList<>();
+                    owePairwiseCipher.add(ScanResult.CIPHER_CCMP);
+                    pairwiseCipher.add(owePairwiseCipher);
+                    ArrayList<Integer> oweKeyManagement = new ArrayList<>();
+                    oweKeyManagement.add(ScanResult.KEY_MGMT_OWE_TRANSITION);
+                    keyManagement.add(oweKeyManagement);
                 }
             }
         }
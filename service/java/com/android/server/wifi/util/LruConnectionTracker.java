@@ -30,6 +30,8 @@ import com.android.wifi.resources.R;
 public class LruConnectionTracker {
     private final LruList<ScanResultMatchInfo> mList;
     private final Context mContext;
+    private int mGeneration = 0;
+
     public LruConnectionTracker(int size, Context context) {
         mList = new LruList<>(size);
         mContext = context;
@@ -46,14 +48,31 @@ public class LruConnectionTracker {
      * Add a WifiConfiguration into the most recently connected list.
      */
     public void addNetwork(@NonNull WifiConfiguration config) {
-        mList.add(ScanResultMatchInfo.fromWifiConfiguration(config));
+        ScanResultMatchInfo matchInfo = ScanResultMatchInfo.fromWifiConfiguration(config);
+        if (mList.indexOf(matchInfo) != 0) {
+            mGeneration++;
+        }
+        mList.add(matchInfo);
     }
 
     /**
      * Remove a network from the list.
      */
     public void removeNetwork(@NonNull WifiConfiguration config) {
-        mList.remove(ScanResultMatchInfo.fromWifiConfiguration(config));
+        ScanResultMatchInfo matchInfo = ScanResultMatchInfo.fromWifiConfiguration(config);
+        if (mList.indexOf(matchInfo) >= 0) {
+            mGeneration++;
+        }
+        mList.remove(matchInfo);
+    }
+
+    /**
+     * Get a number which changes whenever the order of the list changes, so callers can tell
+     * whether {@link #isMostRecentlyConnected(WifiConfiguration)} may have changed for any
+     * network without asking for each one.
+     */
+    public int getGeneration() {
+        return mGeneration;
     }
 
     /**
@@ -55,6 +55,16 @@ public class NativeUtil {
      * @throws IllegalArgumentException if a null or unencodable string is sent.
      */
     public static ArrayList<Byte> stringToByteArrayList(String str) {
+        return byteArrayToArrayList(stringToUtf8ByteArray(str));
+    }
+
+    /**
+     * Convert the string to byte array, rejecting strings which can't be UTF_8 encoded.
+     *
+     * @return the UTF_8 char byte values of str, as an Array.
+     * @throws IllegalArgumentException if a null or unencodable string is sent.
+     */
+    public static byte[] stringToUtf8ByteArray(String str) {
         if (str == null) {
             throw new IllegalArgumentException("null string");
         }
@@ -64,7 +74,7 @@ public class NativeUtil {
             ByteBuffer encoded = encoder.encode(CharBuffer.wrap(str));
             byte[] byteArray = new byte[encoded.remaining()];
             encoded.get(byteArray);
-            return byteArrayToArrayList(byteArray);
+            return byteArray;
         } catch (CharacterCodingException cce) {
             throw new IllegalArgumentException("cannot be utf-8 encoded", cce);
         }
@@ -245,15 +255,27 @@ public class NativeUtil {
      * @throws IllegalArgumentException for null string.
      */
     public static ArrayList<Byte> hexOrQuotedStringToBytes(String str) {
+        return byteArrayToArrayList(hexOrQuotedStringToByteArray(str));
+    }
+
+    /**
+     * Converts a string to an array of UTF_8 byte values.
+     * These forms are acceptable:
+     * a) UTF-8 String encapsulated in quotes, or
+     * b) Hex string with no delimiters.
+     *
+     * @param str String to be converted.
+     * @throws IllegalArgumentException for null string.
+     */
+    public static byte[] hexOrQuotedStringToByteArray(String str) {
         if (str == null) {
             throw new IllegalArgumentException("null string");
         }
         int length = str.length();
         if ((length > 1) && (str.charAt(0) == '"') && (str.charAt(length - 1) == '"')) {
-            str = str.substring(1, str.length() - 1);
-            return stringToByteArrayList(str);
+            return stringToUtf8ByteArray(str.substring(1, length - 1));
         } else {
-            return byteArrayToArrayList(hexStringToByteArray(str));
+            return hexStringToByteArray(str);
         }
     }
 
@@ -271,17 +293,40 @@ public class NativeUtil {
         if (bytes == null) {
             throw new IllegalArgumentException("null ssid bytes");
         }
-        byte[] byteArray = byteArrayFromArrayList(bytes);
+        return bytesToHexOrQuotedString(byteArrayFromArrayList(bytes));
+    }
+
+    /**
+     * Converts an array of UTF_8 byte values to string.
+     * The string will either be:
+     * a) UTF-8 String encapsulated in quotes (if all the bytes are UTF-8 encodeable and non null),
+     * or
+     * b) Hex string with no delimiters.
+     *
+     * @param bytes Array of bytes.
+     * @throws IllegalArgumentException for null bytes.
+     */
+    public static String bytesToHexOrQuotedString(byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("null ssid bytes");
+        }
         // Check for 0's in the byte stream in which case we cannot convert this into a string.
-        if (!bytes.contains(Byte.valueOf((byte) 0))) {
+        boolean containsZero = false;
+        for (byte b : bytes) {
+            if (b == 0) {
+                containsZero = true;
+                break;
+            }
+        }
+        if (!containsZero) {
             CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
             try {
-                CharBuffer decoded = decoder.decode(ByteBuffer.wrap(byteArray));
+                CharBuffer decoded = decoder.decode(ByteBuffer.wrap(bytes));
                 return "\"" + decoded.toString() + "\"";
             } catch (CharacterCodingException cce) {
             }
         }
-        return hexStringFromByteArray(byteArray);
+        return hexStringFromByteArray(bytes);
     }
 
     /**
@@ -294,9 +339,22 @@ public class NativeUtil {
      * @throws IllegalArgumentException for null string.
      */
     public static ArrayList<Byte> decodeSsid(String ssidStr) {
-        ArrayList<Byte> ssidBytes = hexOrQuotedStringToBytes(ssidStr);
-        if (ssidBytes.size() > SSID_BYTES_MAX_LEN) {
-            throw new IllegalArgumentException("ssid bytes size out of range: " + ssidBytes.size());
+        return byteArrayToArrayList(decodeSsidToByteArray(ssidStr));
+    }
+
+    /**
+     * Converts an ssid string to an array of UTF_8 byte values.
+     * These forms are acceptable:
+     * a) UTF-8 String encapsulated in quotes, or
+     * b) Hex string with no delimiters.
+     *
+     * @param ssidStr String to be converted.
+     * @throws IllegalArgumentException for null string.
+     */
+    public static byte[] decodeSsidToByteArray(String ssidStr) {
+        byte[] ssidBytes = hexOrQuotedStringToByteArray(ssidStr);
+        if (ssidBytes.length > SSID_BYTES_MAX_LEN) {
+            throw new IllegalArgumentException("ssid bytes size out of range: " + ssidBytes.length);
         }
         return ssidBytes;
     }
@@ -318,12 +376,29 @@ public class NativeUtil {
         return bytesToHexOrQuotedString(ssidBytes);
     }
 
+    /**
+     * Converts an array of UTF_8 byte values to ssid string.
+     * The string will either be:
+     * a) UTF-8 String encapsulated in quotes (if all the bytes are UTF-8 encodeable and non null),
+     * or
+     * b) Hex string with no delimiters.
+     *
+     * @param ssidBytes Array of bytes for ssid.
+     * @throws IllegalArgumentException for null bytes.
+     */
+    public static String encodeSsid(byte[] ssidBytes) {
+        if (ssidBytes.length > SSID_BYTES_MAX_LEN) {
+            throw new IllegalArgumentException("ssid bytes size out of range: " + ssidBytes.length);
+        }
+        return bytesToHexOrQuotedString(ssidBytes);
+    }
+
     /**
      * Convert from an array of primitive bytes to an array list of Byte.
      */
     public static ArrayList<Byte> byteArrayToArrayList(byte[] bytes) {
-        ArrayList<Byte> byteList = new ArrayList<>();
-        for (Byte b : bytes) {
+        ArrayList<Byte> byteList = new ArrayList<>(bytes.length);
+        for (byte b : bytes) {
             byteList.add(b);
         }
         return byteList;
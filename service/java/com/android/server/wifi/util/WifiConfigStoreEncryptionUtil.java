@@ -19,12 +19,14 @@ package com.android.server.wifi.util;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.os.Process;
+import android.os.SystemClock;
 import android.security.keystore.AndroidKeyStoreProvider;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
@@ -55,6 +57,14 @@ public class WifiConfigStoreEncryptionUtil {
     private static final String KEY_STORE = "AndroidKeyStore";
 
     private final String mDataFileName;
+    /**
+     * Key store reference to the secret key, looked up on first use. Looking the key up is a
+     * key store round trip, which would otherwise be paid for every credential of the file.
+     * Dropped on any failure to use it, since the key may have been deleted or regenerated, e.g.
+     * by a key store reset.
+     */
+    private SecretKey mSecretKey;
+    private long mDecryptDurationNanos;
 
     /**
      * Construct a new util to help {@link com.android.server.wifi.WifiConfigStore.StoreData}
@@ -75,6 +85,23 @@ public class WifiConfigStoreEncryptionUtil {
         return mDataFileName + ALIAS_SUFFIX;
     }
 
+    private @Nullable SecretKey getSecretKey() {
+        if (mSecretKey == null) {
+            mSecretKey = getOrCreateSecretKey(getKeyAlias());
+        }
+        return mSecretKey;
+    }
+
+    /**
+     * Returns the time spent in {@link #decrypt(EncryptedData)} since the last call to this
+     * method, in nanoseconds.
+     */
+    public long getAndResetDecryptDurationNanos() {
+        long durationNanos = mDecryptDurationNanos;
+        mDecryptDurationNanos = 0;
+        return durationNanos;
+    }
+
     /**
      * Encrypt the provided data blob.
      *
@@ -83,15 +110,15 @@ public class WifiConfigStoreEncryptionUtil {
      */
     public @Nullable EncryptedData encrypt(byte[] data) {
         EncryptedData encryptedData = null;
+        boolean cachedKey = mSecretKey != null;
         try {
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            SecretKey secretKeyReference = getOrCreateSecretKey(getKeyAlias());
-            if (secretKeyReference != null) {
-                cipher.init(Cipher.ENCRYPT_MODE, secretKeyReference);
-                encryptedData = new EncryptedData(cipher.doFinal(data), cipher.getIV());
-            } else {
-                reportException(new Exception("secretKeyReference is null."),
-                        "secretKeyReference is null.");
+            try {
+                encryptedData = encryptWithSecretKey(data);
+            } catch (Exception e) {
+                mSecretKey = null;
+                if (!cachedKey) throw e;
+                Log.w(TAG, "encrypt failed with the cached key, retrying with a new lookup", e);
+                encryptedData = encryptWithSecretKey(data);
             }
         } catch (NoSuchAlgorithmException e) {
             reportException(e, "encrypt could not find the algorithm: " + CIPHER_ALGORITHM);
@@ -117,13 +144,16 @@ public class WifiConfigStoreEncryptionUtil {
      */
     public @Nullable byte[] decrypt(@NonNull EncryptedData encryptedData) {
         byte[] decryptedData = null;
+        long startTimeNanos = SystemClock.elapsedRealtimeNanos();
+        boolean cachedKey = mSecretKey != null;
         try {
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, encryptedData.getIv());
-            SecretKey secretKeyReference = getOrCreateSecretKey(getKeyAlias());
-            if (secretKeyReference != null) {
-                cipher.init(Cipher.DECRYPT_MODE, secretKeyReference, spec);
-                decryptedData = cipher.doFinal(encryptedData.getEncryptedData());
+            try {
+                decryptedData = decryptWithSecretKey(encryptedData);
+            } catch (Exception e) {
+                mSecretKey = null;
+                if (!cachedKey) throw e;
+                Log.w(TAG, "decrypt failed with the cached key, retrying with a new lookup", e);
+                decryptedData = decryptWithSecretKey(encryptedData);
             }
         } catch (NoSuchAlgorithmException e) {
             reportException(e, "decrypt could not find cipher algorithm " + CIPHER_ALGORITHM);
@@ -139,10 +169,37 @@ public class WifiConfigStoreEncryptionUtil {
             reportException(e, "decrypt had an invalid algorithm parameter");
         } catch (Exception e) {
             reportException(e, "exception caught");
+        } finally {
+            mDecryptDurationNanos += SystemClock.elapsedRealtimeNanos() - startTimeNanos;
         }
         return decryptedData;
     }
 
+    private @Nullable EncryptedData encryptWithSecretKey(byte[] data)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        SecretKey secretKeyReference = getSecretKey();
+        if (secretKeyReference == null) {
+            reportException(new Exception("secretKeyReference is null."),
+                    "secretKeyReference is null.");
+            return null;
+        }
+        cipher.init(Cipher.ENCRYPT_MODE, secretKeyReference);
+        return new EncryptedData(cipher.doFinal(data), cipher.getIV());
+    }
+
+    private @Nullable byte[] decryptWithSecretKey(@NonNull EncryptedData encryptedData)
+            throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, encryptedData.getIv());
+        SecretKey secretKeyReference = getSecretKey();
+        if (secretKeyReference == null) {
+            return null;
+        }
+        cipher.init(Cipher.DECRYPT_MODE, secretKeyReference, spec);
+        return cipher.doFinal(encryptedData.getEncryptedData());
+    }
+
     private SecretKey getOrCreateSecretKey(String keyAlias) {
         SecretKey secretKey = null;
         try {
@@ -185,6 +185,7 @@ public class ActiveModeWardenTest extends WifiBaseTest {
     @Mock WifiSettingsConfigStore mSettingsConfigStore;
     @Mock LastCallerInfoManager mLastCallerInfoManager;
     @Mock WifiGlobals mWifiGlobals;
+    @Mock RunnerHandler mRunnerHandler;
 
     Listener<ConcreteClientModeManager> mClientListener;
     Listener<SoftApManager> mSoftApListener;
@@ -217,6 +218,7 @@ public class ActiveModeWardenTest extends WifiBaseTest {
         when(mWifiInjector.getHalDeviceManager()).thenReturn(mHalDeviceManager);
         when(mWifiInjector.getUserManager()).thenReturn(mUserManager);
         when(mWifiInjector.getWifiHandlerLocalLog()).thenReturn(mLocalLog);
+        when(mWifiInjector.getWifiHandler()).thenReturn(mRunnerHandler);
         when(mClientModeManager.getRole()).thenReturn(ROLE_CLIENT_PRIMARY);
         when(mClientModeManager.getInterfaceName()).thenReturn(WIFI_IFACE_NAME);
         when(mContext.getResources()).thenReturn(mResources);
@@ -1276,6 +1278,7 @@ public class ActiveModeWardenTest extends WifiBaseTest {
 
         verify(mSoftApManager).dump(null, writer, null);
         verify(mClientModeManager).dump(null, writer, null);
+        verify(mRunnerHandler).dump(writer);
     }
 
     /**
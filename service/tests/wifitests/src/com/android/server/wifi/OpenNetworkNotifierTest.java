@@ -24,12 +24,15 @@ import static com.android.server.wifi.ConnectToNetworkNotificationBuilder.AVAILA
 import static com.android.server.wifi.OpenNetworkNotifier.DEFAULT_REPEAT_DELAY_SEC;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -65,6 +68,7 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.xmlpull.v1.XmlSerializer;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -418,6 +422,25 @@ public class OpenNetworkNotifierTest extends WifiBaseTest {
         verify(mWifiMetrics).setNetworkRecommenderBlocklistSize(OPEN_NET_NOTIFIER_TAG, 1);
     }
 
+    /**
+     * The blocklist store data only has new data to serialize after the blocklist changed.
+     */
+    @Test
+    public void blocklistChange_hasNewDataToSerialize() throws Exception {
+        ArgumentCaptor<SsidSetStoreData> storeDataCaptor =
+                ArgumentCaptor.forClass(SsidSetStoreData.class);
+        verify(mWifiConfigStore).registerStoreData(storeDataCaptor.capture());
+        SsidSetStoreData storeData = storeDataCaptor.getValue();
+        assertFalse(storeData.hasNewDataToSerialize());
+
+        mNotificationController.handleScanResults(mOpenNetworks);
+        mBroadcastReceiver.onReceive(mContext, createIntent(ACTION_USER_DISMISSED_NOTIFICATION));
+        assertTrue(storeData.hasNewDataToSerialize());
+
+        storeData.serializeData(mock(XmlSerializer.class), null);
+        assertFalse(storeData.hasNewDataToSerialize());
+    }
+
     /**
      * When the user chooses to connect to recommended network, network ssid should be
      * blacklisted so that if the user removes the network in the future the same notification
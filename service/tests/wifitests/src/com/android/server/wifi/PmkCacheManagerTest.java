@@ -31,15 +31,12 @@ import android.text.TextUtils;
 
 import androidx.test.filters.SmallTest;
 
-import com.android.server.wifi.util.NativeUtil;
-
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -117,7 +114,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     public void testGet() throws Exception {
         preparePmkCache();
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         pmkDataList = mPmkCacheManager.get(0);
         assertEquals(1, pmkDataList.size());
@@ -134,7 +131,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     public void testGetWithBssid() throws Exception {
         preparePmkCacheWithBssid();
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         pmkDataList = mPmkCacheManager.get(0);
         assertEquals(1, pmkDataList.size());
@@ -152,7 +149,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
         preparePmkCache();
 
         mPmkCacheManager.remove(1);
-        List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(1);
+        List<byte[]> pmkDataList = mPmkCacheManager.get(1);
         assertNull(pmkDataList);
 
         // Remove non-existent cache should not crash.
@@ -164,7 +161,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
         preparePmkCacheWithBssid();
 
         mPmkCacheManager.remove(1);
-        List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(1);
+        List<byte[]> pmkDataList = mPmkCacheManager.get(1);
         assertNull(pmkDataList);
 
         // Remove non-existent cache should not crash.
@@ -175,7 +172,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     public void testRemoveIfNeeded() throws Exception {
         preparePmkCache();
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         // MAC address is not changed, do nothing.
         pmkDataList = mPmkCacheManager.get(1);
@@ -201,7 +198,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     public void testRemoveIfNeededWithBssid() throws Exception {
         preparePmkCacheWithBssid();
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         // MAC address is not changed, do nothing.
         pmkDataList = mPmkCacheManager.get(1);
@@ -290,7 +287,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     @Test
     public void testPmkCacheExpiration() throws Exception {
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         mPmkCacheManager.add(TEST_MAC_ADDRESS, 0, null, 1500,
                 generatePmkDataFromString("Cache"));
@@ -328,7 +325,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     @Test
     public void testPmkCacheExpirationWithBssid() throws Exception {
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         mPmkCacheManager.add(TEST_MAC_ADDRESS, 0, TEST_BSSID, 1500,
                 generatePmkDataFromString("Cache"));
@@ -362,8 +359,8 @@ public class PmkCacheManagerTest extends WifiBaseTest {
         assertNull(pmkDataList);
     }
 
-    private ArrayList<Byte> generatePmkDataFromString(String dataStr) {
-        if (TextUtils.isEmpty(dataStr)) return new ArrayList<Byte>();
-        return NativeUtil.byteArrayToArrayList(dataStr.getBytes());
+    private byte[] generatePmkDataFromString(String dataStr) {
+        if (TextUtils.isEmpty(dataStr)) return new byte[0];
+        return dataStr.getBytes();
     }
 }
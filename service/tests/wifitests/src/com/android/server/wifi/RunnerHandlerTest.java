@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import android.os.test.TestLooper;
+import android.util.LocalLog;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Unit tests for {@link RunnerHandler}.
+ */
+@SmallTest
+public class RunnerHandlerTest extends WifiBaseTest {
+    private static final int TEST_WHAT = 1234;
+
+    @Mock private Runnable mRunnable;
+    @Mock private Clock mClock;
+
+    private TestLooper mLooper;
+    private RunnerHandler mRunnerHandler;
+    private long mElapsedNanos;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mLooper = new TestLooper();
+        // Keep the uptime in the base of the looper, so that schedule latencies are sane.
+        long uptimeBaseMillis = SystemClock.uptimeMillis();
+        when(mClock.getElapsedSinceBootNanos()).thenAnswer(invocation -> mElapsedNanos);
+        when(mClock.getUptimeSinceBootMillis())
+                .thenAnswer(invocation -> uptimeBaseMillis + mElapsedNanos / 1_000_000);
+        mRunnerHandler = new RunnerHandler(mLooper.getLooper(), 100, new LocalLog(128), mClock);
+    }
+
+    private String dump() {
+        StringWriter sw = new StringWriter();
+        mRunnerHandler.dump(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    private void postFromSameCallSite() {
+        mRunnerHandler.post(() -> mRunnable.run());
+    }
+
+    /**
+     * Verify that posts from the same call site share a single signature.
+     */
+    @Test
+    public void testPostsFromSameCallSiteShareSignature() {
+        postFromSameCallSite();
+        postFromSameCallSite();
+        postFromSameCallSite();
+        mLooper.dispatchAll();
+
+        verify(mRunnable, times(3)).run();
+        String dump = dump();
+        assertTrue(dump, dump.contains("RunnerHandlerTest#postFromSameCallSite"));
+        assertEquals(dump.indexOf("RunnerHandlerTest#postFromSameCallSite"),
+                dump.lastIndexOf("RunnerHandlerTest#postFromSameCallSite"));
+        assertTrue(dump, dump.contains("count=3"));
+    }
+
+    /**
+     * Verify that the caller is not looked up on the stack when neither tracing nor overrun
+     * detection needs it.
+     */
+    @Test
+    public void testCallerNotResolvedWithoutOverrunDetection() {
+        mRunnerHandler = new RunnerHandler(mLooper.getLooper(), 0, new LocalLog(128), mClock);
+        postFromSameCallSite();
+        postFromSameCallSite();
+        mLooper.dispatchAll();
+
+        verify(mRunnable, times(2)).run();
+        List<RunnerHandler.TaskStats> stats = mRunnerHandler.getTopTaskStats(10);
+        assertEquals(1, stats.size());
+        String signature = stats.get(0).mSignature;
+        assertFalse(signature, signature.contains("#"));
+        assertTrue(signature, signature.startsWith("RunnerHandlerTest"));
+        assertEquals(2, stats.get(0).mCount);
+    }
+
+    private static final class NamedRunnable implements Runnable {
+        @Override
+        public void run() { }
+    }
+
+    private void postNamedRunnableFromFirstCallSite() {
+        mRunnerHandler.post(new NamedRunnable());
+    }
+
+    private void postNamedRunnableFromSecondCallSite() {
+        mRunnerHandler.post(new NamedRunnable());
+    }
+
+    /**
+     * Verify that a named Runnable class posted from several call sites is recorded under its
+     * class name rather than under the first call site.
+     */
+    @Test
+    public void testNamedRunnableRecordedByClassName() {
+        postNamedRunnableFromFirstCallSite();
+        postNamedRunnableFromSecondCallSite();
+        mLooper.dispatchAll();
+
+        List<RunnerHandler.TaskStats> stats = mRunnerHandler.getTopTaskStats(10);
+        assertEquals(1, stats.size());
+        assertEquals("RunnerHandlerTest$NamedRunnable", stats.get(0).mSignature);
+        assertEquals(2, stats.get(0).mCount);
+    }
+
+    /**
+     * Verify that postToFront runs the task and records it under the caller signature.
+     */
+    @Test
+    public void testPostToFront() {
+        mRunnerHandler.post(() -> { });
+        mRunnerHandler.postToFront(() -> mRunnable.run());
+        mLooper.dispatchNext();
+
+        verify(mRunnable).run();
+        assertTrue(dump().contains("RunnerHandlerTest#testPostToFront"));
+    }
+
+    /**
+     * Verify that plain messages are recorded by their what.
+     */
+    @Test
+    public void testMessageSignature() {
+        mRunnerHandler.sendEmptyMessage(TEST_WHAT);
+        mLooper.dispatchAll();
+
+        String dump = dump();
+        assertTrue(dump, dump.contains("what=" + TEST_WHAT));
+        assertFalse(dump, dump.contains("<UNKNOWN>"));
+    }
+
+    /**
+     * Verify that task stats are aggregated per signature and sorted by cumulative run time.
+     */
+    @Test
+    public void testTopTaskStats() {
+        postFromSameCallSite();
+        postFromSameCallSite();
+        mRunnerHandler.post(() -> mElapsedNanos += 5_000_000);
+        mLooper.dispatchAll();
+
+        List<RunnerHandler.TaskStats> stats = mRunnerHandler.getTopTaskStats(10);
+        assertEquals(2, stats.size());
+        assertTrue(stats.get(0).mSignature.contains("testTopTaskStats"));
+        assertEquals(1, stats.get(0).mCount);
+        assertEquals(5000, stats.get(0).mTotalRunTimeMicros);
+        assertEquals(2, stats.get(1).mCount);
+        assertEquals(1, mRunnerHandler.getTopTaskStats(1).size());
+    }
+
+    /**
+     * Verify that resetting clears the aggregated stats.
+     */
+    @Test
+    public void testResetTaskStats() {
+        postFromSameCallSite();
+        mLooper.dispatchAll();
+        assertEquals(1, mRunnerHandler.getTopTaskStats(10).size());
+
+        mRunnerHandler.resetTaskStats();
+
+        assertEquals(0, mRunnerHandler.getTopTaskStats(10).size());
+        assertFalse(dump().contains("postFromSameCallSite"));
+    }
+
+    /**
+     * Verify that a non-positive top N is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopTaskStatsRejectsNonPositiveTopN() {
+        mRunnerHandler.getTopTaskStats(0);
+    }
+}
@@ -28,6 +28,9 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Unit tests for {@link com.android.server.wifi.ScanDetailCache}.
  */
@@ -93,6 +96,139 @@ public class ScanDetailCacheTest extends WifiBaseTest {
         assertEquals(s4, mScanDetailCache.getScanDetail(TEST_BSSID_4));
     }
 
+    /**
+     * Verify that the least recently put entries are evicted once the cache reaches its max size.
+     */
+    @Test
+    public void testTrimEvictsLeastRecentlyPut() {
+        for (int i = 0; i < TEST_MAX_SIZE; i++) {
+            setClockTime(1000 + i);
+            mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration,
+                    String.format("0a:08:5c:67:89:%02x", i), TEST_RSSI, TEST_FREQUENCY));
+        }
+        // Refresh the first entry so that it is no longer the least recently put.
+        setClockTime(2000);
+        mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration,
+                "0a:08:5c:67:89:00", TEST_RSSI, TEST_FREQUENCY));
+        assertEquals(TEST_MAX_SIZE, mScanDetailCache.size());
+
+        mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration,
+                "0a:08:5c:67:89:ff", TEST_RSSI, TEST_FREQUENCY));
+
+        assertEquals(TEST_TRIM_SIZE + 1, mScanDetailCache.size());
+        assertNotNull(mScanDetailCache.getScanDetail("0a:08:5c:67:89:00"));
+        assertNotNull(mScanDetailCache.getScanDetail("0a:08:5c:67:89:04"));
+        assertNotNull(mScanDetailCache.getScanDetail("0a:08:5c:67:89:ff"));
+        assertNull(mScanDetailCache.getScanDetail("0a:08:5c:67:89:01"));
+        assertEquals(3, mScanDetailCache.values().size());
+    }
+
+    /**
+     * Verify that the most recent scan result is tracked across updates and removals.
+     */
+    @Test
+    public void testGetMostRecentScanResultAfterUpdateAndRemove() {
+        setClockTime(1000);
+        ScanDetail s1 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_1,
+                TEST_RSSI, TEST_FREQUENCY);
+        setClockTime(2000);
+        ScanDetail s2 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_2,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(s1);
+        mScanDetailCache.put(s2);
+        assertEquals(s2.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        // Replace s2 with an older result, s1 becomes the most recent.
+        setClockTime(500);
+        ScanDetail s2Old = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_2,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(s2Old);
+        assertEquals(s1.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        mScanDetailCache.remove(TEST_BSSID_1);
+        assertEquals(s2Old.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        mScanDetailCache.remove(TEST_BSSID_2);
+        assertTrue(mScanDetailCache.isEmpty());
+        assertNull(mScanDetailCache.getMostRecentScanResult());
+    }
+
+    /**
+     * Verify that an entry updated in place becomes the most recent one and is no longer the
+     * first one evicted.
+     */
+    @Test
+    public void testOnScanDetailUpdated() {
+        for (int i = 0; i < TEST_MAX_SIZE; i++) {
+            setClockTime(1000 + i);
+            mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration,
+                    String.format("0a:08:5c:67:89:%02x", i), TEST_RSSI, TEST_FREQUENCY));
+        }
+        ScanDetail s0 = mScanDetailCache.getScanDetail("0a:08:5c:67:89:00");
+        assertEquals(mScanDetailCache.getScanDetail("0a:08:5c:67:89:04").getScanResult(),
+                mScanDetailCache.getMostRecentScanResult());
+
+        // Update the oldest entry in place, as done on RSSI polls of the connected BSS.
+        s0.setSeen();
+        s0.getScanResult().level = TEST_RSSI_2;
+        mScanDetailCache.onScanDetailUpdated(s0);
+        assertEquals(s0.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration,
+                "0a:08:5c:67:89:ff", TEST_RSSI, TEST_FREQUENCY));
+        assertEquals(TEST_TRIM_SIZE + 1, mScanDetailCache.size());
+        assertEquals(s0, mScanDetailCache.getScanDetail("0a:08:5c:67:89:00"));
+        assertNull(mScanDetailCache.getScanDetail("0a:08:5c:67:89:01"));
+    }
+
+    /**
+     * Verify that lookups are not sensitive to the case of the BSSID string.
+     */
+    @Test
+    public void testGetScanDetailIgnoresCase() {
+        ScanDetail scanDetail = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_1,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(scanDetail);
+        assertEquals(scanDetail, mScanDetailCache.getScanDetail(TEST_BSSID_1.toUpperCase()));
+        assertNull(mScanDetailCache.getScanDetail("invalid"));
+    }
+
+    /**
+     * Verify that all the entries can still be found after the table grew, including once the
+     * cache is trimmed and filled again.
+     */
+    @Test
+    public void testGetScanDetailAfterTableGrows() {
+        int maxSize = 200;
+        int trimSize = 150;
+        ScanDetailCache cache = new ScanDetailCache(mWifiConfiguration, maxSize, trimSize);
+        List<ScanDetail> scanDetails = new ArrayList<>();
+        for (int i = 0; i < maxSize; i++) {
+            ScanDetail scanDetail = createScanDetailForNetwork(mWifiConfiguration,
+                    String.format("0a:08:5c:67:%02x:%02x", i / 256, i % 256), TEST_RSSI,
+                    TEST_FREQUENCY);
+            scanDetails.add(scanDetail);
+            cache.put(scanDetail);
+        }
+        assertEquals(maxSize, cache.size());
+        for (ScanDetail scanDetail : scanDetails) {
+            assertEquals(scanDetail, cache.getScanDetail(scanDetail.getBSSIDString()));
+        }
+
+        cache.put(createScanDetailForNetwork(mWifiConfiguration, "0a:08:5c:67:ff:ff",
+                TEST_RSSI, TEST_FREQUENCY));
+        assertEquals(trimSize + 1, cache.size());
+        assertNotNull(cache.getScanDetail("0a:08:5c:67:ff:ff"));
+        for (int i = 0; i < maxSize; i++) {
+            ScanDetail scanDetail = scanDetails.get(i);
+            if (i < maxSize - trimSize) {
+                assertNull(cache.getScanDetail(scanDetail.getBSSIDString()));
+            } else {
+                assertEquals(scanDetail, cache.getScanDetail(scanDetail.getBSSIDString()));
+            }
+        }
+    }
+
     private void setClockTime(long millis) {
         when(mClock.getUptimeSinceBootMillis()).thenReturn(millis);
         when(mClock.getWallClockMillis()).thenReturn(millis);
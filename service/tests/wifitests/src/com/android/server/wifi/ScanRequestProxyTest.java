@@ -37,6 +37,7 @@ import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiScanner;
 import android.net.wifi.WifiScanner.ScanSettings.HiddenNetwork;
+import android.net.wifi.WifiSsid;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
@@ -417,6 +418,71 @@ public class ScanRequestProxyTest extends WifiBaseTest {
         verifyScanMetricsDataWasSet(2);
     }
 
+    /**
+     * Verify that the scan results snapshot is republished on new results and cleared when
+     * scanning is disabled.
+     */
+    @Test
+    public void testScanResultsSnapshot() throws Exception {
+        assertTrue(mScanRequestProxy.getScanResultsSnapshot().isEmpty());
+        enableScanning();
+        assertTrue(mScanRequestProxy.startScan(TEST_UID, TEST_PACKAGE_NAME_1));
+        mInOrder.verify(mWifiScanner).startScan(any(), any(), any());
+        mGlobalScanListenerArgumentCaptor.getValue().onResults(mTestScanDatas1);
+        mLooper.dispatchAll();
+
+        List<ScanResult> snapshot = mScanRequestProxy.getScanResultsSnapshot();
+        ScanTestUtil.assertScanResultsEqualsAnyOrder(
+                mTestScanDatas1[0].getResults(), snapshot.toArray(new ScanResult[0]));
+        assertSame(snapshot, mScanRequestProxy.getScanResultsSnapshot());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.clear());
+
+        mScanRequestProxy.enableScanning(false, false);
+        assertTrue(mScanRequestProxy.getScanResultsSnapshot().isEmpty());
+        // The previously returned snapshot is unaffected.
+        assertEquals(mTestScanDatas1[0].getResults().length, snapshot.size());
+    }
+
+    /**
+     * Verify the security class lookups by SSID against the latest scan results.
+     */
+    @Test
+    public void testNetworkInRangeLookups() throws Exception {
+        ScanResult[] scanResults = mTestScanDatas1[0].getResults();
+        String[] ssids = {"psk", "sae", "transition", "open", "owe", "enterprise"};
+        String[] capabilities = {"[WPA2-PSK-CCMP]", "[RSN-SAE-CCMP]",
+                "[WPA2-PSK-CCMP][RSN-PSK+SAE-CCMP]", "[ESS]", "[RSN-OWE-CCMP]",
+                "[RSN-EAP/SHA1-CCMP]"};
+        for (int i = 0; i < ssids.length; i++) {
+            scanResults[i].SSID = ssids[i];
+            scanResults[i].setWifiSsid(WifiSsid.fromUtf8Text(ssids[i]));
+            scanResults[i].capabilities = capabilities[i];
+        }
+        assertFalse(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange("\"psk\""));
+
+        enableScanning();
+        assertTrue(mScanRequestProxy.startScan(TEST_UID, TEST_PACKAGE_NAME_1));
+        mGlobalScanListenerArgumentCaptor.getValue().onResults(mTestScanDatas1);
+        mLooper.dispatchAll();
+
+        assertTrue(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange("\"psk\""));
+        assertFalse(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange("\"sae\""));
+        assertTrue(mScanRequestProxy.isWpa3PersonalOnlyNetworkInRange("\"sae\""));
+        assertTrue(mScanRequestProxy.isWpa2Wpa3PersonalTransitionNetworkInRange(
+                "\"transition\""));
+        assertFalse(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange("\"transition\""));
+        assertTrue(mScanRequestProxy.isOpenOnlyNetworkInRange("\"open\""));
+        assertFalse(mScanRequestProxy.isOpenOnlyNetworkInRange("\"owe\""));
+        assertTrue(mScanRequestProxy.isOweOnlyNetworkInRange("\"owe\""));
+        assertTrue(mScanRequestProxy.isWpa2EnterpriseOnlyNetworkInRange("\"enterprise\""));
+        assertFalse(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange("\"unknown\""));
+        assertFalse(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange(null));
+
+        // The index is cleared along with the scan results.
+        mScanRequestProxy.enableScanning(false, false);
+        assertFalse(mScanRequestProxy.isWpa2PersonalOnlyNetworkInRange("\"psk\""));
+    }
+
     /**
      * Verify processing of a successful scan followed by a failure.
      */
@@ -2313,6 +2313,32 @@ public class SoftApManagerTest extends WifiBaseTest {
         verify(mWifiMetrics).noteSoftApClientBlocked(1);
     }
 
+    @Test
+    public void testClientAllowedAfterConnectedClientDisconnectWhenReachMaxClient()
+            throws Exception {
+        mTestSoftApCapability.setMaxSupportedClients(1);
+        SoftApModeConfiguration apConfig =
+                new SoftApModeConfiguration(WifiManager.IFACE_IP_MODE_TETHERED, null,
+                mTestSoftApCapability, TEST_COUNTRY_CODE);
+        startSoftApAndVerifyEnabled(apConfig);
+        mockSoftApInfoUpdateAndVerifyAfterSapStarted(false, true);
+        mockClientConnectedEvent(TEST_CLIENT_MAC_ADDRESS, true, TEST_INTERFACE_NAME, true);
+        mLooper.dispatchAll();
+        // Duplicate connection event doesn't change the client count.
+        mockClientConnectedEvent(TEST_CLIENT_MAC_ADDRESS, true, TEST_INTERFACE_NAME, false);
+        mLooper.dispatchAll();
+        mockClientConnectedEvent(TEST_CLIENT_MAC_ADDRESS, false, TEST_INTERFACE_NAME, true);
+        mLooper.dispatchAll();
+
+        reset(mWifiMetrics);
+        // The disconnected client no longer counts toward the max client.
+        mockClientConnectedEvent(TEST_CLIENT_MAC_ADDRESS_2, true, TEST_INTERFACE_NAME, true);
+        mLooper.dispatchAll();
+        verify(mWifiNative, never()).forceClientDisconnect(any(), any(), anyInt());
+        verify(mWifiMetrics).addSoftApNumAssociatedStationsChangedEvent(1, 1,
+                apConfig.getTargetMode(), mTestSoftApInfo);
+    }
+
     @Test
     public void testCapabilityChangeToSmallCauseClientDisconnect() throws Exception {
         mTestSoftApCapability.setMaxSupportedClients(2);
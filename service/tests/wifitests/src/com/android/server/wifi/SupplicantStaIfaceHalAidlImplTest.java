@@ -2882,11 +2882,11 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
     private void setupMocksForPmkCache(ArrayList<Byte> pmkCacheData) throws Exception {
         mDut.mPmkCacheManager = mPmkCacheManager;
         doAnswer(new MockAnswerUtil.AnswerWithArguments() {
-            public List<ArrayList<Byte>> answer(int networkId) {
+            public List<byte[]> answer(int networkId) {
                 if (pmkCacheData == null) return null;
 
-                List<ArrayList<Byte>> pmkDataList = new ArrayList<>();
-                pmkDataList.add(pmkCacheData);
+                List<byte[]> pmkDataList = new ArrayList<>();
+                pmkDataList.add(NativeUtil.byteArrayFromArrayList(pmkCacheData));
                 return pmkDataList;
             }
         }).when(mPmkCacheManager)
@@ -176,6 +176,7 @@ public class ThroughputPredictorTest extends WifiBaseTest {
         when(mResource.getInteger(
                 R.integer.config_wifiFrameworkMaxNumSpatialStreamDeviceOverrideValue))
                 .thenReturn(1);
+        mThroughputPredictor = new ThroughputPredictor(mContext);
         int predictedThroughputMbps = mThroughputPredictor.predictThroughput(mDeviceCapabilities,
                 ScanResult.WIFI_STANDARD_11AC, ScanResult.CHANNEL_WIDTH_80MHZ, 0, 5180, 2,
                 MIN_CHANNEL_UTILIZATION, 50, false, null);
@@ -204,6 +205,7 @@ public class ThroughputPredictorTest extends WifiBaseTest {
         when(mResource.getBoolean(
                 R.bool.config_wifiFrameworkMaxNumSpatialStreamDeviceOverrideEnable))
                 .thenReturn(true);
+        mThroughputPredictor = new ThroughputPredictor(mContext);
         when(mDeviceCapabilities.isWifiStandardSupported(ScanResult.WIFI_STANDARD_11AX))
                 .thenReturn(true);
         when(mDeviceCapabilities.isChannelWidthSupported(ScanResult.CHANNEL_WIDTH_160MHZ))
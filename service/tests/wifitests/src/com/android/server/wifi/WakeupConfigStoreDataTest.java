@@ -195,6 +195,21 @@ public class WakeupConfigStoreDataTest extends WifiBaseTest {
         assertTrue(mWakeupConfigData.hasBeenRead());
     }
 
+    /**
+     * Verify that the store data has new data to serialize if any of its data sources has.
+     */
+    @Test
+    public void hasNewDataToSerializeIfAnyDataSourceHas() {
+        assertFalse(mWakeupConfigData.hasNewDataToSerialize());
+
+        when(mNotificationsDataSource.hasNewDataToSerialize()).thenReturn(true);
+        assertTrue(mWakeupConfigData.hasNewDataToSerialize());
+
+        when(mNotificationsDataSource.hasNewDataToSerialize()).thenReturn(false);
+        when(mNetworkDataSource.hasNewDataToSerialize()).thenReturn(true);
+        assertTrue(mWakeupConfigData.hasNewDataToSerialize());
+    }
+
     /**
      * Verify that WakeUpConfigStoreData is written to
      * {@link WifiConfigStore#STORE_FILE_NAME_USER_GENERAL}.
@@ -35,6 +35,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Unit tests for {@link WakeupLock}.
@@ -151,6 +152,28 @@ public class WakeupLockTest extends WifiBaseTest {
         verify(mWifiConfigManager, times(2)).saveToStore(false);
     }
 
+    /**
+     * Verify that the lock only has new data to serialize after it changed.
+     */
+    @Test
+    public void hasNewDataToSerializeAfterLockChanges() {
+        WakeupConfigStoreData.DataSource<Set<ScanResultMatchInfo>> dataSource =
+                mWakeupLock.getDataSource();
+        assertFalse(dataSource.hasNewDataToSerialize());
+
+        mWakeupLock.setLock(Collections.singletonList(mNetwork1));
+        assertTrue(dataSource.hasNewDataToSerialize());
+        dataSource.getData();
+        assertFalse(dataSource.hasNewDataToSerialize());
+
+        // Networks already in the lock do not change it.
+        mWakeupLock.update(Collections.singletonList(mNetwork1));
+        assertFalse(dataSource.hasNewDataToSerialize());
+
+        mWakeupLock.update(Collections.singletonList(mNetwork2));
+        assertTrue(dataSource.hasNewDataToSerialize());
+    }
+
     /**
      * Verify that the WakeupLock is not empty immediately after being initialized with networks.
      */
@@ -353,6 +353,57 @@ public class WifiBlocklistMonitorTest extends WifiBaseTest {
                 eq(new ArrayList<>()), eq(new ArrayList<>()));
     }
 
+    /**
+     * Verify that blocked BSSIDs expire in the order of their blocklist end time, and that an
+     * entry blocked again for longer is not removed at its previous end time.
+     */
+    @Test
+    public void testBlockedBssidsExpireInOrderOfEndTime() {
+        WifiConfiguration config1 = WifiConfigurationTestUtil.createPskNetwork(TEST_SSID_1);
+        WifiConfiguration config2 = WifiConfigurationTestUtil.createPskNetwork(TEST_SSID_2);
+        when(mClock.getWallClockMillis()).thenReturn(0L);
+        mWifiBlocklistMonitor.blockBssidForDurationMs(TEST_BSSID_1, config1, 1000L,
+                TEST_FRAMEWORK_BLOCK_REASON, TEST_GOOD_RSSI);
+        mWifiBlocklistMonitor.blockBssidForDurationMs(TEST_BSSID_3, config2, 3000L,
+                TEST_FRAMEWORK_BLOCK_REASON, TEST_GOOD_RSSI);
+        mWifiBlocklistMonitor.blockBssidForDurationMs(TEST_BSSID_2, config1, 2000L,
+                TEST_FRAMEWORK_BLOCK_REASON, TEST_GOOD_RSSI);
+        assertEquals(2, mWifiBlocklistMonitor.updateAndGetNumBlockedBssidsForSsid(TEST_SSID_1));
+        assertEquals(1, mWifiBlocklistMonitor.updateAndGetNumBlockedBssidsForSsid(TEST_SSID_2));
+
+        when(mClock.getWallClockMillis()).thenReturn(1001L);
+        assertEquals(Set.of(TEST_BSSID_2, TEST_BSSID_3),
+                mWifiBlocklistMonitor.updateAndGetBssidBlocklist());
+        assertEquals(1, mWifiBlocklistMonitor.updateAndGetNumBlockedBssidsForSsid(TEST_SSID_1));
+
+        // Block TEST_BSSID_2 again for longer, it should outlive TEST_BSSID_3.
+        mWifiBlocklistMonitor.blockBssidForDurationMs(TEST_BSSID_2, config1, 5000L,
+                TEST_FRAMEWORK_BLOCK_REASON, TEST_GOOD_RSSI);
+        when(mClock.getWallClockMillis()).thenReturn(3001L);
+        assertEquals(Set.of(TEST_BSSID_2), mWifiBlocklistMonitor.updateAndGetBssidBlocklist());
+        assertEquals(0, mWifiBlocklistMonitor.updateAndGetNumBlockedBssidsForSsid(TEST_SSID_2));
+
+        when(mClock.getWallClockMillis()).thenReturn(6002L);
+        assertEquals(0, mWifiBlocklistMonitor.updateAndGetBssidBlocklist().size());
+        assertEquals(0, mWifiBlocklistMonitor.updateAndGetNumBlockedBssidsForSsid(TEST_SSID_1));
+    }
+
+    /**
+     * Verify that getFailureReasonsForSsid only returns the reasons of BSSIDs of that SSID which
+     * are currently blocked.
+     */
+    @Test
+    public void testGetFailureReasonsForSsid() {
+        verifyAddMultipleBssidsToBlocklist();
+        assertEquals(Set.of(WifiBlocklistMonitor.REASON_AP_UNABLE_TO_HANDLE_NEW_STA),
+                mWifiBlocklistMonitor.getFailureReasonsForSsid(TEST_SSID_1));
+
+        mWifiBlocklistMonitor.clearBssidBlocklistForSsid(TEST_SSID_1);
+        assertEquals(0, mWifiBlocklistMonitor.getFailureReasonsForSsid(TEST_SSID_1).size());
+        assertEquals(Set.of(WifiBlocklistMonitor.REASON_AP_UNABLE_TO_HANDLE_NEW_STA),
+                mWifiBlocklistMonitor.getFailureReasonsForSsid(TEST_SSID_2));
+    }
+
     /**
      * Verify that if REASON_AUTHENTICATION_FAILURE happens on the only BSSID of a SSID, the BSSID
      * will not get blocked.
@@ -461,6 +461,82 @@ public class WifiConfigManagerTest extends WifiBaseTest {
         verify(mWifiMetrics).wifiConfigStored(anyInt());
     }
 
+    /**
+     * Verify that the network list and the randomized MAC address mapping are only reported as
+     * new data to serialize when they changed since the last write, so that WifiConfigStore can
+     * reuse their sections otherwise.
+     */
+    @Test
+    public void testStoreDataHasNewDataToSerializeOnlyAfterChange() throws Exception {
+        WifiConfiguration openNetwork = WifiConfigurationTestUtil.createOpenNetwork();
+        NetworkUpdateResult result = verifyAddNetworkToWifiConfigManager(openNetwork);
+        verify(mNetworkListSharedStoreData).setHasNewDataToSerialize(true);
+        verify(mRandomizedMacStoreData).setHasNewDataToSerialize(true);
+
+        // Another module requests a write, nothing changed here.
+        clearInvocations(mNetworkListSharedStoreData, mNetworkListUserStoreData,
+                mRandomizedMacStoreData);
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        mAlarmManager.dispatch(BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+        verify(mNetworkListSharedStoreData).setHasNewDataToSerialize(false);
+        verify(mNetworkListUserStoreData).setHasNewDataToSerialize(false);
+        verify(mRandomizedMacStoreData).setHasNewDataToSerialize(false);
+
+        // A persisted field changes without a write of its own, it is written with the next one.
+        assertTrue(mWifiConfigManager.setNetworkNoInternetAccessExpected(
+                result.getNetworkId(), true));
+        clearInvocations(mNetworkListSharedStoreData, mNetworkListUserStoreData,
+                mRandomizedMacStoreData);
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        mAlarmManager.dispatch(BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+        verify(mNetworkListSharedStoreData).setHasNewDataToSerialize(true);
+        verify(mNetworkListUserStoreData).setHasNewDataToSerialize(true);
+        verify(mRandomizedMacStoreData).setHasNewDataToSerialize(false);
+
+        // The most recently connected state is derived from LruConnectionTracker on write.
+        mLruConnectionTracker.addNetwork(
+                mWifiConfigManager.getConfiguredNetwork(result.getNetworkId()));
+        clearInvocations(mNetworkListSharedStoreData, mNetworkListUserStoreData,
+                mRandomizedMacStoreData);
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        mAlarmManager.dispatch(BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+        verify(mNetworkListSharedStoreData).setHasNewDataToSerialize(true);
+    }
+
+    /**
+     * Verify that a captive portal detection, which is persisted in the network selection status,
+     * marks the network list as new data to serialize so that the next write does not reuse the
+     * previous section.
+     */
+    @Test
+    public void testNoteCaptivePortalDetectedHasNewDataToSerialize() throws Exception {
+        WifiConfiguration openNetwork = WifiConfigurationTestUtil.createOpenNetwork();
+        NetworkUpdateResult result = verifyAddNetworkToWifiConfigManager(openNetwork);
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        mAlarmManager.dispatch(BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+
+        mWifiConfigManager.noteCaptivePortalDetected(result.getNetworkId());
+        clearInvocations(mNetworkListSharedStoreData, mNetworkListUserStoreData);
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        mAlarmManager.dispatch(BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+        verify(mNetworkListSharedStoreData).setHasNewDataToSerialize(true);
+        verify(mNetworkListUserStoreData).setHasNewDataToSerialize(true);
+
+        // Detecting it again does not change the persisted state.
+        mWifiConfigManager.noteCaptivePortalDetected(result.getNetworkId());
+        clearInvocations(mNetworkListSharedStoreData, mNetworkListUserStoreData);
+        assertTrue(mWifiConfigManager.saveToStore(true));
+        mAlarmManager.dispatch(BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+        verify(mNetworkListSharedStoreData).setHasNewDataToSerialize(false);
+        verify(mNetworkListUserStoreData).setHasNewDataToSerialize(false);
+    }
+
     /**
      * Verify that a randomized MAC address is generated even if the KeyStore operation fails.
      */
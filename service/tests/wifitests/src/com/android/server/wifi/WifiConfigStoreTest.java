@@ -28,6 +28,7 @@ import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiMigration;
 import android.net.wifi.util.HexEncoding;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.UserHandle;
 import android.os.test.TestLooper;
 
@@ -63,9 +64,14 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Unit tests for {@link com.android.server.wifi.WifiConfigStore}.
@@ -439,6 +445,143 @@ public class WifiConfigStoreTest extends WifiBaseTest {
         assertEquals("asdfa", mUserStoreData.getData());
     }
 
+    /**
+     * Tests that buffered writes are performed on the writer thread when one is provided.
+     */
+    @Test
+    public void testBufferedWriteOnWriterThread() throws Exception {
+        TestLooper writerLooper = new TestLooper();
+        mWifiConfigStore = new WifiConfigStore(mContext, new Handler(mLooper.getLooper()),
+                new Handler(writerLooper.getLooper()), mClock, mWifiMetrics,
+                Arrays.asList(mSharedStore, mSharedSoftApStore));
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+
+        mWifiConfigStore.write(false);
+        mAlarmManager.dispatch(WifiConfigStore.BUFFERED_WRITE_ALARM_TAG);
+        mLooper.dispatchAll();
+        // Serialized on the handler thread, but not yet written.
+        assertNotNull(mSharedStore.getStoreBytes());
+        assertFalse(mSharedStore.isStoreWritten());
+        verify(mWifiMetrics, never()).noteWifiConfigStoreWriteDuration(anyInt());
+
+        writerLooper.dispatchAll();
+        assertTrue(mSharedStore.isStoreWritten());
+        verify(mWifiMetrics).noteWifiConfigStoreWriteDuration(anyInt());
+    }
+
+    /**
+     * Tests that a forced write with a writer thread returns only once the data is written.
+     */
+    @Test
+    public void testForceWriteWaitsForWriterThread() throws Exception {
+        HandlerThread writerThread = new HandlerThread("WifiConfigStoreTestWriter");
+        writerThread.start();
+        try {
+            mWifiConfigStore = new WifiConfigStore(mContext, new Handler(mLooper.getLooper()),
+                    new Handler(writerThread.getLooper()), mClock, mWifiMetrics,
+                    Arrays.asList(mSharedStore, mSharedSoftApStore));
+            mWifiConfigStore.registerStoreData(mSharedStoreData);
+            mSharedStoreData.setData(TEST_SHARE_DATA);
+
+            mWifiConfigStore.write(true);
+
+            assertFalse(mAlarmManager.isPending(WifiConfigStore.BUFFERED_WRITE_ALARM_TAG));
+            assertTrue(mSharedStore.isStoreWritten());
+            verify(mWifiMetrics).noteWifiConfigStoreWriteDuration(anyInt());
+        } finally {
+            writerThread.quitSafely();
+        }
+    }
+
+    /**
+     * Tests that a read with a writer thread, where the user store files are read from disk on
+     * the writer thread, returns the data last written and reports the per file timings.
+     */
+    @Test
+    public void testReadWithWriterThread() throws Exception {
+        HandlerThread writerThread = new HandlerThread("WifiConfigStoreTestWriter");
+        writerThread.start();
+        try {
+            mWifiConfigStore = new WifiConfigStore(mContext, new Handler(mLooper.getLooper()),
+                    new Handler(writerThread.getLooper()), mClock, mWifiMetrics,
+                    Arrays.asList(mSharedStore, mSharedSoftApStore));
+            mWifiConfigStore.registerStoreData(mSharedStoreData);
+            mWifiConfigStore.registerStoreData(mUserStoreData);
+            mWifiConfigStore.switchUserStoresAndRead(mUserStores);
+            verify(mWifiMetrics, times(mUserStores.size()))
+                    .noteWifiConfigStoreFileReadDurations(anyInt(), anyInt(), anyInt());
+
+            mUserStoreData.setData(TEST_USER_DATA);
+            mSharedStoreData.setData(TEST_SHARE_DATA);
+            mWifiConfigStore.write(true);
+
+            mWifiConfigStore.read();
+            assertEquals(TEST_USER_DATA, mUserStoreData.getData());
+            assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+            verify(mWifiMetrics, times(2 * mUserStores.size() + 2))
+                    .noteWifiConfigStoreFileReadDurations(anyInt(), anyInt(), anyInt());
+        } finally {
+            writerThread.quitSafely();
+        }
+    }
+
+    /**
+     * Tests that a read doesn't fail when the writer thread is no longer running, and reads the
+     * store files on the calling thread instead.
+     */
+    @Test
+    public void testReadWhenWriterThreadIsGone() throws Exception {
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mWifiConfigStore.write(true);
+
+        HandlerThread writerThread = new HandlerThread("WifiConfigStoreTestWriter");
+        writerThread.start();
+        Handler writerHandler = new Handler(writerThread.getLooper());
+        writerThread.quit();
+        writerThread.join();
+        WifiConfigStore wifiConfigStore = new WifiConfigStore(mContext,
+                new Handler(mLooper.getLooper()), writerHandler, mClock, mWifiMetrics,
+                Arrays.asList(mSharedStore, mSharedSoftApStore));
+        MockStoreData sharedStoreData =
+                new MockStoreData(WifiConfigStore.STORE_FILE_SHARED_GENERAL);
+        MockStoreData userStoreData = new MockStoreData(WifiConfigStore.STORE_FILE_USER_GENERAL);
+        wifiConfigStore.registerStoreData(sharedStoreData);
+        wifiConfigStore.registerStoreData(userStoreData);
+
+        wifiConfigStore.switchUserStoresAndRead(mUserStores);
+        wifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, sharedStoreData.getData());
+    }
+
+    /**
+     * Tests that the store file skips a write when the data is identical to the data last
+     * written.
+     */
+    @Test
+    public void testStoreFileSkipsUnchangedWrite() throws Exception {
+        File file = File.createTempFile("WifiConfigStoreTest", ".xml");
+        file.deleteOnExit();
+        StoreFile storeFile = new StoreFile(file, WifiConfigStore.STORE_FILE_SHARED_GENERAL,
+                UserHandle.ALL, null);
+        byte[] data = TEST_SHARE_DATA.getBytes(StandardCharsets.UTF_8);
+        byte[] newData = TEST_USER_DATA.getBytes(StandardCharsets.UTF_8);
+
+        storeFile.storeRawDataToWrite(data);
+        storeFile.writeBufferedRawData();
+        assertArrayEquals(data, storeFile.readRawData());
+        assertEquals(0, storeFile.getNumUnchangedWritesSkipped());
+
+        storeFile.storeRawDataToWrite(data.clone());
+        storeFile.writeBufferedRawData();
+        assertEquals(1, storeFile.getNumUnchangedWritesSkipped());
+
+        storeFile.storeRawDataToWrite(newData);
+        storeFile.writeBufferedRawData();
+        assertArrayEquals(newData, storeFile.readRawData());
+        assertEquals(1, storeFile.getNumUnchangedWritesSkipped());
+    }
+
 
     /**
      * Tests the read API behaviour after a write to the store files.
@@ -811,6 +954,175 @@ public class WifiConfigStoreTest extends WifiBaseTest {
         verify(userStoreNetworkSuggestionsData, never()).serializeData(any(), any());
     }
 
+    /**
+     * Verify that the section of a {@link StoreData} with no new data is copied from the previous
+     * write instead of being serialized again, until the store is read again.
+     */
+    @Test
+    public void testWriteReusesSectionWithNoNewData() throws Exception {
+        StoreData changedStoreData = mock(StoreData.class);
+        when(changedStoreData.getStoreFileId())
+                .thenReturn(WifiConfigStore.STORE_FILE_SHARED_GENERAL);
+        when(changedStoreData.hasNewDataToSerialize()).thenReturn(true);
+        when(changedStoreData.getName()).thenReturn("changedStoreData");
+        StoreData unchangedStoreData = mock(StoreData.class);
+        when(unchangedStoreData.getStoreFileId())
+                .thenReturn(WifiConfigStore.STORE_FILE_SHARED_GENERAL);
+        when(unchangedStoreData.hasNewDataToSerialize()).thenReturn(true);
+        when(unchangedStoreData.getName()).thenReturn("unchangedStoreData");
+        doAnswer(invocation -> {
+            XmlUtil.writeNextValue(invocation.getArgument(0), "Data", TEST_SHARE_DATA);
+            return null;
+        }).when(unchangedStoreData).serializeData(any(), any());
+        assertTrue(mWifiConfigStore.registerStoreData(changedStoreData));
+        assertTrue(mWifiConfigStore.registerStoreData(unchangedStoreData));
+
+        mWifiConfigStore.write(true);
+        byte[] firstWrite = mSharedStore.getStoreBytes();
+        verify(unchangedStoreData).serializeData(any(), any());
+
+        when(unchangedStoreData.hasNewDataToSerialize()).thenReturn(false);
+        mWifiConfigStore.write(true);
+        verify(changedStoreData, times(2)).serializeData(any(), any());
+        verify(unchangedStoreData).serializeData(any(), any());
+        assertArrayEquals(firstWrite, mSharedStore.getStoreBytes());
+        assertTrue(new String(firstWrite, StandardCharsets.UTF_8).contains(
+                "<unchangedStoreData>\n<string name=\"Data\">" + TEST_SHARE_DATA + "</string>\n"
+                        + "</unchangedStoreData>\n"));
+
+        // A read resets the data, so the section must be serialized again.
+        mWifiConfigStore.read();
+        mWifiConfigStore.write(true);
+        verify(unchangedStoreData, times(2)).serializeData(any(), any());
+    }
+
+    /**
+     * Verify that the randomized MAC address section is only serialized again after the mapping
+     * changed, and that the bytes of the previous write are reused otherwise.
+     */
+    @Test
+    public void testWriteReusesUnchangedRandomizedMacSection() throws Exception {
+        RandomizedMacStoreData macStoreData = spy(new RandomizedMacStoreData());
+        Map<String, String> macMapping = new HashMap<>();
+        macMapping.put(TEST_SHARE_DATA, "da:a1:19:0:0:1");
+        macStoreData.setMacMapping(macMapping);
+        macStoreData.setHasNewDataToSerialize(true);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        assertTrue(mWifiConfigStore.registerStoreData(macStoreData));
+        assertTrue(mWifiConfigStore.registerStoreData(mSharedStoreData));
+
+        mWifiConfigStore.write(true);
+        String firstWrite = new String(mSharedStore.getStoreBytes(), StandardCharsets.UTF_8);
+        verify(macStoreData).serializeData(any(), any());
+
+        // Another module of the same file changed, the MAC address mapping did not.
+        macStoreData.setHasNewDataToSerialize(false);
+        mSharedStoreData.setData(TEST_USER_DATA);
+        mWifiConfigStore.write(true);
+        String secondWrite = new String(mSharedStore.getStoreBytes(), StandardCharsets.UTF_8);
+        verify(macStoreData).serializeData(any(), any());
+        assertNotEquals(firstWrite, secondWrite);
+        String macSection = firstWrite.substring(firstWrite.indexOf("<MacAddressMap>"),
+                firstWrite.indexOf("</MacAddressMap>"));
+        assertTrue(macSection.contains("da:a1:19:0:0:1"));
+        assertTrue(secondWrite.contains(macSection));
+
+        // The mapping changed.
+        macMapping.put(TEST_USER_DATA, "da:a1:19:0:0:2");
+        macStoreData.setHasNewDataToSerialize(true);
+        mWifiConfigStore.write(true);
+        verify(macStoreData, times(2)).serializeData(any(), any());
+        assertTrue(new String(mSharedStore.getStoreBytes(), StandardCharsets.UTF_8)
+                .contains("da:a1:19:0:0:2"));
+    }
+
+    /**
+     * Verify that store files are written in the binary format when enabled, and that the data
+     * is read back from them.
+     */
+    @Test
+    public void testWriteAndReadBinaryFormat() throws Exception {
+        mWifiConfigStore.setBinaryFormatEnabled(true);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mWifiConfigStore.registerStoreData(mUserStoreData);
+        mWifiConfigStore.switchUserStoresAndRead(mUserStores);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mUserStoreData.setData(TEST_USER_DATA);
+
+        mWifiConfigStore.write(true);
+        assertEquals('A', mSharedStore.getStoreBytes()[0]);
+        assertEquals('B', mSharedStore.getStoreBytes()[1]);
+        assertEquals('X', mSharedStore.getStoreBytes()[2]);
+
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+        assertEquals(TEST_USER_DATA, mUserStoreData.getData());
+    }
+
+    /**
+     * Verify that store files in the other format are converted on read, in both directions, and
+     * that the data is preserved.
+     */
+    @Test
+    public void testReadConvertsStoreFileFormat() throws Exception {
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+        byte[] textBytes = mSharedStore.getStoreBytes();
+
+        mWifiConfigStore.setBinaryFormatEnabled(true);
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+        byte[] binaryBytes = mSharedStore.getStoreBytes();
+        assertEquals('A', binaryBytes[0]);
+        assertArrayEquals(binaryBytes, WifiConfigStore.convertFormat(textBytes, true));
+
+        mWifiConfigStore.setBinaryFormatEnabled(false);
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+        assertArrayEquals(textBytes, mSharedStore.getStoreBytes());
+    }
+
+    /**
+     * Verify that a store file converted to the configured format on read is written on the
+     * writer thread instead of the thread performing the read.
+     */
+    @Test
+    public void testReadConvertsStoreFileFormatOnWriterThread() throws Exception {
+        HandlerThread writerThread = new HandlerThread("WifiConfigStoreTestWriter");
+        writerThread.start();
+        try {
+            Handler writerHandler = new Handler(writerThread.getLooper());
+            AtomicReference<Thread> writingThread = new AtomicReference<>();
+            MockStoreFile sharedStore =
+                    new MockStoreFile(WifiConfigStore.STORE_FILE_SHARED_GENERAL) {
+                        @Override
+                        public void writeBufferedRawData() {
+                            writingThread.set(Thread.currentThread());
+                            super.writeBufferedRawData();
+                        }
+                    };
+            mWifiConfigStore = new WifiConfigStore(mContext, new Handler(mLooper.getLooper()),
+                    writerHandler, mClock, mWifiMetrics, Arrays.asList(sharedStore));
+            mWifiConfigStore.registerStoreData(mSharedStoreData);
+            mSharedStoreData.setData(TEST_SHARE_DATA);
+            mWifiConfigStore.write(true);
+            writingThread.set(null);
+
+            mWifiConfigStore.setBinaryFormatEnabled(true);
+            mWifiConfigStore.read();
+            CountDownLatch writerIdle = new CountDownLatch(1);
+            writerHandler.post(writerIdle::countDown);
+            assertTrue(writerIdle.await(1, TimeUnit.SECONDS));
+
+            assertEquals(writerThread, writingThread.get());
+            assertTrue(sharedStore.isStoreWritten());
+            assertEquals('A', sharedStore.getStoreBytes()[0]);
+        } finally {
+            writerThread.quitSafely();
+        }
+    }
+
     /**
      * Verify that we gracefully skip unknown section when reading an user store file.
      */
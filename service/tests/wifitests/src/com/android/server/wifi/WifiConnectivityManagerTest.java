@@ -4607,6 +4607,22 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
         verify(mPasspointManager, never()).clearAnqpRequestsAndFlushCache();
     }
 
+    /**
+     * Verify that the ANQP cache is not flushed on Wi-Fi toggle off when it is persisted.
+     */
+    @Test
+    public void testAnqpFlushCacheSkippedIfPersisted() {
+        when(mWifiConnectivityHelper.isFirmwareRoamingSupported()).thenReturn(true);
+        when(mWifiGlobals.flushAnqpCacheOnWifiToggleOffEvent()).thenReturn(true);
+        when(mWifiGlobals.isAnqpCachePersistenceEnabled()).thenReturn(true);
+        // Exit Wifi client mode.
+        setWifiEnabled(false);
+
+        // Verify ANQP cache is not flushed, but the ANQP requests are cleared.
+        verify(mPasspointManager, never()).clearAnqpRequestsAndFlushCache();
+        verify(mPasspointManager).clearAnqpRequests();
+    }
+
     /**
      *  Verify that BSSID blocklist gets cleared when preparing for a forced connection
      *  initiated by user/app.
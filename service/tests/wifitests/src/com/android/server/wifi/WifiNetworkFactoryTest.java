@@ -3265,6 +3265,8 @@ public class WifiNetworkFactoryTest extends WifiBaseTest {
         // Verify that we sent a connection attempt to ClientModeManager
         verify(mConnectHelper).connectToNetwork(eq(mClientModeManager),  any(),
                 mConnectListenerArgumentCaptor.capture(), anyInt(), any());
+        // The access point moved to the end of the approval list, which is persisted.
+        assertTrue(mDataSource.hasNewDataToSerialize());
     }
 
     /**
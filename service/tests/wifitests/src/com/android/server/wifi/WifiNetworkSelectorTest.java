@@ -1211,6 +1211,88 @@ public class WifiNetworkSelectorTest extends WifiBaseTest {
         assertEquals(ssids[0], candidate.SSID);
     }
 
+    /**
+     * Replays recorded scans through the network selector, which reuses the per-BSS filter state
+     * of the previous scans, and through a new network selector for every scan, which evaluates
+     * every BSS. The scans change RSSIs, the blocklist and the deprecated security types.
+     *
+     * Expected behavior: both return the same candidates for every scan, and the unchanged BSSes
+     * are not re-evaluated.
+     */
+    @Test
+    public void incrementalFilterMatchesFullEvaluationOnRecordedScans() {
+        String[] ssids = {"\"test1\"", "\"test2\"", "\"test3\""};
+        String[] bssids = {"6c:f3:7f:ae:8c:f3", "6c:f3:7f:ae:8c:f4", "6c:f3:7f:ae:8c:f5"};
+        int[] freqs = {5180, 5200, 5220};
+        String[] caps = {"[WPA2-PSK][ESS]", "[WEP][ESS]", "[WPA2-PSK][ESS]"};
+        int[] securities = {SECURITY_PSK, SECURITY_WEP, SECURITY_PSK};
+        int good = mThresholdQualifiedRssi5G + 8;
+        int low = mThresholdMinimumRssi5G - 1;
+        int[][] recordedLevels = {
+                {good, good, good},
+                {good, good, good},
+                {good + 2, good - 3, low},
+                {good, good, good},
+                {good, good, good},
+                {good, good, good + 1},
+        };
+        String[][] recordedBlocklists = {{}, {}, {}, {bssids[0]}, {}, {}};
+        boolean[] recordedWepDeprecated = {false, false, false, false, true, false};
+        when(WifiInfo.convertWifiConfigurationSecurityType(
+                WifiConfiguration.SECURITY_TYPE_PSK)).thenReturn(WifiInfo.SECURITY_TYPE_PSK);
+        when(WifiInfo.convertWifiConfigurationSecurityType(
+                WifiConfiguration.SECURITY_TYPE_WEP)).thenReturn(WifiInfo.SECURITY_TYPE_WEP);
+        WifiNetworkSelectorTestUtil.setupScanDetailsAndConfigStore(ssids, bssids, freqs, caps,
+                recordedLevels[0], securities, mWifiConfigManager, mClock);
+        mPlaceholderNominator.setNetworkIndexToReturn(PlaceholderNominator.RETURN_ALL_INDEX);
+        List<ClientModeManagerState> cmmStates = Arrays.asList(
+                new ClientModeManagerState(TEST_IFACE_NAME, false, true, mWifiInfo, false));
+
+        for (int i = 0; i < recordedLevels.length; i++) {
+            when(mWifiGlobals.isWepDeprecated()).thenReturn(recordedWepDeprecated[i]);
+            Set<String> blocklist = new ArraySet<>(Arrays.asList(recordedBlocklists[i]));
+
+            // A new ScanDetail for every scan result, as WifiConnectivityManager does.
+            List<WifiCandidates.Candidate> incremental = mWifiNetworkSelector.getCandidatesFromScan(
+                    WifiNetworkSelectorTestUtil.buildScanDetails(ssids, bssids, freqs, caps,
+                            recordedLevels[i], mClock),
+                    blocklist, cmmStates, false, true, true, Collections.emptySet(), false);
+
+            WifiNetworkSelector fullSelector = new WifiNetworkSelector(mContext, mWifiScoreCard,
+                    mScoringParams, mWifiConfigManager, mClock, mLocalLog, mWifiMetrics,
+                    mWifiInjector, mThroughputPredictor, mWifiChannelUtilization, mWifiGlobals,
+                    mScanRequestProxy, mWifiNative);
+            fullSelector.registerNetworkNominator(
+                    new PlaceholderNominator(PlaceholderNominator.RETURN_ALL_INDEX,
+                            PLACEHOLDER_NOMINATOR_ID_1));
+            List<WifiCandidates.Candidate> full = fullSelector.getCandidatesFromScan(
+                    WifiNetworkSelectorTestUtil.buildScanDetails(ssids, bssids, freqs, caps,
+                            recordedLevels[i], mClock),
+                    blocklist, cmmStates, false, true, true, Collections.emptySet(), false);
+
+            assertEquals("Scan " + i, describeCandidates(full), describeCandidates(incremental));
+            assertEquals(0, fullSelector.getNumBssFilterStatesReused());
+        }
+
+        // The 3 BSSes are evaluated by the first scan and by the 2 scans that change the
+        // deprecated security types. The other scans reuse the state of every BSS that passes
+        // the blocklist and RSSI checks.
+        assertEquals(3 + 3 + 3, mWifiNetworkSelector.getNumBssFilterStatesEvaluated());
+        assertEquals(3 + 2 + 2, mWifiNetworkSelector.getNumBssFilterStatesReused());
+    }
+
+    private static List<String> describeCandidates(List<WifiCandidates.Candidate> candidates) {
+        List<String> descriptions = new ArrayList<>();
+        if (candidates == null) return descriptions;
+        for (WifiCandidates.Candidate candidate : candidates) {
+            descriptions.add(candidate.getKey().bssid + "/" + candidate.getNetworkConfigId()
+                    + "/" + candidate.getKey().securityType + "/" + candidate.getNominatorId()
+                    + "/" + candidate.getScanRssi() + "/" + candidate.isMetered());
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
     /**
      * Wifi network selector doesn't recommend any network if the currently connected one
      * doesn't show up in the scan results.
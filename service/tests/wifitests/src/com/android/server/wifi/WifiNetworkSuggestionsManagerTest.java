@@ -4117,6 +4117,43 @@ public class WifiNetworkSuggestionsManagerTest extends WifiBaseTest {
         }
     }
 
+    /**
+     * Verify that each suggestion is matched with the scan results of the same network in scan
+     * order, and that the match info of each scan result is only computed once.
+     */
+    @Test
+    public void getMatchingScanResultsTestWithMultipleSuggestions() {
+        List<WifiNetworkSuggestion> suggestions = new ArrayList<>();
+        for (String ssid : new String[] {"\"A\"", "\"B\"", "\"C\""}) {
+            suggestions.add(createWifiNetworkSuggestion(
+                    WifiConfigurationTestUtil.createOpenNetwork(ssid),
+                    null, false, false, true, true, DEFAULT_PRIORITY_GROUP));
+        }
+        List<ScanResult> allSrList = new ArrayList<>();
+        for (String ssid : new String[] {"A", "B", "A", "D"}) {
+            ScanResult scanResult = new ScanResult();
+            scanResult.wifiSsid = WifiSsid.fromUtf8Text(ssid);
+            scanResult.capabilities = "[ESS]";
+            allSrList.add(scanResult);
+        }
+
+        MockitoSession session = ExtendedMockito.mockitoSession().strictness(Strictness.LENIENT)
+                .spyStatic(ScanResultMatchInfo.class).startMocking();
+        try {
+            Map<WifiNetworkSuggestion, List<ScanResult>> result =
+                    mWifiNetworkSuggestionsManager.getMatchingScanResults(suggestions, allSrList);
+            assertEquals(3, result.size());
+            assertEquals(List.of(allSrList.get(0), allSrList.get(2)),
+                    result.get(suggestions.get(0)));
+            assertEquals(List.of(allSrList.get(1)), result.get(suggestions.get(1)));
+            assertTrue(result.get(suggestions.get(2)).isEmpty());
+            ExtendedMockito.verify(() -> ScanResultMatchInfo.fromScanResult(any()),
+                    times(allSrList.size()));
+        } finally {
+            session.finishMocking();
+        }
+    }
+
     @Test
     public void testUpdateAutoJoinIfImsiProtectionIsEnabledAndDisabled() {
         when(mWifiCarrierInfoManager.getCarrierIdForPackageWithCarrierPrivileges(TEST_PACKAGE_1))
@@ -4460,6 +4497,30 @@ public class WifiNetworkSuggestionsManagerTest extends WifiBaseTest {
         verify(mLruConnectionTracker, never()).addNetwork(any());
     }
 
+    /**
+     * Verify that a change of the most recently connected state of a suggestion, which happens
+     * outside of WifiNetworkSuggestionsManager, is reported as new data to serialize.
+     */
+    @Test
+    public void testMostRecentlyConnectedChangeHasNewDataToSerialize() {
+        WifiConfiguration network = WifiConfigurationTestUtil.createOpenNetwork();
+        WifiNetworkSuggestion networkSuggestion =
+                createWifiNetworkSuggestion(network, null, false, false, true, true,
+                        DEFAULT_PRIORITY_GROUP);
+        assertEquals(WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS,
+                mWifiNetworkSuggestionsManager.add(Arrays.asList(networkSuggestion), TEST_UID_1,
+                        TEST_PACKAGE_1, TEST_FEATURE));
+        mDataSource.toSerialize();
+        assertFalse(mDataSource.hasNewDataToSerialize());
+
+        // Connecting to a network updates the most recently connected list.
+        when(mLruConnectionTracker.isMostRecentlyConnected(any())).thenReturn(true);
+        when(mLruConnectionTracker.getGeneration()).thenReturn(1);
+        assertTrue(mDataSource.hasNewDataToSerialize());
+        mDataSource.toSerialize();
+        assertFalse(mDataSource.hasNewDataToSerialize());
+    }
+
     @Test
     public void testOnSuggestionUpdateListener() {
         WifiNetworkSuggestionsManager.OnSuggestionUpdateListener listener =
@@ -4485,6 +4546,47 @@ public class WifiNetworkSuggestionsManagerTest extends WifiBaseTest {
         verify(listener).onSuggestionsRemoved(networkSuggestionList1);
     }
 
+    /**
+     * Verify that an add which also updates an existing suggestion is reverted as a whole when the
+     * store can't be serialized after it is applied: the new suggestion is removed and the updated
+     * one is restored.
+     */
+    @Test
+    public void testAddNetworkSuggestionsWithUpdateRolledBackByOOM() {
+        when(mWifiConfigManager.saveToStore(anyBoolean())).thenReturn(true)
+                .thenThrow(new OutOfMemoryError()).thenReturn(true);
+        WifiNetworkSuggestionsManager.OnSuggestionUpdateListener listener =
+                mock(WifiNetworkSuggestionsManager.OnSuggestionUpdateListener.class);
+        mWifiNetworkSuggestionsManager.addOnSuggestionUpdateListener(listener);
+        WifiNetworkSuggestion networkSuggestion1 = createWifiNetworkSuggestion(
+                WifiConfigurationTestUtil.createOpenNetwork(), null, false, false, true, true,
+                DEFAULT_PRIORITY_GROUP);
+        WifiNetworkSuggestion networkSuggestion2 = createWifiNetworkSuggestion(
+                WifiConfigurationTestUtil.createPskNetwork(), null, false, false, true, true,
+                DEFAULT_PRIORITY_GROUP);
+        WifiNetworkSuggestion networkSuggestion3 = createWifiNetworkSuggestion(
+                WifiConfigurationTestUtil.createOpenNetwork(), null, false, false, true, true,
+                DEFAULT_PRIORITY_GROUP);
+        assertEquals(WifiManager.STATUS_NETWORK_SUGGESTIONS_SUCCESS,
+                mWifiNetworkSuggestionsManager.add(List.of(networkSuggestion1, networkSuggestion2),
+                        TEST_UID_1, TEST_PACKAGE_1, TEST_FEATURE));
+
+        assertEquals(WifiManager.STATUS_NETWORK_SUGGESTIONS_ERROR_INTERNAL,
+                mWifiNetworkSuggestionsManager.add(List.of(networkSuggestion1, networkSuggestion3),
+                        TEST_UID_1, TEST_PACKAGE_1, TEST_FEATURE));
+
+        // The add and its rollback are both written.
+        verify(mWifiConfigManager, times(3)).saveToStore(true);
+        verify(listener).onSuggestionsAddedOrUpdated(List.of(networkSuggestion1));
+        assertEquals(Set.of(networkSuggestion1, networkSuggestion2),
+                new HashSet<>(mWifiNetworkSuggestionsManager.get(TEST_PACKAGE_1, TEST_UID_1)));
+        assertEquals(Set.of(networkSuggestion1, networkSuggestion2),
+                mDataSource.toSerialize().get(TEST_PACKAGE_1).extNetworkSuggestions.values()
+                        .stream()
+                        .map(n -> n.wns)
+                        .collect(Collectors.toSet()));
+    }
+
     @Test
     public void testShouldNotBeIgnoredBySecureSuggestionFromSameCarrierWithoutSameOpenSuggestion() {
         when(mResources.getBoolean(
@@ -3199,25 +3199,26 @@ public class WifiServiceImplTest extends WifiBaseTest {
                         .getResults();
         List<ScanResult> scanResultList =
                 new ArrayList<>(Arrays.asList(scanResults));
-        when(mScanRequestProxy.getScanResults()).thenReturn(scanResultList);
+        when(mScanRequestProxy.getScanResultsSnapshot()).thenReturn(scanResultList);
 
         String packageName = "test.com";
         String featureId = "test.com.featureId";
         mLooper.startAutoDispatch();
         List<ScanResult> retrievedScanResultList = mWifiServiceImpl.getScanResults(packageName,
-                featureId);
+                featureId).getList();
         mLooper.stopAutoDispatchAndIgnoreExceptions();
-        verify(mScanRequestProxy).getScanResults();
+        verify(mScanRequestProxy).getScanResultsSnapshot();
 
         ScanTestUtil.assertScanResultsEquals(scanResults,
                 retrievedScanResultList.toArray(new ScanResult[retrievedScanResultList.size()]));
     }
 
     /**
-     * Ensure that we handle scan results failure when posting the runnable to handler fails.
+     * Ensure that scan results are returned from the published snapshot even when the wifi
+     * thread is not responsive.
      */
     @Test
-    public void testGetScanResultsFailureInRunWithScissors() {
+    public void testGetScanResultsDoesNotWaitForWifiThread() {
         mWifiServiceImpl = makeWifiServiceImplWithMockRunnerWhichTimesOut();
 
         ScanResult[] scanResults =
@@ -3225,17 +3226,35 @@ public class WifiServiceImplTest extends WifiBaseTest {
                         .getResults();
         List<ScanResult> scanResultList =
                 new ArrayList<>(Arrays.asList(scanResults));
-        when(mScanRequestProxy.getScanResults()).thenReturn(scanResultList);
+        when(mScanRequestProxy.getScanResultsSnapshot()).thenReturn(scanResultList);
 
         String packageName = "test.com";
         String featureId = "test.com.featureId";
-        mLooper.startAutoDispatch();
         List<ScanResult> retrievedScanResultList = mWifiServiceImpl.getScanResults(packageName,
-                featureId);
-        mLooper.stopAutoDispatchAndIgnoreExceptions();
+                featureId).getList();
         verify(mScanRequestProxy, never()).getScanResults();
 
-        assertTrue(retrievedScanResultList.isEmpty());
+        ScanTestUtil.assertScanResultsEquals(scanResults,
+                retrievedScanResultList.toArray(new ScanResult[retrievedScanResultList.size()]));
+    }
+
+    /**
+     * Ensure that the latency of getScanResults calls is reported in the dump.
+     */
+    @Test
+    public void testGetScanResultsLatencyIsDumped() {
+        when(mScanRequestProxy.getScanResultsSnapshot()).thenReturn(new ArrayList<>());
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(100L, 130L);
+        mWifiServiceImpl.getScanResults(TEST_PACKAGE_NAME, TEST_FEATURE_ID);
+
+        mWifiServiceImpl.checkAndStartWifi();
+        mLooper.dispatchAll();
+        mLooper.startAutoDispatch();
+        StringWriter stringWriter = new StringWriter();
+        mWifiServiceImpl.dump(new FileDescriptor(), new PrintWriter(stringWriter), null);
+        mLooper.stopAutoDispatchAndIgnoreExceptions();
+        assertTrue(stringWriter.toString().contains(
+                "getScanResults latency ms: p50=35 p99=50 histogram={[20,50)=1}"));
     }
 
     /**
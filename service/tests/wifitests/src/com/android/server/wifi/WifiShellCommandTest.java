@@ -36,6 +36,7 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -105,6 +106,7 @@ public class WifiShellCommandTest extends WifiBaseTest {
     @Mock WifiDiagnostics mWifiDiagnostics;
     @Mock DeviceConfigFacade mDeviceConfig;
     @Mock WifiScanner mWifiScanner;
+    @Mock RunnerHandler mRunnerHandler;
 
     WifiShellCommand mWifiShellCommand;
 
@@ -132,6 +134,7 @@ public class WifiShellCommandTest extends WifiBaseTest {
         when(mWifiInjector.getWifiDiagnostics()).thenReturn(mWifiDiagnostics);
         when(mWifiInjector.getDeviceConfigFacade()).thenReturn(mDeviceConfig);
         when(mContext.getSystemService(WifiScanner.class)).thenReturn(mWifiScanner);
+        when(mWifiInjector.getWifiHandler()).thenReturn(mRunnerHandler);
 
         mWifiShellCommand = new WifiShellCommand(mWifiInjector, mWifiService, mContext,
                 mWifiGlobals, mWifiThreadRunner);
@@ -222,6 +225,41 @@ public class WifiShellCommandTest extends WifiBaseTest {
         verify(mWifiGlobals).getPollRssiIntervalMillis();
     }
 
+    @Test
+    public void testWifiThreadTaskStats() {
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArgument(0)).run();
+            return true;
+        }).when(mWifiThreadRunner).run(any());
+
+        // not allowed for unrooted shell.
+        mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"get-wifi-thread-task-stats"});
+        verify(mRunnerHandler, never()).dumpTaskStats(any(), anyInt());
+        assertFalse(mWifiShellCommand.getErrPrintWriter().toString().isEmpty());
+
+        BinderUtil.setUid(Process.ROOT_UID);
+
+        mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"get-wifi-thread-task-stats", "-n", "5"});
+        verify(mRunnerHandler).dumpTaskStats(any(), eq(5));
+
+        assertEquals(-1, mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"get-wifi-thread-task-stats", "-n", "-1"}));
+        assertEquals(-1, mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"get-wifi-thread-task-stats", "-n", "abc"}));
+        verify(mRunnerHandler).dumpTaskStats(any(), anyInt());
+
+        mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"reset-wifi-thread-task-stats"});
+        verify(mRunnerHandler).resetTaskStats();
+    }
+
     @Test
     public void testForceHiPerfMode() {
         // not allowed for unrooted shell.
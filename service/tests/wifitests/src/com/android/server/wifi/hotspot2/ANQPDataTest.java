@@ -16,7 +16,9 @@
 
 package com.android.server.wifi.hotspot2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
@@ -127,6 +129,9 @@ public class ANQPDataTest extends WifiBaseTest {
         assertFalse(data.getElements().isEmpty());
         assertTrue(data.getElements().get(Constants.ANQPElementType.ANQPVenueName)
                 .equals(venueNameElement));
+        // The generation only changes when the entry is updated.
+        long generation = data.getGeneration();
+        assertEquals(generation, data.getGeneration());
 
         // Add another ANQP element to the same entry
         Map<Constants.ANQPElementType, ANQPElement> anqpList2 = new HashMap<>();
@@ -142,6 +147,7 @@ public class ANQPDataTest extends WifiBaseTest {
         anqpList2.put(Constants.ANQPElementType.ANQPVenueName, venueNameElement);
 
         data.update(anqpList2);
+        assertNotEquals(generation, data.getGeneration());
         assertTrue(data.getElements().get(Constants.ANQPElementType.ANQPVenueName)
                 .equals(venueNameElement));
         assertTrue(data.getElements().get(Constants.ANQPElementType.ANQPVenueUrl)
@@ -20,10 +20,13 @@ import static com.android.server.wifi.hotspot2.ANQPRequestManager.ANQP_REQUEST_A
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.anyObject;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
@@ -46,8 +49,11 @@ import com.android.wifi.flags.FeatureFlags;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.List;
 
@@ -59,6 +65,8 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
     private static final long TEST_BSSID = 0x123456L;
     private static final ANQPNetworkKey TEST_ANQP_KEY =
             new ANQPNetworkKey("TestSSID", TEST_BSSID, 0, 0);
+    private static final ANQPNetworkKey TEST_DOMAIN_ANQP_KEY =
+            new ANQPNetworkKey("TestSSID", 0, 0, 1);
 
     private static final List<Constants.ANQPElementType> R1_ANQP_WITHOUT_RC = Arrays.asList(
             Constants.ANQPElementType.ANQPVenueName,
@@ -405,9 +413,9 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
         when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
         mManager.requestANQPElements(TEST_BSSID, TEST_ANQP_KEY, true,
                 NetworkDetail.HSRelease.R3);
-        mManager.requestANQPElements(TEST_BSSID + 1, TEST_ANQP_KEY, true,
+        mManager.requestANQPElements(TEST_BSSID + 1, createAnqpKey(TEST_BSSID + 1), true,
                 NetworkDetail.HSRelease.R3);
-        mManager.requestANQPElements(TEST_BSSID + 2, TEST_ANQP_KEY, true,
+        mManager.requestANQPElements(TEST_BSSID + 2, createAnqpKey(TEST_BSSID + 2), true,
                 NetworkDetail.HSRelease.R3);
         verify(mHandler).requestANQP(TEST_BSSID, R1R2_ANQP_WITH_RC);
         verify(mHandler).requestANQP(anyLong(), any());
@@ -423,8 +431,178 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
         verify(mHandler, times(3)).requestANQP(anyLong(), any());
         mManager.onRequestCompleted(TEST_BSSID + 2, true);
         // No more request in the queue, should process new request immediately
-        mManager.requestANQPElements(TEST_BSSID + 3, TEST_ANQP_KEY, true,
+        mManager.requestANQPElements(TEST_BSSID + 3, createAnqpKey(TEST_BSSID + 3), true,
                 NetworkDetail.HSRelease.R3);
         verify(mHandler).requestANQP(TEST_BSSID + 3, R1R2_ANQP_WITH_RC);
     }
+
+    /**
+     * Verify that only one request is sent for APs sharing the same ANQP network key.
+     */
+    @Test
+    public void testWaitResponseDeduplicatesNetworkKey() {
+        when(mFeatureFlags.anqpRequestWaitForResponse()).thenReturn(true);
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        mManager.requestANQPElements(TEST_BSSID, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1);
+        // Already in flight.
+        mManager.requestANQPElements(TEST_BSSID + 1, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1);
+        mManager.requestANQPElements(TEST_BSSID + 2, createAnqpKey(TEST_BSSID + 2), false,
+                NetworkDetail.HSRelease.R1);
+        // Merged with the request queued above for the same key.
+        mManager.requestANQPElements(TEST_BSSID + 3, createAnqpKey(TEST_BSSID + 2), false,
+                NetworkDetail.HSRelease.R1);
+
+        assertEquals(TEST_DOMAIN_ANQP_KEY, mManager.onRequestCompleted(TEST_BSSID, true));
+        verify(mHandler).requestANQP(TEST_BSSID + 2, R1_ANQP_WITHOUT_RC);
+        mManager.onRequestCompleted(TEST_BSSID + 2, true);
+        verify(mHandler, times(2)).requestANQP(anyLong(), any());
+    }
+
+    /**
+     * Verify that queued requests are sent to the APs advertising a provider OI first, then to
+     * the strongest APs first.
+     */
+    @Test
+    public void testWaitResponsePrioritizesRequests() {
+        when(mFeatureFlags.anqpRequestWaitForResponse()).thenReturn(true);
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        mManager.requestANQPElements(TEST_BSSID, TEST_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1, -80, false);
+        mManager.requestANQPElements(TEST_BSSID + 1, createAnqpKey(TEST_BSSID + 1), false,
+                NetworkDetail.HSRelease.R1, -70, false);
+        mManager.requestANQPElements(TEST_BSSID + 2, createAnqpKey(TEST_BSSID + 2), false,
+                NetworkDetail.HSRelease.R1, -90, true);
+        mManager.requestANQPElements(TEST_BSSID + 3, createAnqpKey(TEST_BSSID + 3), false,
+                NetworkDetail.HSRelease.R1, -60, false);
+
+        InOrder inOrder = inOrder(mHandler);
+        inOrder.verify(mHandler).requestANQP(TEST_BSSID, R1_ANQP_WITHOUT_RC);
+        mManager.onRequestCompleted(TEST_BSSID, true);
+        inOrder.verify(mHandler).requestANQP(TEST_BSSID + 2, R1_ANQP_WITHOUT_RC);
+        mManager.onRequestCompleted(TEST_BSSID + 2, true);
+        inOrder.verify(mHandler).requestANQP(TEST_BSSID + 3, R1_ANQP_WITHOUT_RC);
+        mManager.onRequestCompleted(TEST_BSSID + 3, true);
+        inOrder.verify(mHandler).requestANQP(TEST_BSSID + 1, R1_ANQP_WITHOUT_RC);
+    }
+
+    /**
+     * Verify that at most {@link ANQPRequestManager#MAX_IN_FLIGHT_REQUESTS} requests are waiting
+     * for a response, and that the other requests are sent once a response is received.
+     */
+    @Test
+    public void testMaxInFlightRequests() {
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        for (int i = 0; i <= ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS; i++) {
+            assertTrue(mManager.requestANQPElements(TEST_BSSID + i, createAnqpKey(TEST_BSSID + i),
+                    false, NetworkDetail.HSRelease.R1));
+        }
+        verify(mHandler, times(ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS))
+                .requestANQP(anyLong(), any());
+        verify(mHandler, never()).requestANQP(
+                eq(TEST_BSSID + ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS), any());
+
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(100L);
+        mManager.onRequestCompleted(TEST_BSSID, true);
+        verify(mHandler).requestANQP(TEST_BSSID + ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS,
+                R1_ANQP_WITHOUT_RC);
+
+        StringWriter sw = new StringWriter();
+        mManager.dump(new PrintWriter(sw));
+        assertTrue(sw.toString().contains("Answered requests: 1, average time to ANQP: 100 ms"));
+    }
+
+    /**
+     * Verify that requests queued behind {@link ANQPRequestManager#MAX_IN_FLIGHT_REQUESTS} are
+     * sent once the in-flight requests time out, even if no response is ever received.
+     */
+    @Test
+    public void testMaxInFlightRequestsDrainedOnTimeout() {
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        for (int i = 0; i <= ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS; i++) {
+            assertTrue(mManager.requestANQPElements(TEST_BSSID + i, createAnqpKey(TEST_BSSID + i),
+                    false, NetworkDetail.HSRelease.R1));
+        }
+        verify(mHandler, never()).requestANQP(
+                eq(TEST_BSSID + ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS), any());
+        assertTrue(mAlarmManager.isPending(ANQP_REQUEST_ALARM_TAG));
+
+        // The in-flight requests time out after 2 seconds.
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(2000L);
+        mAlarmManager.dispatch(ANQP_REQUEST_ALARM_TAG);
+        mLooper.dispatchAll();
+        verify(mHandler).requestANQP(TEST_BSSID + ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS,
+                R1_ANQP_WITHOUT_RC);
+        assertFalse(mAlarmManager.isPending(ANQP_REQUEST_ALARM_TAG));
+    }
+
+    /**
+     * Verify that no request is sent to an AP sharing the ANQP network key of an in-flight
+     * request.
+     */
+    @Test
+    public void testDeduplicatesInFlightNetworkKey() {
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        assertTrue(mManager.requestANQPElements(TEST_BSSID, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1));
+        assertTrue(mManager.requestANQPElements(TEST_BSSID + 1, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1));
+        verify(mHandler).requestANQP(anyLong(), any());
+
+        // A new request can be sent once the response was received.
+        mManager.onRequestCompleted(TEST_BSSID, true);
+        assertTrue(mManager.requestANQPElements(TEST_BSSID + 1, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1));
+        verify(mHandler).requestANQP(TEST_BSSID + 1, R1_ANQP_WITHOUT_RC);
+    }
+
+    /**
+     * Verify that when the preferred AP of a network key is held off, the request is sent to
+     * another AP queued for the same key instead of being dropped.
+     */
+    @Test
+    public void testWaitResponseFallsBackToAnotherApOfNetworkKey() {
+        when(mFeatureFlags.anqpRequestWaitForResponse()).thenReturn(true);
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        // Hold off TEST_BSSID + 1 with an unanswered request.
+        mManager.requestANQPElements(TEST_BSSID + 1, createAnqpKey(TEST_BSSID + 1), false,
+                NetworkDetail.HSRelease.R1);
+        mManager.onRequestCompleted(TEST_BSSID + 1, false);
+
+        mManager.requestANQPElements(TEST_BSSID, TEST_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1);
+        mManager.requestANQPElements(TEST_BSSID + 1, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1, -50, false);
+        mManager.requestANQPElements(TEST_BSSID + 2, TEST_DOMAIN_ANQP_KEY, false,
+                NetworkDetail.HSRelease.R1, -80, false);
+
+        mManager.onRequestCompleted(TEST_BSSID, true);
+        verify(mHandler).requestANQP(TEST_BSSID + 1, R1_ANQP_WITHOUT_RC);
+        verify(mHandler).requestANQP(TEST_BSSID + 2, R1_ANQP_WITHOUT_RC);
+    }
+
+    /**
+     * Verify that requests which got no response within the time out stop counting toward
+     * {@link ANQPRequestManager#MAX_IN_FLIGHT_REQUESTS}, and that a late response is ignored.
+     */
+    @Test
+    public void testUnansweredRequestsExpire() {
+        when(mHandler.requestANQP(anyLong(), any())).thenReturn(true);
+        for (int i = 0; i < ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS; i++) {
+            assertTrue(mManager.requestANQPElements(TEST_BSSID + i, createAnqpKey(TEST_BSSID + i),
+                    false, NetworkDetail.HSRelease.R1));
+        }
+
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(2000L);
+        long bssid = TEST_BSSID + ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS;
+        assertTrue(mManager.requestANQPElements(bssid, createAnqpKey(bssid), false,
+                NetworkDetail.HSRelease.R1));
+        verify(mHandler).requestANQP(bssid, R1_ANQP_WITHOUT_RC);
+        assertNull(mManager.onRequestCompleted(TEST_BSSID, true));
+    }
+
+    private static ANQPNetworkKey createAnqpKey(long bssid) {
+        return new ANQPNetworkKey("TestSSID", bssid, 0, 0);
+    }
 }
@@ -0,0 +1,380 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.util.Pair;
+import android.util.Xml;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.wifi.Clock;
+import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.WifiConfigStore;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.ANQPParser;
+import com.android.server.wifi.hotspot2.anqp.Constants;
+import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
+import com.android.server.wifi.util.XmlUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.hotspot2.AnqpCacheStoreData}.
+ */
+@SmallTest
+public class AnqpCacheStoreDataTest extends WifiBaseTest {
+    private static final String XML_TAG_DOCUMENT_HEADER = "WifiConfigStoreData";
+    private static final ANQPNetworkKey TEST_KEY =
+            new ANQPNetworkKey("test", 0x112233445566L, 0, 0);
+    private static final byte[] TEST_DOMAIN_NAME_PAYLOAD = new byte[] {
+            (byte) 0x08, 't', 'e', 's', 't', '.', 'c', 'o', 'm'};
+    private static final byte[] TEST_CONN_CAPABILITY_PAYLOAD = new byte[] {
+            (byte) 0x06, (byte) 0x50, (byte) 0x00, (byte) 0x01};
+    private static final long TEST_ELAPSED_TIME_MS = 1000L;
+    private static final long TEST_WALL_CLOCK_MS = 1_700_000_000_000L;
+
+    @Mock AnqpCacheStoreData.DataSource mDataSource;
+    @Mock Clock mClock;
+    AnqpCacheStoreData mStoreData;
+
+    /** Sets up test. */
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        setTime(TEST_ELAPSED_TIME_MS, TEST_WALL_CLOCK_MS);
+        mStoreData = new AnqpCacheStoreData(mDataSource, mClock);
+    }
+
+    private void setTime(long elapsedTimeMs, long wallClockMs) {
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(elapsedTimeMs);
+        when(mClock.getWallClockMillis()).thenReturn(wallClockMs);
+    }
+
+    /**
+     * Helper function for serializing store data to a XML document.
+     *
+     * @return byte[]
+     * @throws Exception
+     */
+    private byte[] serializeData() throws Exception {
+        final XmlSerializer out = new FastXmlSerializer();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(out, XML_TAG_DOCUMENT_HEADER);
+        mStoreData.serializeData(out, mock(WifiConfigStoreEncryptionUtil.class));
+        XmlUtil.writeDocumentEnd(out, XML_TAG_DOCUMENT_HEADER);
+        out.flush();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Helper function for deserializing store data from a XML document.
+     *
+     * @param data The XML document bytes
+     * @throws Exception
+     */
+    private void deserializeData(byte[] data) throws Exception {
+        final XmlPullParser in = Xml.newPullParser();
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+        in.setInput(inputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.gotoDocumentStart(in, XML_TAG_DOCUMENT_HEADER);
+        mStoreData.deserializeData(in, in.getDepth(),
+                WifiConfigStore.ENCRYPT_CREDENTIALS_CONFIG_STORE_DATA_VERSION,
+                mock(WifiConfigStoreEncryptionUtil.class));
+    }
+
+    private Map<Constants.ANQPElementType, ANQPElement> createParsedElements()
+            throws Exception {
+        Map<Constants.ANQPElementType, ANQPElement> elements = new HashMap<>();
+        elements.put(Constants.ANQPElementType.ANQPDomName, ANQPParser.parseElement(
+                Constants.ANQPElementType.ANQPDomName, ByteBuffer.wrap(TEST_DOMAIN_NAME_PAYLOAD)));
+        elements.put(Constants.ANQPElementType.HSConnCapability, ANQPParser.parseHS20Element(
+                Constants.ANQPElementType.HSConnCapability,
+                ByteBuffer.wrap(TEST_CONN_CAPABILITY_PAYLOAD)));
+        return elements;
+    }
+
+    private Map<Constants.ANQPElementType, byte[]> createRawPayloads() {
+        Map<Constants.ANQPElementType, byte[]> rawPayloads = new HashMap<>();
+        rawPayloads.put(Constants.ANQPElementType.ANQPDomName, TEST_DOMAIN_NAME_PAYLOAD);
+        rawPayloads.put(Constants.ANQPElementType.HSConnCapability,
+                TEST_CONN_CAPABILITY_PAYLOAD);
+        return rawPayloads;
+    }
+
+    /**
+     * Helper function for building a persisted AnqpEntry section by hand.
+     *
+     * @param ssid The SSID value, or null to leave it out
+     * @param bssid The BSSID value, written as is to allow for malformed types
+     * @param expiryWallClockMillis The expiry value, or null to leave it out
+     * @return byte[]
+     * @throws Exception
+     */
+    private byte[] serializeRawEntry(String ssid, Object bssid, Long expiryWallClockMillis)
+            throws Exception {
+        final XmlSerializer out = new FastXmlSerializer();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(out, XML_TAG_DOCUMENT_HEADER);
+        writeRawEntry(out, ssid, bssid, expiryWallClockMillis);
+        // A valid entry after the malformed one.
+        writeRawEntry(out, TEST_KEY.getSsid(), TEST_KEY.getBssid(), TEST_WALL_CLOCK_MS + 10_000L);
+        XmlUtil.writeDocumentEnd(out, XML_TAG_DOCUMENT_HEADER);
+        out.flush();
+        return outputStream.toByteArray();
+    }
+
+    private void writeRawEntry(XmlSerializer out, String ssid, Object bssid,
+            Long expiryWallClockMillis) throws Exception {
+        XmlUtil.writeNextSectionStart(out, "AnqpEntry");
+        if (ssid != null) {
+            XmlUtil.writeNextValue(out, "SSID", ssid);
+        }
+        XmlUtil.writeNextValue(out, "BSSID", bssid);
+        XmlUtil.writeNextValue(out, "HESSID", 0L);
+        XmlUtil.writeNextValue(out, "AnqpDomainId", 0);
+        if (expiryWallClockMillis != null) {
+            XmlUtil.writeNextValue(out, "ExpiryWallClockMillis", expiryWallClockMillis);
+        }
+        XmlUtil.writeNextSectionStart(out, "AnqpElements");
+        XmlUtil.writeNextValue(out, Constants.ANQPElementType.ANQPDomName.name(),
+                TEST_DOMAIN_NAME_PAYLOAD);
+        XmlUtil.writeNextSectionEnd(out, "AnqpElements");
+        XmlUtil.writeNextSectionEnd(out, "AnqpEntry");
+    }
+
+    /**
+     * Verify that a persisted entry is restored with the same elements and with the remaining
+     * part of its lifetime after a reboot.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void serializeAndDeserializeEntry() throws Exception {
+        Map<Constants.ANQPElementType, ANQPElement> elements = createParsedElements();
+        when(mDataSource.getEntries()).thenReturn(Collections.singletonList(
+                Pair.create(TEST_KEY, new ANQPData(mClock, elements, createRawPayloads()))));
+        byte[] data = serializeData();
+
+        // Reboot 10 seconds later.
+        setTime(500L, TEST_WALL_CLOCK_MS + 10_000L);
+        deserializeData(data);
+
+        ArgumentCaptor<Map<Constants.ANQPElementType, ANQPElement>> elementsCaptor =
+                ArgumentCaptor.forClass(Map.class);
+        verify(mDataSource).restoreEntry(eq(TEST_KEY), elementsCaptor.capture(), anyMap(),
+                eq(500L + ANQPData.DATA_LIFETIME_MILLISECONDS - 10_000L));
+        assertEquals(elements, elementsCaptor.getValue());
+    }
+
+    /**
+     * Verify that an entry which expired while the device was off is not restored.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deserializeExpiredEntry() throws Exception {
+        when(mDataSource.getEntries()).thenReturn(Collections.singletonList(
+                Pair.create(TEST_KEY, new ANQPData(mClock, createParsedElements(),
+                        createRawPayloads()))));
+        byte[] data = serializeData();
+
+        setTime(500L, TEST_WALL_CLOCK_MS + ANQPData.DATA_LIFETIME_MILLISECONDS);
+        deserializeData(data);
+        verify(mDataSource, never()).restoreEntry(any(), anyMap(), anyMap(), anyLong());
+    }
+
+    /**
+     * Verify that the lifetime of a restored entry is never extended when the wall clock moved
+     * backwards.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deserializeEntryAfterWallClockMovedBackwards() throws Exception {
+        when(mDataSource.getEntries()).thenReturn(Collections.singletonList(
+                Pair.create(TEST_KEY, new ANQPData(mClock, createParsedElements(),
+                        createRawPayloads()))));
+        byte[] data = serializeData();
+
+        setTime(500L, TEST_WALL_CLOCK_MS - 10_000L);
+        deserializeData(data);
+        verify(mDataSource).restoreEntry(eq(TEST_KEY), anyMap(), anyMap(),
+                eq(500L + ANQPData.DATA_LIFETIME_MILLISECONDS));
+    }
+
+    /**
+     * Verify that the raw payloads of a restored entry are handed back to the data source, so
+     * that the entry can be persisted again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deserializeEntryRestoresRawPayloads() throws Exception {
+        when(mDataSource.getEntries()).thenReturn(Collections.singletonList(
+                Pair.create(TEST_KEY, new ANQPData(mClock, createParsedElements(),
+                        createRawPayloads()))));
+        deserializeData(serializeData());
+
+        ArgumentCaptor<Map<Constants.ANQPElementType, byte[]>> rawPayloadsCaptor =
+                ArgumentCaptor.forClass(Map.class);
+        verify(mDataSource).restoreEntry(eq(TEST_KEY), anyMap(), rawPayloadsCaptor.capture(),
+                anyLong());
+        assertArrayEquals(TEST_DOMAIN_NAME_PAYLOAD,
+                rawPayloadsCaptor.getValue().get(Constants.ANQPElementType.ANQPDomName));
+        assertArrayEquals(TEST_CONN_CAPABILITY_PAYLOAD,
+                rawPayloadsCaptor.getValue().get(Constants.ANQPElementType.HSConnCapability));
+    }
+
+    /**
+     * Verify that an entry without an expiry time is skipped without failing the read, and the
+     * following entries are still restored.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void skipEntryWithoutExpiry() throws Exception {
+        deserializeData(serializeRawEntry("other", 0L, null));
+        verify(mDataSource).restoreEntry(eq(TEST_KEY), anyMap(), anyMap(), anyLong());
+        verify(mDataSource, never()).restoreEntry(eq(new ANQPNetworkKey("other", 0, 0, 0)),
+                anyMap(), anyMap(), anyLong());
+    }
+
+    /**
+     * Verify that an entry without an SSID is skipped without failing the read, and the
+     * following entries are still restored.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void skipEntryWithoutSsid() throws Exception {
+        deserializeData(serializeRawEntry(null, 0L, TEST_WALL_CLOCK_MS + 10_000L));
+        verify(mDataSource, times(1)).restoreEntry(any(), anyMap(), anyMap(), anyLong());
+        verify(mDataSource).restoreEntry(eq(TEST_KEY), anyMap(), anyMap(), anyLong());
+    }
+
+    /**
+     * Verify that an entry with a value of the wrong type is skipped without failing the read,
+     * and the following entries are still restored.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void skipEntryWithMalformedValue() throws Exception {
+        deserializeData(serializeRawEntry("other", "not a long", TEST_WALL_CLOCK_MS + 10_000L));
+        verify(mDataSource, times(1)).restoreEntry(any(), anyMap(), anyMap(), anyLong());
+        verify(mDataSource).restoreEntry(eq(TEST_KEY), anyMap(), anyMap(), anyLong());
+    }
+
+    /**
+     * Verify that entries with elements which were not parsed from the air are not persisted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void skipEntriesWithoutRawPayload() throws Exception {
+        Map<Constants.ANQPElementType, ANQPElement> elements = new HashMap<>();
+        elements.put(Constants.ANQPElementType.ANQPDomName,
+                new DomainNameElement(Arrays.asList("test.com")));
+        when(mDataSource.getEntries()).thenReturn(Collections.singletonList(
+                Pair.create(TEST_KEY, new ANQPData(mClock, elements))));
+
+        deserializeData(serializeData());
+        verify(mDataSource, never()).restoreEntry(any(), anyMap(), anyMap(), anyLong());
+    }
+
+    /**
+     * Verify that at most {@link AnqpCacheStoreData#MAX_PERSISTED_ENTRIES} entries are persisted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void limitNumberOfPersistedEntries() throws Exception {
+        List<Pair<ANQPNetworkKey, ANQPData>> entries = new ArrayList<>();
+        for (int i = 0; i <= AnqpCacheStoreData.MAX_PERSISTED_ENTRIES; i++) {
+            entries.add(Pair.create(new ANQPNetworkKey("test" + i, 0, 0, 1),
+                    new ANQPData(mClock, createParsedElements(),
+                        createRawPayloads())));
+        }
+        when(mDataSource.getEntries()).thenReturn(entries);
+
+        deserializeData(serializeData());
+        verify(mDataSource, times(AnqpCacheStoreData.MAX_PERSISTED_ENTRIES))
+                .restoreEntry(any(), anyMap(), anyMap(), anyLong());
+        verify(mDataSource, never()).restoreEntry(eq(new ANQPNetworkKey(
+                "test" + AnqpCacheStoreData.MAX_PERSISTED_ENTRIES, 0, 0, 1)), anyMap(),
+                anyMap(), anyLong());
+    }
+
+    /**
+     * Verify that the new data flag is taken from the data source.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void hasNewDataToSerialize() throws Exception {
+        when(mDataSource.hasNewData()).thenReturn(true);
+        assertTrue(mStoreData.hasNewDataToSerialize());
+        when(mDataSource.hasNewData()).thenReturn(false);
+        assertFalse(mStoreData.hasNewDataToSerialize());
+    }
+
+    /**
+     * Verify that AnqpCacheStoreData is written to
+     * {@link WifiConfigStore#STORE_FILE_NAME_SHARED_GENERAL}.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getStoreFileId() throws Exception {
+        assertEquals(WifiConfigStore.STORE_FILE_SHARED_GENERAL, mStoreData.getStoreFileId());
+    }
+}
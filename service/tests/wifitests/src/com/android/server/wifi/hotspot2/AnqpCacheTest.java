@@ -16,6 +16,7 @@
 
 package com.android.server.wifi.hotspot2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -23,6 +24,8 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
+import android.util.Pair;
+
 import androidx.test.filters.SmallTest;
 
 import com.android.server.wifi.Clock;
@@ -53,6 +56,7 @@ import java.util.Map;
 @SmallTest
 public class AnqpCacheTest extends WifiBaseTest {
     private static final ANQPNetworkKey ENTRY_KEY = new ANQPNetworkKey("test", 0L, 0L, 1);
+    private static final ANQPNetworkKey ENTRY_KEY2 = new ANQPNetworkKey("test2", 0L, 0L, 1);
     private static final String TEST_LANGUAGE = "en";
     private static final Locale TEST_LOCALE = Locale.forLanguageTag(TEST_LANGUAGE);
     private static final String TEST_VENUE_NAME1 = "Venue1";
@@ -178,4 +182,163 @@ public class AnqpCacheTest extends WifiBaseTest {
         assertTrue(data.getElements().get(Constants.ANQPElementType.ANQPVenueUrl)
                 .equals(venueUrlElement));
     }
+
+    private Map<Constants.ANQPElementType, ANQPElement> createVenueNameElements() {
+        Map<Constants.ANQPElementType, ANQPElement> anqpElements = new HashMap<>();
+        List<I18Name> nameList = new ArrayList<>();
+        nameList.add(new I18Name(TEST_LANGUAGE, TEST_LOCALE, TEST_VENUE_NAME1));
+        anqpElements.put(Constants.ANQPElementType.ANQPVenueName,
+                new VenueNameElement(nameList));
+        return anqpElements;
+    }
+
+    private Map<Constants.ANQPElementType, byte[]> createVenueNameRawPayloads() {
+        Map<Constants.ANQPElementType, byte[]> rawPayloads = new HashMap<>();
+        rawPayloads.put(Constants.ANQPElementType.ANQPVenueName, new byte[10]);
+        return rawPayloads;
+    }
+
+    /**
+     * Verify that a sweep only removes the expired entries, taking updates into account.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void sweepRemovesOnlyExpiredEntries() throws Exception {
+        mCache.addEntry(ENTRY_KEY, null);
+        mCache.addEntry(ENTRY_KEY2, null);
+        // Updating the second entry later extends its lifetime.
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(1000L);
+        mCache.addOrUpdateEntry(ENTRY_KEY2, createVenueNameElements());
+
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(ANQPData.DATA_LIFETIME_MILLISECONDS);
+        mCache.sweep();
+        assertNull(mCache.getEntry(ENTRY_KEY));
+        assertNotNull(mCache.getEntry(ENTRY_KEY2));
+        assertEquals(1, mCache.size());
+
+        when(mClock.getElapsedSinceBootMillis())
+                .thenReturn(ANQPData.DATA_LIFETIME_MILLISECONDS
+                        + AnqpCache.CACHE_SWEEP_INTERVAL_MILLISECONDS);
+        mCache.sweep();
+        assertNull(mCache.getEntry(ENTRY_KEY2));
+        assertEquals(0, mCache.size());
+        assertEquals(0, mCache.getSizeBytes());
+    }
+
+    /**
+     * Verify that the cache evicts the entries closest to expiry once it is full.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void evictEntriesClosestToExpiryWhenFull() throws Exception {
+        for (int i = 0; i <= AnqpCache.MAX_CACHE_ENTRIES; i++) {
+            when(mClock.getElapsedSinceBootMillis()).thenReturn((long) i);
+            mCache.addEntry(new ANQPNetworkKey("test" + i, 0L, 0L, 1), null);
+        }
+        assertEquals(AnqpCache.MAX_CACHE_ENTRIES, mCache.size());
+        assertNull(mCache.getEntry(new ANQPNetworkKey("test0", 0L, 0L, 1)));
+        assertNotNull(mCache.getEntry(new ANQPNetworkKey("test1", 0L, 0L, 1)));
+        assertNotNull(mCache.getEntry(
+                new ANQPNetworkKey("test" + AnqpCache.MAX_CACHE_ENTRIES, 0L, 0L, 1)));
+    }
+
+    /**
+     * Verify the estimated size accounting of the stored elements.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void trackEstimatedSize() throws Exception {
+        mCache.addEntry(ENTRY_KEY, createVenueNameElements());
+        assertEquals(AnqpCache.ELEMENT_OVERHEAD_BYTES, mCache.getSizeBytes());
+
+        // Replacing the entry does not count the old elements.
+        mCache.addEntry(ENTRY_KEY, createVenueNameElements());
+        assertEquals(AnqpCache.ELEMENT_OVERHEAD_BYTES, mCache.getSizeBytes());
+
+        Map<Constants.ANQPElementType, ANQPElement> anqpElements = new HashMap<>();
+        Map<Integer, URL> urlList = new HashMap<>();
+        urlList.put(Integer.valueOf(1), createUrlFromString(TEST_VENUE_URL1));
+        anqpElements.put(Constants.ANQPElementType.ANQPVenueUrl, new VenueUrlElement(urlList));
+        mCache.addOrUpdateEntry(ENTRY_KEY, anqpElements);
+        assertEquals(2 * AnqpCache.ELEMENT_OVERHEAD_BYTES, mCache.getSizeBytes());
+
+        mCache.flush();
+        assertEquals(0, mCache.getSizeBytes());
+    }
+
+    /**
+     * Verify that a persisted entry is restored with its expiry time, unless it expired or the
+     * cache already has a more recent entry for the same key.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void restoreEntry() throws Exception {
+        mCache.restoreEntry(ENTRY_KEY, createVenueNameElements(), createVenueNameRawPayloads(),
+                1000L);
+        assertEquals(1000L, mCache.getEntry(ENTRY_KEY).getExpiryTime());
+        assertNotNull(mCache.getEntry(ENTRY_KEY).getRawPayloads());
+
+        mCache.addEntry(ENTRY_KEY2, null);
+        mCache.restoreEntry(ENTRY_KEY2, createVenueNameElements(), createVenueNameRawPayloads(),
+                1000L);
+        assertTrue(mCache.getEntry(ENTRY_KEY2).getElements().isEmpty());
+
+        mCache.flush();
+        mCache.restoreEntry(ENTRY_KEY, createVenueNameElements(), createVenueNameRawPayloads(),
+                0L);
+        assertNull(mCache.getEntry(ENTRY_KEY));
+    }
+
+    /**
+     * Verify that the entries to persist are returned latest expiry first and that the new data
+     * flag is cleared once they are retrieved.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getEntriesToPersist() throws Exception {
+        assertFalse(mCache.hasNewDataToPersist());
+        mCache.addEntry(ENTRY_KEY, createVenueNameElements(), createVenueNameRawPayloads());
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(1000L);
+        mCache.addEntry(ENTRY_KEY2, createVenueNameElements(), createVenueNameRawPayloads());
+        assertTrue(mCache.hasNewDataToPersist());
+
+        List<Pair<ANQPNetworkKey, ANQPData>> entries = mCache.getEntriesToPersist();
+        assertEquals(2, entries.size());
+        assertEquals(ENTRY_KEY2, entries.get(0).first);
+        assertEquals(ENTRY_KEY, entries.get(1).first);
+        assertFalse(mCache.hasNewDataToPersist());
+
+        mCache.flush();
+        assertTrue(mCache.hasNewDataToPersist());
+        assertTrue(mCache.getEntriesToPersist().isEmpty());
+    }
+
+    /**
+     * Verify that raw payloads are only kept when provided, are counted in the estimated size,
+     * and are dropped once the entry is updated with elements that come without theirs.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void keepRawPayloadsOnlyWhenProvided() throws Exception {
+        mCache.addEntry(ENTRY_KEY, createVenueNameElements());
+        assertNull(mCache.getEntry(ENTRY_KEY).getRawPayloads());
+        assertTrue(mCache.getEntriesToPersist().isEmpty());
+
+        mCache.addOrUpdateEntry(ENTRY_KEY2, createVenueNameElements(),
+                createVenueNameRawPayloads());
+        assertNotNull(mCache.getEntry(ENTRY_KEY2).getRawPayloads());
+        assertEquals(2 * AnqpCache.ELEMENT_OVERHEAD_BYTES + 10, mCache.getSizeBytes());
+        assertEquals(1, mCache.getEntriesToPersist().size());
+
+        mCache.addOrUpdateEntry(ENTRY_KEY2, createVenueNameElements());
+        assertNull(mCache.getEntry(ENTRY_KEY2).getRawPayloads());
+        assertEquals(2 * AnqpCache.ELEMENT_OVERHEAD_BYTES, mCache.getSizeBytes());
+        assertTrue(mCache.getEntriesToPersist().isEmpty());
+    }
 }
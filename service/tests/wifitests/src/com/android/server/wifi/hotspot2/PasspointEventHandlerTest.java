@@ -158,7 +158,7 @@ public class PasspointEventHandlerTest extends WifiBaseTest {
     @Test
     public void anqpRequestCompletedWithError() {
         mHandler.notifyANQPDone(new AnqpEvent(BSSID, null));
-        verify(mCallbacks).onANQPResponse(BSSID, null);
+        verify(mCallbacks).onANQPResponse(BSSID, null, null);
     }
 
     /**
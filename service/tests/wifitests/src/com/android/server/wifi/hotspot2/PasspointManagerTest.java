@@ -29,6 +29,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -93,6 +94,7 @@ import com.android.server.wifi.WifiCarrierInfoManager;
 import com.android.server.wifi.WifiConfigManager;
 import com.android.server.wifi.WifiConfigStore;
 import com.android.server.wifi.WifiConfigurationTestUtil;
+import com.android.server.wifi.WifiGlobals;
 import com.android.server.wifi.WifiInjector;
 import com.android.server.wifi.WifiKeyStore;
 import com.android.server.wifi.WifiMetrics;
@@ -224,6 +226,7 @@ public class PasspointManagerTest extends WifiBaseTest {
     @Mock MacAddressUtil mMacAddressUtil;
     @Mock WifiPermissionsUtil mWifiPermissionsUtil;
     @Mock DeviceConfigFacade mDeviceConfigFacade;
+    @Mock WifiGlobals mWifiGlobals;
     @Mock ActivityManager mActivityManager;
 
     RunnerHandler mHandler;
@@ -251,6 +254,7 @@ public class PasspointManagerTest extends WifiBaseTest {
     public void setUp() throws Exception {
         initMocks(this);
         when(mWifiInjector.getDeviceConfigFacade()).thenReturn(mDeviceConfigFacade);
+        when(mWifiInjector.getWifiGlobals()).thenReturn(mWifiGlobals);
         when(mObjectFactory.makeAnqpCache(mClock)).thenReturn(mAnqpCache);
         when(mObjectFactory.makeANQPRequestManager(any(), eq(mClock), any(), any()))
                 .thenReturn(mAnqpRequestManager);
@@ -523,13 +527,36 @@ public class PasspointManagerTest extends WifiBaseTest {
         anqpElementMap.put(ANQPElementType.ANQPDomName,
                 new DomainNameElement(Arrays.asList(new String[] {"test.com"})));
 
+        Map<ANQPElementType, byte[]> rawPayloads = new HashMap<>();
+        rawPayloads.put(ANQPElementType.ANQPDomName, new byte[] {0x00});
+
         when(mAnqpRequestManager.onRequestCompleted(TEST_BSSID, true)).thenReturn(TEST_ANQP_KEY);
-        mCallbacks.onANQPResponse(TEST_BSSID, anqpElementMap);
-        verify(mAnqpCache).addOrUpdateEntry(TEST_ANQP_KEY, anqpElementMap);
+        mCallbacks.onANQPResponse(TEST_BSSID, anqpElementMap, rawPayloads);
+        verify(mAnqpCache).addOrUpdateEntry(TEST_ANQP_KEY, anqpElementMap, null);
         verify(mContext, never()).sendBroadcastAsUser(any(Intent.class), any(UserHandle.class),
                 any(String.class));
     }
 
+    /**
+     * Verify that the raw payloads of an ANQP response are only kept in the ANQP cache when
+     * the cache is persisted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void anqpResponseSuccessKeepsRawPayloadsWhenPersisting() throws Exception {
+        Map<ANQPElementType, ANQPElement> anqpElementMap = new HashMap<>();
+        anqpElementMap.put(ANQPElementType.ANQPDomName,
+                new DomainNameElement(Arrays.asList(new String[] {"test.com"})));
+        Map<ANQPElementType, byte[]> rawPayloads = new HashMap<>();
+        rawPayloads.put(ANQPElementType.ANQPDomName, new byte[] {0x00});
+        when(mWifiGlobals.isAnqpCachePersistenceEnabled()).thenReturn(true);
+
+        when(mAnqpRequestManager.onRequestCompleted(TEST_BSSID, true)).thenReturn(TEST_ANQP_KEY);
+        mCallbacks.onANQPResponse(TEST_BSSID, anqpElementMap, rawPayloads);
+        verify(mAnqpCache).addOrUpdateEntry(TEST_ANQP_KEY, anqpElementMap, rawPayloads);
+    }
+
     /**
      * Verify that no ANQP elements will be added to the ANQP cache on receiving a successful
      * response for a request that's not sent by us.
@@ -543,8 +570,8 @@ public class PasspointManagerTest extends WifiBaseTest {
                 new DomainNameElement(Arrays.asList(new String[] {"test.com"})));
 
         when(mAnqpRequestManager.onRequestCompleted(TEST_BSSID, true)).thenReturn(null);
-        mCallbacks.onANQPResponse(TEST_BSSID, anqpElementMap);
-        verify(mAnqpCache, never()).addOrUpdateEntry(any(ANQPNetworkKey.class), anyMap());
+        mCallbacks.onANQPResponse(TEST_BSSID, anqpElementMap, null);
+        verify(mAnqpCache, never()).addOrUpdateEntry(any(ANQPNetworkKey.class), anyMap(), any());
     }
 
     /**
@@ -555,8 +582,8 @@ public class PasspointManagerTest extends WifiBaseTest {
     @Test
     public void anqpResponseFailure() throws Exception {
         when(mAnqpRequestManager.onRequestCompleted(TEST_BSSID, false)).thenReturn(TEST_ANQP_KEY);
-        mCallbacks.onANQPResponse(TEST_BSSID, null);
-        verify(mAnqpCache, never()).addOrUpdateEntry(any(ANQPNetworkKey.class), anyMap());
+        mCallbacks.onANQPResponse(TEST_BSSID, null, null);
+        verify(mAnqpCache, never()).addOrUpdateEntry(any(ANQPNetworkKey.class), any(), any());
 
     }
 
@@ -628,6 +655,38 @@ public class PasspointManagerTest extends WifiBaseTest {
         verify(mWifiMetrics, never()).incrementNumPasspointProviderInstallSuccess();
     }
 
+    /**
+     * Verify that the Passpoint store data only has new data to serialize after the providers or
+     * the provider index changed.
+     */
+    @Test
+    public void storeDataHasNewDataToSerializeOnlyAfterChange() throws Exception {
+        assertFalse(mUserDataSource.hasNewDataToSerialize());
+        assertFalse(mSharedDataSource.hasNewDataToSerialize());
+
+        PasspointConfiguration config = createTestConfigWithUserCredential(TEST_FQDN,
+                TEST_FRIENDLY_NAME);
+        PasspointProvider provider = createMockProvider(config);
+        when(mObjectFactory.makePasspointProvider(eq(config), eq(mWifiKeyStore),
+                eq(mWifiCarrierInfoManager), anyLong(), eq(TEST_CREATOR_UID), eq(TEST_PACKAGE),
+                eq(false), eq(mClock))).thenReturn(provider);
+        assertTrue(mManager.addOrUpdateProvider(config, TEST_CREATOR_UID, TEST_PACKAGE,
+                false, true, false));
+        assertTrue(mUserDataSource.hasNewDataToSerialize());
+        assertTrue(mSharedDataSource.hasNewDataToSerialize());
+
+        mUserDataSource.getProviders();
+        mSharedDataSource.getProviderIndex();
+        assertFalse(mUserDataSource.hasNewDataToSerialize());
+        assertFalse(mSharedDataSource.hasNewDataToSerialize());
+
+        // The first connection is persisted without a write of its own.
+        when(provider.getHasEverConnected()).thenReturn(false);
+        mManager.onPasspointNetworkConnected(config.getUniqueId(), TEST_SSID);
+        assertTrue(mUserDataSource.hasNewDataToSerialize());
+        assertFalse(mSharedDataSource.hasNewDataToSerialize());
+    }
+
     /**
      * Verify that adding a user saved provider with a valid configuration and user credential will
      * succeed.
@@ -1078,7 +1137,7 @@ public class PasspointManagerTest extends WifiBaseTest {
             // Verify that a request for ANQP elements is initiated.
             verify(mAnqpRequestManager).requestANQPElements(eq(TEST_BSSID),
                     any(ANQPNetworkKey.class),
-                    anyBoolean(), any(NetworkDetail.HSRelease.class));
+                    anyBoolean(), any(NetworkDetail.HSRelease.class), anyInt(), anyBoolean());
         } finally {
             session.finishMocking();
         }
@@ -1096,7 +1155,8 @@ public class PasspointManagerTest extends WifiBaseTest {
         ANQPData entry = new ANQPData(mClock, null);
 
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
-        when(provider.match(anyMap(), any(RoamingConsortium.class), any(ScanResult.class)))
+        when(provider.match(any(ANQPData.class), any(RoamingConsortium.class),
+                any(ScanResult.class)))
             .thenReturn(PasspointMatch.HomeProvider);
         List<Pair<PasspointProvider, PasspointMatch>> results =
                 mManager.matchProvider(createTestScanResult());
@@ -1117,7 +1177,8 @@ public class PasspointManagerTest extends WifiBaseTest {
         ANQPData entry = new ANQPData(mClock, null);
 
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
-        when(provider.match(anyMap(), any(RoamingConsortium.class), any(ScanResult.class)))
+        when(provider.match(any(ANQPData.class), any(RoamingConsortium.class),
+                any(ScanResult.class)))
             .thenReturn(PasspointMatch.RoamingProvider);
         List<Pair<PasspointProvider, PasspointMatch>> results =
                 mManager.matchProvider(createTestScanResult());
@@ -1138,7 +1199,8 @@ public class PasspointManagerTest extends WifiBaseTest {
         ANQPData entry = new ANQPData(mClock, null);
 
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
-        when(provider.match(anyMap(), any(RoamingConsortium.class), any(ScanResult.class)))
+        when(provider.match(any(ANQPData.class), any(RoamingConsortium.class),
+                any(ScanResult.class)))
             .thenReturn(PasspointMatch.None);
         assertTrue(mManager.matchProvider(createTestScanResult()).isEmpty());
     }
@@ -1150,8 +1212,18 @@ public class PasspointManagerTest extends WifiBaseTest {
      */
     @Test
     public void sweepCache() throws Exception {
+        PasspointProvider provider =
+                addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
         mManager.sweepCache();
         verify(mAnqpCache).sweep();
+        verify(provider, never()).retainAnqpMatches(any());
+
+        // The match results of the providers are only swept along with the ANQP cache.
+        Set<Long> anqpGenerations = new HashSet<>(Arrays.asList(1L, 2L));
+        when(mAnqpCache.sweep()).thenReturn(true);
+        when(mAnqpCache.getGenerations()).thenReturn(anqpGenerations);
+        mManager.sweepCache();
+        verify(provider).retainAnqpMatches(anqpGenerations);
     }
 
     /**
@@ -1162,7 +1234,11 @@ public class PasspointManagerTest extends WifiBaseTest {
     @Test
     public void getANQPElementsWithNoMatchFound() throws Exception {
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(null);
-        assertTrue(mManager.getANQPElements(createTestScanResult()).isEmpty());
+        Map<ANQPElementType, ANQPElement> anqpElements =
+                mManager.getANQPElements(createTestScanResult());
+        assertTrue(anqpElements.isEmpty());
+        // Misses share one map rather than allocating a new one per lookup.
+        assertSame(anqpElements, mManager.getANQPElements(createTestScanResult()));
     }
 
     /**
@@ -1203,7 +1279,7 @@ public class PasspointManagerTest extends WifiBaseTest {
 
             when(mAnqpCache.getEntry(TEST_ANQP_KEY2)).thenReturn(entry);
             when(InformationElementUtil.getHS2VendorSpecificIE(isNull())).thenReturn(vsa);
-            when(provider.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(provider.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.HomeProvider);
 
             List<Pair<PasspointProvider, PasspointMatch>> matchedProviders =
@@ -1242,11 +1318,11 @@ public class PasspointManagerTest extends WifiBaseTest {
 
             when(mAnqpCache.getEntry(TEST_ANQP_KEY2)).thenReturn(entry);
             when(InformationElementUtil.getHS2VendorSpecificIE(isNull())).thenReturn(vsa);
-            when(providerHome.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerHome.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.HomeProvider);
-            when(providerRoaming.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerRoaming.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.RoamingProvider);
-            when(providerNone.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerNone.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.None);
 
             Map<String, Map<Integer, List<ScanResult>>> configs =
@@ -2372,11 +2448,11 @@ public class PasspointManagerTest extends WifiBaseTest {
 
             when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
             when(InformationElementUtil.getHS2VendorSpecificIE(isNull())).thenReturn(vsa);
-            when(providerHome.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerHome.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.HomeProvider);
-            when(providerRoaming.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerRoaming.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.RoamingProvider);
-            when(providerNone.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerNone.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.None);
 
             List<Pair<PasspointProvider, PasspointMatch>> results =
@@ -2422,11 +2498,11 @@ public class PasspointManagerTest extends WifiBaseTest {
 
             when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
             when(InformationElementUtil.getHS2VendorSpecificIE(isNull())).thenReturn(vsa);
-            when(providerHome.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerHome.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.HomeProvider);
-            when(providerRoaming.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerRoaming.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.RoamingProvider);
-            when(providerNone.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerNone.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.None);
 
             List<Pair<PasspointProvider, PasspointMatch>> results =
@@ -2474,11 +2550,11 @@ public class PasspointManagerTest extends WifiBaseTest {
 
             when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
             when(InformationElementUtil.getHS2VendorSpecificIE(isNull())).thenReturn(vsa);
-            when(providerHome.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerHome.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.HomeProvider);
-            when(providerRoaming.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerRoaming.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.RoamingProvider);
-            when(providerNone.match(anyMap(), isNull(), any(ScanResult.class)))
+            when(providerNone.match(any(ANQPData.class), isNull(), any(ScanResult.class)))
                     .thenReturn(PasspointMatch.None);
 
             List<Pair<PasspointProvider, PasspointMatch>> results =
@@ -2647,7 +2723,8 @@ public class PasspointManagerTest extends WifiBaseTest {
         reset(mWifiConfigManager);
         when(mAnqpCache.getEntry(TEST_ANQP_KEY2)).thenReturn(null);
         verify(mAnqpRequestManager, never()).requestANQPElements(any(long.class),
-                any(ANQPNetworkKey.class), any(boolean.class), any(NetworkDetail.HSRelease.class));
+                any(ANQPNetworkKey.class), any(boolean.class), any(NetworkDetail.HSRelease.class),
+                anyInt(), anyBoolean());
     }
 
     /**
@@ -3109,6 +3186,20 @@ public class PasspointManagerTest extends WifiBaseTest {
         verify(provider).clearProviderBlock();
     }
 
+    /**
+     * Verify that Passpoint manager clears states without flushing the ANQP cache.
+     */
+    @Test
+    public void testClearAnqpRequests() throws Exception {
+        PasspointProvider provider = addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME,
+                TEST_PACKAGE, false, TEST_REALM, false);
+
+        mManager.clearAnqpRequests();
+        verify(mAnqpRequestManager).clear();
+        verify(mAnqpCache, never()).flush();
+        verify(provider).clearProviderBlock();
+    }
+
     /**
      * Verify that when Passpoint manager is enabled/disabled the WifiSettingsStore is updated
      * with correct value.
@@ -3143,7 +3234,8 @@ public class PasspointManagerTest extends WifiBaseTest {
                 addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
         ANQPData entry = new ANQPData(mClock, null);
 
-        when(provider.match(anyMap(), any(RoamingConsortium.class), any(ScanResult.class)))
+        when(provider.match(any(ANQPData.class), any(RoamingConsortium.class),
+                any(ScanResult.class)))
                 .thenReturn(PasspointMatch.HomeProvider);
 
         // Disable the Wifi Passpoint and expect the matchProvider to return empty list.
@@ -3156,7 +3248,8 @@ public class PasspointManagerTest extends WifiBaseTest {
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(null);
         assertTrue(mManager.getAllMatchedProviders(createTestScanResult()).isEmpty());
         verify(mAnqpRequestManager, never()).requestANQPElements(any(long.class),
-                any(ANQPNetworkKey.class), any(boolean.class), any(NetworkDetail.HSRelease.class));
+                any(ANQPNetworkKey.class), any(boolean.class), any(NetworkDetail.HSRelease.class),
+                anyInt(), anyBoolean());
 
         // Enable the Wifi Passpoint and expect the matchProvider to return matched result.
         when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
@@ -3173,7 +3266,7 @@ public class PasspointManagerTest extends WifiBaseTest {
         // ANQP cache misses, still no result.
         assertTrue(mManager.getAllMatchedProviders(createTestScanResult()).isEmpty());
         verify(mAnqpRequestManager).requestANQPElements(eq(TEST_BSSID),
-                any(ANQPNetworkKey.class), anyBoolean(), any());
+                any(ANQPNetworkKey.class), anyBoolean(), any(), anyInt(), anyBoolean());
     }
 }
 
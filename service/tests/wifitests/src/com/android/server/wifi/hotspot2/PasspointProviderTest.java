@@ -20,7 +20,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -814,6 +818,101 @@ public class PasspointProviderTest extends WifiBaseTest {
         assertEquals(0, mProvider.getAndRemoveMatchedRcoi(TEST_SSID_QUOTED));
     }
 
+    /**
+     * Verify that matching the same ANQP elements again returns the same result and still
+     * records the selected RCOI, and that different elements are matched again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void matchSameAnqpElementsAgain() throws Exception {
+        PasspointConfiguration config = generateTestPasspointConfiguration(
+                CredentialType.SIM, false);
+        mProvider = createProvider(config);
+        when(mWifiCarrierInfoManager.getMatchingImsiCarrierId(
+                eq(config.getCredential().getSimCredential().getImsi())))
+                .thenReturn(new Pair<String, Integer>(TEST_IMSI, VALID_CARRIER_ID));
+
+        Map<ANQPElementType, ANQPElement> anqpElementMap = new HashMap<>();
+        anqpElementMap.put(ANQPElementType.ANQPRoamingConsortium,
+                createRoamingConsortiumElement(TEST_ANQP_RC_OIS));
+        ANQPData anqpData = new ANQPData(mClock, anqpElementMap);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(PasspointMatch.RoamingProvider,
+                    mProvider.match(anqpData, mRoamingConsortium, createTestScanResult()));
+            assertEquals(TEST_IE_RC_OIS[0],
+                    mProvider.getAndRemoveMatchedRcoi(TEST_SSID_QUOTED));
+        }
+
+        assertEquals(PasspointMatch.None, mProvider.match(new ANQPData(mClock, null),
+                mRoamingConsortium, createTestScanResult()));
+        assertEquals(0, mProvider.getAndRemoveMatchedRcoi(TEST_SSID_QUOTED));
+
+        // The SIM is still checked on every match.
+        when(mWifiCarrierInfoManager.getMatchingImsiCarrierId(
+                eq(config.getCredential().getSimCredential().getImsi())))
+                .thenReturn(null);
+        assertEquals(PasspointMatch.None,
+                mProvider.match(anqpData, mRoamingConsortium, createTestScanResult()));
+    }
+
+    /**
+     * Verify that the cached match result of an ANQP cache entry is dropped once the entry is
+     * gone from the ANQP cache, and that an updated entry is matched again.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void matchAgainAfterAnqpEntryIsGoneOrUpdated() throws Exception {
+        mProvider = createProvider(generateTestPasspointConfiguration(CredentialType.USER,
+                false));
+        DomainNameElement domainNameElement =
+                spy(createDomainNameElement(new String[]{TEST_FQDN}));
+        ANQPData anqpData = new ANQPData(mClock,
+                Collections.singletonMap(ANQPElementType.ANQPDomName, domainNameElement));
+        assertEquals(PasspointMatch.HomeProvider,
+                mProvider.match(anqpData, mRoamingConsortium, createTestScanResult()));
+        verify(domainNameElement, atLeastOnce()).getDomains();
+
+        // Entry still in the ANQP cache, the result is kept.
+        clearInvocations(domainNameElement);
+        mProvider.retainAnqpMatches(Collections.singleton(anqpData.getGeneration()));
+        assertEquals(PasspointMatch.HomeProvider,
+                mProvider.match(anqpData, mRoamingConsortium, createTestScanResult()));
+        verify(domainNameElement, never()).getDomains();
+
+        // Entry gone, the elements are matched again.
+        mProvider.retainAnqpMatches(Collections.emptySet());
+        assertEquals(PasspointMatch.HomeProvider,
+                mProvider.match(anqpData, mRoamingConsortium, createTestScanResult()));
+        verify(domainNameElement, atLeastOnce()).getDomains();
+
+        // Entry updated with elements which don't match.
+        anqpData.update(Collections.singletonMap(ANQPElementType.ANQPDomName,
+                createDomainNameElement(new String[]{"other.com"})));
+        assertEquals(PasspointMatch.None,
+                mProvider.match(anqpData, mRoamingConsortium, createTestScanResult()));
+    }
+
+    /**
+     * Verify that an AP advertising one of the OIs of the provider in its beacon is detected.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void isAdvertisingProviderOi() throws Exception {
+        mProvider = createProvider(generateTestPasspointConfiguration(CredentialType.USER, false));
+        assertFalse(mProvider.isAdvertisingProviderOi(mRoamingConsortium));
+
+        when(mRoamingConsortium.getRoamingConsortiums())
+                .thenReturn(new long[] {0x5678L, TEST_RC_OIS[1]});
+        assertTrue(mProvider.isAdvertisingProviderOi(mRoamingConsortium));
+
+        when(mRoamingConsortium.getRoamingConsortiums()).thenReturn(new long[] {0x5678L});
+        assertFalse(mProvider.isAdvertisingProviderOi(mRoamingConsortium));
+    }
+
     /**
      * Verify that a provider is a roaming provider when a roaming consortium OI matches an OI in
      * the roaming consortium ANQP element and the provider's credential matches the NAI realm
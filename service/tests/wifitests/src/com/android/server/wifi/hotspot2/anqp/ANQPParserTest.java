@@ -283,6 +283,19 @@ public class ANQPParserTest extends WifiBaseTest {
                 ANQPParser.parseElement(Constants.ANQPElementType.ANQPVenueName, buffer));
     }
 
+    /**
+     * Verify that the parsed element records the length of the payload it was parsed from.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parseElementRecordsPayloadLength() throws Exception {
+        byte[] payload = getDomainNamePayload(new String[] {"test.com", "abc.com"});
+        ANQPElement element = ANQPParser.parseElement(Constants.ANQPElementType.ANQPDomName,
+                ByteBuffer.wrap(payload));
+        assertEquals(payload.length, element.getPayloadLength());
+    }
+
     /**
      * Verify that an expected IPAddressTypeAvailabilityElement will be returned when parsing a
      * buffer that contained an IP Address Type Availability ANQP element.
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.rtt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import android.net.wifi.rtt.RangingRequest;
+import android.net.wifi.rtt.RangingResult;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.Clock;
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * Unit test harness for RttResultCache
+ */
+@SmallTest
+public class RttResultCacheTest extends WifiBaseTest {
+    private static final long FRESHNESS_MS = 1000;
+
+    @Mock Clock mClock;
+    private RttResultCache mDut;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(0L);
+        mDut = new RttResultCache(mClock);
+    }
+
+    /**
+     * Validate that results are served until they are no longer fresh.
+     */
+    @Test
+    public void testResultsServedWhileFresh() {
+        RangingRequest request = RttTestUtils.getDummyRangingRequestNo80211mcSupport((byte) 1);
+        List<RangingResult> halResults = RttTestUtils.getDummyRangingResults(request).first;
+        mDut.putResults(request, halResults, FRESHNESS_MS);
+
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(FRESHNESS_MS - 1);
+        assertEquals(halResults, mDut.getResults(request));
+
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(FRESHNESS_MS);
+        assertNull(mDut.getResults(request));
+    }
+
+    /**
+     * Validate that a request is only served if all of its peers have a cached result, and that
+     * results of Aware peers are not cached.
+     */
+    @Test
+    public void testPartialAndAwareResultsNotServed() {
+        RangingRequest request = RttTestUtils.getDummyRangingRequest((byte) 1);
+        mDut.putResults(request, RttTestUtils.getDummyRangingResults(request).first,
+                FRESHNESS_MS);
+        RangingRequest apOnlyRequest = new RangingRequest.Builder()
+                .addResponders(request.mRttPeers.subList(0, 2))
+                .setRttBurstSize(request.getRttBurstSize())
+                .build();
+
+        assertEquals(2, mDut.size());
+        assertEquals(2, mDut.getResults(apOnlyRequest).size());
+        assertNull(mDut.getResults(request));
+    }
+
+    /**
+     * Validate that results are keyed by the request parameters.
+     */
+    @Test
+    public void testResultsKeyedByBurstSize() {
+        RangingRequest request = RttTestUtils.getDummyRangingRequestMcOnly((byte) 1);
+        mDut.putResults(request, RttTestUtils.getDummyRangingResults(request).first,
+                FRESHNESS_MS);
+
+        RangingRequest otherBurstSize = new RangingRequest.Builder()
+                .addResponders(request.mRttPeers)
+                .setRttBurstSize(RangingRequest.getMaxRttBurstSize())
+                .build();
+        assertNull(mDut.getResults(otherBurstSize));
+        assertEquals(1, mDut.getResults(request).size());
+    }
+
+    /**
+     * Validate that failed results are not cached and that the cache is bounded.
+     */
+    @Test
+    public void testFailedResultsNotCachedAndCacheBounded() {
+        RangingRequest request = RttTestUtils.getDummyRangingRequestMcOnly((byte) 1);
+        RangingResult failure = new RangingResult(RangingResult.STATUS_FAIL,
+                request.mRttPeers.get(0).macAddress, 0, 0, 0, 0, 0, null, null, null, 0, false,
+                RangingResult.UNSPECIFIED, RangingResult.UNSPECIFIED);
+        mDut.putResults(request, List.of(failure), FRESHNESS_MS);
+        assertEquals(0, mDut.size());
+
+        for (int i = 0; i < RttResultCache.MAX_CACHE_SIZE + 1; ++i) {
+            RangingRequest r = RttTestUtils.getDummyRangingRequestMcOnly((byte) i);
+            mDut.putResults(r, RttTestUtils.getDummyRangingResults(r).first, FRESHNESS_MS);
+        }
+        assertEquals(RttResultCache.MAX_CACHE_SIZE, mDut.size());
+        assertNull(mDut.getResults(RttTestUtils.getDummyRangingRequestMcOnly((byte) 0)));
+    }
+
+    /**
+     * Validate that the hit rate is dumped.
+     */
+    @Test
+    public void testDumpHitRate() {
+        RangingRequest request = RttTestUtils.getDummyRangingRequestMcOnly((byte) 1);
+        mDut.putResults(request, RttTestUtils.getDummyRangingResults(request).first,
+                FRESHNESS_MS);
+        mDut.getResults(request);
+        mDut.getResults(RttTestUtils.getDummyRangingRequestMcOnly((byte) 2));
+
+        StringWriter sw = new StringWriter();
+        mDut.dump(new PrintWriter(sw));
+        assertTrue(sw.toString(), sw.toString().contains("hits=1, misses=1, hitRate=50%"));
+    }
+}
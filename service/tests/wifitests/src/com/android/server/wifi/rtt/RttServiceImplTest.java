@@ -1040,6 +1040,165 @@ public class RttServiceImplTest extends WifiBaseTest {
                 mAlarmManager.getAlarmManager());
     }
 
+    /**
+     * Validate that requests queued while ranging is in progress are batched into a single HAL
+     * request, that a peer shared by the requests is only ranged once and that the results are
+     * fanned out to each requester.
+     */
+    @Test
+    public void testBatchedRangingFlow() throws Exception {
+        mMockResources.setBoolean(R.bool.config_wifiRttBatchRangingRequests, true);
+        IRttCallback mockCallback2 = mock(IRttCallback.class);
+        IRttCallback mockCallback3 = mock(IRttCallback.class);
+        // all requests include the same Aware peer
+        RangingRequest request1 = RttTestUtils.getDummyRangingRequest((byte) 1);
+        RangingRequest request2 = RttTestUtils.getDummyRangingRequest((byte) 2);
+        RangingRequest request3 = RttTestUtils.getDummyRangingRequest((byte) 3);
+
+        // (1) request 3 ranging operations
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request1,
+                mockCallback, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request2,
+                mockCallback2, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request3,
+                mockCallback3, mExtras);
+        mMockLooper.dispatchAll();
+
+        // (2) request 1 is executed on its own since it was the only one queued
+        verify(mockRttControllerHal).rangeRequest(mIntCaptor.capture(), eq(request1));
+        mRangingResultsCbCaptor.getValue().onRangingResults(mIntCaptor.getValue(),
+                RttTestUtils.getDummyRangingResults(request1).first);
+        mMockLooper.dispatchAll();
+        verify(mockCallback).onRangingResults(any());
+
+        // (3) requests 2 and 3 are executed together, the shared peer is ranged once
+        verify(mockRttControllerHal, times(2)).rangeRequest(mIntCaptor.capture(),
+                mRequestCaptor.capture());
+        RangingRequest batchedRequest = mRequestCaptor.getValue();
+        assertEquals(request2.mRttPeers.size() + request3.mRttPeers.size() - 1,
+                batchedRequest.mRttPeers.size());
+        for (ResponderConfig peer : request2.mRttPeers) {
+            assertTrue(batchedRequest.mRttPeers.contains(peer));
+        }
+        for (ResponderConfig peer : request3.mRttPeers) {
+            assertTrue(batchedRequest.mRttPeers.contains(peer));
+        }
+
+        // (4) HAL calls back with the results of the batch: each requester gets its own results
+        mRangingResultsCbCaptor.getValue().onRangingResults(mIntCaptor.getValue(),
+                RttTestUtils.getDummyRangingResults(batchedRequest).first);
+        mMockLooper.dispatchAll();
+        verify(mockCallback2).onRangingResults(mListCaptor.capture());
+        verifyResultsMatchRequest(request2, mListCaptor.getValue());
+        verify(mockCallback3).onRangingResults(mListCaptor.capture());
+        verifyResultsMatchRequest(request3, mListCaptor.getValue());
+
+        // verify metrics: the results of the HAL request are recorded once
+        verify(mockMetrics, times(3)).recordOverallStatus(
+                WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordResult(eq(batchedRequest), any(), anyInt());
+        verifyNoMoreInteractions(mockRttControllerHal, mockCallback, mockCallback2,
+                mockCallback3);
+    }
+
+    /**
+     * Validate that the death of one of the batched requesters doesn't cancel the HAL request
+     * which is still needed by the other requesters.
+     */
+    @Test
+    public void testBinderDeathOfBatchedRangingApp() throws Exception {
+        mMockResources.setBoolean(R.bool.config_wifiRttBatchRangingRequests, true);
+        IRttCallback mockCallback2 = mock(IRttCallback.class);
+        IRttCallback mockCallback3 = mock(IRttCallback.class);
+        RangingRequest request1 = RttTestUtils.getDummyRangingRequest((byte) 1);
+        RangingRequest request2 = RttTestUtils.getDummyRangingRequest((byte) 2);
+        RangingRequest request3 = RttTestUtils.getDummyRangingRequest((byte) 3);
+
+        // (1) request 3 ranging operations from different UIDs, and complete the first one
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request1,
+                mockCallback, mExtras);
+        mDut.fakeUid = mDefaultUid + 1;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request2,
+                mockCallback2, mExtras);
+        mDut.fakeUid = mDefaultUid + 2;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request3,
+                mockCallback3, mExtras);
+        mMockLooper.dispatchAll();
+        verify(mockIbinder, times(3)).linkToDeath(mDeathRecipientCaptor.capture(), anyInt());
+        verify(mockRttControllerHal).rangeRequest(mIntCaptor.capture(), eq(request1));
+        mRangingResultsCbCaptor.getValue().onRangingResults(mIntCaptor.getValue(),
+                RttTestUtils.getDummyRangingResults(request1).first);
+        mMockLooper.dispatchAll();
+        verify(mockRttControllerHal, times(2)).rangeRequest(mIntCaptor.capture(),
+                mRequestCaptor.capture());
+        int batchCmdId = mIntCaptor.getValue();
+
+        // (2) the requester of request 2 dies: the batched HAL request is not cancelled
+        mDeathRecipientCaptor.getAllValues().get(1).binderDied();
+        mMockLooper.dispatchAll();
+        verify(mockRttControllerHal, never()).rangeCancel(anyInt(), any());
+
+        // (3) HAL calls back with the results: only request 3 gets them
+        mRangingResultsCbCaptor.getValue().onRangingResults(batchCmdId,
+                RttTestUtils.getDummyRangingResults(mRequestCaptor.getValue()).first);
+        mMockLooper.dispatchAll();
+        verify(mockCallback3).onRangingResults(mListCaptor.capture());
+        verifyResultsMatchRequest(request3, mListCaptor.getValue());
+        verify(mockCallback2, never()).onRangingResults(any());
+
+        // (4) the requester of request 3 dies while nothing is executing: nothing to cancel
+        mDeathRecipientCaptor.getAllValues().get(2).binderDied();
+        mMockLooper.dispatchAll();
+        verify(mockRttControllerHal, never()).rangeCancel(anyInt(), any());
+    }
+
+    /**
+     * Validate that a request to the same AP responders within the result cache freshness window
+     * is served from the cache without ranging again, and that it is ranged once stale.
+     */
+    @Test
+    public void testRangingServedFromResultCache() throws Exception {
+        mMockResources.setInteger(R.integer.config_wifiRttResultCacheFreshnessMs, 1000);
+        RangingRequest request = RttTestUtils.getDummyRangingRequestNo80211mcSupport((byte) 1);
+        IRttCallback mockCallback2 = mock(IRttCallback.class);
+        IRttCallback mockCallback3 = mock(IRttCallback.class);
+
+        // (1) request is ranged and its results are cached
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request,
+                mockCallback, mExtras);
+        mMockLooper.dispatchAll();
+        verify(mockRttControllerHal).rangeRequest(mIntCaptor.capture(), eq(request));
+        mRangingResultsCbCaptor.getValue().onRangingResults(mIntCaptor.getValue(),
+                RttTestUtils.getDummyRangingResults(request).first);
+        mMockLooper.dispatchAll();
+        verify(mockCallback).onRangingResults(any());
+
+        // (2) identical request within the freshness window is served from the cache
+        when(mockClock.getElapsedSinceBootMillis()).thenReturn(999L);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request,
+                mockCallback2, mExtras);
+        mMockLooper.dispatchAll();
+        verify(mockCallback2).onRangingResults(mListCaptor.capture());
+        verifyResultsMatchRequest(request, mListCaptor.getValue());
+        verify(mockRttControllerHal).rangeRequest(anyInt(), any());
+
+        // (3) identical request once the results are stale is ranged again
+        when(mockClock.getElapsedSinceBootMillis()).thenReturn(1000L);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request,
+                mockCallback3, mExtras);
+        mMockLooper.dispatchAll();
+        verify(mockRttControllerHal, times(2)).rangeRequest(anyInt(), eq(request));
+        verify(mockCallback3, never()).onRangingResults(any());
+    }
+
+    private void verifyResultsMatchRequest(RangingRequest request, List<RangingResult> results) {
+        assertEquals(request.mRttPeers.size(), results.size());
+        for (int i = 0; i < results.size(); ++i) {
+            assertEquals(RangingResult.STATUS_SUCCESS, results.get(i).getStatus());
+            assertEquals(request.mRttPeers.get(i).macAddress, results.get(i).getMacAddress());
+        }
+    }
+
     /**
      * Validate that ranging requests from background apps are throttled. The sequence is:
      * - Time 1: Background request -> ok
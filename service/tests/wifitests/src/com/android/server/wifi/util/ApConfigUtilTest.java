@@ -50,6 +50,7 @@ import androidx.test.filters.SmallTest;
 import com.android.modules.utils.build.SdkLevel;
 import com.android.server.wifi.SoftApManager;
 import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.WifiChannelUtilization;
 import com.android.server.wifi.WifiNative;
 import com.android.server.wifi.WifiSettingsConfigStore;
 import com.android.server.wifi.coex.CoexManager;
@@ -511,6 +512,127 @@ public class ApConfigUtilTest extends WifiBaseTest {
                 ApConfigUtil.DEFAULT_AP_CHANNEL, ApConfigUtil.DEFAULT_AP_BAND));
     }
 
+    private static ScanResult createScanResult(int freq, int rssi, int channelUtilization) {
+        ScanResult scanResult = new ScanResult();
+        scanResult.frequency = freq;
+        scanResult.level = rssi;
+        if (channelUtilization >= 0) {
+            ScanResult.InformationElement bssLoad = new ScanResult.InformationElement();
+            bssLoad.id = ScanResult.InformationElement.EID_BSS_LOAD;
+            bssLoad.bytes = new byte[] {0, 0, (byte) channelUtilization, 0, 0};
+            scanResult.informationElements = new ScanResult.InformationElement[] {bssLoad};
+        }
+        return scanResult;
+    }
+
+    /**
+     * Verify the 2G channels are ranked by the BSSs overlapping them, including the BSSs on the
+     * adjacent channels.
+     */
+    @Test
+    public void getLeastInterferedFreqs2GAdjacentChannelOverlap() throws Exception {
+        List<Integer> candidates = Arrays.asList(2412, 2437, 2462); // ch# 1, 6, 11
+        // ch#3 partially overlaps ch#1, ch#10 partially overlaps ch#11 and is stronger.
+        List<ScanResult> scanResults = Arrays.asList(
+                createScanResult(2422, -80, -1),
+                createScanResult(2457, -50, -1));
+        assertEquals(Arrays.asList(2437),
+                ApConfigUtil.getLeastInterferedFreqs(candidates, scanResults, null));
+
+        // A strong BSS on ch#6 makes ch#1 the least interfered channel.
+        scanResults = Arrays.asList(
+                createScanResult(2422, -80, -1),
+                createScanResult(2457, -50, -1),
+                createScanResult(2437, -40, -1));
+        assertEquals(Arrays.asList(2412),
+                ApConfigUtil.getLeastInterferedFreqs(candidates, scanResults, null));
+    }
+
+    /**
+     * Verify the channels overlapped by any part of the bandwidth of a wide BSS are ranked as
+     * interfered, not only its primary channel.
+     */
+    @Test
+    public void getLeastInterferedFreqsWideBandwidthBss() throws Exception {
+        List<Integer> candidates = Arrays.asList(5180, 5200, 5240, 5260); // ch# 36, 40, 48, 52
+        // 80MHz BSS on ch#36-48 with its primary channel on ch#36.
+        ScanResult bss80Mhz = createScanResult(5180, -50, -1);
+        bss80Mhz.channelWidth = ScanResult.CHANNEL_WIDTH_80MHZ;
+        bss80Mhz.centerFreq0 = 5210;
+        assertEquals(Arrays.asList(5260),
+                ApConfigUtil.getLeastInterferedFreqs(candidates, Arrays.asList(bss80Mhz), null));
+
+        // 80+80MHz BSS on ch#36-48 and ch#149-161.
+        candidates = Arrays.asList(5200, 5260, 5765); // ch# 40, 52, 153
+        ScanResult bss80Plus80Mhz = createScanResult(5180, -50, -1);
+        bss80Plus80Mhz.channelWidth = ScanResult.CHANNEL_WIDTH_80MHZ_PLUS_MHZ;
+        bss80Plus80Mhz.centerFreq0 = 5210;
+        bss80Plus80Mhz.centerFreq1 = 5775;
+        assertEquals(Arrays.asList(5260), ApConfigUtil.getLeastInterferedFreqs(
+                candidates, Arrays.asList(bss80Plus80Mhz), null));
+
+        // 320MHz BSS on 6GHz ch#1-61 with its primary channel on ch#1.
+        candidates = Arrays.asList(5955, 6255, 6275); // ch# 1, 61, 65
+        ScanResult bss320Mhz = createScanResult(5955, -50, -1);
+        bss320Mhz.channelWidth = ScanResult.CHANNEL_WIDTH_320MHZ;
+        bss320Mhz.centerFreq0 = 6105;
+        assertEquals(Arrays.asList(6275),
+                ApConfigUtil.getLeastInterferedFreqs(candidates, Arrays.asList(bss320Mhz), null));
+    }
+
+    /**
+     * Verify the channels are ranked by the channel utilization from the BSS Load element and
+     * from the channel utilization history, and that equally interfered channels are all kept.
+     */
+    @Test
+    public void getLeastInterferedFreqsChannelUtilization() throws Exception {
+        List<Integer> candidates = Arrays.asList(5745, 5765, 5785); // ch# 149, 153, 157
+        List<ScanResult> scanResults = Arrays.asList(
+                createScanResult(5745, -70, 200),
+                createScanResult(5765, -70, 10),
+                createScanResult(5785, -70, 10),
+                // The other bands and channels do not overlap the candidates.
+                createScanResult(2462, -30, 255),
+                createScanResult(5825, -30, 255));
+        assertEquals(Arrays.asList(5765, 5785),
+                ApConfigUtil.getLeastInterferedFreqs(candidates, scanResults, null));
+
+        WifiChannelUtilization channelUtilization = mock(WifiChannelUtilization.class);
+        when(channelUtilization.getUtilizationRatio(anyInt()))
+                .thenReturn(InformationElementUtil.BssLoad.INVALID);
+        when(channelUtilization.getUtilizationRatio(5765)).thenReturn(150);
+        assertEquals(Arrays.asList(5785), ApConfigUtil.getLeastInterferedFreqs(
+                candidates, scanResults, channelUtilization));
+    }
+
+    /**
+     * Verify the least interfered safe channel is selected only when enabled by the overlay.
+     */
+    @Test
+    public void chooseApChannelInterferenceAware() throws Exception {
+        mCapability.setSupportedChannelList(SoftApConfiguration.BAND_2GHZ, new int[] {1, 6, 11});
+        List<ScanResult> scanResults = Arrays.asList(
+                createScanResult(2412, -50, -1),
+                createScanResult(2437, -50, -1),
+                createScanResult(2467, -60, -1)); // ch#12 partially overlaps ch#11
+        when(mResources.getBoolean(R.bool.config_wifiSoftApInterferenceAwareChannelSelection))
+                .thenReturn(true);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(2462, ApConfigUtil.chooseApChannel(SoftApConfiguration.BAND_2GHZ,
+                    mCoexManager, mResources, mCapability, scanResults, null));
+        }
+
+        // The coex unsafe channels are not ranked.
+        assumeTrue(SdkLevel.isAtLeastS());
+        when(mCoexManager.getCoexUnsafeChannels()).thenReturn(Arrays.asList(
+                new CoexUnsafeChannel(WifiScanner.WIFI_BAND_24_GHZ, 11)));
+        for (int i = 0; i < 10; i++) {
+            int freq = ApConfigUtil.chooseApChannel(SoftApConfiguration.BAND_2GHZ,
+                    mCoexManager, mResources, mCapability, scanResults, null);
+            assertTrue(freq == 2412 || freq == 2437);
+        }
+    }
+
     /**
      * Verify remove of 6GHz band from multiple band mask, when security type is restricted
      */
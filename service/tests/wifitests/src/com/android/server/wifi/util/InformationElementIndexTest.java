@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.net.wifi.ScanResult.InformationElement;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.util.InformationElementIndex}.
+ */
+@SmallTest
+public class InformationElementIndexTest extends WifiBaseTest {
+    private static final byte[] TEST_IES = new byte[] {
+            // SSID "abc"
+            (byte) 0x00, (byte) 0x03, (byte) 0x61, (byte) 0x62, (byte) 0x63,
+            // BSS Load
+            (byte) 0x0b, (byte) 0x05, (byte) 0x02, (byte) 0x00, (byte) 0x40, (byte) 0x00,
+            (byte) 0x00,
+            // Extension, HE Operation (truncated payload)
+            (byte) 0xff, (byte) 0x03, (byte) 0x24, (byte) 0x01, (byte) 0x02,
+            // Interworking
+            (byte) 0x6b, (byte) 0x01, (byte) 0x03,
+            // Padding that looks like a second SSID
+            (byte) 0x00, (byte) 0x00};
+
+    /**
+     * Verify that the index splits the buffer into the expected elements, keeps the extension id
+     * of extension elements and stops at padding that looks like a second SSID.
+     */
+    @Test
+    public void parseGoldenElements() {
+        InformationElementIndex index = InformationElementIndex.parse(TEST_IES);
+
+        assertEquals(4, index.size());
+        assertElement(index.get(0), InformationElement.EID_SSID, 0,
+                new byte[] {(byte) 0x61, (byte) 0x62, (byte) 0x63});
+        assertElement(index.get(1), InformationElement.EID_BSS_LOAD, 0,
+                new byte[] {(byte) 0x02, (byte) 0x00, (byte) 0x40, (byte) 0x00, (byte) 0x00});
+        assertElement(index.get(2), InformationElement.EID_EXTENSION_PRESENT,
+                InformationElement.EID_EXT_HE_OPERATION, new byte[] {(byte) 0x01, (byte) 0x02});
+        assertElement(index.get(3), InformationElement.EID_INTERWORKING, 0,
+                new byte[] {(byte) 0x03});
+        assertEquals(InformationElement.EID_EXTENSION_PRESENT, index.getId(2));
+        assertEquals(InformationElement.EID_EXT_HE_OPERATION, index.getIdExt(2));
+    }
+
+    /**
+     * Verify that a Multi-Link element split over a Fragment element is reassembled into a
+     * single element, and that parsing resumes after the fragment.
+     */
+    @Test
+    public void parseFragmentedMultiLinkElement() {
+        byte[] firstFragment = new byte[254];
+        for (int i = 0; i < firstFragment.length; i++) {
+            firstFragment[i] = (byte) i;
+        }
+        byte[] secondFragment = new byte[] {
+                (byte) 0x11, (byte) 0x22, (byte) 0x33, (byte) 0x44, (byte) 0x55};
+        ByteArrayOutputStream ies = new ByteArrayOutputStream();
+        // Extension, Multi-Link, first 254 bytes of the payload
+        ies.write(0xff);
+        ies.write(0xff);
+        ies.write(0x6b);
+        ies.write(firstFragment, 0, firstFragment.length);
+        // Fragment, remaining 5 bytes of the payload
+        ies.write(0xf2);
+        ies.write(secondFragment.length);
+        ies.write(secondFragment, 0, secondFragment.length);
+        // Interworking
+        ies.write(0x6b);
+        ies.write(0x01);
+        ies.write(0x03);
+
+        InformationElementIndex index = InformationElementIndex.parse(ies.toByteArray());
+
+        assertEquals(2, index.size());
+        byte[] expectedPayload = new byte[firstFragment.length + secondFragment.length];
+        System.arraycopy(firstFragment, 0, expectedPayload, 0, firstFragment.length);
+        System.arraycopy(secondFragment, 0, expectedPayload, firstFragment.length,
+                secondFragment.length);
+        assertElement(index.get(0), InformationElement.EID_EXTENSION_PRESENT,
+                InformationElement.EID_EXT_MULTI_LINK, expectedPayload);
+        assertElement(index.get(1), InformationElement.EID_INTERWORKING, 0,
+                new byte[] {(byte) 0x03});
+    }
+
+    private static void assertElement(InformationElement ie, int id, int idExt, byte[] bytes) {
+        assertEquals(id, ie.id);
+        assertEquals(idExt, ie.idExt);
+        assertArrayEquals(bytes, ie.bytes);
+    }
+
+    /**
+     * Verify that elements are materialized once and shared with the array view.
+     */
+    @Test
+    public void materializedElementsAreShared() {
+        InformationElementIndex index = InformationElementIndex.parse(TEST_IES);
+        InformationElement bssLoad = index.get(1);
+
+        assertSame(bssLoad, index.get(1));
+        assertSame(bssLoad, index.toArray()[1]);
+    }
+
+    /**
+     * Verify that a null or empty buffer yields an empty index.
+     */
+    @Test
+    public void parseNullAndEmpty() {
+        assertEquals(0, InformationElementIndex.parse(null).size());
+        assertEquals(0, InformationElementIndex.parse(new byte[0]).toArray().length);
+    }
+
+    /**
+     * Verify wrapping materialized elements does not copy them.
+     */
+    @Test
+    public void wrapSharesElements() {
+        InformationElement[] legacy = InformationElementUtil.parseInformationElements(TEST_IES);
+        InformationElementIndex index = InformationElementIndex.wrap(legacy);
+
+        assertEquals(legacy.length, index.size());
+        for (int i = 0; i < legacy.length; i++) {
+            assertSame(legacy[i], index.get(i));
+            assertEquals(legacy[i].id, index.getId(i));
+        }
+    }
+}
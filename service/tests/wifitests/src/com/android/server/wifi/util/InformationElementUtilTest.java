@@ -470,6 +470,11 @@ public class InformationElementUtilTest extends WifiBaseTest {
         String result = capabilities.generateCapabilitiesString();
 
         assertEquals(capsStr, result);
+
+        // The elements of an index are parsed the same way.
+        capabilities = new InformationElementUtil.Capabilities();
+        capabilities.from(InformationElementIndex.wrap(ies), beaconCap, isOweSupported, 2400);
+        assertEquals(capsStr, capabilities.generateCapabilitiesString());
     }
 
     private void verifyCapabilityStringFromIe(
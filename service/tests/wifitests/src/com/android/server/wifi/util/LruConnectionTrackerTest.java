@@ -60,6 +60,31 @@ public class LruConnectionTrackerTest {
         assertEquals(Integer.MAX_VALUE, mList.getAgeIndexOfNetwork(network));
     }
 
+    @Test
+    public void testGenerationChangesOnlyWithOrder() {
+        WifiConfiguration network1 = WifiConfigurationTestUtil.createOpenNetwork();
+        WifiConfiguration network2 = WifiConfigurationTestUtil.createOpenNetwork();
+        int generation = mList.getGeneration();
+        mList.addNetwork(network1);
+        assertNotEquals(generation, mList.getGeneration());
+
+        // Reconnecting to the most recently connected network doesn't change the order.
+        generation = mList.getGeneration();
+        mList.addNetwork(network1);
+        assertEquals(generation, mList.getGeneration());
+        mList.removeNetwork(network2);
+        assertEquals(generation, mList.getGeneration());
+
+        mList.addNetwork(network2);
+        assertNotEquals(generation, mList.getGeneration());
+        generation = mList.getGeneration();
+        mList.addNetwork(network1);
+        assertNotEquals(generation, mList.getGeneration());
+        generation = mList.getGeneration();
+        mList.removeNetwork(network2);
+        assertNotEquals(generation, mList.getGeneration());
+    }
+
     @Test
     public void testConnectionOrderStore() {
         WifiConfiguration network1 = WifiConfigurationTestUtil.createOpenNetwork();
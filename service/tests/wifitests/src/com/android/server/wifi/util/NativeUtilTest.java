@@ -241,6 +241,30 @@ public class NativeUtilTest extends WifiBaseTest {
         assertEquals(ssid, NativeUtil.encodeSsid(NativeUtil.decodeSsid(ssid)));
     }
 
+    /**
+     * Test that the byte array ssid conversions match the byte array list ones.
+     */
+    @Test
+    public void testSsidByteArrayEncodeDecode() throws Exception {
+        for (String ssid : new String[] {"\"ssid_test123\"", "\"AndroidAPください\"",
+                "f5e4ab78ab3432439a", "007369645f74657374313233"}) {
+            byte[] ssidBytes = NativeUtil.decodeSsidToByteArray(ssid);
+            assertArrayEquals(NativeUtil.byteArrayFromArrayList(NativeUtil.decodeSsid(ssid)),
+                    ssidBytes);
+            assertEquals(ssid, NativeUtil.encodeSsid(ssidBytes));
+        }
+        try {
+            NativeUtil.decodeSsidToByteArray("\"asdrewqdfgyuiopldsqwertyuiolhdergcv\"");
+            fail("Expected ssid decode to fail");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            NativeUtil.decodeSsidToByteArray("\"\ud800\"");
+            fail("Expected ssid decode to fail");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     /**
      * Test that the enclosing quotes are removed properly.
      */
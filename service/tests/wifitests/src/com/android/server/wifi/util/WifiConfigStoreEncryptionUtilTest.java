@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.validateMockitoUsage;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.security.keystore.AndroidKeyStoreProvider;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.dx.mockito.inline.extended.ExtendedMockito;
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.MockitoSession;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Unit tests for {@link WifiConfigStoreEncryptionUtil}.
+ */
+@SmallTest
+public class WifiConfigStoreEncryptionUtilTest extends WifiBaseTest {
+    private static final String TEST_DATA_FILE_NAME = "/data/misc/wifi/WifiConfigStore.xml";
+    private static final byte[] TEST_DATA = "credential".getBytes(StandardCharsets.UTF_8);
+
+    @Mock private KeyStore mKeyStore;
+    private MockitoSession mSession;
+
+    private static KeyStore.SecretKeyEntry createSecretKeyEntry(int seed) {
+        byte[] key = new byte[32];
+        key[0] = (byte) seed;
+        return new KeyStore.SecretKeyEntry(new SecretKeySpec(key, "AES"));
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mSession = ExtendedMockito.mockitoSession()
+                .mockStatic(AndroidKeyStoreProvider.class, withSettings().lenient())
+                .startMocking();
+        when(AndroidKeyStoreProvider.getKeyStoreForUid(anyInt())).thenReturn(mKeyStore);
+        when(mKeyStore.containsAlias(anyString())).thenReturn(true);
+    }
+
+    @After
+    public void cleanup() {
+        validateMockitoUsage();
+        if (mSession != null) {
+            mSession.finishMocking();
+        }
+    }
+
+    /**
+     * Verify that the cached key is dropped when it no longer works, e.g. after the key was
+     * regenerated, and that the operation is retried once with the key looked up again.
+     */
+    @Test
+    public void testRetryWithNewKeyAfterCachedKeyFails() throws Exception {
+        when(mKeyStore.getEntry(anyString(), any())).thenReturn(createSecretKeyEntry(1));
+        WifiConfigStoreEncryptionUtil encryptionUtil =
+                new WifiConfigStoreEncryptionUtil(TEST_DATA_FILE_NAME);
+        assertNotNull(encryptionUtil.encrypt(TEST_DATA));
+
+        // The key is regenerated and the data is encrypted with the new key.
+        when(mKeyStore.getEntry(anyString(), any())).thenReturn(createSecretKeyEntry(2));
+        EncryptedData encryptedData =
+                new WifiConfigStoreEncryptionUtil(TEST_DATA_FILE_NAME).encrypt(TEST_DATA);
+        assertNotNull(encryptedData);
+
+        assertArrayEquals(TEST_DATA, encryptionUtil.decrypt(encryptedData));
+        verify(mKeyStore, times(3)).getEntry(anyString(), any());
+
+        // The new key is kept.
+        assertArrayEquals(TEST_DATA, encryptionUtil.decrypt(encryptedData));
+        verify(mKeyStore, times(3)).getEntry(anyString(), any());
+    }
+}